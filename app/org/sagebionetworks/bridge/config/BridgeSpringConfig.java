@@ -6,8 +6,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 
@@ -18,6 +22,8 @@ import com.amazonaws.services.datapipeline.DataPipelineClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClient;
@@ -27,6 +33,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.sagebionetworks.bridge.dynamodb.AnnotationBasedTableCreator;
 import org.sagebionetworks.bridge.dynamodb.DynamoCompoundActivityDefinition;
@@ -59,6 +66,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoIndexHelper;
 import org.sagebionetworks.bridge.dynamodb.DynamoParticipantOptions;
 import org.sagebionetworks.bridge.dynamodb.DynamoReportData;
 import org.sagebionetworks.bridge.dynamodb.DynamoReportIndex;
+import org.sagebionetworks.bridge.dynamodb.DynamoReportRollup;
 import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudyConsent1;
 import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
@@ -72,6 +80,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoFPHSExternalIdentifier;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadDedupe;
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadValidationWorkItem;
 import org.sagebionetworks.bridge.dynamodb.DynamoUtils;
 import org.sagebionetworks.bridge.hibernate.HibernateAccount;
 import org.sagebionetworks.bridge.hibernate.HibernateSharedModuleMetadata;
@@ -249,6 +258,84 @@ public class BridgeSpringConfig {
         return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("async.worker.thread.count"));
     }
 
+    @Bean(name = "uploadAttachmentExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService uploadAttachmentExecutorService(BridgeConfig bridgeConfig) {
+        // Separate from the async executor, since upload validation runs on the async executor and waits on these.
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("upload.attachment.thread.count"));
+    }
+
+    @Bean(name = "healthDataLoadExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService healthDataLoadExecutorService(BridgeConfig bridgeConfig) {
+        // Separate from the async executor, so a large export can't starve upload validation.
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("health.data.load.thread.count"),
+                new ThreadFactoryBuilder().setNameFormat("health-data-load-%d").build());
+    }
+
+    @Bean(name = "userDataPurgeExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService userDataPurgeExecutorService(BridgeConfig bridgeConfig) {
+        // Each user deletion runs one task per table, so this bounds how many tables are being purged at once.
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("user.data.purge.thread.count"),
+                new ThreadFactoryBuilder().setNameFormat("user-data-purge-%d").build());
+    }
+
+    @Bean(name = "accountCountExecutorService")
+    public ExecutorService accountCountExecutorService() {
+        // Only one thread is needed. Cached account counts are refreshed one at a time, and callers get the old count
+        // while they wait.
+        return Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("account-count-%d")
+                .build());
+    }
+
+    @Bean(name = "passwordHashExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ThreadPoolExecutor passwordHashExecutorService(BridgeConfig bridgeConfig) {
+        // Separate from the request threads, so a sign-in storm can't starve other calls. The queue is bounded, so
+        // when hashing falls behind, callers are turned away instead of piling up.
+        int threadCount = bridgeConfig.getPropertyAsInt("password.hash.thread.count");
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(bridgeConfig.getPropertyAsInt("password.hash.max.queue.size")),
+                new ThreadFactoryBuilder().setNameFormat("password-hash-%d").build());
+    }
+
+    @Bean(name = "passwordHashMetricsExecutor")
+    public ScheduledExecutorService passwordHashMetricsExecutor() {
+        // Only one thread is needed, to periodically log password hash pool metrics.
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Bean(name = "uploadValidationRedriveExecutor")
+    public ScheduledExecutorService uploadValidationRedriveExecutor() {
+        // Only one thread is needed. This thread only finds stalled validations, hands them off to the async
+        // executor, and logs queue metrics.
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Bean(name = "uploadDuplicateDetectorExecutor")
+    public ScheduledExecutorService uploadDuplicateDetectorExecutor() {
+        // Duplicate detection is informational only, so run it on a single low-priority thread, to stay out of the
+        // way of upload validation.
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("upload-duplicate-detector-%d").setPriority(Thread.MIN_PRIORITY).build());
+    }
+
+    @Bean(name = "healthDataRecordBatchWriterExecutor")
+    public ScheduledExecutorService healthDataRecordBatchWriterExecutor() {
+        // Only one thread is needed. It writes batches of up to 25 records, and validation threads wait on it.
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("health-data-record-batch-writer-%d").build());
+    }
+
+    @Bean(name = "reportRollupExecutor")
+    public ScheduledExecutorService reportRollupExecutor() {
+        // Only one thread is needed. Each write schedules at most one recompute per bucket, and each recompute reads
+        // at most a month of report data.
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("report-rollup-%d").build());
+    }
+
     @Bean(name = "supportEmail")
     @Resource(name = "bridgeConfig")
     public String supportEmail(BridgeConfig bridgeConfig) {
@@ -297,12 +384,25 @@ public class BridgeSpringConfig {
         return dynamoUtils.getMapper(DynamoReportIndex.class);
     }
     
+    @Bean(name = "reportRollupMapper")
+    @Autowired
+    public DynamoDBMapper reportRollupMapper(DynamoUtils dynamoUtils) {
+        return dynamoUtils.getMapper(DynamoReportRollup.class);
+    }
+    
     @Bean(name = "healthDataDdbMapper")
     @Autowired
     public DynamoDBMapper healthDataDdbMapper(DynamoUtils dynamoUtils) {
         return dynamoUtils.getMapper(DynamoHealthDataRecord.class);
     }
 
+    @Bean(name = "healthDataDdbTable")
+    @Autowired
+    public Table healthDataDdbTable(AmazonDynamoDBClient dynamoDBClient, DynamoNamingHelper dynamoNamingHelper) {
+        return new DynamoDB(dynamoDBClient).getTable(dynamoNamingHelper.getFullyQualifiedTableName(
+                DynamoHealthDataRecord.class));
+    }
+
     @Bean(name = "activityEventDdbMapper")
     @Autowired
     public DynamoDBMapper activityEventDdbMapper(DynamoUtils dynamoUtils) {
@@ -428,6 +528,12 @@ public class BridgeSpringConfig {
         return dynamoUtils.getMapper(DynamoUploadDedupe.class);
     }
     
+    @Bean(name = "uploadValidationQueueDdbMapper")
+    @Autowired
+    public DynamoDBMapper uploadValidationQueueDdbMapper(DynamoUtils dynamoUtils) {
+        return dynamoUtils.getMapper(DynamoUploadValidationWorkItem.class);
+    }
+
     @Bean(name = "fphsExternalIdDdbMapper")
     @Autowired
     public DynamoDBMapper fphsExternalIdDdbMapper(DynamoUtils dynamoUtils) {
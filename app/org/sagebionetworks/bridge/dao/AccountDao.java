@@ -4,6 +4,7 @@ import java.util.Iterator;
 
 import org.joda.time.DateTime;
 
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
@@ -124,6 +125,38 @@ public interface AccountDao {
      */
     PagedResourceList<AccountSummary> getPagedAccountSummaries(Study study, int offsetBy, int pageSize,
             String emailFilter, DateTime startDate, DateTime endDate);
+
+    /**
+     * Get a page of lightweight account summaries, like {@link #getPagedAccountSummaries}, but paged with an offset 
+     * key instead of an index, which stays fast for deep pages in large studies. Doesn't include the total number of 
+     * records.
+     * @param study
+     *      retrieve participants in this study
+     * @param offsetKey
+     *      the offset key returned with the previous page, or null for the first page
+     * @param pageSize
+     *      number of records to return (or the number of remaining records if less than the pageSize).
+     * @param emailPrefix
+     *      a prefix that will be matched (ignoring case) against the email addresses of the accounts.
+     * @param startDate
+     *      a date and time on or after which the account should have been created in order to match the query.
+     * @param endDate
+     *      a date and time on or before which the account should have been created in order to match the query.
+     * @return
+     *      a paged resource list that includes the page of account summaries, and the offset key of the next page.
+     */
+    ForwardCursorPagedResourceList<AccountSummary> getPagedAccountSummariesV4(Study study, String offsetKey,
+            int pageSize, String emailPrefix, DateTime startDate, DateTime endDate);
+
+    /**
+     * Count the accounts in a study. Unlike the total in {@link #getPagedAccountSummaries}, this is never cached, so
+     * it can be used to enforce the study's account limit.
+     * @param study
+     *      count accounts in this study
+     * @return
+     *      the number of accounts in the study
+     */
+    int getStudyAccountCount(Study study);
     
     /**
      * For MailChimp, and other external systems, we need a way to get a healthCode for a given email.
@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
 import javax.annotation.Nonnull;
 
 import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
@@ -18,6 +19,16 @@ public interface HealthDataAttachmentDao {
      */
     String createOrUpdateAttachment(@Nonnull HealthDataAttachment attachment);
 
+    /**
+     * Batch version of {@link #createOrUpdateAttachment}. Attachments without IDs are assigned new IDs. All
+     * attachments are written in as few calls to the backing store as possible.
+     *
+     * @param attachmentList
+     *         attachment objects to create or update
+     * @return IDs of the created or updated attachments, in the same order as the attachment list
+     */
+    List<String> createOrUpdateAttachments(@Nonnull List<HealthDataAttachment> attachmentList);
+
     /** Gets a builder instance, used for building prototype health data records for create or update. */
     HealthDataAttachmentBuilder getRecordBuilder();
 }
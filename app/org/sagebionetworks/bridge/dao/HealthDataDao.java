@@ -1,8 +1,10 @@
 package org.sagebionetworks.bridge.dao;
 
 import javax.annotation.Nonnull;
+import java.util.Iterator;
 import java.util.List;
 
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 
@@ -28,6 +30,12 @@ public interface HealthDataDao {
      */
     int deleteRecordsForHealthCode(@Nonnull String healthCode);
 
+    /**
+     * Same as {@link #deleteRecordsForHealthCode(String)}, but calls onPageDeleted after each page of records is
+     * deleted, so long deletions can report progress.
+     */
+    int deleteRecordsForHealthCode(@Nonnull String healthCode, @Nonnull Runnable onPageDeleted);
+
     /**
      * DAO method used by worker apps to fetch a health data record by the record ID.
      *
@@ -47,6 +55,45 @@ public interface HealthDataDao {
      */
     List<HealthDataRecord> getRecordsForUploadDate(@Nonnull String uploadDate);
 
+    /**
+     * DAO method used by worker apps to query a single page of health data records uploaded for a specific date.
+     * Records within a page are in no particular order.
+     *
+     * @param uploadDate
+     *         upload date in YYYY-MM-DD format, must be non-null, non-empty, and must represent a valid date
+     * @param pageSize
+     *         max number of records to return
+     * @param offsetKey
+     *         offset key from the previous page, or null to get the first page
+     * @return page of health records uploaded on that date
+     */
+    ForwardCursorPagedResourceList<HealthDataRecord> getRecordsForUploadDate(@Nonnull String uploadDate,
+            int pageSize, String offsetKey);
+
+    /**
+     * DAO method used by worker apps to iterate over all health data records uploaded for a specific date, generally
+     * used for export. Unlike {@link #getRecordsForUploadDate(String)}, records are fetched a page at a time as the
+     * iterator is consumed, so this is safe to use for busy days.
+     *
+     * @param uploadDate
+     *         upload date in YYYY-MM-DD format, must be non-null, non-empty, and must represent a valid date
+     * @return iterator over all health records uploaded on that date
+     */
+    Iterator<HealthDataRecord> getRecordIteratorForUploadDate(@Nonnull String uploadDate);
+
+    /**
+     * DAO method used by worker apps to set the Synapse exporter status on a batch of health data records, generally
+     * after export. Only the exporter status is written. The rest of each record is left as is.
+     *
+     * @param recordIds
+     *         IDs of the records to update, must be non-null
+     * @param synapseExporterStatus
+     *         exporter status to set, must be non-null
+     * @return IDs of the updated records, in the same order as recordIds
+     */
+    List<String> updateExporterStatus(@Nonnull List<String> recordIds,
+            @Nonnull HealthDataRecord.ExporterStatus synapseExporterStatus);
+
     /**
      * Gets a builder instance, used for building prototype health data records. This is generally used by worker apps
      * to unpack uploads.
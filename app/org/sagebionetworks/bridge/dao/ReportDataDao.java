@@ -1,10 +1,14 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+
 import org.joda.time.LocalDate;
 
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 
 public interface ReportDataDao {
     /**
@@ -20,6 +24,30 @@ public interface ReportDataDao {
      */
     DateRangeResourceList<? extends ReportData> getReportData(ReportDataKey key, LocalDate startDate, LocalDate endDate);
 
+    /**
+     * Get a single page of report data records for the given date range, in date order.
+     *
+     * @param key
+     *         the key for this report
+     * @param startDate
+     *         start date for report
+     * @param endDate
+     *         end date for report
+     * @param pageSize
+     *         max number of records to return
+     * @param offsetKey
+     *         offset key from the previous page, or null to get the first page
+     * @return page of report data records, with an offset key to the next page if there may be more records
+     */
+    ForwardCursorPagedResourceList<ReportData> getReportDataV4(ReportDataKey key, LocalDate startDate,
+            LocalDate endDate, int pageSize, String offsetKey);
+
+    /**
+     * Same as {@link #getReportDataV4}, but only reads the date and data size of each record, not the data.
+     */
+    ForwardCursorPagedResourceList<ReportDataSummary> getReportDataSummariesV4(ReportDataKey key,
+            LocalDate startDate, LocalDate endDate, int pageSize, String offsetKey);
+
     /**
      * Writes a report data record to the backing store. 
      *
@@ -28,6 +56,17 @@ public interface ReportDataDao {
      */
     void saveReportData(ReportData reportData);
     
+    /**
+     * Writes many report data records to the backing store in batches. Records that couldn't be written, even after
+     * retries, are returned, so the caller can report them. Each record must already have its key, and a key and date
+     * must not appear twice in the list.
+     *
+     * @param reportDataList
+     *         report data objects to write
+     * @return report data objects that weren't written, empty if everything was written
+     */
+    List<ReportData> saveReportDataBatch(List<ReportData> reportDataList);
+
     /***
      * Delete all records regardless of date for a report. This can be used as part of testing, 
      * and in development, but there will be too many records in production to do a deletion.
@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Collection;
 
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
@@ -21,6 +22,12 @@ public interface ReportIndexDao {
      */
     void addIndex(ReportDataKey key);
     
+    /**
+     * Add index items for several reports at once, as part of a bulk report upload. Keys that share an index are only
+     * written once, and indices that already exist are left as is.
+     */
+    void addIndices(Collection<ReportDataKey> keys);
+    
     /**
      * Update an existing index metadata.
      */
@@ -34,7 +41,8 @@ public interface ReportIndexDao {
     void removeIndex(ReportDataKey key);
     
     /**
-     * Get all the identifiers for a study, for either study or participant reports.
+     * Get all the identifiers for a study, for either study or participant reports. Listings may be cached for up to a
+     * minute, so indices added or removed through another server can take that long to show up.
      */
     ReportTypeResourceList<? extends ReportIndex> getIndices(StudyIdentifier studyId, ReportType type);
     
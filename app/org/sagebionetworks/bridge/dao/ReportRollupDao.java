@@ -0,0 +1,74 @@
+package org.sagebionetworks.bridge.dao;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
+
+public interface ReportRollupDao {
+    /**
+     * Get the rollups of a report for every bucket that starts in the given date range, in date order.
+     *
+     * @param key
+     *         the key for this report
+     * @param period
+     *         rollup period
+     * @param startDate
+     *         earliest bucket start date
+     * @param endDate
+     *         latest bucket start date
+     * @return list of rollups in a resource list that includes original query values.
+     */
+    DateRangeResourceList<? extends ReportRollup> getRollups(ReportDataKey key, ReportRollupPeriod period,
+            LocalDate startDate, LocalDate endDate);
+
+    /**
+     * Get a single rollup.
+     *
+     * @param key
+     *         the key for this report
+     * @param period
+     *         rollup period
+     * @param startDate
+     *         start date of the bucket
+     * @return the rollup, or null if there isn't one
+     */
+    ReportRollup getRollup(ReportDataKey key, ReportRollupPeriod period, LocalDate startDate);
+
+    /**
+     * Writes a rollup, replacing the rollup for the same report, period, and bucket start date, if there is one. The
+     * rollup's version must match the stored rollup's version (null if there isn't one), otherwise this throws a
+     * ConcurrentModificationException.
+     *
+     * @param key
+     *         the key for this report
+     * @param period
+     *         rollup period
+     * @param rollup
+     *         rollup to write, with its start date
+     */
+    void saveRollup(ReportDataKey key, ReportRollupPeriod period, ReportRollup rollup);
+
+    /**
+     * Delete a single rollup. If the stored rollup's version doesn't match, this throws a
+     * ConcurrentModificationException.
+     *
+     * @param key
+     *         the key for this report
+     * @param period
+     *         rollup period
+     * @param rollup
+     *         rollup to delete, as read by {@link #getRollup}
+     */
+    void deleteRollup(ReportDataKey key, ReportRollupPeriod period, ReportRollup rollup);
+
+    /**
+     * Delete all rollups of all periods for a report.
+     *
+     * @param key
+     *         report to delete rollups for
+     */
+    void deleteRollups(ReportDataKey key);
+}
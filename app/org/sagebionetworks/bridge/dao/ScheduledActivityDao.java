@@ -45,5 +45,11 @@ public interface ScheduledActivityDao {
      * and update it. 
      */
     void deleteActivitiesForUser(String healthCode);
+
+    /**
+     * Same as {@link #deleteActivitiesForUser(String)}, but calls onPageDeleted after each page of activities is
+     * deleted, so long deletions can report progress.
+     */
+    void deleteActivitiesForUser(String healthCode, Runnable onPageDeleted);
     
 }
@@ -85,4 +85,10 @@ public interface UploadDao {
      *      the health code of the user being deleted.  
      */
     void deleteUploadsForHealthCode(@Nonnull String healthCode);
+
+    /**
+     * Same as {@link #deleteUploadsForHealthCode(String)}, but calls onPageDeleted after each page of uploads is
+     * deleted, so long deletions can report progress.
+     */
+    void deleteUploadsForHealthCode(@Nonnull String healthCode, @Nonnull Runnable onPageDeleted);
 }
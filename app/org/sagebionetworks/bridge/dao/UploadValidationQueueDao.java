@@ -0,0 +1,63 @@
+package org.sagebionetworks.bridge.dao;
+
+import java.util.List;
+import javax.annotation.Nonnull;
+
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.upload.UploadValidationWorkItem;
+
+/**
+ * Durable work queue for upload validation. Every node's validation workers claim work items using time-limited
+ * leases, so that validation requests survive node restarts and stalled validations can be re-driven by any node.
+ */
+public interface UploadValidationQueueDao {
+    /**
+     * Adds a work item for the given upload to the queue. The new work item has no lease and can be claimed
+     * immediately. If a work item already exists for the upload, it is reset so it can be claimed again.
+     *
+     * @param studyId
+     *         study the upload lives in
+     * @param uploadId
+     *         upload to validate
+     */
+    void enqueue(@Nonnull StudyIdentifier studyId, @Nonnull String uploadId);
+
+    /**
+     * Attempts to claim the lease on the given upload's work item. This succeeds only if the work item exists and has
+     * no unexpired lease. Claims are atomic across nodes; if two workers race for the same work item, at most one of
+     * them wins.
+     *
+     * @param uploadId
+     *         upload whose work item to claim
+     * @param leaseOwner
+     *         identifier of the worker claiming the lease
+     * @param leaseDurationMillis
+     *         how long the lease lasts before the work item can be claimed by another worker
+     * @return true if the lease was claimed, false otherwise
+     */
+    boolean claimLease(@Nonnull String uploadId, @Nonnull String leaseOwner, long leaseDurationMillis);
+
+    /**
+     * Removes the work item for the given upload from the queue. This is called when validation completes (whether
+     * validation succeeded or failed). This is a no-op if the work item doesn't exist, or if its lease is now held by
+     * another worker (for example, because our lease expired and the work item was re-driven).
+     *
+     * @param uploadId
+     *         upload whose work item to remove
+     * @param leaseOwner
+     *         identifier of the worker that claimed the lease
+     */
+    void completeWorkItem(@Nonnull String uploadId, @Nonnull String leaseOwner);
+
+    /**
+     * Returns work items whose lease has expired, or which were never claimed and have been in the queue for at least
+     * the given grace period. These are work items that were lost or stalled and need to be re-driven.
+     *
+     * @param gracePeriodMillis
+     *         how long an unclaimed work item can sit in the queue before it's considered stalled
+     * @param limit
+     *         maximum number of work items to return in a single call
+     * @return list of stalled work items, may be empty
+     */
+    List<? extends UploadValidationWorkItem> getStalledWorkItems(long gracePeriodMillis, int limit);
+}
@@ -0,0 +1,145 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverter;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.commons.codec.binary.Base64;
+
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * <p>
+ * Like {@link JsonNodeMarshaller}, except large JSON is stored compressed. Compressed values are the JSON bytes,
+ * deflated, then Base64 encoded, with {@link #COMPRESSED_PREFIX} in front. The prefix can't start JSON text, so values
+ * written by JsonNodeMarshaller (or small values written by this marshaller) are still read as plain JSON.
+ * </p>
+ * <p>
+ * The attribute stays a DynamoDB string, so switching an attribute to this marshaller doesn't change its type and
+ * existing items keep working.
+ * </p>
+ * <p>
+ * Compressed values are always read, but they're only written if {@link #CONFIG_KEY_WRITE_ENABLED} is true. Anything
+ * that reads these tables outside of the mapper (such as the exporter) needs to read compressed values before writes
+ * are turned on.
+ * </p>
+ */
+public class CompressedJsonNodeMarshaller implements DynamoDBTypeConverter<String, JsonNode> {
+    /** Marks a compressed value. JSON text can't start with a tilde. */
+    public static final String COMPRESSED_PREFIX = "~z1:";
+
+    /**
+     * JSON smaller than this is stored as plain text. Below this, Base64 overhead eats most of the savings, and plain
+     * text is easier to read in the DynamoDB console.
+     */
+    public static final int MIN_COMPRESSED_SIZE = 1024;
+
+    /** Config key for writing compressed values. Off by default, so compressed values are only read. */
+    public static final String CONFIG_KEY_WRITE_ENABLED = "dynamodb.compressed.json.write.enabled";
+
+    private static final boolean WRITE_ENABLED = Boolean.parseBoolean(BridgeConfigFactory.getConfig().getProperty(
+            CONFIG_KEY_WRITE_ENABLED));
+
+    private final boolean writeEnabled;
+
+    /** Constructor used by the DynamoDB mapper. Writes compressed values only if the config says to. */
+    public CompressedJsonNodeMarshaller() {
+        this(WRITE_ENABLED);
+    }
+
+    /** Package-scoped constructor, so unit tests can turn compressed writes on and off. */
+    CompressedJsonNodeMarshaller(boolean writeEnabled) {
+        this.writeEnabled = writeEnabled;
+    }
+
+    /** True if compressed writes are turned on in the config. */
+    public static boolean isWriteEnabled() {
+        return WRITE_ENABLED;
+    }
+
+    /**
+     * True if the given JSON would be written compressed when compressed writes are on, that is, if it's large enough
+     * and compressing it makes it smaller. Used by the backfill to skip items that are already stored as well as
+     * they can be.
+     */
+    public static boolean isCompressible(JsonNode node) {
+        if (node == null) {
+            return false;
+        }
+        byte[] jsonBytes = toJsonBytes(node);
+        return isCompressed(encode(jsonBytes, new String(jsonBytes, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public String convert(JsonNode node) {
+        byte[] jsonBytes = toJsonBytes(node);
+        String jsonText = new String(jsonBytes, StandardCharsets.UTF_8);
+        if (!writeEnabled) {
+            return jsonText;
+        }
+        return encode(jsonBytes, jsonText);
+    }
+
+    @Override
+    public JsonNode unconvert(String data) {
+        try {
+            if (isCompressed(data)) {
+                byte[] deflatedBytes = Base64.decodeBase64(data.substring(COMPRESSED_PREFIX.length()));
+                try (InputStream inflaterStream = new InflaterInputStream(new ByteArrayInputStream(deflatedBytes))) {
+                    return BridgeObjectMapper.get().readTree(inflaterStream);
+                }
+            }
+            return BridgeObjectMapper.get().readTree(data);
+        } catch (IOException ex) {
+            throw new DynamoDBMappingException(ex);
+        }
+    }
+
+    /** True if the given raw attribute value was written compressed. */
+    public static boolean isCompressed(String data) {
+        return data != null && data.startsWith(COMPRESSED_PREFIX);
+    }
+
+    // Returns the compressed value if the JSON is large enough and compressing makes it smaller, or the plain text
+    // otherwise.
+    private static String encode(byte[] jsonBytes, String jsonText) {
+        if (jsonBytes.length < MIN_COMPRESSED_SIZE) {
+            return jsonText;
+        }
+
+        String compressed = COMPRESSED_PREFIX + Base64.encodeBase64String(deflate(jsonBytes));
+        return compressed.length() < jsonText.length() ? compressed : jsonText;
+    }
+
+    private static byte[] toJsonBytes(JsonNode node) {
+        try {
+            return BridgeObjectMapper.get().writeValueAsBytes(node);
+        } catch (IOException ex) {
+            throw new DynamoDBMappingException(ex);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(data.length / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(byteStream, deflater)) {
+            deflaterStream.write(data);
+        } catch (IOException ex) {
+            // ByteArrayOutputStream doesn't throw.
+            throw new DynamoDBMappingException(ex);
+        } finally {
+            // DeflaterOutputStream doesn't release a deflater it was given. Release its native memory now.
+            deflater.end();
+        }
+        return byteStream.toByteArray();
+    }
+}
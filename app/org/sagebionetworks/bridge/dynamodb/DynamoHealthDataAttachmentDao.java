@@ -1,9 +1,13 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
 
@@ -26,6 +30,37 @@ public class DynamoHealthDataAttachmentDao implements HealthDataAttachmentDao {
     /** {@inheritDoc} */
     @Override
     public String createOrUpdateAttachment(@Nonnull HealthDataAttachment attachment) {
+        DynamoHealthDataAttachment dynamoAttachment = assignId(attachment);
+
+        // persist to DDB
+        mapper.save(dynamoAttachment);
+        return dynamoAttachment.getId();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> createOrUpdateAttachments(@Nonnull List<HealthDataAttachment> attachmentList) {
+        if (attachmentList.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        List<DynamoHealthDataAttachment> dynamoAttachmentList = new ArrayList<>();
+        List<String> attachmentIdList = new ArrayList<>();
+        for (HealthDataAttachment oneAttachment : attachmentList) {
+            DynamoHealthDataAttachment dynamoAttachment = assignId(oneAttachment);
+            dynamoAttachmentList.add(dynamoAttachment);
+            attachmentIdList.add(dynamoAttachment.getId());
+        }
+
+        // persist to DDB. The mapper splits this into batches of 25, as required by DDB.
+        List<FailedBatch> failures = mapper.batchSave(dynamoAttachmentList);
+        BridgeUtils.ifFailuresThrowException(failures);
+        return attachmentIdList;
+    }
+
+    // Helper method which casts the attachment to the DDB implementation and assigns an ID if it doesn't already have
+    // one.
+    private static DynamoHealthDataAttachment assignId(HealthDataAttachment attachment) {
         DynamoHealthDataAttachment dynamoAttachment = (DynamoHealthDataAttachment) attachment;
 
         if (StringUtils.isBlank(dynamoAttachment.getId())) {
@@ -33,10 +68,7 @@ public class DynamoHealthDataAttachmentDao implements HealthDataAttachmentDao {
             String id = BridgeUtils.generateGuid();
             dynamoAttachment.setId(id);
         }
-
-        // persist to DDB
-        mapper.save(dynamoAttachment);
-        return dynamoAttachment.getId();
+        return dynamoAttachment;
     }
 
     /** {@inheritDoc} */
@@ -1,35 +1,94 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import static org.sagebionetworks.bridge.dynamodb.DynamoExternalIdDao.PAGE_SIZE_ERROR;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.collect.ImmutableMap;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.HealthDataDao;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.NotFoundException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /** DynamoDB implementation of {@link org.sagebionetworks.bridge.dao.HealthDataDao}. */
 @Component
 public class DynamoHealthDataDao implements HealthDataDao {
+    private static final Logger logger = LoggerFactory.getLogger(DynamoHealthDataDao.class);
+
     private static final long CREATED_ON_OFFSET_MILLIS = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
 
+    // package-scoped to be available in unit tests
+    static final int ITERATOR_PAGE_SIZE = 100;
+    static final int ITERATOR_MAX_PAGES_IN_FLIGHT = 4;
+    static final int DELETE_PAGE_SIZE = 100;
+
+    private static final String KEY_HEALTH_CODE = "healthCode";
+    private static final String KEY_ID = "id";
+    private static final String KEY_SYNAPSE_EXPORTER_STATUS = "synapseExporterStatus";
+    private static final String KEY_UPLOAD_DATE = "uploadDate";
+    private static final String KEY_VERSION = "version";
+
+    // Sets only the exporter status. Bumping the version means a concurrent mapper save of a stale copy of the record
+    // fails its version check instead of silently reverting the status.
+    private static final String EXPORTER_STATUS_UPDATE_EXPRESSION = "SET #status = :status ADD #version :one";
+    private static final String RECORD_EXISTS_CONDITION = "attribute_exists(#id)";
+
+    private HealthDataRecordBatchWriter batchWriter;
+    private ExecutorService loadExecutorService;
     private DynamoDBMapper mapper;
     private DynamoIndexHelper healthCodeIndex;
     private DynamoIndexHelper uploadDateIndex;
+    private Table table;
+
+    /** Batch writer, used to coalesce writes of new records. This is configured by Spring. */
+    @Autowired
+    public void setBatchWriter(HealthDataRecordBatchWriter batchWriter) {
+        this.batchWriter = batchWriter;
+    }
+
+    /**
+     * Executor used to load pages of records in parallel when iterating over records for an upload date. This is
+     * configured by Spring.
+     */
+    @Resource(name = "healthDataLoadExecutorService")
+    public void setLoadExecutorService(ExecutorService loadExecutorService) {
+        this.loadExecutorService = loadExecutorService;
+    }
 
     /** DynamoDB mapper for the HealthDataRecord table. This is configured by Spring. */
     @Resource(name = "healthDataDdbMapper")
@@ -37,6 +96,15 @@ public class DynamoHealthDataDao implements HealthDataDao {
         this.mapper = mapper;
     }
 
+    /**
+     * HealthDataRecord table, used for updates that only touch some attributes, which the mapper can't do. This is
+     * configured by Spring.
+     */
+    @Resource(name = "healthDataDdbTable")
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
     /**
      * DynamoDB Index reference for the healthCode index. This is needed because the DynamoDB mapper does allow queries
      * using global secondary indices. This is configured by Spring
@@ -60,29 +128,93 @@ public class DynamoHealthDataDao implements HealthDataDao {
     public String createOrUpdateRecord(@Nonnull HealthDataRecord record) {
         DynamoHealthDataRecord dynamoRecord = (DynamoHealthDataRecord) record;
 
-        if (StringUtils.isBlank(dynamoRecord.getId())) {
+        boolean isNew = StringUtils.isBlank(dynamoRecord.getId());
+        if (isNew) {
             // This record doesn't have its ID assigned yet (new record). Create an ID and assign it.
             String id = BridgeUtils.generateGuid();
             dynamoRecord.setId(id);
         }
 
         // persist to DDB
+        if (isNew && batchWriter != null && batchWriter.isEnabled()) {
+            // Batch writes skip the version check. This is safe for new records, since nothing else has their ID.
+            return waitForBatchWrite(dynamoRecord, batchWriter.submit(dynamoRecord));
+        }
         mapper.save(dynamoRecord);
         return dynamoRecord.getId();
     }
 
+    // Waits for the batch writer to write a new record. If the batch writer is backed up, or its flush thread is
+    // stuck, we stop waiting after its max wait and write the record directly.
+    private String waitForBatchWrite(DynamoHealthDataRecord record, Future<String> writeFuture) {
+        try {
+            writeFuture.get(batchWriter.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            if (writeFuture.cancel(false)) {
+                // The batch writer skips cancelled writes, unless the batch was already being written.
+                logger.warn("Timed out waiting for batched write of health data record " + record.getId() +
+                        ", writing directly");
+                record.setVersion(null);
+                try {
+                    mapper.save(record);
+                } catch (ConditionalCheckFailedException ccfEx) {
+                    // A batch that was already in flight wrote the record first.
+                }
+                return record.getId();
+            }
+            // Otherwise, the write finished just as we timed out.
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Interrupted waiting for health data record write", ex);
+        } catch (ExecutionException ex) {
+            // waitForWrite() rethrows the cause.
+        }
+
+        // The future is done, so this doesn't block.
+        return waitForWrite(writeFuture);
+    }
+
+    // Waits for a batched or asynchronous write to finish, so callers see the same behavior as a direct save.
+    private static String waitForWrite(Future<String> writeFuture) {
+        try {
+            return writeFuture.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Interrupted waiting for health data record write", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new BridgeServiceException(cause);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public int deleteRecordsForHealthCode(@Nonnull String healthCode) {
-        // query for the keys we need to delete
-        List<HealthDataRecord> keysToDelete = healthCodeIndex.queryKeys(HealthDataRecord.class, "healthCode",
-                healthCode, null);
-
-        // and then delete
-        List<DynamoDBMapper.FailedBatch> failureList = mapper.batchDelete(keysToDelete);
-        BridgeUtils.ifFailuresThrowException(failureList);
+        return deleteRecordsForHealthCode(healthCode, () -> {});
+    }
 
-        return keysToDelete.size();
+    /** {@inheritDoc} */
+    @Override
+    public int deleteRecordsForHealthCode(@Nonnull String healthCode, @Nonnull Runnable onPageDeleted) {
+        // Query and delete a page of keys at a time, so we never hold all of a user's records in memory.
+        int numDeleted = 0;
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            DynamoIndexHelper.QueryPage<HealthDataRecord> keyPage = healthCodeIndex.queryKeyPage(
+                    HealthDataRecord.class, KEY_HEALTH_CODE, healthCode, DELETE_PAGE_SIZE, lastEvaluatedKey);
+            List<HealthDataRecord> keysToDelete = keyPage.getItems();
+            if (!keysToDelete.isEmpty()) {
+                List<DynamoDBMapper.FailedBatch> failureList = mapper.batchDelete(keysToDelete);
+                BridgeUtils.ifFailuresThrowException(failureList);
+                numDeleted += keysToDelete.size();
+                onPageDeleted.run();
+            }
+            lastEvaluatedKey = keyPage.getLastEvaluatedKey();
+        } while (lastEvaluatedKey != null);
+        return numDeleted;
     }
 
     /** {@inheritDoc} */
@@ -94,7 +226,72 @@ public class DynamoHealthDataDao implements HealthDataDao {
     /** {@inheritDoc} */
     @Override
     public List<HealthDataRecord> getRecordsForUploadDate(@Nonnull String uploadDate) {
-        return uploadDateIndex.query(HealthDataRecord.class, "uploadDate", uploadDate, null);
+        return uploadDateIndex.query(HealthDataRecord.class, KEY_UPLOAD_DATE, uploadDate, null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ForwardCursorPagedResourceList<HealthDataRecord> getRecordsForUploadDate(@Nonnull String uploadDate,
+            int pageSize, String offsetKey) {
+        if (pageSize < 1 || pageSize > BridgeConstants.API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+
+        // The offset key is the record ID of the last record in the previous page. Together with the upload date,
+        // that's the last evaluated key for the index.
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        if (offsetKey != null) {
+            exclusiveStartKey = ImmutableMap.of(KEY_UPLOAD_DATE, new AttributeValue(uploadDate), KEY_ID,
+                    new AttributeValue(offsetKey));
+        }
+
+        DynamoIndexHelper.QueryPage<HealthDataRecord> page = uploadDateIndex.queryPage(HealthDataRecord.class,
+                KEY_UPLOAD_DATE, uploadDate, pageSize, exclusiveStartKey);
+        String nextOffsetKey = page.getLastEvaluatedKey() != null ? page.getLastEvaluatedKey().get(KEY_ID).getS() :
+                null;
+        return new ForwardCursorPagedResourceList<>(page.getItems(), nextOffsetKey, pageSize)
+                .withFilter(KEY_UPLOAD_DATE, uploadDate);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<HealthDataRecord> getRecordIteratorForUploadDate(@Nonnull String uploadDate) {
+        return uploadDateIndex.queryIterator(HealthDataRecord.class, KEY_UPLOAD_DATE, uploadDate, ITERATOR_PAGE_SIZE,
+                loadExecutorService, ITERATOR_MAX_PAGES_IN_FLIGHT);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> updateExporterStatus(@Nonnull List<String> recordIds,
+            @Nonnull HealthDataRecord.ExporterStatus synapseExporterStatus) {
+        // Updates are independent of each other, so send them all at once, then wait for all of them.
+        List<CompletableFuture<String>> futureList = new ArrayList<>();
+        for (String oneRecordId : recordIds) {
+            futureList.add(CompletableFuture.supplyAsync(() -> updateExporterStatus(oneRecordId,
+                    synapseExporterStatus), loadExecutorService));
+        }
+
+        List<String> updatedRecordIds = new ArrayList<>();
+        for (Future<String> oneFuture : futureList) {
+            updatedRecordIds.add(waitForWrite(oneFuture));
+        }
+        return updatedRecordIds;
+    }
+
+    // Sets the exporter status on a single record with UpdateItem, without reading or rewriting the rest of the record.
+    private String updateExporterStatus(String recordId, HealthDataRecord.ExporterStatus synapseExporterStatus) {
+        UpdateItemSpec spec = new UpdateItemSpec().withPrimaryKey(KEY_ID, recordId)
+                .withUpdateExpression(EXPORTER_STATUS_UPDATE_EXPRESSION)
+                .withConditionExpression(RECORD_EXISTS_CONDITION)
+                .withNameMap(new NameMap().with("#id", KEY_ID).with("#status", KEY_SYNAPSE_EXPORTER_STATUS)
+                        .with("#version", KEY_VERSION))
+                .withValueMap(new ValueMap().withString(":status", synapseExporterStatus.name()).withInt(":one", 1));
+        try {
+            table.updateItem(spec);
+        } catch (ConditionalCheckFailedException ex) {
+            throw new NotFoundException("The record: " + recordId + " cannot be found in our database.");
+        }
+        return recordId;
     }
 
     /** {@inheritDoc} */
@@ -72,7 +72,7 @@ public class DynamoHealthDataRecord implements HealthDataRecord {
     }
 
     /** {@inheritDoc} */
-    @DynamoDBTypeConverted(converter = JsonNodeMarshaller.class)
+    @DynamoDBTypeConverted(converter = CompressedJsonNodeMarshaller.class)
     @Override
     public JsonNode getData() {
         return data;
@@ -108,7 +108,7 @@ public class DynamoHealthDataRecord implements HealthDataRecord {
     }
 
     /** {@inheritDoc} */
-    @DynamoDBTypeConverted(converter = JsonNodeMarshaller.class)
+    @DynamoDBTypeConverted(converter = CompressedJsonNodeMarshaller.class)
     @Override
     public JsonNode getMetadata() {
         return metadata;
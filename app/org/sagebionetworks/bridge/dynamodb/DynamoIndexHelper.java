@@ -1,9 +1,17 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -12,11 +20,14 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Index;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
 import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
@@ -141,7 +152,6 @@ public class DynamoIndexHelper {
      *         expected result type
      * @return list of query results
      */
-    @SuppressWarnings("unchecked")
     public <T> List<T> query(@Nonnull Class<? extends T> clazz, @Nonnull String indexKeyName,
             @Nonnull Object indexKeyValue, RangeKeyCondition rangeKeyCondition) {
         // In general, we only project keys onto global secondary indices, to save storage space. This means the
@@ -151,6 +161,112 @@ public class DynamoIndexHelper {
         // First step is to query the index to get these "key objects".
         List<T> recordKeyList = queryKeys(clazz, indexKeyName, indexKeyValue, rangeKeyCondition);
 
+        // Then use the "key objects" to get the full records.
+        return batchLoad(clazz, recordKeyList);
+    }
+
+    /**
+     * Queries a single page of the secondary index with the specified key name and value. Like {@link #queryKeys},
+     * only the attributes projected onto the index are returned.
+     *
+     * @param clazz
+     *         expected result class
+     * @param indexKeyName
+     *         index key name to query on
+     * @param indexKeyValue
+     *         index key value to query on
+     * @param pageSize
+     *         max number of keys to return in the page
+     * @param exclusiveStartKey
+     *         last evaluated key from the previous page, or null to get the first page
+     * @param <T>
+     *         expected result type
+     * @return page of key objects, and the last evaluated key, which is null if this is the last page
+     */
+    public <T> QueryPage<T> queryKeyPage(@Nonnull Class<? extends T> clazz, @Nonnull String indexKeyName,
+            @Nonnull Object indexKeyValue, int pageSize, @Nullable Map<String, AttributeValue> exclusiveStartKey) {
+        QuerySpec spec = new QuerySpec().withHashKey(indexKeyName, indexKeyValue).withMaxPageSize(pageSize);
+        if (exclusiveStartKey != null) {
+            List<KeyAttribute> keyAttributeList = new ArrayList<>();
+            for (Map.Entry<String, AttributeValue> oneKeyEntry : exclusiveStartKey.entrySet()) {
+                keyAttributeList.add(new KeyAttribute(oneKeyEntry.getKey(),
+                        ItemUtils.toSimpleValue(oneKeyEntry.getValue())));
+            }
+            spec.withExclusiveStartKey(keyAttributeList.toArray(new KeyAttribute[keyAttributeList.size()]));
+        }
+        QueryOutcome outcome = query(spec);
+
+        List<T> recordKeyList = new ArrayList<>();
+        for (Item oneItem : outcome.getItems()) {
+            T oneRecord = BridgeObjectMapper.get().convertValue(oneItem.asMap(), clazz);
+            recordKeyList.add(oneRecord);
+        }
+        return new QueryPage<>(recordKeyList, outcome.getQueryResult().getLastEvaluatedKey());
+    }
+
+    /**
+     * Queries a single page of the secondary index, then re-queries the table to get the full rows for that page.
+     * Pass the returned last evaluated key back in to get the next page. Like {@link #query(Class, String, Object,
+     * RangeKeyCondition)}, results within a page are in an unspecified order.
+     *
+     * @see #queryKeyPage
+     */
+    public <T> QueryPage<T> queryPage(@Nonnull Class<? extends T> clazz, @Nonnull String indexKeyName,
+            @Nonnull Object indexKeyValue, int pageSize, @Nullable Map<String, AttributeValue> exclusiveStartKey) {
+        QueryPage<T> keyPage = queryKeyPage(clazz, indexKeyName, indexKeyValue, pageSize, exclusiveStartKey);
+        return new QueryPage<>(batchLoad(clazz, keyPage.getItems()), keyPage.getLastEvaluatedKey());
+    }
+
+    /**
+     * <p>
+     * Returns an iterator over all rows matching the specified index key, with the full rows from the table. Unlike
+     * {@link #query(Class, String, Object, RangeKeyCondition)}, this never holds more than a few pages in memory. The
+     * index is queried one page at a time, as the iterator is consumed.
+     * </p>
+     * <p>
+     * If an executor is specified, the table is re-queried for up to maxPagesInFlight pages in parallel, ahead of the
+     * page being consumed. Otherwise, each page is re-queried on the calling thread when it's needed.
+     * </p>
+     *
+     * @param clazz
+     *         expected result class
+     * @param indexKeyName
+     *         index key name to query on
+     * @param indexKeyValue
+     *         index key value to query on
+     * @param pageSize
+     *         number of rows to query at a time
+     * @param executor
+     *         executor to re-query the table on, or null to re-query on the calling thread
+     * @param maxPagesInFlight
+     *         max number of pages to re-query ahead of time, ignored if there's no executor
+     * @param <T>
+     *         expected result type
+     * @return iterator over query results
+     */
+    public <T> Iterator<T> queryIterator(@Nonnull Class<? extends T> clazz, @Nonnull String indexKeyName,
+            @Nonnull Object indexKeyValue, int pageSize, @Nullable ExecutorService executor, int maxPagesInFlight) {
+        return new QueryIterator<>(clazz, indexKeyName, indexKeyValue, pageSize, executor,
+                executor != null ? Math.max(maxPagesInFlight, 1) : 1);
+    }
+
+    /**
+     * Re-queries the DynamoDB table to get the full rows for the given "key objects".
+     *
+     * @param clazz
+     *         expected result class
+     * @param recordKeyList
+     *         key objects, generally from {@link #queryKeys} or {@link #queryKeyPage}
+     * @param <T>
+     *         expected result type
+     * @return full rows, in an unspecified order
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> batchLoad(@Nonnull Class<? extends T> clazz, @Nonnull List<T> recordKeyList) {
+        if (recordKeyList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         // Using the "key objects", batch query DDB to get full records. For some reason, batchLoad() returns a map.
         // Flatten that map into a list.
         //
@@ -186,6 +302,108 @@ public class DynamoIndexHelper {
         } else {
             return index.query(indexKeyName, indexKeyValue);
         }
-    }    
+    }
+
+    /** One page of results from an index query. */
+    public static class QueryPage<T> {
+        private final List<T> items;
+        private final Map<String, AttributeValue> lastEvaluatedKey;
+
+        public QueryPage(List<T> items, Map<String, AttributeValue> lastEvaluatedKey) {
+            this.items = items;
+            this.lastEvaluatedKey = lastEvaluatedKey;
+        }
+
+        /** Items in this page. */
+        public List<T> getItems() {
+            return items;
+        }
+
+        /** Key to pass in to get the next page. Null if this is the last page. */
+        public Map<String, AttributeValue> getLastEvaluatedKey() {
+            return lastEvaluatedKey;
+        }
+    }
+
+    // Iterator for queryIterator(). Index pages are always queried in order on the calling thread, since each page
+    // depends on the last evaluated key of the one before. Re-querying the table for each page is what's parallelized.
+    private class QueryIterator<T> implements Iterator<T> {
+        private final Class<? extends T> clazz;
+        private final String indexKeyName;
+        private final Object indexKeyValue;
+        private final int pageSize;
+        private final ExecutorService executor;
+        private final int maxPagesInFlight;
+
+        private final Deque<Future<List<T>>> pendingPageQueue = new ArrayDeque<>();
+        private Iterator<T> currentPageIter = Collections.emptyIterator();
+        private boolean indexExhausted = false;
+        private Map<String, AttributeValue> lastEvaluatedKey;
+
+        QueryIterator(Class<? extends T> clazz, String indexKeyName, Object indexKeyValue, int pageSize,
+                ExecutorService executor, int maxPagesInFlight) {
+            this.clazz = clazz;
+            this.indexKeyName = indexKeyName;
+            this.indexKeyValue = indexKeyValue;
+            this.pageSize = pageSize;
+            this.executor = executor;
+            this.maxPagesInFlight = maxPagesInFlight;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentPageIter.hasNext()) {
+                fillPendingPages();
+                Future<List<T>> nextPage = pendingPageQueue.poll();
+                if (nextPage == null) {
+                    return false;
+                }
+                currentPageIter = getPage(nextPage).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentPageIter.next();
+        }
 
-}
\ No newline at end of file
+        // Queries index pages and starts re-querying the table, until we have maxPagesInFlight pages pending or
+        // we've run out of index pages.
+        private void fillPendingPages() {
+            while (!indexExhausted && pendingPageQueue.size() < maxPagesInFlight) {
+                QueryPage<T> keyPage = queryKeyPage(clazz, indexKeyName, indexKeyValue, pageSize, lastEvaluatedKey);
+                lastEvaluatedKey = keyPage.getLastEvaluatedKey();
+                indexExhausted = (lastEvaluatedKey == null);
+
+                List<T> keyList = keyPage.getItems();
+                if (keyList.isEmpty()) {
+                    continue;
+                }
+                if (executor != null) {
+                    pendingPageQueue.add(executor.submit(() -> batchLoad(clazz, keyList)));
+                } else {
+                    pendingPageQueue.add(CompletableFuture.completedFuture(batchLoad(clazz, keyList)));
+                }
+            }
+        }
+
+        private List<T> getPage(Future<List<T>> pageFuture) {
+            try {
+                return pageFuture.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new BridgeServiceException("Interrupted loading query results", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new BridgeServiceException(cause);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class DynamoReportData implements ReportData {
     private String key;
     private LocalDate date;
     private JsonNode data;
+    private Integer dataSize;
     
     @JsonIgnore
     @DynamoDBHashKey
@@ -44,7 +45,7 @@ public class DynamoReportData implements ReportData {
     public void setDate(LocalDate date) {
         this.date = date;
     }
-    @DynamoDBTypeConverted(converter = JsonNodeMarshaller.class)
+    @DynamoDBTypeConverted(converter = CompressedJsonNodeMarshaller.class)
     @Override
     public JsonNode getData() {
         return data;
@@ -53,4 +54,13 @@ public class DynamoReportData implements ReportData {
     public void setData(JsonNode data) {
         this.data = data;
     }
+    @JsonIgnore
+    @Override
+    public Integer getDataSize() {
+        return dataSize;
+    }
+    @Override
+    public void setDataSize(Integer dataSize) {
+        this.dataSize = dataSize;
+    }
 }
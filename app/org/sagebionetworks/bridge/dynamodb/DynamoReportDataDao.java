@@ -1,29 +1,55 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.dynamodb.DynamoExternalIdDao.PAGE_SIZE_ERROR;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
 import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 @Component
 public class DynamoReportDataDao implements ReportDataDao {
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoReportDataDao.class);
+
+    private static final String KEY = "key";
+    private static final String DATE = "date";
+    private static final String DATA_SIZE = "dataSize";
 
     private DynamoDBMapper mapper;
 
@@ -48,19 +74,185 @@ public class DynamoReportDataDao implements ReportDataDao {
 
         DynamoDBQueryExpression<DynamoReportData> query =
                 new DynamoDBQueryExpression<DynamoReportData>().withHashKeyValues(hashKey)
-                        .withRangeKeyCondition("date", dateCondition);
+                        .withRangeKeyCondition(DATE, dateCondition);
         List<DynamoReportData> results = mapper.query(DynamoReportData.class, query);
 
         return new DateRangeResourceList<DynamoReportData>(results, startDate, endDate);
     }
 
+    @Override
+    public ForwardCursorPagedResourceList<ReportData> getReportDataV4(ReportDataKey key, LocalDate startDate,
+            LocalDate endDate, int pageSize, String offsetKey) {
+        checkNotNull(key);
+        checkNotNull(startDate);
+        checkNotNull(endDate);
+        if (pageSize < 1 || pageSize > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+
+        DynamoReportData hashKey = new DynamoReportData();
+        hashKey.setKey(key.getKeyString());
+
+        Condition dateCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
+                .withAttributeValueList(new AttributeValue().withS(startDate.toString()),
+                        new AttributeValue().withS(endDate.toString()));
+
+        // Only query one page. Results come back in date order.
+        DynamoDBQueryExpression<DynamoReportData> query = new DynamoDBQueryExpression<DynamoReportData>()
+                .withHashKeyValues(hashKey).withRangeKeyCondition(DATE, dateCondition).withLimit(pageSize)
+                .withExclusiveStartKey(getExclusiveStartKey(key, offsetKey));
+        QueryResultPage<DynamoReportData> page = mapper.queryPage(DynamoReportData.class, query);
+
+        List<ReportData> results = new ArrayList<>(page.getResults());
+        return new ForwardCursorPagedResourceList<>(results, getNextOffsetKey(page), pageSize)
+                .withFilter("startDate", startDate.toString())
+                .withFilter("endDate", endDate.toString());
+    }
+
+    @Override
+    public ForwardCursorPagedResourceList<ReportDataSummary> getReportDataSummariesV4(ReportDataKey key,
+            LocalDate startDate, LocalDate endDate, int pageSize, String offsetKey) {
+        checkNotNull(key);
+        checkNotNull(startDate);
+        checkNotNull(endDate);
+        if (pageSize < 1 || pageSize > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+
+        DynamoReportData hashKey = new DynamoReportData();
+        hashKey.setKey(key.getKeyString());
+
+        // Only read the date and data size. A projection can't be mixed with the legacy range key condition, so the
+        // whole key condition is an expression. "key" and "date" are reserved words, so they need placeholders.
+        DynamoDBQueryExpression<DynamoReportData> query = new DynamoDBQueryExpression<DynamoReportData>()
+                .withHashKeyValues(hashKey)
+                .withKeyConditionExpression("#key = :key AND #date BETWEEN :startDate AND :endDate")
+                .withProjectionExpression("#date, " + DATA_SIZE)
+                .withExpressionAttributeNames(ImmutableMap.of("#key", KEY, "#date", DATE))
+                .withExpressionAttributeValues(ImmutableMap.of(":key", new AttributeValue(key.getKeyString()),
+                        ":startDate", new AttributeValue(startDate.toString()),
+                        ":endDate", new AttributeValue(endDate.toString())))
+                .withLimit(pageSize).withExclusiveStartKey(getExclusiveStartKey(key, offsetKey));
+        QueryResultPage<DynamoReportData> page = mapper.queryPage(DynamoReportData.class, query);
+
+        // Records saved before we stored the data size need the whole record read to get it. This only happens for
+        // old records, and at most one page at a time.
+        List<Object> keysWithoutSize = new ArrayList<>();
+        for (DynamoReportData oneRecord : page.getResults()) {
+            if (oneRecord.getDataSize() == null) {
+                DynamoReportData oneKey = new DynamoReportData();
+                oneKey.setKey(key.getKeyString());
+                oneKey.setDate(oneRecord.getDate());
+                keysWithoutSize.add(oneKey);
+            }
+        }
+        Map<LocalDate, Integer> loadedSizeByDate = new HashMap<>();
+        if (!keysWithoutSize.isEmpty()) {
+            for (List<Object> oneTableResults : mapper.batchLoad(keysWithoutSize).values()) {
+                for (Object oneLoaded : oneTableResults) {
+                    DynamoReportData loadedRecord = (DynamoReportData) oneLoaded;
+                    loadedSizeByDate.put(loadedRecord.getDate(), getDataSize(loadedRecord.getData()));
+                }
+            }
+        }
+
+        List<ReportDataSummary> summaryList = new ArrayList<>();
+        for (DynamoReportData oneRecord : page.getResults()) {
+            Integer dataSize = oneRecord.getDataSize();
+            if (dataSize == null) {
+                // If the record was deleted since the query, it has no data.
+                dataSize = loadedSizeByDate.getOrDefault(oneRecord.getDate(), 0);
+            }
+            summaryList.add(new ReportDataSummary(oneRecord.getDate(), dataSize));
+        }
+        return new ForwardCursorPagedResourceList<>(summaryList, getNextOffsetKey(page), pageSize)
+                .withFilter("startDate", startDate.toString())
+                .withFilter("endDate", endDate.toString());
+    }
+
+    // The offset key is the date of the last record in the previous page. Together with the report key, that's the
+    // last evaluated key of the previous query.
+    private static Map<String, AttributeValue> getExclusiveStartKey(ReportDataKey key, String offsetKey) {
+        if (offsetKey == null) {
+            return null;
+        }
+        return ImmutableMap.of(KEY, new AttributeValue(key.getKeyString()), DATE,
+                new AttributeValue(parseOffsetKey(offsetKey).toString()));
+    }
+
+    private static String getNextOffsetKey(QueryResultPage<DynamoReportData> page) {
+        return (page.getLastEvaluatedKey() != null) ? page.getLastEvaluatedKey().get(DATE).getS() : null;
+    }
+
+    private static LocalDate parseOffsetKey(String offsetKey) {
+        try {
+            return LocalDate.parse(offsetKey);
+        } catch (IllegalArgumentException ex) {
+            throw new BadRequestException("Invalid offsetKey " + offsetKey);
+        }
+    }
+
     @Override
     public void saveReportData(ReportData reportData) {
         checkNotNull(reportData);
         
+        reportData.setDataSize(getDataSize(reportData.getData()));
         mapper.save(reportData);
     }
 
+    @Override
+    public List<ReportData> saveReportDataBatch(List<ReportData> reportDataList) {
+        checkNotNull(reportDataList);
+        if (reportDataList.isEmpty()) {
+            return ImmutableList.of();
+        }
+        for (ReportData oneReportData : reportDataList) {
+            oneReportData.setDataSize(getDataSize(oneReportData.getData()));
+        }
+
+        // The mapper splits these into BatchWriteItem calls of 25 and retries unprocessed items. Anything still
+        // unprocessed after that comes back as a failed batch.
+        List<FailedBatch> failures = mapper.batchSave(reportDataList);
+        if (failures.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        Set<String> failedRecordKeySet = new HashSet<>();
+        for (FailedBatch oneFailure : failures) {
+            LOG.warn("Error batch saving report data: " + oneFailure.getException().getMessage(),
+                    oneFailure.getException());
+            for (List<WriteRequest> oneWriteRequestList : oneFailure.getUnprocessedItems().values()) {
+                for (WriteRequest oneWriteRequest : oneWriteRequestList) {
+                    if (oneWriteRequest.getPutRequest() != null) {
+                        Map<String, AttributeValue> item = oneWriteRequest.getPutRequest().getItem();
+                        failedRecordKeySet.add(getRecordKey(item.get(KEY).getS(), item.get(DATE).getS()));
+                    }
+                }
+            }
+        }
+        return reportDataList.stream().filter(reportData -> failedRecordKeySet.contains(getRecordKey(
+                reportData.getKey(), reportData.getDate().toString()))).collect(Collectors.toList());
+    }
+
+    // Size of the data, in bytes of JSON, as returned by the API. This doesn't depend on whether the data is stored
+    // compressed.
+    static int getDataSize(JsonNode data) {
+        if (data == null) {
+            return 0;
+        }
+        try {
+            return BridgeObjectMapper.get().writeValueAsBytes(data).length;
+        } catch (JsonProcessingException ex) {
+            // Serializing a JSON node shouldn't fail.
+            throw new BridgeServiceException(ex);
+        }
+    }
+
+    // Identifies a single report data record by its hash and range key.
+    private static String getRecordKey(String key, String date) {
+        return key + "|" + date;
+    }
+
     @Override
     public void deleteReportData(ReportDataKey key) {
         checkNotNull(key);
@@ -2,7 +2,15 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
@@ -11,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
@@ -24,7 +33,13 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 @Component
 public class DynamoReportIndexDao implements ReportIndexDao {
@@ -35,8 +50,42 @@ public class DynamoReportIndexDao implements ReportIndexDao {
                     .put("key", new ExpectedAttributeValue(false))
                     .put("identifier", new ExpectedAttributeValue(false)).build());
     
+    // Max number of index listings (one per study and report type) to cache.
+    private static final int INDEX_CACHE_MAX_SIZE = 1000;
+
+    // Indices can be added, updated, and removed through other nodes, so listings are only cached briefly. Writes
+    // through this node update the cached listing right away.
+    private static final int INDEX_CACHE_EXPIRE_SECONDS = 60;
+
+    // Max number of individual indices to remember as recently confirmed.
+    private static final int CONFIRMED_INDEX_CACHE_MAX_SIZE = 10000;
+
+    // Another node can remove an index at any time, so a cached listing is only trusted to skip the index write for a
+    // few seconds after it was read from DynamoDB (or this node wrote the index). After that, the index is confirmed
+    // with a read before skipping the write.
+    private static final int CONFIRMED_INDEX_EXPIRE_SECONDS = 5;
+
+    // Listings of indices, keyed by index key (study and report type), then by identifier. Maps in the cache are
+    // immutable, and are replaced when this node changes an index.
+    private final Cache<String, Map<String, DynamoReportIndex>> indexCache;
+
+    // Indices known to exist as of the last few seconds, keyed by index key and identifier.
+    private final Cache<String, Boolean> confirmedIndexCache;
+
     private DynamoDBMapper mapper;
 
+    public DynamoReportIndexDao() {
+        this(Ticker.systemTicker());
+    }
+
+    // Unit tests pass in their own ticker, to control when cache entries expire.
+    DynamoReportIndexDao(Ticker ticker) {
+        indexCache = CacheBuilder.newBuilder().ticker(ticker).maximumSize(INDEX_CACHE_MAX_SIZE)
+                .expireAfterWrite(INDEX_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS).build();
+        confirmedIndexCache = CacheBuilder.newBuilder().ticker(ticker).maximumSize(CONFIRMED_INDEX_CACHE_MAX_SIZE)
+                .expireAfterWrite(CONFIRMED_INDEX_EXPIRE_SECONDS, TimeUnit.SECONDS).build();
+    }
+
     @Resource(name = "reportIndexMapper")
     final void setReportIndexMapper(DynamoDBMapper reportIndexMapper) {
         this.mapper = reportIndexMapper;
@@ -60,22 +109,60 @@ public class DynamoReportIndexDao implements ReportIndexDao {
         DynamoReportIndex index = new DynamoReportIndex();
         index.setKey(key.getIndexKeyString());
         index.setIdentifier(key.getIdentifier());
+        createIndexIfMissing(index);
+    }
+
+    @Override
+    public void addIndices(Collection<ReportDataKey> keys) {
+        checkNotNull(keys);
 
-        // Optimization: Reads are significantly cheaper than writes. Check to see if the index already exists. If it
-        // does, don't bother writing it.
-        DynamoReportIndex loadedIndex = mapper.load(index);
-        if (loadedIndex != null) {
+        // Many keys can share an index (every participant in a participant report does). Only consider each one once.
+        Map<String, DynamoReportIndex> indexMap = new LinkedHashMap<>();
+        for (ReportDataKey oneKey : keys) {
+            DynamoReportIndex index = new DynamoReportIndex();
+            index.setKey(oneKey.getIndexKeyString());
+            index.setIdentifier(oneKey.getIdentifier());
+            indexMap.putIfAbsent(index.getKey() + "|" + index.getIdentifier(), index);
+        }
+        for (DynamoReportIndex oneIndex : indexMap.values()) {
+            createIndexIfMissing(oneIndex);
+        }
+    }
+
+    // Writes the index if it doesn't exist, without clobbering the metadata of an existing index.
+    private void createIndexIfMissing(DynamoReportIndex index) {
+        // Optimization: Writes are significantly more expensive than reads, and almost every report write is for a
+        // report that's already indexed. Check the cached listing of indices before writing. Loading the listing
+        // also marks its indices as confirmed.
+        Map<String, DynamoReportIndex> cachedIndices = getCachedIndices(index.getKey());
+        String confirmedKey = getConfirmedIndexKey(index.getKey(), index.getIdentifier());
+        if (confirmedIndexCache.getIfPresent(confirmedKey) != null) {
             return;
         }
+        if (cachedIndices.containsKey(index.getIdentifier())) {
+            // The listing is more than a few seconds old, and the index may have been removed through another node
+            // since. A read to confirm it is still much cheaper than the write.
+            if (mapper.load(index) != null) {
+                confirmedIndexCache.put(confirmedKey, Boolean.TRUE);
+                return;
+            }
+            updateCachedIndices(index.getKey(), indices -> indices.remove(index.getIdentifier()));
+        }
 
         try {
             mapper.save(index, DOES_NOT_EXIST_EXPRESSION);    
         } catch(ConditionalCheckFailedException e) {
-            // Read-before-write is not atomic. There's a possible race condition where two machines are creating the
-            // index at the same time. It's rare, but possible that one of these machines may have also updated the
-            // metadata before we save. So we still need this SaveExpression to prevent clobbering the index metadata.
-            LOG.warn("Race condition creating index for " + key.toString() + ": " + e.getMessage(), e);
+            // The index was created (and possibly had its metadata updated) through another machine since we cached
+            // the listing. The SaveExpression keeps us from clobbering the index metadata. Drop the listing, so the
+            // next call picks up the index.
+            LOG.info("Index for " + index.getKey() + ":" + index.getIdentifier() + " already exists: " +
+                    e.getMessage());
+            indexCache.invalidate(index.getKey());
+            confirmedIndexCache.put(confirmedKey, Boolean.TRUE);
+            return;
         }
+        updateCachedIndices(index.getKey(), indices -> indices.put(index.getIdentifier(), copyIndex(index)));
+        confirmedIndexCache.put(confirmedKey, Boolean.TRUE);
     }
 
     @Override
@@ -90,6 +177,8 @@ public class DynamoReportIndexDao implements ReportIndexDao {
         if (index != null) {
             mapper.delete(index);
         }
+        updateCachedIndices(key.getIndexKeyString(), indices -> indices.remove(key.getIdentifier()));
+        confirmedIndexCache.invalidate(getConfirmedIndexKey(key.getIndexKeyString(), key.getIdentifier()));
     }
 
     @Override
@@ -111,6 +200,7 @@ public class DynamoReportIndexDao implements ReportIndexDao {
         } catch(ConditionalCheckFailedException e) {
             throw new EntityNotFoundException(ReportIndex.class);
         }
+        updateCachedIndices(index.getKey(), indices -> indices.put(index.getIdentifier(), copyIndex(index)));
     }
     
     @Override
@@ -121,13 +211,61 @@ public class DynamoReportIndexDao implements ReportIndexDao {
         // Don't use ReportDataKey because it enforces presence of healthCode for ReportType.PARTICIPANT.
         String key = String.format("%s:%s", studyId.getIdentifier(), reportType.name());
         
-        DynamoReportIndex hashKey = new DynamoReportIndex();
-        hashKey.setKey(key);
-        
-        DynamoDBQueryExpression<DynamoReportIndex> query =
-                new DynamoDBQueryExpression<DynamoReportIndex>().withHashKeyValues(hashKey);
+        // Callers get their own copies, since indices are mutable.
+        List<DynamoReportIndex> indexList = getCachedIndices(key).values().stream()
+                .map(DynamoReportIndexDao::copyIndex).collect(Collectors.toList());
+        return new ReportTypeResourceList<>(indexList, reportType);
+    }
+
+    /**
+     * Gets all indices with the given index key (study and report type), keyed and sorted by identifier, from the
+     * cache. If they're not cached, they're queried and cached.
+     */
+    private Map<String, DynamoReportIndex> getCachedIndices(String key) {
+        try {
+            return indexCache.get(key, () -> {
+                DynamoReportIndex hashKey = new DynamoReportIndex();
+                hashKey.setKey(key);
 
-        return new ReportTypeResourceList<>(mapper.query(DynamoReportIndex.class, query), reportType);
+                DynamoDBQueryExpression<DynamoReportIndex> query =
+                        new DynamoDBQueryExpression<DynamoReportIndex>().withHashKeyValues(hashKey);
+
+                ImmutableSortedMap.Builder<String, DynamoReportIndex> indexMapBuilder = ImmutableSortedMap
+                        .naturalOrder();
+                mapper.query(DynamoReportIndex.class, query).stream().forEach(index -> {
+                    indexMapBuilder.put(index.getIdentifier(), index);
+                    confirmedIndexCache.put(getConfirmedIndexKey(key, index.getIdentifier()), Boolean.TRUE);
+                });
+                return indexMapBuilder.build();
+            });
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            // Unwrap, so DynamoDB exceptions propagate as if there were no cache.
+            Throwables.propagateIfPossible(ex.getCause());
+            throw new BridgeServiceException(ex.getCause());
+        }
+    }
+
+    /**
+     * Applies a change to the cached indices with the given index key, if they're cached. Cached maps are never
+     * modified in place, since other threads may be reading them.
+     */
+    private void updateCachedIndices(String key, Consumer<Map<String, DynamoReportIndex>> updater) {
+        indexCache.asMap().computeIfPresent(key, (cacheKey, indices) -> {
+            TreeMap<String, DynamoReportIndex> updatedIndices = new TreeMap<>(indices);
+            updater.accept(updatedIndices);
+            return ImmutableSortedMap.copyOfSorted(updatedIndices);
+        });
     }
 
+    private static String getConfirmedIndexKey(String key, String identifier) {
+        return key + "|" + identifier;
+    }
+
+    private static DynamoReportIndex copyIndex(ReportIndex index) {
+        DynamoReportIndex copy = new DynamoReportIndex();
+        copy.setKey(index.getKey());
+        copy.setIdentifier(index.getIdentifier());
+        copy.setPublic(index.isPublic());
+        return copy;
+    }
 }
@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.json.LocalDateToStringSerializer;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverted;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBVersionAttribute;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.datatype.joda.deser.LocalDateDeserializer;
+
+@DynamoDBTable(tableName = "ReportRollup")
+public class DynamoReportRollup implements ReportRollup {
+
+    private String key;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private int dayCount;
+    private JsonNode data;
+    private Long version;
+    
+    @JsonIgnore
+    @DynamoDBHashKey
+    @Override
+    public String getKey() {
+        return key;
+    }
+    @Override
+    public void setKey(String key) {
+        this.key = key;
+    }
+    @DynamoDBTypeConverted(converter = LocalDateMarshaller.class)
+    @DynamoDBRangeKey
+    @JsonSerialize(using = LocalDateToStringSerializer.class)
+    @Override
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+    @JsonDeserialize(using = LocalDateDeserializer.class)
+    @Override
+    public void setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+    }
+    @DynamoDBTypeConverted(converter = LocalDateMarshaller.class)
+    @DynamoDBAttribute
+    @JsonSerialize(using = LocalDateToStringSerializer.class)
+    @Override
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+    @JsonDeserialize(using = LocalDateDeserializer.class)
+    @Override
+    public void setEndDate(LocalDate endDate) {
+        this.endDate = endDate;
+    }
+    @DynamoDBAttribute
+    @Override
+    public int getDayCount() {
+        return dayCount;
+    }
+    @Override
+    public void setDayCount(int dayCount) {
+        this.dayCount = dayCount;
+    }
+    @DynamoDBTypeConverted(converter = JsonNodeMarshaller.class)
+    @Override
+    public JsonNode getData() {
+        return data;
+    }
+    @Override
+    public void setData(JsonNode data) {
+        this.data = data;
+    }
+    @DynamoDBVersionAttribute
+    @JsonIgnore
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
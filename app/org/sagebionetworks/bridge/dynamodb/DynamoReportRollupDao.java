@@ -0,0 +1,129 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.joda.time.LocalDate;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.dao.ReportRollupDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+@Component
+public class DynamoReportRollupDao implements ReportRollupDao {
+
+    private DynamoDBMapper mapper;
+
+    @Resource(name = "reportRollupMapper")
+    final void setReportRollupMapper(DynamoDBMapper reportRollupMapper) {
+        this.mapper = reportRollupMapper;
+    }
+
+    @Override
+    public DateRangeResourceList<? extends ReportRollup> getRollups(ReportDataKey key, ReportRollupPeriod period,
+            LocalDate startDate, LocalDate endDate) {
+        checkNotNull(key);
+        checkNotNull(period);
+        checkNotNull(startDate);
+        checkNotNull(endDate);
+
+        DynamoReportRollup hashKey = new DynamoReportRollup();
+        hashKey.setKey(getRollupKey(key, period));
+
+        // range key is between start date and end date
+        Condition dateCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
+                .withAttributeValueList(new AttributeValue().withS(startDate.toString()),
+                        new AttributeValue().withS(endDate.toString()));
+
+        DynamoDBQueryExpression<DynamoReportRollup> query =
+                new DynamoDBQueryExpression<DynamoReportRollup>().withHashKeyValues(hashKey)
+                        .withRangeKeyCondition("startDate", dateCondition);
+        List<DynamoReportRollup> results = mapper.query(DynamoReportRollup.class, query);
+
+        return new DateRangeResourceList<DynamoReportRollup>(results, startDate, endDate);
+    }
+
+    @Override
+    public ReportRollup getRollup(ReportDataKey key, ReportRollupPeriod period, LocalDate startDate) {
+        checkNotNull(key);
+        checkNotNull(period);
+        checkNotNull(startDate);
+
+        DynamoReportRollup rollupKey = new DynamoReportRollup();
+        rollupKey.setKey(getRollupKey(key, period));
+        rollupKey.setStartDate(startDate);
+        return mapper.load(rollupKey);
+    }
+
+    @Override
+    public void saveRollup(ReportDataKey key, ReportRollupPeriod period, ReportRollup rollup) {
+        checkNotNull(key);
+        checkNotNull(period);
+        checkNotNull(rollup);
+
+        rollup.setKey(getRollupKey(key, period));
+        try {
+            mapper.save(rollup);
+        } catch (ConditionalCheckFailedException ex) {
+            throw new ConcurrentModificationException("Rollup " + rollup.getKey() + " starting " +
+                    rollup.getStartDate() + " was updated by another writer");
+        }
+    }
+
+    @Override
+    public void deleteRollup(ReportDataKey key, ReportRollupPeriod period, ReportRollup rollup) {
+        checkNotNull(key);
+        checkNotNull(period);
+        checkNotNull(rollup);
+
+        rollup.setKey(getRollupKey(key, period));
+        try {
+            mapper.delete(rollup);
+        } catch (ConditionalCheckFailedException ex) {
+            throw new ConcurrentModificationException("Rollup " + rollup.getKey() + " starting " +
+                    rollup.getStartDate() + " was updated by another writer");
+        }
+    }
+
+    @Override
+    public void deleteRollups(ReportDataKey key) {
+        checkNotNull(key);
+
+        List<DynamoReportRollup> objectsToDelete = new ArrayList<>();
+        for (ReportRollupPeriod period : ReportRollupPeriod.values()) {
+            DynamoReportRollup hashKey = new DynamoReportRollup();
+            hashKey.setKey(getRollupKey(key, period));
+
+            DynamoDBQueryExpression<DynamoReportRollup> query =
+                    new DynamoDBQueryExpression<DynamoReportRollup>().withHashKeyValues(hashKey);
+            objectsToDelete.addAll(mapper.query(DynamoReportRollup.class, query));
+        }
+
+        if (!objectsToDelete.isEmpty()) {
+            List<FailedBatch> failures = mapper.batchDelete(objectsToDelete);
+            BridgeUtils.ifFailuresThrowException(failures);
+        }
+    }
+
+    // Rollups of each period for a report are kept under their own hash key, so each can be queried by date.
+    static String getRollupKey(ReportDataKey key, ReportRollupPeriod period) {
+        return key.getKeyString() + ":" + period.name();
+    }
+}
@@ -28,7 +28,6 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -48,6 +47,8 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
 
     static final String PAGE_SIZE_ERROR = "pageSize must be from 1-"+API_MAXIMUM_PAGE_SIZE+" records";
     
+    static final int DELETE_PAGE_SIZE = 100;
+    
     private DynamoDBMapper mapper;
     
     @Resource(name = "activityDdbMapper")
@@ -171,22 +172,34 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
     /** {@inheritDoc} */
     @Override
     public void deleteActivitiesForUser(String healthCode) {
+        deleteActivitiesForUser(healthCode, () -> {});
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteActivitiesForUser(String healthCode, Runnable onPageDeleted) {
         DynamoScheduledActivity hashKey = new DynamoScheduledActivity();
         hashKey.setHealthCode(healthCode);
 
-        DynamoDBQueryExpression<DynamoScheduledActivity> query = new DynamoDBQueryExpression<DynamoScheduledActivity>()
-                .withHashKeyValues(hashKey);
-        
-        PaginatedQueryList<DynamoScheduledActivity> queryResults = mapper.query(DynamoScheduledActivity.class, query);
-        
-        // Confirmed that you have to transfer these activities to a list or the batchDelete does not work.
-        List<ScheduledActivity> activitiesToDelete = Lists.newArrayListWithCapacity(queryResults.size());
-        activitiesToDelete.addAll(queryResults);
-
-        if (!activitiesToDelete.isEmpty()) {
-            List<FailedBatch> failures = mapper.batchDelete(activitiesToDelete);
-            BridgeUtils.ifFailuresThrowException(failures);
-        }
+        // Query and delete a page of keys at a time, so we never hold all of a user's activities in memory. Confirmed
+        // that you have to transfer these activities to a list or the batchDelete does not work.
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            DynamoDBQueryExpression<DynamoScheduledActivity> query =
+                    new DynamoDBQueryExpression<DynamoScheduledActivity>().withHashKeyValues(hashKey)
+                            .withLimit(DELETE_PAGE_SIZE).withProjectionExpression(HEALTH_CODE + ", " + GUID)
+                            .withExclusiveStartKey(lastEvaluatedKey);
+            QueryResultPage<DynamoScheduledActivity> keyPage = mapper.queryPage(DynamoScheduledActivity.class,
+                    query);
+
+            List<ScheduledActivity> activitiesToDelete = Lists.newArrayList(keyPage.getResults());
+            if (!activitiesToDelete.isEmpty()) {
+                List<FailedBatch> failures = mapper.batchDelete(activitiesToDelete);
+                BridgeUtils.ifFailuresThrowException(failures);
+                onPageDeleted.run();
+            }
+            lastEvaluatedKey = keyPage.getLastEvaluatedKey();
+        } while (lastEvaluatedKey != null);
     }
     
 }
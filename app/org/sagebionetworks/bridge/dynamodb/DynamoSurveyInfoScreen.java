@@ -29,7 +29,10 @@ public class DynamoSurveyInfoScreen extends DynamoSurveyElement implements Surve
         setType(entry.getType());
         setIdentifier(entry.getIdentifier());
         setGuid(entry.getGuid());
-        setData(entry.getData());
+        setOrder(entry.getOrder());
+        // Parsing the data can modify it, and the entry may hand us its own copy, so parse a copy of our own.
+        JsonNode data = entry.getData();
+        setData(data != null ? data.deepCopy() : null);
         setBeforeRules(entry.getBeforeRules());
         setAfterRules(entry.getAfterRules());
     }
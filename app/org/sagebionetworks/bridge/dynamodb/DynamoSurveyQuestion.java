@@ -32,7 +32,10 @@ public class DynamoSurveyQuestion extends DynamoSurveyElement implements SurveyQ
         setType(entry.getType());
         setIdentifier(entry.getIdentifier());
         setGuid(entry.getGuid());
-        setData(entry.getData());
+        setOrder(entry.getOrder());
+        // Parsing the data can modify it, and the entry may hand us its own copy, so parse a copy of our own.
+        JsonNode data = entry.getData();
+        setData(data != null ? data.deepCopy() : null);
         setBeforeRules(entry.getBeforeRules());
         setAfterRules(entry.getAfterRules());
     }
@@ -61,6 +61,8 @@ public class DynamoUploadDao implements UploadDao {
     private static final String REQUESTED_ON = "requestedOn";
     private static final String HEALTH_CODE = "healthCode";
     private static final String STUDY_ID_REQUESTED_ON_INDEX = "studyId-requestedOn-index";
+    // package-scoped to be available in unit tests
+    static final int DELETE_PAGE_SIZE = 100;
     
     /**
      * This is the DynamoDB mapper that reads from and writes to our DynamoDB table. This is normally configured by
@@ -284,13 +286,24 @@ public class DynamoUploadDao implements UploadDao {
     
     @Override
     public void deleteUploadsForHealthCode(@Nonnull String healthCode) {
-        List<? extends Upload> uploadsToDelete = healthCodeRequestedOnIndex.queryKeys(
-                DynamoUpload2.class, HEALTH_CODE, healthCode, null);
-        
-        if (!uploadsToDelete.isEmpty()) {
-            List<FailedBatch> failures = mapper.batchDelete(uploadsToDelete);
-            BridgeUtils.ifFailuresThrowException(failures);
-        }
+        deleteUploadsForHealthCode(healthCode, () -> {});
+    }
+
+    @Override
+    public void deleteUploadsForHealthCode(@Nonnull String healthCode, @Nonnull Runnable onPageDeleted) {
+        // Query and delete a page of keys at a time, so we never hold all of a user's uploads in memory.
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            DynamoIndexHelper.QueryPage<DynamoUpload2> keyPage = healthCodeRequestedOnIndex.queryKeyPage(
+                    DynamoUpload2.class, HEALTH_CODE, healthCode, DELETE_PAGE_SIZE, lastEvaluatedKey);
+            List<DynamoUpload2> uploadsToDelete = keyPage.getItems();
+            if (!uploadsToDelete.isEmpty()) {
+                List<FailedBatch> failures = mapper.batchDelete(uploadsToDelete);
+                BridgeUtils.ifFailuresThrowException(failures);
+                onPageDeleted.run();
+            }
+            lastEvaluatedKey = keyPage.getLastEvaluatedKey();
+        } while (lastEvaluatedKey != null);
     }
 }
 
@@ -0,0 +1,157 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Resource;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDeleteExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.SaveBehavior;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.UploadValidationQueueDao;
+import org.sagebionetworks.bridge.json.DateUtils;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+
+/** DDB implementation of UploadValidationQueueDao. */
+@Component
+public class DynamoUploadValidationQueueDao implements UploadValidationQueueDao {
+    // Enqueue unconditionally overwrites any previous work item for the same upload, regardless of version.
+    private static final DynamoDBMapperConfig CLOBBER_CONFIG = new DynamoDBMapperConfig.Builder()
+            .withSaveBehavior(SaveBehavior.CLOBBER).build();
+
+    private static final String ENQUEUED_ON = "enqueuedOn";
+    private static final String LEASE_EXPIRES_ON = "leaseExpiresOn";
+    private static final String LEASE_OWNER = "leaseOwner";
+
+    private DynamoDBMapper mapper;
+
+    /** Upload validation queue DDB mapper. This is configured by Spring. */
+    @Resource(name = "uploadValidationQueueDdbMapper")
+    final void setMapper(DynamoDBMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void enqueue(@Nonnull StudyIdentifier studyId, @Nonnull String uploadId) {
+        checkNotNull(studyId, "studyId must be specified");
+        checkArgument(StringUtils.isNotBlank(uploadId), "uploadId must be specified");
+
+        DynamoUploadValidationWorkItem workItem = new DynamoUploadValidationWorkItem();
+        workItem.setUploadId(uploadId);
+        workItem.setStudyId(studyId.getIdentifier());
+        workItem.setEnqueuedOn(DateUtils.getCurrentMillisFromEpoch());
+        workItem.setLeaseOwner(null);
+        workItem.setLeaseExpiresOn(0);
+        workItem.setAttemptCount(0);
+        mapper.save(workItem, CLOBBER_CONFIG);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean claimLease(@Nonnull String uploadId, @Nonnull String leaseOwner, long leaseDurationMillis) {
+        checkArgument(StringUtils.isNotBlank(uploadId), "uploadId must be specified");
+        checkArgument(StringUtils.isNotBlank(leaseOwner), "leaseOwner must be specified");
+        checkArgument(leaseDurationMillis > 0, "leaseDurationMillis must be positive");
+
+        DynamoUploadValidationWorkItem workItem = loadWorkItem(uploadId);
+        if (workItem == null) {
+            // Already completed.
+            return false;
+        }
+
+        long now = DateUtils.getCurrentMillisFromEpoch();
+        if (workItem.getLeaseExpiresOn() > now) {
+            // Someone else holds an unexpired lease.
+            return false;
+        }
+
+        workItem.setLeaseOwner(leaseOwner);
+        workItem.setLeaseExpiresOn(now + leaseDurationMillis);
+        workItem.setAttemptCount(workItem.getAttemptCount() + 1);
+        try {
+            // The version attribute makes this a conditional write, so concurrent claims can't both succeed.
+            mapper.save(workItem);
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            // Another worker claimed (or completed or re-enqueued) the work item first.
+            return false;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void completeWorkItem(@Nonnull String uploadId, @Nonnull String leaseOwner) {
+        checkArgument(StringUtils.isNotBlank(uploadId), "uploadId must be specified");
+        checkArgument(StringUtils.isNotBlank(leaseOwner), "leaseOwner must be specified");
+
+        DynamoUploadValidationWorkItem workItem = loadWorkItem(uploadId);
+        if (workItem == null || !leaseOwner.equals(workItem.getLeaseOwner())) {
+            // Already completed, or our lease expired and another worker claimed it. Leave it for that worker.
+            return;
+        }
+
+        // The version attribute is checked too, so this also fails if the work item was re-enqueued.
+        DynamoDBDeleteExpression deleteExpression = new DynamoDBDeleteExpression().withExpectedEntry(LEASE_OWNER,
+                new ExpectedAttributeValue(new AttributeValue(leaseOwner)));
+        try {
+            mapper.delete(workItem, deleteExpression);
+        } catch (ConditionalCheckFailedException ex) {
+            // The work item was re-enqueued or claimed by another worker while we were validating. Leave it in place
+            // so it gets picked up.
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<DynamoUploadValidationWorkItem> getStalledWorkItems(long gracePeriodMillis, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+
+        long now = DateUtils.getCurrentMillisFromEpoch();
+        Condition leaseExpiredCondition = new Condition().withComparisonOperator(ComparisonOperator.LT)
+                .withAttributeValueList(new AttributeValue().withN(String.valueOf(now)));
+        Condition enqueuedBeforeGracePeriodCondition = new Condition().withComparisonOperator(ComparisonOperator.LT)
+                .withAttributeValueList(new AttributeValue().withN(String.valueOf(now - gracePeriodMillis)));
+
+        // The queue table only holds in-flight validations, so it stays small and a scan is cheap. The limit applies
+        // to items examined before the filter, so keep paging until we have enough matches or run out of table.
+        List<DynamoUploadValidationWorkItem> stalledWorkItemList = new ArrayList<>();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            DynamoDBScanExpression scan = new DynamoDBScanExpression().withLimit(limit)
+                    .withExclusiveStartKey(lastEvaluatedKey);
+            scan.addFilterCondition(LEASE_EXPIRES_ON, leaseExpiredCondition);
+            scan.addFilterCondition(ENQUEUED_ON, enqueuedBeforeGracePeriodCondition);
+            ScanResultPage<DynamoUploadValidationWorkItem> page = mapper.scanPage(
+                    DynamoUploadValidationWorkItem.class, scan);
+            stalledWorkItemList.addAll(page.getResults());
+            lastEvaluatedKey = page.getLastEvaluatedKey();
+        } while (stalledWorkItemList.size() < limit && lastEvaluatedKey != null);
+
+        if (stalledWorkItemList.size() > limit) {
+            return stalledWorkItemList.subList(0, limit);
+        }
+        return stalledWorkItemList;
+    }
+
+    private DynamoUploadValidationWorkItem loadWorkItem(String uploadId) {
+        DynamoUploadValidationWorkItem key = new DynamoUploadValidationWorkItem();
+        key.setUploadId(uploadId);
+        return mapper.load(key);
+    }
+}
@@ -0,0 +1,98 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBVersionAttribute;
+
+import org.sagebionetworks.bridge.models.upload.UploadValidationWorkItem;
+
+/** DDB implementation of UploadValidationWorkItem. */
+@DynamoThroughput(readCapacity=5, writeCapacity=10)
+@DynamoDBTable(tableName = "UploadValidationQueue")
+public class DynamoUploadValidationWorkItem implements UploadValidationWorkItem {
+    private String uploadId;
+    private String studyId;
+    private long enqueuedOn;
+    private String leaseOwner;
+    private long leaseExpiresOn;
+    private int attemptCount;
+    private Long version;
+
+    /** {@inheritDoc} */
+    @DynamoDBHashKey
+    @Override
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /** @see #getUploadId */
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStudyId() {
+        return studyId;
+    }
+
+    /** @see #getStudyId */
+    public void setStudyId(String studyId) {
+        this.studyId = studyId;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEnqueuedOn() {
+        return enqueuedOn;
+    }
+
+    /** @see #getEnqueuedOn */
+    public void setEnqueuedOn(long enqueuedOn) {
+        this.enqueuedOn = enqueuedOn;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /** @see #getLeaseOwner */
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLeaseExpiresOn() {
+        return leaseExpiresOn;
+    }
+
+    /** @see #getLeaseExpiresOn */
+    public void setLeaseExpiresOn(long leaseExpiresOn) {
+        this.leaseExpiresOn = leaseExpiresOn;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /** @see #getAttemptCount */
+    public void setAttemptCount(int attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
+    /** DynamoDB version, used for optimistic locking. This is what makes lease claims atomic. */
+    @DynamoDBVersionAttribute
+    public Long getVersion() {
+        return version;
+    }
+
+    /** @see #getVersion */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
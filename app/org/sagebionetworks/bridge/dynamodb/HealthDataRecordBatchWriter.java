@@ -0,0 +1,291 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+
+/**
+ * <p>
+ * Coalesces writes of new health data records from concurrent upload validation tasks into batch writes. Callers
+ * submit a record and get back a future. A single background thread drains submitted records every few milliseconds,
+ * writes them with BatchWriteItem (through the mapper's batchSave), retries unprocessed items with exponential
+ * backoff, and completes each future once its record is written (or once retries are exhausted).
+ * </p>
+ * <p>
+ * Batch writes don't check version attributes, so this should only be used for new records, which nothing else can be
+ * writing yet. If the queue is full, the record is written directly on the caller's thread instead, so a burst of
+ * uploads slows down validation rather than failing it. Callers should also stop waiting after
+ * {@link #getMaxWaitMillis} and write directly. Writes whose futures were cancelled by then are skipped.
+ * </p>
+ */
+@Component
+public class HealthDataRecordBatchWriter {
+    private static final Logger logger = LoggerFactory.getLogger(HealthDataRecordBatchWriter.class);
+
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_ENABLED = "health.data.record.batch.writer.enabled";
+    static final String CONFIG_KEY_BATCH_SIZE = "health.data.record.batch.writer.batch.size";
+    static final String CONFIG_KEY_FLUSH_INTERVAL_MILLIS = "health.data.record.batch.writer.flush.interval.millis";
+    static final String CONFIG_KEY_MAX_QUEUE_SIZE = "health.data.record.batch.writer.max.queue.size";
+    static final String CONFIG_KEY_MAX_WAIT_MILLIS = "health.data.record.batch.writer.max.wait.millis";
+    static final String CONFIG_KEY_MAX_RETRIES = "health.data.record.batch.writer.max.retries";
+    static final String CONFIG_KEY_RETRY_BASE_MILLIS = "health.data.record.batch.writer.retry.base.millis";
+
+    // BatchWriteItem accepts at most 25 items.
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final String KEY_ID = "id";
+
+    private int batchSize;
+    private boolean enabled;
+    private int flushIntervalMillis;
+    private DynamoDBMapper mapper;
+    private int maxRetries;
+    private int maxWaitMillis;
+    private BlockingQueue<PendingWrite> pendingQueue;
+    private int retryBaseMillis;
+    private ScheduledExecutorService scheduledExecutorService;
+
+    // Metrics.
+    private final AtomicLong numSubmitted = new AtomicLong();
+    private final AtomicLong numWrittenDirectly = new AtomicLong();
+    private final AtomicLong numBatches = new AtomicLong();
+    private final AtomicLong numWritten = new AtomicLong();
+    private final AtomicLong numRetried = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+    private final AtomicLong numCancelled = new AtomicLong();
+
+    /** Sets batch size, flush interval, queue size, and retry settings from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        enabled = Boolean.parseBoolean(config.getProperty(CONFIG_KEY_ENABLED));
+        batchSize = Math.min(config.getPropertyAsInt(CONFIG_KEY_BATCH_SIZE), MAX_BATCH_SIZE);
+        flushIntervalMillis = config.getPropertyAsInt(CONFIG_KEY_FLUSH_INTERVAL_MILLIS);
+        pendingQueue = new LinkedBlockingQueue<>(config.getPropertyAsInt(CONFIG_KEY_MAX_QUEUE_SIZE));
+        maxRetries = config.getPropertyAsInt(CONFIG_KEY_MAX_RETRIES);
+        maxWaitMillis = config.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS);
+        retryBaseMillis = config.getPropertyAsInt(CONFIG_KEY_RETRY_BASE_MILLIS);
+    }
+
+    /** DynamoDB mapper for the HealthDataRecord table. This is configured by Spring. */
+    @Resource(name = "healthDataDdbMapper")
+    public final void setMapper(DynamoDBMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /** Scheduled executor, used to periodically flush pending writes. This is configured by Spring. */
+    @Resource(name = "healthDataRecordBatchWriterExecutor")
+    public final void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    /** Starts periodic flushing of pending writes. Called by Spring after the writer is configured. */
+    @PostConstruct
+    public void scheduleFlush() {
+        if (enabled) {
+            scheduledExecutorService.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** True if batching is turned on. If false, callers should write records directly. */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * How long callers should wait for a submitted write. After this, callers should cancel the future and write the
+     * record directly.
+     */
+    public int getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Queues the given record to be written in the next batch. The record must already have its ID. The returned
+     * future completes with the record ID once the record is written, or completes exceptionally if the write failed
+     * after all retries.
+     *
+     * @param record
+     *         new record to write
+     * @return future for the write
+     */
+    public CompletableFuture<String> submit(@Nonnull DynamoHealthDataRecord record) {
+        numSubmitted.incrementAndGet();
+
+        PendingWrite pendingWrite = new PendingWrite(record);
+        if (!pendingQueue.offer(pendingWrite)) {
+            // Queue is full. Write it ourselves, so the caller is slowed down instead of failing.
+            numWrittenDirectly.incrementAndGet();
+            mapper.save(record);
+            pendingWrite.future.complete(record.getId());
+        }
+        return pendingWrite.future;
+    }
+
+    /** Snapshot of writer metrics. */
+    public Map<String, Long> getMetrics() {
+        return ImmutableMap.<String, Long>builder().put("submitted", numSubmitted.get())
+                .put("writtenDirectly", numWrittenDirectly.get()).put("pending", (long) pendingQueue.size())
+                .put("batches", numBatches.get()).put("written", numWritten.get()).put("retried", numRetried.get())
+                .put("failed", numFailed.get()).put("cancelled", numCancelled.get()).build();
+    }
+
+    /** Writes everything in the pending queue, in batches. Package-scoped so unit tests can call it directly. */
+    void flush() {
+        // Exceptions thrown out of a scheduled task cancel all future runs, and then nothing would ever be written
+        // again. Catch errors too, not just runtime exceptions.
+        List<PendingWrite> batch = new ArrayList<>();
+        try {
+            while (pendingQueue.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            logger.error("Error flushing health data record batch writes: " + t.getMessage(), t);
+
+            // Don't leave callers waiting on a batch we gave up on. Futures that already completed are unaffected.
+            BridgeServiceException ex = new BridgeServiceException("Error writing health data record", t);
+            for (PendingWrite onePendingWrite : batch) {
+                onePendingWrite.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    // Writes a single batch, retrying unprocessed items with exponential backoff. Completes every future in the batch.
+    private void writeBatch(List<PendingWrite> batch) {
+        numBatches.incrementAndGet();
+
+        List<PendingWrite> remaining = batch;
+        for (int numTries = 0; ; numTries++) {
+            // Skip writes the caller gave up on. The caller writes those records directly.
+            List<PendingWrite> notCancelled = new ArrayList<>();
+            for (PendingWrite onePendingWrite : remaining) {
+                if (onePendingWrite.future.isCancelled()) {
+                    numCancelled.incrementAndGet();
+                } else {
+                    notCancelled.add(onePendingWrite);
+                }
+            }
+            remaining = notCancelled;
+            if (remaining.isEmpty()) {
+                return;
+            }
+
+            List<Object> recordList = new ArrayList<>();
+            for (PendingWrite onePendingWrite : remaining) {
+                recordList.add(onePendingWrite.record);
+            }
+
+            Set<String> unprocessedIdSet;
+            Exception lastException = null;
+            try {
+                List<DynamoDBMapper.FailedBatch> failureList = mapper.batchSave(recordList);
+                unprocessedIdSet = new HashSet<>();
+                for (DynamoDBMapper.FailedBatch oneFailure : failureList) {
+                    lastException = oneFailure.getException();
+                    unprocessedIdSet.addAll(getIds(oneFailure));
+                }
+            } catch (RuntimeException ex) {
+                // The whole batch failed.
+                lastException = ex;
+                unprocessedIdSet = null;
+            }
+
+            List<PendingWrite> failed = new ArrayList<>();
+            for (PendingWrite onePendingWrite : remaining) {
+                String recordId = onePendingWrite.record.getId();
+                if (unprocessedIdSet == null || unprocessedIdSet.contains(recordId)) {
+                    failed.add(onePendingWrite);
+                } else {
+                    numWritten.incrementAndGet();
+                    onePendingWrite.future.complete(recordId);
+                }
+            }
+            if (failed.isEmpty()) {
+                return;
+            }
+
+            if (numTries >= maxRetries || !sleepBeforeRetry(numTries)) {
+                failAll(failed, lastException, numTries + 1);
+                return;
+            }
+
+            numRetried.addAndGet(failed.size());
+            for (PendingWrite onePendingWrite : failed) {
+                // The mapper may have bumped the version in memory. These are new records, so reset it.
+                onePendingWrite.record.setVersion(null);
+            }
+            remaining = failed;
+        }
+    }
+
+    // Record IDs of the unprocessed items in the given failed batch.
+    private static Set<String> getIds(DynamoDBMapper.FailedBatch failure) {
+        Set<String> idSet = new HashSet<>();
+        for (List<WriteRequest> oneWriteRequestList : failure.getUnprocessedItems().values()) {
+            for (WriteRequest oneWriteRequest : oneWriteRequestList) {
+                if (oneWriteRequest.getPutRequest() != null) {
+                    AttributeValue idValue = oneWriteRequest.getPutRequest().getItem().get(KEY_ID);
+                    if (idValue != null) {
+                        idSet.add(idValue.getS());
+                    }
+                }
+            }
+        }
+        return idSet;
+    }
+
+    // Returns false if interrupted, in which case we stop retrying.
+    private boolean sleepBeforeRetry(int numTries) {
+        try {
+            Thread.sleep((long) retryBaseMillis << numTries);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void failAll(List<PendingWrite> failed, Exception cause, int numTries) {
+        numFailed.addAndGet(failed.size());
+        String message = "Error writing health data record after " + numTries + " tries" +
+                (cause != null ? ": " + cause.getMessage() : "");
+        logger.error(message + ", " + failed.size() + " records failed", cause);
+        for (PendingWrite onePendingWrite : failed) {
+            onePendingWrite.future.completeExceptionally(new BridgeServiceException(message, cause));
+        }
+    }
+
+    // A record waiting to be written, and the future to complete when it is.
+    private static class PendingWrite {
+        final DynamoHealthDataRecord record;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        PendingWrite(DynamoHealthDataRecord record) {
+            this.record = record;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyClass;
 import javax.persistence.MapKeyColumn;
@@ -27,8 +28,11 @@ import org.sagebionetworks.bridge.models.accounts.PasswordAlgorithm;
 // directly. This is because (1) some of the methods we would need in the Account interface don't really have an
 // equivalent in Stormpath, and (2) some of the patterns (especially around embedded collections) don't work really
 // well with Hibernate. While not ideal, it was ultimately cleaner to do it this way.
+// Paged account listings filter by study and email prefix, and page by study, createdOn, and ID.
 @Entity
-@Table(name = "Accounts")
+@Table(name = "Accounts", indexes = {
+        @Index(name = "Accounts-StudyId-Email-Index", columnList = "studyId, email"),
+        @Index(name = "Accounts-StudyId-CreatedOn-Id-Index", columnList = "studyId, createdOn, id") })
 public class HibernateAccount {
     private String id;
     private String studyId;
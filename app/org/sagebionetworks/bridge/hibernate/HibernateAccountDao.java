@@ -9,8 +9,19 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-
+import javax.annotation.Resource;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -21,11 +32,13 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.exceptions.AccountDisabledException;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.DateUtils;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountStatus;
@@ -44,15 +57,42 @@ import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.services.AccountWorkflowService;
 import org.sagebionetworks.bridge.services.HealthCodeService;
+import org.sagebionetworks.bridge.services.PasswordHashService;
 
 /** Hibernate implementation of Account Dao. */
 @Component
 public class HibernateAccountDao implements AccountDao {
     private static final Logger LOG = LoggerFactory.getLogger(HibernateAccountDao.class);
 
+    // Number of accounts loaded at a time by getAllAccounts() and getStudyAccounts().
+    // Package-scoped to facilitate unit tests.
+    static final int ACCOUNT_ITERATOR_PAGE_SIZE = 100;
+
+    // Account counts for paged listings are cached, since counting a large study costs more than reading a page.
+    // Cached counts are refreshed in the background once they're a minute old, and the old count is returned until
+    // the refresh finishes. Counts that stop being read expire.
+    private static final int COUNT_CACHE_MAX_SIZE = 1000;
+    private static final int COUNT_CACHE_REFRESH_SECONDS = 60;
+    private static final int COUNT_CACHE_EXPIRE_MINUTES = 10;
+
+    private static final String OFFSET_KEY_SEPARATOR = ":";
+
+    private LoadingCache<AccountCountQuery, Integer> accountCountCache;
     private AccountWorkflowService accountWorkflowService;
     private HealthCodeService healthCodeService;
     private HibernateHelper hibernateHelper;
+    private PasswordHashService passwordHashService;
+
+    /** Executor that refreshes cached account counts in the background. Configured via Spring. */
+    @Resource(name = "accountCountExecutorService")
+    public final void setAccountCountExecutorService(ExecutorService accountCountExecutorService) {
+        this.accountCountCache = CacheBuilder.newBuilder().maximumSize(COUNT_CACHE_MAX_SIZE)
+                .refreshAfterWrite(COUNT_CACHE_REFRESH_SECONDS, TimeUnit.SECONDS)
+                .expireAfterWrite(COUNT_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .build(CacheLoader.asyncReloading(CacheLoader.from((AccountCountQuery countQuery) ->
+                        hibernateHelper.queryCount(countQuery.query, countQuery.parameters)),
+                        accountCountExecutorService));
+    }
 
     /** Service that handles email verification, password reset, etc. */
     @Autowired
@@ -72,6 +112,12 @@ public class HibernateAccountDao implements AccountDao {
         this.hibernateHelper = hibernateHelper;
     }
 
+    /** Runs password hashing off the request threads. */
+    @Autowired
+    public final void setPasswordHashService(PasswordHashService passwordHashService) {
+        this.passwordHashService = passwordHashService;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void verifyEmail(EmailVerification verification) {
@@ -103,7 +149,7 @@ public class HibernateAccountDao implements AccountDao {
         PasswordAlgorithm passwordAlgorithm = PasswordAlgorithm.DEFAULT_PASSWORD_ALGORITHM;
         String passwordHash;
         try {
-            passwordHash = passwordAlgorithm.generateHash(newPassword);
+            passwordHash = passwordHashService.generateHash(passwordAlgorithm, newPassword);
         } catch (InvalidKeyException | InvalidKeySpecException | NoSuchAlgorithmException ex) {
             throw new BridgeServiceException("Error changing password: " + ex.getMessage(), ex);
         }
@@ -143,7 +189,7 @@ public class HibernateAccountDao implements AccountDao {
             throw new EntityNotFoundException(Account.class);
         }
         try {
-            if (!passwordAlgorithm.checkHash(passwordHash, signIn.getPassword())) {
+            if (!passwordHashService.checkHash(passwordAlgorithm, passwordHash, signIn.getPassword())) {
                 // To prevent enumeration attacks, if the password doesn't match, throw 404 account not found.
                 throw new EntityNotFoundException(Account.class);
             }
@@ -179,7 +225,7 @@ public class HibernateAccountDao implements AccountDao {
         PasswordAlgorithm passwordAlgorithm = PasswordAlgorithm.DEFAULT_PASSWORD_ALGORITHM;
         String passwordHash;
         try {
-            passwordHash = passwordAlgorithm.generateHash(password);
+            passwordHash = passwordHashService.generateHash(passwordAlgorithm, password);
         } catch (InvalidKeyException | InvalidKeySpecException | NoSuchAlgorithmException ex) {
             throw new BridgeServiceException("Error creating password: " + ex.getMessage(), ex);
         }
@@ -231,6 +277,7 @@ public class HibernateAccountDao implements AccountDao {
                         "account with the same study and email");
             }
         }
+        invalidateCachedCounts(study.getIdentifier());
     }
 
     /** {@inheritDoc} */
@@ -302,57 +349,107 @@ public class HibernateAccountDao implements AccountDao {
     @Override
     public void deleteAccount(Study study, String id) {
         hibernateHelper.deleteById(HibernateAccount.class, id);
+        invalidateCachedCounts(study.getIdentifier());
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * Accounts are loaded a page at a time as the iterator advances, so memory use doesn't grow with the number of
+     * accounts.
+     */
     @Override
     public Iterator<AccountSummary> getAllAccounts() {
-        List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet("from HibernateAccount", null, null,
-                HibernateAccount.class);
-        return hibernateAccountList.stream().map(HibernateAccountDao::unmarshallAccountSummary).iterator();
+        return new AccountSummaryIterator(null);
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * Accounts are loaded a page at a time as the iterator advances, so memory use doesn't grow with the number of
+     * accounts.
+     */
     @Override
     public Iterator<AccountSummary> getStudyAccounts(Study study) {
-        List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet("from HibernateAccount where " +
-                "studyId='" + study.getIdentifier() + "'", null, null, HibernateAccount.class);
-        return hibernateAccountList.stream().map(HibernateAccountDao::unmarshallAccountSummary).iterator();
+        return new AccountSummaryIterator(study.getIdentifier());
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Iterates over account summaries, querying a page of accounts at a time in account ID order. Each page starts
+     * after the last ID of the previous page (rather than at an offset), so each query only reads its own page, and
+     * accounts created or deleted during iteration don't shift pages. Each query runs in its own Hibernate session, so
+     * nothing from earlier pages stays in a session cache.
+     */
+    private class AccountSummaryIterator extends AbstractIterator<AccountSummary> {
+        private final String studyId;
+        private Iterator<AccountSummary> pageIterator = Collections.emptyIterator();
+        private String lastId;
+        private boolean isLastPage = false;
+
+        // Study to iterate over. Null to iterate over all accounts.
+        AccountSummaryIterator(String studyId) {
+            this.studyId = studyId;
+        }
+
+        @Override
+        protected AccountSummary computeNext() {
+            if (!pageIterator.hasNext() && !isLastPage) {
+                loadNextPage();
+            }
+            return pageIterator.hasNext() ? pageIterator.next() : endOfData();
+        }
+
+        private void loadNextPage() {
+            List<String> conditionList = new ArrayList<>();
+            Map<String, Object> parameters = new HashMap<>();
+            if (studyId != null) {
+                conditionList.add("studyId=:studyId");
+                parameters.put("studyId", studyId);
+            }
+            if (lastId != null) {
+                conditionList.add("id > :lastId");
+                parameters.put("lastId", lastId);
+            }
+            String query = "from HibernateAccount" + (conditionList.isEmpty() ? "" : " where " +
+                    String.join(" and ", conditionList)) + " order by id";
+
+            List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet(query, parameters, null,
+                    ACCOUNT_ITERATOR_PAGE_SIZE, HibernateAccount.class);
+            isLastPage = hibernateAccountList.size() < ACCOUNT_ITERATOR_PAGE_SIZE;
+            if (!hibernateAccountList.isEmpty()) {
+                lastId = hibernateAccountList.get(hibernateAccountList.size() - 1).getId();
+            }
+
+            // Only keep the summaries. The account entities can be garbage collected.
+            pageIterator = hibernateAccountList.stream().map(HibernateAccountDao::unmarshallAccountSummary)
+                    .collect(Collectors.toList()).iterator();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The total is cached per query (study and filters), and refreshed in the background, so paging through a large
+     * study doesn't count the whole study on every page. The total can briefly lag behind accounts created or deleted
+     * on other servers.
+     */
     @Override
     public PagedResourceList<AccountSummary> getPagedAccountSummaries(Study study, int offsetBy, int pageSize,
             String emailFilter, DateTime startDate, DateTime endDate) {
         // Note: emailFilter can be any substring, not just prefix/suffix
         // Note: start- and endDate are inclusive.
-        StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder.append("from HibernateAccount where studyId='");
-        queryBuilder.append(study.getIdentifier());
-        queryBuilder.append("'");
-        if (StringUtils.isNotBlank(emailFilter)) {
-            queryBuilder.append(" and email like '%");
-            queryBuilder.append(emailFilter);
-            queryBuilder.append("%'");
-        }
-        if (startDate != null) {
-            queryBuilder.append(" and createdOn >= ");
-            queryBuilder.append(startDate.getMillis());
-        }
-        if (endDate != null) {
-            queryBuilder.append(" and createdOn <= ");
-            queryBuilder.append(endDate.getMillis());
-        }
-        String query = queryBuilder.toString();
+        Map<String, Object> parameters = new HashMap<>();
+        String query = makePagedQuery(study, StringUtils.isNotBlank(emailFilter) ? "%" + emailFilter + "%" : null,
+                startDate, endDate, parameters);
 
         // Get page of accounts.
-        List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet(query, offsetBy, pageSize,
+        List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet(query, parameters, offsetBy, pageSize,
                 HibernateAccount.class);
         List<AccountSummary> accountSummaryList = hibernateAccountList.stream()
                 .map(HibernateAccountDao::unmarshallAccountSummary).collect(Collectors.toList());
 
         // Get count of accounts.
-        int count = hibernateHelper.queryCount(query);
+        int count = getCachedCount(new AccountCountQuery(query, parameters));
 
         // Package results and return.
         return new PagedResourceList<>(accountSummaryList, offsetBy, pageSize, count)
@@ -360,6 +457,130 @@ public class HibernateAccountDao implements AccountDao {
                 .withFilter("endDate", endDate);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public int getStudyAccountCount(Study study) {
+        Map<String, Object> parameters = new HashMap<>();
+        String query = makePagedQuery(study, null, null, null, parameters);
+        return hibernateHelper.queryCount(query, parameters);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Accounts are sorted by createdOn, then ID. Each page starts after the createdOn and ID of the last account of
+     * the previous page, so deep pages cost the same as the first page. Some older accounts have no createdOn. These
+     * are treated as createdOn 0, both for sorting and in the offset key, so they come first and can be paged through
+     * like any other account.
+     */
+    @Override
+    public ForwardCursorPagedResourceList<AccountSummary> getPagedAccountSummariesV4(Study study, String offsetKey,
+            int pageSize, String emailPrefix, DateTime startDate, DateTime endDate) {
+        Map<String, Object> parameters = new HashMap<>();
+        StringBuilder queryBuilder = new StringBuilder(makePagedQuery(study,
+                StringUtils.isNotBlank(emailPrefix) ? emailPrefix + "%" : null, startDate, endDate, parameters));
+        if (offsetKey != null) {
+            // Offset key is "createdOn:id", from the last account of the previous page.
+            String[] offsetKeyParts = offsetKey.split(OFFSET_KEY_SEPARATOR, 2);
+            if (offsetKeyParts.length != 2) {
+                throw new BadRequestException("Invalid offsetKey " + offsetKey);
+            }
+            try {
+                parameters.put("offsetCreatedOn", Long.parseLong(offsetKeyParts[0]));
+            } catch (NumberFormatException ex) {
+                throw new BadRequestException("Invalid offsetKey " + offsetKey);
+            }
+            parameters.put("offsetId", offsetKeyParts[1]);
+            queryBuilder.append(" and (coalesce(createdOn, 0) > :offsetCreatedOn or (coalesce(createdOn, 0) = " +
+                    ":offsetCreatedOn and id > :offsetId))");
+        }
+        queryBuilder.append(" order by coalesce(createdOn, 0), id");
+
+        // Get one more than a page, so we know if there's a next page.
+        List<HibernateAccount> hibernateAccountList = hibernateHelper.queryGet(queryBuilder.toString(), parameters,
+                null, pageSize + 1, HibernateAccount.class);
+        String nextOffsetKey = null;
+        if (hibernateAccountList.size() > pageSize) {
+            hibernateAccountList = hibernateAccountList.subList(0, pageSize);
+            HibernateAccount lastAccount = hibernateAccountList.get(pageSize - 1);
+            long lastCreatedOn = lastAccount.getCreatedOn() != null ? lastAccount.getCreatedOn() : 0;
+            nextOffsetKey = lastCreatedOn + OFFSET_KEY_SEPARATOR + lastAccount.getId();
+        }
+        List<AccountSummary> accountSummaryList = hibernateAccountList.stream()
+                .map(HibernateAccountDao::unmarshallAccountSummary).collect(Collectors.toList());
+
+        return new ForwardCursorPagedResourceList<>(accountSummaryList, nextOffsetKey, pageSize)
+                .withFilter("emailPrefix", emailPrefix).withFilter("startDate", startDate)
+                .withFilter("endDate", endDate);
+    }
+
+    // Helper method which makes the query (with bound parameters) shared by both kinds of paged account queries. The
+    // email pattern is a "like" pattern, or null for no email filter. Parameters are added to the given map.
+    private static String makePagedQuery(Study study, String emailPattern, DateTime startDate, DateTime endDate,
+            Map<String, Object> parameters) {
+        StringBuilder queryBuilder = new StringBuilder();
+        queryBuilder.append("from HibernateAccount where studyId=:studyId");
+        parameters.put("studyId", study.getIdentifier());
+        if (emailPattern != null) {
+            queryBuilder.append(" and email like :emailPattern");
+            parameters.put("emailPattern", emailPattern);
+        }
+        if (startDate != null) {
+            queryBuilder.append(" and createdOn >= :startDate");
+            parameters.put("startDate", startDate.getMillis());
+        }
+        if (endDate != null) {
+            queryBuilder.append(" and createdOn <= :endDate");
+            parameters.put("endDate", endDate.getMillis());
+        }
+        return queryBuilder.toString();
+    }
+
+    // Gets the account count for the given query from the cache, or counts the accounts if it's not cached.
+    private int getCachedCount(AccountCountQuery countQuery) {
+        try {
+            return accountCountCache.getUnchecked(countQuery);
+        } catch (UncheckedExecutionException ex) {
+            // Unwrap, so Hibernate exceptions propagate as if there were no cache.
+            Throwables.propagateIfPossible(ex.getCause());
+            throw new BridgeServiceException(ex.getCause());
+        }
+    }
+
+    // Drops the cached account counts for a study, after accounts were created or deleted on this server.
+    private void invalidateCachedCounts(String studyId) {
+        accountCountCache.asMap().keySet().removeIf(countQuery -> studyId.equals(countQuery.parameters.get(
+                "studyId")));
+    }
+
+    // Count query for paged accounts, and the key for the count cache.
+    private static final class AccountCountQuery {
+        private final String query;
+        private final Map<String, Object> parameters;
+
+        AccountCountQuery(String query, Map<String, Object> parameters) {
+            this.query = query;
+            this.parameters = ImmutableMap.copyOf(parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, parameters);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            AccountCountQuery other = (AccountCountQuery) obj;
+            return query.equals(other.query) && parameters.equals(other.parameters);
+        }
+    }
+
     // Helper method which marshalls a GenericAccount into a HibernateAccount.
     // Package-scoped to facilitate unit tests.
     static HibernateAccount marshallAccount(Account account) {
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.hibernate;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
 import javax.persistence.OptimisticLockException;
@@ -68,10 +69,21 @@ public class HibernateHelper {
      * Executes the query and returns the count. Note that this prepends "select count(*) " to the query automatically.
      */
     public int queryCount(String queryString) {
+        return queryCount(queryString, null);
+    }
+
+    /**
+     * Executes the query with the given named parameters and returns the count. Note that this prepends
+     * "select count(*) " to the query automatically.
+     */
+    public int queryCount(String queryString, Map<String, Object> parameters) {
         // Hibernate returns a long for a count. However, we never expect more than 2 billion rows, for obvious
         // reasons.
-        Long count = execute(session -> session.createQuery("select count(*) " + queryString, Long.class)
-                .uniqueResult());
+        Long count = execute(session -> {
+            Query<Long> query = session.createQuery("select count(*) " + queryString, Long.class);
+            setParameters(query, parameters);
+            return query.uniqueResult();
+        });
         if (count != null) {
             return count.intValue();
         } else {
@@ -85,8 +97,19 @@ public class HibernateHelper {
      * and limit for pagination.
      */
     public <T> List<T> queryGet(String queryString, Integer offset, Integer limit, Class<T> clazz) {
+        return queryGet(queryString, null, offset, limit, clazz);
+    }
+
+    /**
+     * Executes the query with the given named parameters and returns a list of results. Values are bound as
+     * parameters rather than concatenated into the query, so they don't need escaping, and the database can reuse the
+     * query plan. Returns an empty list if there's no result. Optional offset and limit for pagination.
+     */
+    public <T> List<T> queryGet(String queryString, Map<String, Object> parameters, Integer offset, Integer limit,
+            Class<T> clazz) {
         return execute(session -> {
             Query<T> query = session.createQuery(queryString, clazz);
+            setParameters(query, parameters);
             if (offset != null) {
                 query.setFirstResult(offset);
             }
@@ -118,6 +141,15 @@ public class HibernateHelper {
         }
     }
 
+    // Helper function to bind named parameters to a query. Parameters may be null.
+    private static void setParameters(Query<?> query, Map<String, Object> parameters) {
+        if (parameters != null) {
+            for (Map.Entry<String, Object> oneParameter : parameters.entrySet()) {
+                query.setParameter(oneParameter.getKey(), oneParameter.getValue());
+            }
+        }
+    }
+
     // Helper function, which handles opening and closing sessions and transactions.
     // Package-scoped to facilitate unit tests.
     <T> T execute(Function<Session, T> function) {
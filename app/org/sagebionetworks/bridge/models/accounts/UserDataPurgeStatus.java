@@ -0,0 +1,124 @@
+package org.sagebionetworks.bridge.models.accounts;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+/**
+ * Progress of deleting a user and all of the user's data. The completed steps are a checkpoint: if a deletion fails
+ * part way through, requesting it again only re-runs the steps that haven't completed.
+ */
+public final class UserDataPurgeStatus implements BridgeEntity {
+
+    /** Overall state of the deletion. */
+    public enum State {
+        IN_PROGRESS,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * Steps of the deletion. Everything except ACCOUNT runs concurrently. ACCOUNT (external ID, participant options,
+     * and the account itself) runs last, so a failed deletion can still be found and retried.
+     */
+    public enum Step {
+        HEALTH_DATA,
+        UPLOADS,
+        SCHEDULED_ACTIVITIES,
+        ACTIVITY_EVENTS,
+        ACCOUNT
+    }
+
+    private final String userId;
+    private final State state;
+    private final Set<Step> completedSteps;
+    private final long startedOn;
+    private final long modifiedOn;
+    private final String errorMessage;
+
+    @JsonCreator
+    public UserDataPurgeStatus(@JsonProperty("userId") String userId, @JsonProperty("state") State state,
+            @JsonProperty("completedSteps") Set<Step> completedSteps, @JsonProperty("startedOn") long startedOn,
+            @JsonProperty("modifiedOn") long modifiedOn, @JsonProperty("errorMessage") String errorMessage) {
+        this.userId = userId;
+        this.state = state;
+        this.completedSteps = completedSteps != null ? Sets.immutableEnumSet(completedSteps) : ImmutableSet.of();
+        this.startedOn = startedOn;
+        this.modifiedOn = modifiedOn;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Set<Step> getCompletedSteps() {
+        return completedSteps;
+    }
+
+    /** When this deletion was first requested, in epoch milliseconds. */
+    public long getStartedOn() {
+        return startedOn;
+    }
+
+    /** When the deletion last checkpointed (a page deleted, a step completed, or the state changed), in epoch ms. */
+    public long getModifiedOn() {
+        return modifiedOn;
+    }
+
+    /** Why the deletion failed. Null unless the state is FAILED. */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /** Returns a copy of this status with the given step completed. */
+    public UserDataPurgeStatus withCompletedStep(Step step, long modifiedOn) {
+        Set<Step> newCompletedSteps = EnumSet.of(step);
+        newCompletedSteps.addAll(completedSteps);
+        return new UserDataPurgeStatus(userId, state, newCompletedSteps, startedOn, modifiedOn, errorMessage);
+    }
+
+    /** Returns a copy of this status with only the modified time changed. */
+    public UserDataPurgeStatus withModifiedOn(long modifiedOn) {
+        return new UserDataPurgeStatus(userId, state, completedSteps, startedOn, modifiedOn, errorMessage);
+    }
+
+    /** Returns a copy of this status with the given state. */
+    public UserDataPurgeStatus withState(State state, long modifiedOn, String errorMessage) {
+        return new UserDataPurgeStatus(userId, state, completedSteps, startedOn, modifiedOn, errorMessage);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, state, completedSteps, startedOn, modifiedOn, errorMessage);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        UserDataPurgeStatus other = (UserDataPurgeStatus) obj;
+        return Objects.equals(userId, other.userId) && Objects.equals(state, other.state)
+                && Objects.equals(completedSteps, other.completedSteps) && startedOn == other.startedOn
+                && modifiedOn == other.modifiedOn && Objects.equals(errorMessage, other.errorMessage);
+    }
+
+    @Override
+    public String toString() {
+        return "UserDataPurgeStatus [userId=" + userId + ", state=" + state + ", completedSteps=" + completedSteps
+                + ", startedOn=" + startedOn + ", modifiedOn=" + modifiedOn + ", errorMessage=" + errorMessage + "]";
+    }
+}
@@ -0,0 +1,59 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.json.BridgeTypeName;
+import org.sagebionetworks.bridge.json.LocalDateToStringSerializer;
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.datatype.joda.deser.LocalDateDeserializer;
+
+/**
+ * One row of a bulk report upload: the report identifier, the date, and the data for that date. Health code is only
+ * used for participant reports. Unlike single report saves, the identifier is part of each row, so one request can
+ * write to many reports.
+ */
+@BridgeTypeName("BulkReportDataItem")
+public final class BulkReportDataItem implements BridgeEntity {
+    private final String identifier;
+    private final String healthCode;
+    private final LocalDate date;
+    private final JsonNode data;
+
+    @JsonCreator
+    public BulkReportDataItem(@JsonProperty("identifier") String identifier,
+            @JsonProperty("healthCode") String healthCode,
+            @JsonProperty("date") @JsonDeserialize(using = LocalDateDeserializer.class) LocalDate date,
+            @JsonProperty("data") JsonNode data) {
+        this.identifier = identifier;
+        this.healthCode = healthCode;
+        this.date = date;
+        this.data = data;
+    }
+
+    /** Identifier of the report this row belongs to. */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /** Health code of the participant, for participant reports. */
+    public String getHealthCode() {
+        return healthCode;
+    }
+
+    /** Date of the report data. */
+    @JsonSerialize(using = LocalDateToStringSerializer.class)
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /** Report data for this date. */
+    public JsonNode getData() {
+        return data;
+    }
+}
@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import java.util.Objects;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.json.BridgeTypeName;
+import org.sagebionetworks.bridge.json.LocalDateToStringSerializer;
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.datatype.joda.deser.LocalDateDeserializer;
+
+/**
+ * Result of saving one row of a bulk report upload. Results are returned in the same order as the submitted rows. If
+ * the row wasn't saved, the message says why.
+ */
+@BridgeTypeName("BulkReportDataResult")
+public final class BulkReportDataResult implements BridgeEntity {
+    private final String identifier;
+    private final LocalDate date;
+    private final boolean saved;
+    private final String message;
+
+    @JsonCreator
+    public BulkReportDataResult(@JsonProperty("identifier") String identifier,
+            @JsonProperty("date") @JsonDeserialize(using = LocalDateDeserializer.class) LocalDate date,
+            @JsonProperty("saved") boolean saved, @JsonProperty("message") String message) {
+        this.identifier = identifier;
+        this.date = date;
+        this.saved = saved;
+        this.message = message;
+    }
+
+    /** Creates a result for a row that was saved. */
+    public static BulkReportDataResult saved(BulkReportDataItem item) {
+        return new BulkReportDataResult(item.getIdentifier(), item.getDate(), true, null);
+    }
+
+    /** Creates a result for a row that wasn't saved, with the reason. */
+    public static BulkReportDataResult failed(BulkReportDataItem item, String message) {
+        return new BulkReportDataResult(item.getIdentifier(), item.getDate(), false, message);
+    }
+
+    /** Identifier of the report the row was for. */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /** Date of the row. */
+    @JsonSerialize(using = LocalDateToStringSerializer.class)
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /** True if the row was saved. */
+    public boolean isSaved() {
+        return saved;
+    }
+
+    /** Why the row wasn't saved. Null if it was. */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(identifier, date, saved, message);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        BulkReportDataResult other = (BulkReportDataResult) obj;
+        return Objects.equals(identifier, other.identifier) && Objects.equals(date, other.date)
+                && saved == other.saved && Objects.equals(message, other.message);
+    }
+
+    @Override
+    public String toString() {
+        return "BulkReportDataResult [identifier=" + identifier + ", date=" + date + ", saved=" + saved
+                + ", message=" + message + "]";
+    }
+}
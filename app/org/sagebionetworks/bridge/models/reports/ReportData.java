@@ -25,4 +25,11 @@ public interface ReportData {
     JsonNode getData();
     void setData(JsonNode data);
     
+    /**
+     * Size of the data, in bytes of JSON. This is set when the record is saved, so report summaries can be read
+     * without reading the data. Null for records saved before this was added.
+     */
+    Integer getDataSize();
+    void setDataSize(Integer dataSize);
+    
 }
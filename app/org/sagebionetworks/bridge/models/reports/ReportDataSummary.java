@@ -0,0 +1,66 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import java.util.Objects;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.json.BridgeTypeName;
+import org.sagebionetworks.bridge.json.LocalDateToStringSerializer;
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.datatype.joda.deser.LocalDateDeserializer;
+
+/**
+ * The date of a report data record and the size of its data, without the data itself. Clients can page through these
+ * to see which dates a long-running report has data for, and how much, before deciding what to download.
+ */
+@BridgeTypeName("ReportDataSummary")
+public final class ReportDataSummary implements BridgeEntity {
+    private final LocalDate date;
+    private final int size;
+
+    @JsonCreator
+    public ReportDataSummary(
+            @JsonProperty("date") @JsonDeserialize(using = LocalDateDeserializer.class) LocalDate date,
+            @JsonProperty("size") int size) {
+        this.date = date;
+        this.size = size;
+    }
+
+    /** Date of the report data record. */
+    @JsonSerialize(using = LocalDateToStringSerializer.class)
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /** Size of the record's data, in bytes of JSON. */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(date, size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        ReportDataSummary other = (ReportDataSummary) obj;
+        return Objects.equals(date, other.date) && size == other.size;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportDataSummary [date=" + date + ", size=" + size + "]";
+    }
+}
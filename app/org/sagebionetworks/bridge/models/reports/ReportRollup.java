@@ -0,0 +1,47 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoReportRollup;
+import org.sagebionetworks.bridge.json.BridgeTypeName;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * Aggregates of a report's numeric fields over one week or month of report data. The data is an object with an entry
+ * for each top-level numeric field in the report, and each entry has the count, sum, min, max, and average of that
+ * field over the days in the bucket that have it.
+ */
+@BridgeTypeName("ReportRollup")
+@JsonDeserialize(as=DynamoReportRollup.class)
+public interface ReportRollup {
+
+    static ReportRollup create() {
+        return new DynamoReportRollup();
+    }
+    
+    /** Report key, plus the rollup period. */
+    String getKey();
+    void setKey(String key);
+    
+    /** First day of the bucket. */
+    LocalDate getStartDate();
+    void setStartDate(LocalDate startDate);
+    
+    /** Last day of the bucket. */
+    LocalDate getEndDate();
+    void setEndDate(LocalDate endDate);
+    
+    /** Number of days in the bucket that have report data. */
+    int getDayCount();
+    void setDayCount(int dayCount);
+    
+    JsonNode getData();
+    void setData(JsonNode data);
+    
+    /** Version, used so a rollup recomputed from stale data can't overwrite a newer one. */
+    Long getVersion();
+    void setVersion(Long version);
+    
+}
@@ -0,0 +1,52 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+
+/** Length of the date buckets that report data is rolled up into. */
+public enum ReportRollupPeriod {
+    /** Weeks start on Monday. */
+    WEEK {
+        @Override
+        public LocalDate getStartDate(LocalDate date) {
+            return date.withDayOfWeek(DateTimeConstants.MONDAY);
+        }
+
+        @Override
+        public LocalDate getEndDate(LocalDate date) {
+            return getStartDate(date).plusWeeks(1).minusDays(1);
+        }
+    },
+    /** Calendar months. */
+    MONTH {
+        @Override
+        public LocalDate getStartDate(LocalDate date) {
+            return date.withDayOfMonth(1);
+        }
+
+        @Override
+        public LocalDate getEndDate(LocalDate date) {
+            return date.dayOfMonth().withMaximumValue();
+        }
+    };
+
+    /** First day of the bucket that contains the given date. */
+    public abstract LocalDate getStartDate(LocalDate date);
+
+    /** Last day of the bucket that contains the given date. */
+    public abstract LocalDate getEndDate(LocalDate date);
+
+    /** Parses a period from a URL parameter, ignoring case, e.g. "week" or "month". */
+    public static ReportRollupPeriod fromString(String value) {
+        if (value != null) {
+            for (ReportRollupPeriod period : values()) {
+                if (period.name().equalsIgnoreCase(value)) {
+                    return period;
+                }
+            }
+        }
+        throw new BadRequestException("Invalid rollup period " + value + ", must be one of week, month");
+    }
+}
@@ -0,0 +1,27 @@
+package org.sagebionetworks.bridge.models.upload;
+
+/**
+ * An entry in the durable upload validation work queue. Work items are created when upload validation is requested
+ * and deleted when validation completes. While a node is validating the upload, it holds a lease on the work item. If
+ * the lease expires before the work item is deleted (for example, because the node restarted), any node may claim the
+ * work item and re-drive validation.
+ */
+public interface UploadValidationWorkItem {
+    /** Upload ID that this work item validates. */
+    String getUploadId();
+
+    /** Study the upload lives in. */
+    String getStudyId();
+
+    /** Epoch milliseconds when this work item was enqueued. */
+    long getEnqueuedOn();
+
+    /** Identifier of the worker currently holding the lease, or null if the work item was never claimed. */
+    String getLeaseOwner();
+
+    /** Epoch milliseconds when the current lease expires. The work item may be claimed by anyone after this time. */
+    long getLeaseExpiresOn();
+
+    /** Number of times this work item has been claimed. Used to give up on uploads that repeatedly fail to finish. */
+    int getAttemptCount();
+}
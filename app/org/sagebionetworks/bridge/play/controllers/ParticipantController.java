@@ -103,6 +103,19 @@ public class ParticipantController extends BaseController {
                 endDateString);
     }
 
+    public Result getParticipantsV4(String offsetKey, Integer pageSize, String emailPrefix, String startDateString,
+            String endDateString) {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        
+        DateTime startDate = DateUtils.getDateTimeOrDefault(startDateString, null);
+        DateTime endDate = DateUtils.getDateTimeOrDefault(endDateString, null);
+        
+        ForwardCursorPagedResourceList<AccountSummary> page = participantService.getPagedAccountSummariesV4(study,
+                offsetKey, pageSize, emailPrefix, startDate, endDate);
+        return okResult(page);
+    }
+
     public Result getParticipantsForWorker(String studyId, String offsetByString, String pageSizeString, String emailFilter,
             String startDateString, String endDateString) {
         getAuthenticatedSession(WORKER);
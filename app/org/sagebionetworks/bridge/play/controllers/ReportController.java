@@ -6,6 +6,8 @@ import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+import java.util.List;
+
 import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -15,18 +17,24 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataItem;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataResult;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.services.ReportService;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import play.mvc.Result;
@@ -50,6 +58,12 @@ import play.mvc.Result;
 @Controller
 public class ReportController extends BaseController {
     
+    /** Projection that returns only the date and data size of each record. */
+    static final String SUMMARY_PROJECTION = "summary";
+    
+    private static final TypeReference<List<BulkReportDataItem>> BULK_REPORT_DATA_TYPE_REF =
+            new TypeReference<List<BulkReportDataItem>>() {};
+    
     @Autowired
     ReportService reportService;
     
@@ -93,6 +107,91 @@ public class ReportController extends BaseController {
         return okResult(results);
     }
     
+    /**
+     * Gets a page of the caller's own participant report. If the projection is "summary", only the date and size of 
+     * each record is returned.
+     */
+    public Result getParticipantReportV4(String identifier, String startDateString, String endDateString,
+            String offsetKey, Integer pageSize, String projection) {
+        UserSession session = getAuthenticatedSession();
+        boolean summaryOnly = isSummaryProjection(projection);
+
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+
+        if (summaryOnly) {
+            return okResult(reportService.getParticipantReportSummariesV4(session.getStudyIdentifier(), identifier,
+                    session.getHealthCode(), startDate, endDate, pageSize, offsetKey));
+        }
+        ForwardCursorPagedResourceList<ReportData> page = reportService.getParticipantReportV4(
+                session.getStudyIdentifier(), identifier, session.getHealthCode(), startDate, endDate, pageSize,
+                offsetKey);
+
+        return okResult(page);
+    }
+    
+    public Result getParticipantReportForResearcherV4(String userId, String identifier, String startDateString,
+            String endDateString, String offsetKey, Integer pageSize, String projection) {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        boolean summaryOnly = isSummaryProjection(projection);
+
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+
+        Account account = accountDao.getAccount(study, userId);
+        if (account == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+
+        if (summaryOnly) {
+            return okResult(reportService.getParticipantReportSummariesV4(session.getStudyIdentifier(), identifier,
+                    account.getHealthCode(), startDate, endDate, pageSize, offsetKey));
+        }
+        ForwardCursorPagedResourceList<ReportData> page = reportService.getParticipantReportV4(
+                session.getStudyIdentifier(), identifier, account.getHealthCode(), startDate, endDate, pageSize,
+                offsetKey);
+
+        return okResult(page);
+    }
+    
+    /**
+     * Individuals can get the weekly or monthly rollups of their own participant reports.
+     */
+    public Result getParticipantReportRollups(String identifier, String periodString, String startDateString,
+            String endDateString) {
+        UserSession session = getAuthenticatedSession();
+        ReportRollupPeriod period = ReportRollupPeriod.fromString(periodString);
+        
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+        
+        DateRangeResourceList<? extends ReportRollup> results = reportService.getParticipantReportRollups(
+                session.getStudyIdentifier(), identifier, session.getHealthCode(), period, startDate, endDate);
+        
+        return okResult(results);
+    }
+    
+    public Result getParticipantReportRollupsForResearcher(String userId, String identifier, String periodString,
+            String startDateString, String endDateString) {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        ReportRollupPeriod period = ReportRollupPeriod.fromString(periodString);
+        
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+        
+        Account account = accountDao.getAccount(study, userId);
+        if (account == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        
+        DateRangeResourceList<? extends ReportRollup> results = reportService.getParticipantReportRollups(
+                session.getStudyIdentifier(), identifier, account.getHealthCode(), period, startDate, endDate);
+        
+        return okResult(results);
+    }
+    
     public Result getParticipantReportForResearcher(String userId, String identifier, String startDateString,
             String endDateString) {
         UserSession session = getAuthenticatedSession(RESEARCHER);
@@ -150,6 +249,20 @@ public class ReportController extends BaseController {
         return createdResult("Report data saved.");
     }
     
+    /**
+     * Workers can save many rows of participant report data in one request, for any number of participants and 
+     * report identifiers. Each row must include a healthCode. Returns whether each row was saved, in request order.
+     */
+    public Result saveParticipantReportsForWorker() throws Exception {
+        UserSession session = getAuthenticatedSession(WORKER);
+        
+        List<BulkReportDataItem> items = MAPPER.convertValue(requestToJSON(request()), BULK_REPORT_DATA_TYPE_REF);
+        List<BulkReportDataResult> results = reportService.saveParticipantReports(session.getStudyIdentifier(),
+                items);
+        
+        return okResult(results);
+    }
+    
     /**
      * Developers and workers can delete participant report data (though worker accounts are unlikely 
      * to know the user ID for records). This deletes all reports for all users. This is not 
@@ -205,6 +318,45 @@ public class ReportController extends BaseController {
         return okResult(results);
     }
     
+    /**
+     * Gets the weekly or monthly rollups of a study report. Any authenticated user can get study reports (see above).
+     */
+    public Result getStudyReportRollups(String identifier, String periodString, String startDateString,
+            String endDateString) {
+        UserSession session = getAuthenticatedSession();
+        ReportRollupPeriod period = ReportRollupPeriod.fromString(periodString);
+        
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+        
+        DateRangeResourceList<? extends ReportRollup> results = reportService.getStudyReportRollups(
+                session.getStudyIdentifier(), identifier, period, startDate, endDate);
+        
+        return okResult(results);
+    }
+    
+    /**
+     * Gets a page of a study report. Any authenticated user can get study reports (see above). If the projection is 
+     * "summary", only the date and size of each record is returned.
+     */
+    public Result getStudyReportV4(String identifier, String startDateString, String endDateString,
+            String offsetKey, Integer pageSize, String projection) {
+        UserSession session = getAuthenticatedSession();
+        boolean summaryOnly = isSummaryProjection(projection);
+
+        LocalDate startDate = parseDateHelper(startDateString);
+        LocalDate endDate = parseDateHelper(endDateString);
+
+        if (summaryOnly) {
+            return okResult(reportService.getStudyReportSummariesV4(session.getStudyIdentifier(), identifier,
+                    startDate, endDate, pageSize, offsetKey));
+        }
+        ForwardCursorPagedResourceList<ReportData> page = reportService.getStudyReportV4(
+                session.getStudyIdentifier(), identifier, startDate, endDate, pageSize, offsetKey);
+
+        return okResult(page);
+    }
+    
     /**
      * Get a study report *if* it is marked public, as this call does not require the user to be authenticated.
      */
@@ -237,6 +389,19 @@ public class ReportController extends BaseController {
         return createdResult("Report data saved.");
     }
 
+    /**
+     * Developers and workers can save many rows of study report data in one request, for any number of report 
+     * identifiers. Returns whether each row was saved, in request order.
+     */
+    public Result saveStudyReports() throws Exception {
+        UserSession session = getAuthenticatedSession(DEVELOPER, WORKER);
+        
+        List<BulkReportDataItem> items = MAPPER.convertValue(requestToJSON(request()), BULK_REPORT_DATA_TYPE_REF);
+        List<BulkReportDataResult> results = reportService.saveStudyReports(session.getStudyIdentifier(), items);
+        
+        return okResult(results);
+    }
+
     /**
      * A similar method as above but specifying study id only for WORKER
      */
@@ -322,6 +487,16 @@ public class ReportController extends BaseController {
         }
     }
     
+    // Validated before querying, so a bad projection doesn't cost a query.
+    private static boolean isSummaryProjection(String projection) {
+        if (isBlank(projection)) {
+            return false;
+        } else if (SUMMARY_PROJECTION.equals(projection)) {
+            return true;
+        }
+        throw new BadRequestException("invalid projection " + projection);
+    }
+    
     private static LocalDate parseDateHelper(String dateStr) {
         if (isBlank(dateStr)) {
             return null;
@@ -7,8 +7,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import play.mvc.Result;
 
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.JsonUtils;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserDataPurgeStatus;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.accounts.UserSessionInfo;
 import org.sagebionetworks.bridge.models.studies.Study;
@@ -61,12 +63,30 @@ public class UserManagementController extends BaseController {
         return createdResult("User created.");
     }
 
-    public Result deleteUser(String userId) throws Exception {
+    /**
+     * Deletes the user and all of the user's data. If async is "true", the deletion runs in the background, and this
+     * returns 202 with the deletion's status, which can be polled with {@link #getDeleteUserStatus}.
+     */
+    public Result deleteUser(String userId, String async) throws Exception {
         UserSession session = getAuthenticatedSession(ADMIN);
         Study study = studyService.getStudy(session.getStudyIdentifier());
         
+        if (Boolean.parseBoolean(async)) {
+            UserDataPurgeStatus status = userAdminService.deleteUserAsync(study, userId);
+            return acceptedResult(status);
+        }
         userAdminService.deleteUser(study, userId);
         
         return okResult("User deleted.");
     }
+
+    public Result getDeleteUserStatus(String userId) throws Exception {
+        UserSession session = getAuthenticatedSession(ADMIN);
+
+        UserDataPurgeStatus status = userAdminService.getDeleteUserStatus(session.getStudyIdentifier(), userId);
+        if (status == null) {
+            throw new EntityNotFoundException(UserDataPurgeStatus.class);
+        }
+        return okResult(status);
+    }
 }
@@ -50,6 +50,12 @@ public interface RedisKey {
     RedisKey VIEW = new SimpleKey("view");
 
     RedisKey STUDY_EMAIL_STATUS = new SimpleKey("study-email-status");
+
+    /** Progress of deleting a user's data, by study ID and user ID ("studyId:userId"). */
+    RedisKey USER_DATA_PURGE = new SimpleKey("user-data-purge");
+
+    /** Progress of a resumable backfill, by backfill name. */
+    RedisKey BACKFILL_CHECKPOINT = new SimpleKey("backfill-checkpoint");
     
     String SEPARATOR = ":";
 
@@ -1,11 +1,10 @@
 package org.sagebionetworks.bridge.services;
 
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
-import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
-import org.sagebionetworks.bridge.exceptions.NotFoundException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.healthdata.*;
 import org.sagebionetworks.bridge.validators.RecordExportStatusRequestValidator;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -85,6 +84,17 @@ public class HealthDataService {
         return healthDataDao.deleteRecordsForHealthCode(healthCode);
     }
 
+    /**
+     * Same as {@link #deleteRecordsForHealthCode(String)}, but calls onPageDeleted after each page of records is
+     * deleted.
+     */
+    public int deleteRecordsForHealthCode(String healthCode, Runnable onPageDeleted) {
+        if (StringUtils.isBlank(healthCode)) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_BLANK, "healthCode"));
+        }
+        return healthDataDao.deleteRecordsForHealthCode(healthCode, onPageDeleted);
+    }
+
     /**
      * Gets the health data record using the record ID.
      *
@@ -111,7 +121,45 @@ public class HealthDataService {
      * @return list of health data records
      */
     public List<HealthDataRecord> getRecordsForUploadDate(String uploadDate) {
-        // validate upload date
+        validateUploadDate(uploadDate);
+
+        // call through to DAO
+        return healthDataDao.getRecordsForUploadDate(uploadDate);
+    }
+
+    /**
+     * Returns a single page of health data records with the given upload date. Pass the offset key from each page in
+     * to get the next page.
+     *
+     * @param uploadDate
+     *         an upload date in YYYY-MM-DD format, must be non-null, non-empty, and represent a valid date
+     * @param pageSize
+     *         max number of records to return
+     * @param offsetKey
+     *         offset key from the previous page, or null to get the first page
+     * @return page of health data records
+     */
+    public ForwardCursorPagedResourceList<HealthDataRecord> getRecordsForUploadDate(String uploadDate, int pageSize,
+            String offsetKey) {
+        validateUploadDate(uploadDate);
+        return healthDataDao.getRecordsForUploadDate(uploadDate, pageSize, offsetKey);
+    }
+
+    /**
+     * Returns an iterator over all health data records with the given upload date. Records are loaded as the iterator
+     * is consumed, so unlike {@link #getRecordsForUploadDate(String)}, this doesn't hold a whole day of records in
+     * memory. This method is generally called by worker apps as part of data export.
+     *
+     * @param uploadDate
+     *         an upload date in YYYY-MM-DD format, must be non-null, non-empty, and represent a valid date
+     * @return iterator over health data records
+     */
+    public Iterator<HealthDataRecord> getRecordIteratorForUploadDate(String uploadDate) {
+        validateUploadDate(uploadDate);
+        return healthDataDao.getRecordIteratorForUploadDate(uploadDate);
+    }
+
+    private static void validateUploadDate(String uploadDate) {
         if (StringUtils.isBlank(uploadDate)) {
             throw new BadRequestException(String.format(Validate.CANNOT_BE_BLANK, "uploadDate"));
         }
@@ -123,9 +171,6 @@ public class HealthDataService {
         } catch (IllegalArgumentException ex) {
             throw new BadRequestException(String.format("Expected date format YYYY-MM-DD, received %s", uploadDate));
         }
-
-        // call through to DAO
-        return healthDataDao.getRecordsForUploadDate(uploadDate);
     }
 
     public List<HealthDataRecord> getRecordsByHealthcodeCreatedOnSchemaId(String healthCode, Long createdOn, String schemaId) {
@@ -165,6 +210,29 @@ public class HealthDataService {
         return healthDataAttachmentDao.createOrUpdateAttachment(attachment);
     }
 
+    /**
+     * Creates or updates a list of health data attachments in a batch. This follows the same rules as
+     * {@link #createOrUpdateAttachment}.
+     *
+     * @param attachmentList
+     *         health data attachments to create or update
+     * @return attachment IDs of the created or updated attachments, in the same order as the attachment list
+     */
+    public List<String> createOrUpdateAttachments(List<HealthDataAttachment> attachmentList) {
+        // validate attachments
+        if (attachmentList == null) {
+            throw new InvalidEntityException(String.format(Validate.CANNOT_BE_NULL, "HealthDataAttachment list"));
+        }
+        for (HealthDataAttachment oneAttachment : attachmentList) {
+            if (oneAttachment == null) {
+                throw new InvalidEntityException(String.format(Validate.CANNOT_BE_NULL, "HealthDataAttachment"));
+            }
+        }
+
+        // call through to DAO
+        return healthDataAttachmentDao.createOrUpdateAttachments(attachmentList);
+    }
+
     /* BUILDERS */
 
     /** Returns a builder object, used for building attachments, for create or update. */
@@ -194,15 +262,7 @@ public class HealthDataService {
             throw new BadRequestException("Size of the record ids list exceeds the limit.");
         }
 
-        List<String> updatedRecordIds = healthRecordIds.stream().map(id->{
-            DynamoHealthDataRecord record = (DynamoHealthDataRecord) getRecordById(id);
-            if (record == null) {
-                throw new NotFoundException("The record: " + id + " cannot be found in our database.");
-            }
-            record.setSynapseExporterStatus(synapseExporterStatus);
-            return createOrUpdateRecord(record);
-        }).collect(Collectors.toList());
-
-        return updatedRecordIds;
+        // Only the exporter status changes, so there's no need to load and rewrite whole records.
+        return healthDataDao.updateExporterStatus(healthRecordIds, synapseExporterStatus);
     }
 }
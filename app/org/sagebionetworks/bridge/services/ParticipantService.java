@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.services;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.Roles.ADMINISTRATIVE_ROLES;
@@ -213,6 +214,23 @@ public class ParticipantService {
         return accountDao.getPagedAccountSummaries(study, offsetBy, pageSize, emailFilter, startDate, endDate);
     }
 
+    /**
+     * Gets a page of account summaries by offset key. Unlike {@link #getPagedAccountSummaries}, deep pages cost the 
+     * same as the first page, and the email filter only matches email prefixes.
+     */
+    public ForwardCursorPagedResourceList<AccountSummary> getPagedAccountSummariesV4(Study study, String offsetKey,
+            Integer pageSize, String emailPrefix, DateTime startDate, DateTime endDate) {
+        checkNotNull(study);
+        int pageSizeInt = (pageSize == null ? API_DEFAULT_PAGE_SIZE : pageSize);
+        if (pageSizeInt < API_MINIMUM_PAGE_SIZE || pageSizeInt > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+        if (startDate != null && endDate != null && startDate.getMillis() >= endDate.getMillis()) {
+            throw new BadRequestException(DATE_RANGE_ERROR);
+        }
+        return accountDao.getPagedAccountSummariesV4(study, offsetKey, pageSizeInt, emailPrefix, startDate, endDate);
+    }
+
     public void signUserOut(Study study, String email) {
         checkNotNull(study);
         checkArgument(isNotBlank(email));
@@ -279,10 +297,8 @@ public class ParticipantService {
     }
 
     private void throwExceptionIfLimitMetOrExceeded(Study study) {
-        // It's sufficient to get minimum number of records the total if for all records
-        PagedResourceList<AccountSummary> summaries = getPagedAccountSummaries(study, 0,
-                BridgeConstants.API_MINIMUM_PAGE_SIZE, null, null, null);
-        if (summaries.getTotal() >= study.getAccountLimit()) {
+        // The paged summaries' total is cached and can lag behind, so count directly.
+        if (accountDao.getStudyAccountCount(study) >= study.getAccountLimit()) {
             throw new LimitExceededException(String.format(BridgeConstants.MAX_USERS_ERROR, study.getAccountLimit()));
         }
     }
@@ -0,0 +1,170 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.accounts.PasswordAlgorithm;
+
+/**
+ * <p>
+ * Runs password hashing on its own thread pool. Password hashes are deliberately expensive (a large fraction of a
+ * second of CPU each), so a burst of sign-ins, like the one after a push notification, would otherwise tie up every
+ * request thread and stall unrelated calls.
+ * </p>
+ * <p>
+ * The pool has a fixed number of threads and a bounded queue. If the queue is full, or a hash waits longer than the
+ * configured maximum, the caller gets a 503 right away, so clients back off and retry. Pool metrics are logged
+ * periodically.
+ * </p>
+ */
+@Component
+public class PasswordHashService {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHashService.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_MAX_WAIT_MILLIS = "password.hash.max.wait.millis";
+    static final String CONFIG_KEY_METRICS_INTERVAL_SECONDS = "password.hash.metrics.interval.seconds";
+    static final String SERVICE_UNAVAILABLE_MESSAGE = "Too many sign-ins are in progress. Please try again later.";
+
+    private int maxWaitMillis;
+    private int metricsIntervalSeconds;
+    private ThreadPoolExecutor passwordHashExecutor;
+    private ScheduledExecutorService scheduledExecutorService;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /** Sets the maximum wait and the metrics interval from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        maxWaitMillis = config.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS);
+        metricsIntervalSeconds = config.getPropertyAsInt(CONFIG_KEY_METRICS_INTERVAL_SECONDS);
+    }
+
+    /** Bounded thread pool that runs the hashes. This is configured by Spring. */
+    @Resource(name = "passwordHashExecutorService")
+    public final void setPasswordHashExecutor(ThreadPoolExecutor passwordHashExecutor) {
+        this.passwordHashExecutor = passwordHashExecutor;
+    }
+
+    /** Scheduled executor, used to periodically log pool metrics. This is configured by Spring. */
+    @Resource(name = "passwordHashMetricsExecutor")
+    public final void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    /** Starts periodic logging of pool metrics. Called by Spring after the service is configured. */
+    @PostConstruct
+    public void scheduleMetrics() {
+        scheduledExecutorService.scheduleAtFixedRate(this::logMetrics, metricsIntervalSeconds,
+                metricsIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Checks the plaintext against the hash with the given algorithm, on the password hash thread pool. Throws a
+     * ServiceUnavailableException if the pool is saturated.
+     */
+    public boolean checkHash(PasswordAlgorithm algorithm, String hash, String plaintext)
+            throws InvalidKeyException, InvalidKeySpecException, NoSuchAlgorithmException {
+        checkNotNull(algorithm);
+        return runOnHashPool(() -> algorithm.checkHash(hash, plaintext));
+    }
+
+    /**
+     * Generates a hash of the plaintext with the given algorithm, on the password hash thread pool. Throws a
+     * ServiceUnavailableException if the pool is saturated.
+     */
+    public String generateHash(PasswordAlgorithm algorithm, String plaintext)
+            throws InvalidKeyException, InvalidKeySpecException, NoSuchAlgorithmException {
+        checkNotNull(algorithm);
+        return runOnHashPool(() -> algorithm.generateHash(plaintext));
+    }
+
+    /**
+     * Snapshot of pool metrics: hashes running and queued right now, and the number of hashes completed, rejected
+     * because the queue was full, and timed out, since the server started.
+     */
+    public Map<String, Long> getMetrics() {
+        return ImmutableMap.of(
+                "active", (long) passwordHashExecutor.getActiveCount(),
+                "queued", (long) passwordHashExecutor.getQueue().size(),
+                "completed", passwordHashExecutor.getCompletedTaskCount(),
+                "rejected", rejectedCount.get(),
+                "timedOut", timedOutCount.get());
+    }
+
+    /** Logs pool metrics as a single JSON line. Package-scoped so unit tests can call it directly. */
+    void logMetrics() {
+        // If this throws, the executor silently stops logging pool metrics for the life of the server. An Error
+        // would do that just as well as a RuntimeException, so catch Throwable.
+        try {
+            ObjectNode json = MAPPER.createObjectNode();
+            json.set("password_hash_pool", MAPPER.valueToTree(getMetrics()));
+            logger.info(json.toString());
+        } catch (Throwable t) {
+            logger.error("Error logging password hash pool metrics: " + t.getMessage(), t);
+        }
+    }
+
+    // Runs the task on the hash pool and waits for the result, failing fast if the pool is saturated. Exceptions from
+    // the task are rethrown as is.
+    private <T> T runOnHashPool(Callable<T> task) throws InvalidKeyException, InvalidKeySpecException,
+            NoSuchAlgorithmException {
+        Future<T> future;
+        try {
+            future = passwordHashExecutor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            rejectedCount.incrementAndGet();
+            throw new ServiceUnavailableException(SERVICE_UNAVAILABLE_MESSAGE);
+        }
+
+        try {
+            return future.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Nobody is waiting for the result anymore. If the hash hasn't started, this keeps it from running.
+            future.cancel(true);
+            timedOutCount.incrementAndGet();
+            throw new ServiceUnavailableException(SERVICE_UNAVAILABLE_MESSAGE);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Interrupted while waiting for password hash");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            Throwables.propagateIfInstanceOf(cause, InvalidKeyException.class);
+            Throwables.propagateIfInstanceOf(cause, InvalidKeySpecException.class);
+            Throwables.propagateIfInstanceOf(cause, NoSuchAlgorithmException.class);
+            Throwables.propagateIfPossible(cause);
+            throw new BridgeServiceException(cause);
+        }
+    }
+}
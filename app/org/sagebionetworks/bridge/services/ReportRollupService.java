@@ -0,0 +1,245 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.ReportDataDao;
+import org.sagebionetworks.bridge.dao.ReportRollupDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * Keeps weekly and monthly rollups of report data, so clients that chart long date ranges can read one record per
+ * bucket instead of one per day. Each rollup has the count, sum, min, max, and average of every top-level numeric
+ * field in the report data for its week or month.
+ * </p>
+ * <p>
+ * Rollups are updated when report data is written or deleted. Only the buckets containing the changed dates are
+ * recomputed, from that bucket's daily records (at most a month of them). Recomputing, rather than adding the new
+ * values to the old totals, means re-saving a day doesn't count it twice, and min and max stay correct when a day is
+ * overwritten or deleted.
+ * </p>
+ * <p>
+ * Recomputing happens in the background, so saving report data doesn't wait for it. Each bucket is recomputed once,
+ * a short delay after the first write to it, so a burst of writes to the same week or month only recomputes it once.
+ * Rollups are versioned. If another server recomputes the same bucket at the same time, the loser recomputes again
+ * rather than overwriting the newer rollup.
+ * </p>
+ */
+@Component
+public class ReportRollupService {
+    private static final Logger LOG = LoggerFactory.getLogger(ReportRollupService.class);
+
+    // package-scoped to be available in unit tests
+    static final String COUNT = "count";
+    static final String SUM = "sum";
+    static final String MIN = "min";
+    static final String MAX = "max";
+    static final String AVERAGE = "average";
+    static final String CONFIG_KEY_DELAY_MILLIS = "report.rollup.delay.millis";
+
+    // Buckets waiting to be recomputed on this server, so repeated writes to a bucket only schedule it once.
+    private final Set<String> pendingBucketSet = Sets.newConcurrentHashSet();
+
+    private int delayMillis;
+    private ReportDataDao reportDataDao;
+    private ReportRollupDao reportRollupDao;
+    private ScheduledExecutorService scheduledExecutorService;
+
+    /** Sets how long to wait after a write before recomputing its buckets, from the specified Bridge config. */
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        delayMillis = config.getPropertyAsInt(CONFIG_KEY_DELAY_MILLIS);
+    }
+
+    @Autowired
+    final void setReportDataDao(ReportDataDao reportDataDao) {
+        this.reportDataDao = reportDataDao;
+    }
+
+    @Autowired
+    final void setReportRollupDao(ReportRollupDao reportRollupDao) {
+        this.reportRollupDao = reportRollupDao;
+    }
+
+    /** Scheduled executor, which recomputes rollups in the background. This is configured by Spring. */
+    @Resource(name = "reportRollupExecutor")
+    final void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    /** Gets the rollups for every bucket of the given period that overlaps the given date range. */
+    public DateRangeResourceList<? extends ReportRollup> getRollups(ReportDataKey key, ReportRollupPeriod period,
+            LocalDate startDate, LocalDate endDate) {
+        checkNotNull(key);
+        checkNotNull(period);
+        checkNotNull(startDate);
+        checkNotNull(endDate);
+
+        // Rollups are stored by the first day of their bucket. Include the bucket the start date falls in.
+        DateRangeResourceList<? extends ReportRollup> rollups = reportRollupDao.getRollups(key, period,
+                period.getStartDate(startDate), endDate);
+        return new DateRangeResourceList<>(rollups.getItems(), startDate, endDate);
+    }
+
+    /**
+     * Schedules the weekly and monthly rollups containing the given dates to be recomputed, after report data for
+     * those dates was written or deleted. This returns right away. The report data is already saved at this point, so
+     * errors are logged rather than thrown. The next write to the same bucket fixes the rollup.
+     */
+    public void updateRollups(ReportDataKey key, Collection<LocalDate> dates) {
+        checkNotNull(key);
+        checkNotNull(dates);
+
+        for (ReportRollupPeriod period : ReportRollupPeriod.values()) {
+            // Many dates in the same bucket only need one update.
+            Set<LocalDate> bucketStartDateSet = new TreeSet<>();
+            for (LocalDate date : dates) {
+                bucketStartDateSet.add(period.getStartDate(date));
+            }
+            for (LocalDate bucketStartDate : bucketStartDateSet) {
+                scheduleUpdate(key, period, bucketStartDate);
+            }
+        }
+    }
+
+    /** Deletes all rollups for a report, after all of its data was deleted. */
+    public void deleteRollups(ReportDataKey key) {
+        checkNotNull(key);
+
+        reportRollupDao.deleteRollups(key);
+    }
+
+    // Schedules the bucket to be recomputed, unless it's already waiting. The waiting update reads the bucket's data
+    // when it runs, so it picks up this write too.
+    private void scheduleUpdate(ReportDataKey key, ReportRollupPeriod period, LocalDate bucketStartDate) {
+        String bucketId = key.getKeyString() + ":" + period.name() + ":" + bucketStartDate;
+        if (!pendingBucketSet.add(bucketId)) {
+            return;
+        }
+
+        try {
+            scheduledExecutorService.schedule(() -> {
+                // Remove the bucket before reading its data, so writes made while we recompute schedule another
+                // update.
+                pendingBucketSet.remove(bucketId);
+                updateRollup(key, period, bucketStartDate);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            pendingBucketSet.remove(bucketId);
+            LOG.error("Error scheduling " + period + " rollup starting " + bucketStartDate + " for report " +
+                    key.getKeyString() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    // Recomputes a single bucket. Package-scoped so unit tests can call it directly.
+    void updateRollup(ReportDataKey key, ReportRollupPeriod period, LocalDate bucketStartDate) {
+        // Exceptions thrown out of a scheduled task are never seen, so we need to catch everything here.
+        try {
+            // Read the old rollup first, so if another server saves a rollup after this, ours fails the version check.
+            ReportRollup oldRollup = reportRollupDao.getRollup(key, period, bucketStartDate);
+
+            LocalDate bucketEndDate = period.getEndDate(bucketStartDate);
+            DateRangeResourceList<? extends ReportData> reportDataList = reportDataDao.getReportData(key,
+                    bucketStartDate, bucketEndDate);
+            if (reportDataList.getItems().isEmpty()) {
+                // Nothing left in this bucket.
+                if (oldRollup != null) {
+                    reportRollupDao.deleteRollup(key, period, oldRollup);
+                }
+                return;
+            }
+
+            ReportRollup rollup = ReportRollup.create();
+            rollup.setStartDate(bucketStartDate);
+            rollup.setEndDate(bucketEndDate);
+            rollup.setDayCount(reportDataList.getItems().size());
+            rollup.setData(aggregate(reportDataList.getItems()));
+            rollup.setVersion(oldRollup != null ? oldRollup.getVersion() : null);
+            reportRollupDao.saveRollup(key, period, rollup);
+        } catch (ConcurrentModificationException ex) {
+            // Another server changed the rollup since we read it, maybe from data older than ours. Recompute again.
+            scheduleUpdate(key, period, bucketStartDate);
+        } catch (RuntimeException ex) {
+            LOG.error("Error updating " + period + " rollup starting " + bucketStartDate + " for report " +
+                    key.getKeyString() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Aggregates the top-level numeric fields of the given report data. Fields that aren't numbers (or aren't in every
+     * record) only count the records where they are numbers. Package-scoped to be available in unit tests.
+     */
+    static ObjectNode aggregate(Collection<? extends ReportData> reportDataList) {
+        // Sorted, so the rollup's fields come out in a stable order.
+        Map<String, FieldStats> statsByField = new TreeMap<>();
+        for (ReportData reportData : reportDataList) {
+            JsonNode data = reportData.getData();
+            if (data == null || !data.isObject()) {
+                continue;
+            }
+            Iterator<Map.Entry<String, JsonNode>> fieldIter = data.fields();
+            while (fieldIter.hasNext()) {
+                Map.Entry<String, JsonNode> field = fieldIter.next();
+                if (field.getValue().isNumber()) {
+                    statsByField.computeIfAbsent(field.getKey(), fieldName -> new FieldStats())
+                            .add(field.getValue().doubleValue());
+                }
+            }
+        }
+
+        ObjectNode rollupData = BridgeObjectMapper.get().createObjectNode();
+        for (Map.Entry<String, FieldStats> oneFieldStats : statsByField.entrySet()) {
+            FieldStats stats = oneFieldStats.getValue();
+            ObjectNode fieldNode = rollupData.putObject(oneFieldStats.getKey());
+            fieldNode.put(COUNT, stats.count);
+            fieldNode.put(SUM, stats.sum);
+            fieldNode.put(MIN, stats.min);
+            fieldNode.put(MAX, stats.max);
+            fieldNode.put(AVERAGE, stats.sum / stats.count);
+        }
+        return rollupData;
+    }
+
+    // Running totals for a single field.
+    private static class FieldStats {
+        int count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+}
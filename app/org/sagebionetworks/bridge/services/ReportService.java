@@ -1,6 +1,14 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.LocalDate;
 import org.joda.time.Period;
@@ -11,21 +19,34 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataItem;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataResult;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 
+import com.google.common.collect.ImmutableList;
+
 @Component
 public class ReportService {
     private static final int MAX_RANGE_DAYS = 45;
+    private static final int MAX_ROLLUP_RANGE_YEARS = 2;
+    // package-scoped to be available in unit tests
+    static final int MAX_BULK_REPORT_DATA = 1000;
     
     private ReportDataDao reportDataDao;
     private ReportIndexDao reportIndexDao;
+    private ReportRollupService reportRollupService;
     
     @Autowired
     final void setReportDataDao(ReportDataDao reportDataDao) {
@@ -37,6 +58,11 @@ public class ReportService {
         this.reportIndexDao = reportIndexDao;
     }
     
+    @Autowired
+    final void setReportRollupService(ReportRollupService reportRollupService) {
+        this.reportRollupService = reportRollupService;
+    }
+    
     public ReportIndex getReportIndex(ReportDataKey key) {
         checkNotNull(key);
         
@@ -74,6 +100,137 @@ public class ReportService {
         return reportDataDao.getReportData(key, startDate, endDate);
     }
 
+    /**
+     * Gets a page of a study report. Unlike {@link #getStudyReport}, the date range isn't limited, since the page size
+     * bounds how much is returned at once.
+     */
+    public ForwardCursorPagedResourceList<ReportData> getStudyReportV4(StudyIdentifier studyId, String identifier,
+            LocalDate startDate, LocalDate endDate, Integer pageSize, String offsetKey) {
+        // ReportDataKey validates all parameters to this method
+
+        startDate = defaultValueToMinusDays(startDate, 1);
+        endDate = defaultValueToMinusDays(endDate, 0);
+        validateDateOrder(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportDataDao.getReportDataV4(key, startDate, endDate,
+                (pageSize == null ? API_DEFAULT_PAGE_SIZE : pageSize.intValue()), offsetKey);
+    }
+
+    /**
+     * Gets a page of a participant report. Unlike {@link #getParticipantReport}, the date range isn't limited, since
+     * the page size bounds how much is returned at once.
+     */
+    public ForwardCursorPagedResourceList<ReportData> getParticipantReportV4(StudyIdentifier studyId,
+            String identifier, String healthCode, LocalDate startDate, LocalDate endDate, Integer pageSize,
+            String offsetKey) {
+        // ReportDataKey validates all parameters to this method
+
+        startDate = defaultValueToMinusDays(startDate, 1);
+        endDate = defaultValueToMinusDays(endDate, 0);
+        validateDateOrder(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withHealthCode(healthCode)
+                .withReportType(ReportType.PARTICIPANT)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportDataDao.getReportDataV4(key, startDate, endDate,
+                (pageSize == null ? API_DEFAULT_PAGE_SIZE : pageSize.intValue()), offsetKey);
+    }
+
+    /**
+     * Same as {@link #getStudyReportV4}, but only returns the date and data size of each record. Used when the caller
+     * only wants to know which dates have data.
+     */
+    public ForwardCursorPagedResourceList<ReportDataSummary> getStudyReportSummariesV4(StudyIdentifier studyId,
+            String identifier, LocalDate startDate, LocalDate endDate, Integer pageSize, String offsetKey) {
+        // ReportDataKey validates all parameters to this method
+
+        startDate = defaultValueToMinusDays(startDate, 1);
+        endDate = defaultValueToMinusDays(endDate, 0);
+        validateDateOrder(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportDataDao.getReportDataSummariesV4(key, startDate, endDate,
+                (pageSize == null ? API_DEFAULT_PAGE_SIZE : pageSize.intValue()), offsetKey);
+    }
+
+    /**
+     * Same as {@link #getParticipantReportV4}, but only returns the date and data size of each record.
+     */
+    public ForwardCursorPagedResourceList<ReportDataSummary> getParticipantReportSummariesV4(
+            StudyIdentifier studyId, String identifier, String healthCode, LocalDate startDate, LocalDate endDate,
+            Integer pageSize, String offsetKey) {
+        // ReportDataKey validates all parameters to this method
+
+        startDate = defaultValueToMinusDays(startDate, 1);
+        endDate = defaultValueToMinusDays(endDate, 0);
+        validateDateOrder(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withHealthCode(healthCode)
+                .withReportType(ReportType.PARTICIPANT)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportDataDao.getReportDataSummariesV4(key, startDate, endDate,
+                (pageSize == null ? API_DEFAULT_PAGE_SIZE : pageSize.intValue()), offsetKey);
+    }
+
+    /**
+     * Gets the weekly or monthly rollups of a study report. Each rollup covers a whole bucket, so the first rollup can
+     * start before the start date. Defaults to the last year of rollups.
+     */
+    public DateRangeResourceList<? extends ReportRollup> getStudyReportRollups(StudyIdentifier studyId,
+            String identifier, ReportRollupPeriod period, LocalDate startDate, LocalDate endDate) {
+        checkNotNull(period);
+        // ReportDataKey validates all other parameters to this method
+
+        endDate = defaultValueToMinusDays(endDate, 0);
+        startDate = (startDate == null) ? endDate.minusYears(1) : startDate;
+        validateRollupDateRange(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportRollupService.getRollups(key, period, startDate, endDate);
+    }
+
+    /**
+     * Gets the weekly or monthly rollups of a participant report. Otherwise the same as
+     * {@link #getStudyReportRollups}.
+     */
+    public DateRangeResourceList<? extends ReportRollup> getParticipantReportRollups(StudyIdentifier studyId,
+            String identifier, String healthCode, ReportRollupPeriod period, LocalDate startDate,
+            LocalDate endDate) {
+        checkNotNull(period);
+        // ReportDataKey validates all other parameters to this method
+
+        endDate = defaultValueToMinusDays(endDate, 0);
+        startDate = (startDate == null) ? endDate.minusYears(1) : startDate;
+        validateRollupDateRange(startDate, endDate);
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withHealthCode(healthCode)
+                .withReportType(ReportType.PARTICIPANT)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+
+        return reportRollupService.getRollups(key, period, startDate, endDate);
+    }
+
     public void saveStudyReport(StudyIdentifier studyId, String identifier, ReportData reportData) {
         checkNotNull(reportData);
         // ReportDataKey validates all other parameters to this method
@@ -87,6 +244,7 @@ public class ReportService {
         
         reportDataDao.saveReportData(reportData);
         addToIndex(key);
+        reportRollupService.updateRollups(key, ImmutableList.of(reportData.getDate()));
     }
     
     public void saveParticipantReport(StudyIdentifier studyId, String identifier, String healthCode,
@@ -103,9 +261,100 @@ public class ReportService {
         reportData.setKey(key.getKeyString());
         
         reportDataDao.saveReportData(reportData);
-        addToIndex(key);        
+        addToIndex(key);
+        reportRollupService.updateRollups(key, ImmutableList.of(reportData.getDate()));
     }
     
+    /**
+     * Saves many rows of study report data at once, possibly for many report identifiers. Rows are validated
+     * individually, and one bad row doesn't stop the others from being saved. Results are returned in the same order
+     * as the rows.
+     */
+    public List<BulkReportDataResult> saveStudyReports(StudyIdentifier studyId, List<BulkReportDataItem> items) {
+        return saveReports(studyId, ReportType.STUDY, items);
+    }
+
+    /**
+     * Saves many rows of participant report data at once, possibly for many participants and report identifiers. Each
+     * row must have a health code. Otherwise, this works the same as {@link #saveStudyReports}.
+     */
+    public List<BulkReportDataResult> saveParticipantReports(StudyIdentifier studyId,
+            List<BulkReportDataItem> items) {
+        return saveReports(studyId, ReportType.PARTICIPANT, items);
+    }
+
+    private List<BulkReportDataResult> saveReports(StudyIdentifier studyId, ReportType reportType,
+            List<BulkReportDataItem> items) {
+        checkNotNull(studyId);
+        if (items == null || items.isEmpty()) {
+            throw new BadRequestException("Report data list cannot be empty.");
+        }
+        if (items.size() > MAX_BULK_REPORT_DATA) {
+            throw new BadRequestException("Report data list cannot have more than " + MAX_BULK_REPORT_DATA +
+                    " items.");
+        }
+
+        List<BulkReportDataResult> resultList = new ArrayList<>(items.size());
+        List<ReportData> reportDataList = new ArrayList<>();
+        List<ReportDataKey> keyList = new ArrayList<>();
+        List<Integer> positionList = new ArrayList<>();
+        Set<String> recordKeySet = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            BulkReportDataItem item = items.get(i);
+            // Placeholder. Replaced below, once we know whether the write succeeded.
+            resultList.add(null);
+
+            ReportDataKey key;
+            try {
+                // Study reports are never keyed by health code.
+                key = new ReportDataKey.Builder()
+                        .withHealthCode(reportType == ReportType.PARTICIPANT ? item.getHealthCode() : null)
+                        .withReportType(reportType)
+                        .withIdentifier(item.getIdentifier())
+                        .withStudyIdentifier(studyId)
+                        .validateWithDate(item.getDate()).build();
+            } catch (InvalidEntityException ex) {
+                resultList.set(i, BulkReportDataResult.failed(item, ex.getMessage()));
+                continue;
+            }
+
+            // A batch write can't write the same record twice.
+            if (!recordKeySet.add(key.getKeyString() + "|" + item.getDate())) {
+                resultList.set(i, BulkReportDataResult.failed(item, "Report data for " + item.getIdentifier() +
+                        " on " + item.getDate() + " appears more than once in this request."));
+                continue;
+            }
+
+            ReportData reportData = ReportData.create();
+            reportData.setKey(key.getKeyString());
+            reportData.setDate(item.getDate());
+            reportData.setData(item.getData());
+            reportDataList.add(reportData);
+            keyList.add(key);
+            positionList.add(i);
+        }
+
+        Set<ReportData> failedSet = new HashSet<>(reportDataDao.saveReportDataBatch(reportDataList));
+
+        // Index and roll up each report we wrote to once, rather than once per row.
+        Map<ReportDataKey, Set<LocalDate>> savedDatesByKey = new LinkedHashMap<>();
+        for (int i = 0; i < reportDataList.size(); i++) {
+            int position = positionList.get(i);
+            BulkReportDataItem item = items.get(position);
+            if (failedSet.contains(reportDataList.get(i))) {
+                resultList.set(position, BulkReportDataResult.failed(item, "Error saving report data."));
+            } else {
+                resultList.set(position, BulkReportDataResult.saved(item));
+                savedDatesByKey.computeIfAbsent(keyList.get(i), key -> new HashSet<>()).add(item.getDate());
+            }
+        }
+        if (!savedDatesByKey.isEmpty()) {
+            reportIndexDao.addIndices(savedDatesByKey.keySet());
+            savedDatesByKey.forEach(reportRollupService::updateRollups);
+        }
+        return resultList;
+    }
+
     public void deleteStudyReport(StudyIdentifier studyId, String identifier) {
         // ReportDataKey validates all parameters to this method
 
@@ -116,6 +365,7 @@ public class ReportService {
         
         reportDataDao.deleteReportData(key);
         reportIndexDao.removeIndex(key);
+        reportRollupService.deleteRollups(key);
     }
     
     public void deleteStudyReportRecord(StudyIdentifier studyId, String identifier, LocalDate date) {
@@ -126,6 +376,7 @@ public class ReportService {
                 .validateWithDate(date).build();
         
         reportDataDao.deleteReportDataRecord(key, date);
+        reportRollupService.updateRollups(key, ImmutableList.of(date));
         
         // If this is the last key visible in the window, you can delete the index because this is a study record
         LocalDate startDate = LocalDate.now().minusDays(MAX_RANGE_DAYS);
@@ -153,6 +404,7 @@ public class ReportService {
                 .withStudyIdentifier(studyId).build();
         
         reportDataDao.deleteReportData(key);
+        reportRollupService.deleteRollups(key);
     }
     
     public void deleteParticipantReportRecord(StudyIdentifier studyId, String identifier, LocalDate date, String healthCode) {
@@ -164,6 +416,7 @@ public class ReportService {
                 .validateWithDate(date).build();
         
         reportDataDao.deleteReportDataRecord(key, date);
+        reportRollupService.updateRollups(key, ImmutableList.of(date));
     }
     
     public void deleteParticipantReportIndex(StudyIdentifier studyId, String identifier) {
@@ -196,13 +449,25 @@ public class ReportService {
     }
     
     private void validateDateRange(LocalDate startDate, LocalDate endDate) {
-        if (startDate.isAfter(endDate)) {
-            throw new BadRequestException("Start date " + startDate + " can't be after end date " + endDate);
-        }
+        validateDateOrder(startDate, endDate);
         Period dateRange = new Period(startDate, endDate, PeriodType.days());
         if (dateRange.getDays() > MAX_RANGE_DAYS) {
             throw new BadRequestException("Date range cannot exceed " + MAX_RANGE_DAYS + " days, startDate=" +
                     startDate + ", endDate=" + endDate);
         }    
     }
+
+    private void validateRollupDateRange(LocalDate startDate, LocalDate endDate) {
+        validateDateOrder(startDate, endDate);
+        if (startDate.plusYears(MAX_ROLLUP_RANGE_YEARS).isBefore(endDate)) {
+            throw new BadRequestException("Date range cannot exceed " + MAX_ROLLUP_RANGE_YEARS + " years, startDate=" +
+                    startDate + ", endDate=" + endDate);
+        }
+    }
+
+    private void validateDateOrder(LocalDate startDate, LocalDate endDate) {
+        if (startDate.isAfter(endDate)) {
+            throw new BadRequestException("Start date " + startDate + " can't be after end date " + endDate);
+        }
+    }
 }
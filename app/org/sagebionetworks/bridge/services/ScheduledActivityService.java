@@ -294,6 +294,13 @@ public class ScheduledActivityService {
         activityDao.deleteActivitiesForUser(healthCode);
     }
 
+    /** Same as {@link #deleteActivitiesForUser(String)}, but calls onPageDeleted after each page of activities. */
+    public void deleteActivitiesForUser(String healthCode, Runnable onPageDeleted) {
+        checkArgument(isNotBlank(healthCode));
+
+        activityDao.deleteActivitiesForUser(healthCode, onPageDeleted);
+    }
+
     protected List<ScheduledActivity> orderActivities(List<ScheduledActivity> activities,
             Predicate<ScheduledActivity> filter) {
         return activities.stream()
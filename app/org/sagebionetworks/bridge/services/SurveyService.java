@@ -7,12 +7,16 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.SurveyDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.ConstraintViolationException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -40,6 +44,21 @@ import org.springframework.validation.Validator;
 @Component
 public class SurveyService {
 
+    // Max number of published survey versions kept in the survey cache. Package-scoped to facilitate unit tests.
+    static final int SURVEY_CACHE_MAX_SIZE = 1000;
+
+    // Published survey versions can't be modified, but they can be deleted through other nodes, which don't clear this
+    // node's cache. Package-scoped to facilitate unit tests.
+    static final int SURVEY_CACHE_EXPIRE_MINUTES = 10;
+
+    // Cache of fully assembled published survey versions, keyed by guid and createdOn. Loading a survey means
+    // querying both the survey and all of its elements. The cache holds private copies, and callers always get their
+    // own copy, since callers are allowed to modify the survey. The DynamoSurvey copy constructor rebuilds each element
+    // from a copy of its data, so no element, constraint, or option is shared between copies.
+    private final Cache<String, DynamoSurvey> publishedSurveyCache = CacheBuilder.newBuilder()
+            .maximumSize(SURVEY_CACHE_MAX_SIZE).expireAfterWrite(SURVEY_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
     private Validator publishValidator;
     private SurveyDao surveyDao;
     private SchedulePlanService schedulePlanService;
@@ -83,7 +102,17 @@ public class SurveyService {
         checkArgument(StringUtils.isNotBlank(keys.getGuid()), "Survey GUID cannot be null/blank");
         checkArgument(keys.getCreatedOn() != 0L, "Survey createdOn timestamp cannot be 0");
 
-        return surveyDao.getSurvey(keys);
+        String cacheKey = getSurveyCacheKey(keys);
+        DynamoSurvey cachedSurvey = publishedSurveyCache.getIfPresent(cacheKey);
+        if (cachedSurvey != null) {
+            return new DynamoSurvey(cachedSurvey);
+        }
+
+        Survey survey = surveyDao.getSurvey(keys);
+        if (survey != null && survey.isPublished()) {
+            publishedSurveyCache.put(cacheKey, new DynamoSurvey((DynamoSurvey) survey));
+        }
+        return survey;
     }
 
     /**
@@ -125,7 +154,9 @@ public class SurveyService {
         }
         Validate.entityThrowingException(new SurveySaveValidator(dataGroups), survey);
         
-        return surveyDao.updateSurvey(survey);
+        Survey updatedSurvey = surveyDao.updateSurvey(survey);
+        invalidateSurveyCache(survey);
+        return updatedSurvey;
     }
 
     /**
@@ -148,7 +179,9 @@ public class SurveyService {
         Survey survey = surveyDao.getSurvey(keys);
         Validate.entityThrowingException(publishValidator, survey);
 
-        return surveyDao.publishSurvey(study, survey, keys, newSchemaRev);
+        Survey publishedSurvey = surveyDao.publishSurvey(study, survey, keys, newSchemaRev);
+        invalidateSurveyCache(keys);
+        return publishedSurvey;
     }
 
     /**
@@ -187,6 +220,7 @@ public class SurveyService {
         verifySharedModuleExistence(keys);
 
         surveyDao.deleteSurvey(existing);
+        invalidateSurveyCache(keys);
     }
 
     /**
@@ -208,6 +242,17 @@ public class SurveyService {
         checkConstraintsBeforePhysicalDelete(studyId, keys);
 
         surveyDao.deleteSurveyPermanently(keys);
+        invalidateSurveyCache(keys);
+    }
+
+    // Removes the specified survey version from the survey cache. Called whenever a survey version is written.
+    private void invalidateSurveyCache(GuidCreatedOnVersionHolder keys) {
+        publishedSurveyCache.invalidate(getSurveyCacheKey(keys));
+    }
+
+    // Helper method to make the survey cache key.
+    private static String getSurveyCacheKey(GuidCreatedOnVersionHolder keys) {
+        return keys.getGuid() + ":" + keys.getCreatedOn();
     }
 
     // Helper method to verify if there is any shared module related to specified survey
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipException;
 
 import javax.annotation.Nonnull;
 
@@ -16,6 +17,8 @@ import org.sagebionetworks.bridge.util.DuplicateZipEntryException;
 import org.sagebionetworks.bridge.util.ZipOverflowException;
 import org.sagebionetworks.bridge.util.Zipper;
 import org.sagebionetworks.bridge.validators.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -29,6 +32,7 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
  */
 @Component
 public class UploadArchiveService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadArchiveService.class);
 
     private final static Zipper ZIPPER = new Zipper(
             BridgeConfigFactory.getConfig().getPropertyAsInt("max.zip.entry.size"),
@@ -177,4 +181,38 @@ public class UploadArchiveService {
             throw new BadRequestException(e);
         }
     }
+
+    /**
+     * <p>
+     * Like {@link #unzip}, except entries are only decompressed when they're read from the returned map. The zip's
+     * central directory is read first, and the declared entry count and entry sizes are checked before anything is
+     * decompressed, so oversized archives are rejected without inflating them. See
+     * {@link org.sagebionetworks.bridge.util.ZipArchive#asLazyMap}.
+     * </p>
+     * <p>
+     * If the zip has no readable central directory (for example, a truncated upload), this falls back to
+     * {@link #unzip}, which reads entries sequentially.
+     * </p>
+     *
+     * @param bytes
+     *         byte array containing the raw data to unzip, must be non-null
+     * @return raw bytes of unzipped data, keyed by filename, decompressed on first read
+     * @throws BridgeServiceException
+     *         if unzipping fails
+     */
+    public Map<String, byte[]> unzipLazily(@Nonnull byte[] bytes) throws BridgeServiceException {
+        if (bytes == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "bytes"));
+        }
+        try {
+            return ZIPPER.openArchive(bytes).asLazyMap();
+        } catch (ZipException e) {
+            logger.info("Can't read zip central directory, falling back to sequential unzip: " + e.getMessage());
+            return unzip(bytes);
+        } catch (ZipOverflowException e) {
+            throw new BadRequestException(e);
+        } catch (DuplicateZipEntryException e) {
+            throw new BadRequestException(e);
+        }
+    }
 }
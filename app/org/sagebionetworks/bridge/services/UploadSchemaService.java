@@ -11,7 +11,10 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -28,6 +31,7 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.ClientInfo;
 import org.sagebionetworks.bridge.models.sharedmodules.SharedModuleMetadata;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
@@ -45,6 +49,7 @@ import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
 import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.models.upload.UploadSchemaType;
+import org.sagebionetworks.bridge.upload.CompiledSchemaValidator;
 import org.sagebionetworks.bridge.upload.UploadUtil;
 import org.sagebionetworks.bridge.validators.UploadSchemaValidator;
 import org.sagebionetworks.bridge.validators.Validate;
@@ -85,6 +90,35 @@ public class UploadSchemaService {
         UploadSchemaService.singleChoiceDefaultLength = SINGLE_CHOICE_DEFAULT_LENGTH;
     }
 
+    // Max number of schema revisions cached in each of the schema caches. Package-scoped to facilitate unit tests.
+    static final int SCHEMA_CACHE_MAX_SIZE = 1000;
+
+    // Unpublished schema revisions can still be updated through other nodes, so we only cache them briefly.
+    // Package-scoped to facilitate unit tests.
+    static final int UNPUBLISHED_SCHEMA_CACHE_EXPIRE_SECONDS = 60;
+
+    // Published schema revisions can't be modified, but they can be deleted (or fixed by hand) through other nodes,
+    // which don't clear this node's cache. Expire them too, just less often. Package-scoped to facilitate unit tests.
+    static final int PUBLISHED_SCHEMA_CACHE_EXPIRE_MINUTES = 10;
+
+    // Caches for schema revisions, keyed by study ID, schema ID, and revision. These caches hold private copies, and
+    // callers always get their own copy, since callers are allowed to modify the schemas they get back.
+    private final Cache<String, UploadSchema> publishedSchemaCache = CacheBuilder.newBuilder()
+            .maximumSize(SCHEMA_CACHE_MAX_SIZE)
+            .expireAfterWrite(PUBLISHED_SCHEMA_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).build();
+    private final Cache<String, UploadSchema> unpublishedSchemaCache = CacheBuilder.newBuilder()
+            .maximumSize(SCHEMA_CACHE_MAX_SIZE)
+            .expireAfterWrite(UNPUBLISHED_SCHEMA_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS).build();
+
+    // Compiled strict validators, cached next to the schema revisions they were compiled from, with the same keys and
+    // the same expiration. Compiled validators are immutable, so these are shared without copying.
+    private final Cache<String, CompiledSchemaValidator> publishedValidatorCache = CacheBuilder.newBuilder()
+            .maximumSize(SCHEMA_CACHE_MAX_SIZE)
+            .expireAfterWrite(PUBLISHED_SCHEMA_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).build();
+    private final Cache<String, CompiledSchemaValidator> unpublishedValidatorCache = CacheBuilder.newBuilder()
+            .maximumSize(SCHEMA_CACHE_MAX_SIZE)
+            .expireAfterWrite(UNPUBLISHED_SCHEMA_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS).build();
+
     private SharedModuleMetadataService sharedModuleMetadataService;
     private UploadSchemaDao uploadSchemaDao;
 
@@ -124,7 +158,9 @@ public class UploadSchemaService {
         Validate.entityThrowingException(UploadSchemaValidator.INSTANCE, schema);
 
         // call through to DAO
-        return uploadSchemaDao.createSchemaRevision(schema);
+        UploadSchema createdSchema = uploadSchemaDao.createSchemaRevision(schema);
+        invalidateSchemaCache(studyId, schema.getSchemaId(), schema.getRevision());
+        return createdSchema;
     }
 
     /**
@@ -160,7 +196,9 @@ public class UploadSchemaService {
         Validate.entityThrowingException(UploadSchemaValidator.INSTANCE, schema);
 
         // call through to DAO
-        return uploadSchemaDao.createSchemaRevision(schema);
+        UploadSchema createdSchema = uploadSchemaDao.createSchemaRevision(schema);
+        invalidateSchemaCache(studyId, schema.getSchemaId(), schema.getRevision());
+        return createdSchema;
     }
 
     /**
@@ -550,6 +588,9 @@ public class UploadSchemaService {
         }
 
         uploadSchemaDao.deleteUploadSchemas(schemaList);
+        for (UploadSchema oneSchema : schemaList) {
+            invalidateSchemaCache(studyId, schemaId, oneSchema.getRevision());
+        }
     }
 
     /**
@@ -569,6 +610,7 @@ public class UploadSchemaService {
         }
 
         uploadSchemaDao.deleteUploadSchemas(ImmutableList.of(schema));
+        invalidateSchemaCache(studyId, schemaId, rev);
     }
 
     /** Returns all revisions of all schemas. */
@@ -636,7 +678,8 @@ public class UploadSchemaService {
 
     /**
      * Fetches the upload schema for the specified study, schema ID, and revision. If no schema is found, this API
-     * throws an EntityNotFoundException
+     * throws an EntityNotFoundException. Schema revisions are cached in-process, since this is called at least once
+     * for every upload.
      */
     public UploadSchema getUploadSchemaByIdAndRev(StudyIdentifier studyId, String schemaId, int revision) {
         if (StringUtils.isBlank(schemaId)) {
@@ -646,13 +689,53 @@ public class UploadSchemaService {
             throw new BadRequestException("Revision must be specified and positive");
         }
 
+        String cacheKey = getSchemaCacheKey(studyId, schemaId, revision);
+        UploadSchema cachedSchema = publishedSchemaCache.getIfPresent(cacheKey);
+        if (cachedSchema == null) {
+            cachedSchema = unpublishedSchemaCache.getIfPresent(cacheKey);
+        }
+        if (cachedSchema != null) {
+            return copySchema(cachedSchema);
+        }
+
         UploadSchema schema = uploadSchemaDao.getUploadSchemaByIdAndRevision(studyId, schemaId, revision);
         if (schema == null) {
             throw new EntityNotFoundException(UploadSchema.class, "Can't find schema " + schemaId + "-v" + revision);
         }
+        if (schema.getPublished()) {
+            publishedSchemaCache.put(cacheKey, copySchema(schema));
+        } else {
+            unpublishedSchemaCache.put(cacheKey, copySchema(schema));
+        }
         return schema;
     }
 
+    /**
+     * Gets the compiled strict validator for the specified study, schema ID, and revision. This is compiled from the
+     * schema's field definitions the first time it's requested and cached with the schema revision, so upload
+     * validation doesn't have to re-derive field checks for every record.
+     */
+    public CompiledSchemaValidator getCompiledValidator(StudyIdentifier studyId, String schemaId, int revision) {
+        String cacheKey = getSchemaCacheKey(studyId, schemaId, revision);
+        CompiledSchemaValidator validator = publishedValidatorCache.getIfPresent(cacheKey);
+        if (validator == null) {
+            validator = unpublishedValidatorCache.getIfPresent(cacheKey);
+        }
+        if (validator != null) {
+            return validator;
+        }
+
+        // Schema ID and rev are validated by getUploadSchemaByIdAndRev()
+        UploadSchema schema = getUploadSchemaByIdAndRev(studyId, schemaId, revision);
+        validator = CompiledSchemaValidator.compile(schema.getFieldDefinitions());
+        if (schema.getPublished()) {
+            publishedValidatorCache.put(cacheKey, validator);
+        } else {
+            unpublishedValidatorCache.put(cacheKey, validator);
+        }
+        return validator;
+    }
+
     /**
      * Gets the latest available revision of the specified schema for the specified client. This API fetches every
      * schema revision for the specified schema ID, then checks the schema's min/maxAppVersion against the clientInfo.
@@ -710,7 +793,9 @@ public class UploadSchemaService {
         checkNotNull(schemaToUpdate, "uploadSchema must be non-null");
 
         // Get existing schema revision. This also validates schema ID and rev and throws if the schema revision
-        // doesn't exist.
+        // doesn't exist. Invalidate the cache first, so we validate against the latest copy in DDB and not a copy
+        // that might have been updated through another node.
+        invalidateSchemaCache(studyId, schemaId, revision);
         UploadSchema oldSchema = getUploadSchemaByIdAndRev(studyId, schemaId, revision);
 
         // published schema cannot be modified
@@ -785,7 +870,29 @@ public class UploadSchemaService {
         }
 
         // Call through to the DAO
-        return uploadSchemaDao.updateSchemaRevision(schemaToUpdate);
+        UploadSchema updatedSchema = uploadSchemaDao.updateSchemaRevision(schemaToUpdate);
+        invalidateSchemaCache(studyId, schemaId, revision);
+        return updatedSchema;
+    }
+
+    // Removes the specified schema revision from the schema caches. Called whenever a schema revision is written.
+    private void invalidateSchemaCache(StudyIdentifier studyId, String schemaId, int revision) {
+        String cacheKey = getSchemaCacheKey(studyId, schemaId, revision);
+        publishedSchemaCache.invalidate(cacheKey);
+        unpublishedSchemaCache.invalidate(cacheKey);
+        publishedValidatorCache.invalidate(cacheKey);
+        unpublishedValidatorCache.invalidate(cacheKey);
+    }
+
+    // Helper method to make the schema cache key.
+    private static String getSchemaCacheKey(StudyIdentifier studyId, String schemaId, int revision) {
+        return studyId.getIdentifier() + ":" + schemaId + ":" + revision;
+    }
+
+    // Makes a deep copy of the schema, so callers can't modify the cached copy. This goes through JSON (including
+    // the study ID and DDB version), since that's how schemas come in through the API anyway.
+    private static UploadSchema copySchema(UploadSchema schema) {
+        return BridgeObjectMapper.get().convertValue(schema, UploadSchema.class);
     }
 
     // Helper method to get a map of fields by name for an Upload Schema. Returns a TreeMap so our error messaging has
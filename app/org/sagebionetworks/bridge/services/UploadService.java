@@ -371,6 +371,13 @@ public class UploadService {
         uploadDao.deleteUploadsForHealthCode(healthCode);
     }
 
+    /** Same as {@link #deleteUploadsForHealthCode(String)}, but calls onPageDeleted after each page of uploads. */
+    public void deleteUploadsForHealthCode(String healthCode, Runnable onPageDeleted) {
+        checkArgument(isNotBlank(healthCode));
+
+        uploadDao.deleteUploadsForHealthCode(healthCode, onPageDeleted);
+    }
+
     @FunctionalInterface
     private static interface UploadSupplier {
         ForwardCursorPagedResourceList<Upload> get(DateTime startTime, DateTime endTime);
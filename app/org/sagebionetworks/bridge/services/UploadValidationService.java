@@ -1,27 +1,75 @@
 package org.sagebionetworks.bridge.services;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dao.UploadValidationQueueDao;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.models.upload.UploadValidationWorkItem;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskQueue;
 
-/** Service handler for upload validation. */
+/**
+ * Service handler for upload validation. Validation requests are recorded in a durable work queue before they're
+ * handed to the per-study fair queue, so that validations lost to a node restart are re-driven automatically.
+ */
 @Component
 public class UploadValidationService {
-    private ExecutorService asyncExecutorService;
+    private static final Logger logger = LoggerFactory.getLogger(UploadValidationService.class);
+
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_LEASE_SECONDS = "upload.validation.lease.seconds";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "upload.validation.max.attempts";
+    static final String CONFIG_KEY_REDRIVE_INTERVAL_SECONDS = "upload.validation.redrive.interval.seconds";
+    static final int REDRIVE_BATCH_SIZE = 100;
+
+    // Identifies this node's validation workers when claiming leases in the work queue.
+    private final String workerId = BridgeUtils.generateGuid();
+
+    // Uploads waiting in this node's task queue, so the redrive doesn't queue them again.
+    private final Set<String> pendingUploadIdSet = Sets.newConcurrentHashSet();
+
+    private long leaseDurationMillis;
+    private int maxAttempts;
+    private ScheduledExecutorService redriveExecutorService;
+    private int redriveIntervalSeconds;
     private UploadValidationTaskFactory taskFactory;
+    private UploadValidationTaskQueue taskQueue;
+    private UploadDao uploadDao;
+    private UploadValidationQueueDao uploadValidationQueueDao;
 
-    /** Async thread pool. This is configured by Spring. */
-    @Resource(name = "asyncExecutorService")
-    public void setAsyncExecutorService(ExecutorService asyncExecutorService) {
-        this.asyncExecutorService = asyncExecutorService;
+    /** Sets lease and redrive parameters from the specified Bridge config. */
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        leaseDurationMillis = TimeUnit.SECONDS.toMillis(config.getPropertyAsInt(CONFIG_KEY_LEASE_SECONDS));
+        maxAttempts = config.getPropertyAsInt(CONFIG_KEY_MAX_ATTEMPTS);
+        redriveIntervalSeconds = config.getPropertyAsInt(CONFIG_KEY_REDRIVE_INTERVAL_SECONDS);
+    }
+
+    /** Scheduled thread pool that periodically re-drives stalled validations. This is configured by Spring. */
+    @Resource(name = "uploadValidationRedriveExecutor")
+    final void setRedriveExecutorService(ScheduledExecutorService redriveExecutorService) {
+        this.redriveExecutorService = redriveExecutorService;
     }
 
     /** Task factory. This is configured by Spring. */
@@ -30,12 +78,42 @@ public class UploadValidationService {
         this.taskFactory = taskFactory;
     }
 
+    /** Per-study fair queue in front of the async thread pool. This is configured by Spring. */
+    @Autowired
+    public void setTaskQueue(UploadValidationTaskQueue taskQueue) {
+        this.taskQueue = taskQueue;
+    }
+
+    /** Upload DAO, used to reload uploads for re-driven validations. This is configured by Spring. */
+    @Autowired
+    final void setUploadDao(UploadDao uploadDao) {
+        this.uploadDao = uploadDao;
+    }
+
+    /** Durable work queue for upload validation. This is configured by Spring. */
+    @Autowired
+    final void setUploadValidationQueueDao(UploadValidationQueueDao uploadValidationQueueDao) {
+        this.uploadValidationQueueDao = uploadValidationQueueDao;
+    }
+
+    /** Starts the periodic re-drive of stalled validations. Called by Spring after the service is configured. */
+    @PostConstruct
+    public void scheduleRedrive() {
+        redriveExecutorService.scheduleWithFixedDelay(this::redriveStalledWorkItems, redriveIntervalSeconds,
+                redriveIntervalSeconds, TimeUnit.SECONDS);
+    }
+
     /**
      * <p>
      * Kick off upload validation. Since upload validation can take some time, we handle this asynchronously. This
      * method returns immediately. Call UploadService.getUpload() to check for validation status and messages.
      * </p>
      * <p>
+     * The upload is first written to the durable validation work queue. The lease is claimed when the task comes off
+     * the per-study queue and starts running. If this node dies before validation completes, or the study's queue is
+     * full, validation is re-driven by whichever node finds the work item first.
+     * </p>
+     * <p>
      * Study and user comes from the controller and upload comes from UploadService.getUpload(), so none of the fields
      * are user input, so validation is not needed.
      * </p>
@@ -46,7 +124,107 @@ public class UploadValidationService {
      *         upload metadata object for the upload
      */
     public void validateUpload(@Nonnull StudyIdentifier study, @Nonnull Upload upload) {
+        uploadValidationQueueDao.enqueue(study, upload.getUploadId());
+        submitWorkItem(study, upload.getUploadId(), () -> runTask(study, upload));
+    }
+
+    /**
+     * Finds work items whose leases have expired and re-drives validation for them. This is run periodically on the
+     * redrive executor. Package-scoped so unit tests can call it directly.
+     */
+    void redriveStalledWorkItems() {
+        // If this throws, the executor never runs it again, and uploads whose node died stay unvalidated until the
+        // server restarts. Catch errors too, not just runtime exceptions.
+        try {
+            List<? extends UploadValidationWorkItem> stalledWorkItemList = uploadValidationQueueDao
+                    .getStalledWorkItems(leaseDurationMillis, REDRIVE_BATCH_SIZE);
+            for (UploadValidationWorkItem oneWorkItem : stalledWorkItemList) {
+                submitWorkItem(new StudyIdentifierImpl(oneWorkItem.getStudyId()), oneWorkItem.getUploadId(),
+                        () -> redriveWorkItem(oneWorkItem));
+            }
+        } catch (Throwable t) {
+            logger.error("Error re-driving stalled upload validations: " + t.getMessage(), t);
+        }
+    }
+
+    // Queues the work item on the study's fair queue. The lease is claimed when the work item comes off the queue,
+    // not now, so time spent waiting behind other uploads doesn't count against the lease. If the study's queue is
+    // full, the work item stays in the durable queue and is re-driven once it's stalled.
+    private void submitWorkItem(StudyIdentifier study, String uploadId, Runnable validation) {
+        if (!pendingUploadIdSet.add(uploadId)) {
+            // Already waiting in this node's queue. This happens when a work item stalls while it's queued here.
+            return;
+        }
+
+        boolean submitted;
+        try {
+            submitted = taskQueue.submit(study.getIdentifier(), () -> {
+                pendingUploadIdSet.remove(uploadId);
+
+                // Work items are claimable as soon as they're enqueued, so this almost always succeeds. If it
+                // doesn't, another node already picked up the work item, or it's already done.
+                if (uploadValidationQueueDao.claimLease(uploadId, workerId, leaseDurationMillis)) {
+                    validation.run();
+                }
+            });
+        } catch (RuntimeException ex) {
+            pendingUploadIdSet.remove(uploadId);
+            throw ex;
+        }
+        if (!submitted) {
+            pendingUploadIdSet.remove(uploadId);
+            logger.warn("Upload validation queue for study " + study.getIdentifier() + " is full, upload " +
+                    uploadId + " will be re-driven later");
+        }
+    }
+
+    // Called with the lease held.
+    private void redriveWorkItem(UploadValidationWorkItem workItem) {
+        String uploadId = workItem.getUploadId();
+        Upload upload;
+        try {
+            upload = uploadDao.getUpload(uploadId);
+            if (upload.getStatus() == UploadStatus.SUCCEEDED || upload.getStatus() == UploadStatus.VALIDATION_FAILED) {
+                // Validation finished, but the node died before it could remove the work item.
+                uploadValidationQueueDao.completeWorkItem(uploadId, workerId);
+                return;
+            }
+
+            if (workItem.getAttemptCount() >= maxAttempts) {
+                // Uploads that consistently kill the node (or time out) shouldn't be retried forever.
+                String errMsg = "Upload validation did not complete after " + workItem.getAttemptCount() +
+                        " attempts";
+                logger.error(errMsg + " for study " + workItem.getStudyId() + ", upload " + uploadId);
+                uploadDao.writeValidationStatus(upload, UploadStatus.VALIDATION_FAILED, ImmutableList.of(errMsg),
+                        null);
+                uploadValidationQueueDao.completeWorkItem(uploadId, workerId);
+                return;
+            }
+
+            logger.info("Re-driving stalled upload validation for study " + workItem.getStudyId() + ", upload " +
+                    uploadId + ", previous lease owner " + workItem.getLeaseOwner());
+        } catch (RuntimeException ex) {
+            // Leave the work item alone. It'll be re-driven again when our lease expires.
+            logger.error("Error re-driving upload validation for upload " + uploadId + ": " + ex.getMessage(), ex);
+            return;
+        }
+        runTask(new StudyIdentifierImpl(workItem.getStudyId()), upload);
+    }
+
+    // Runs the validation task and removes the work item from the queue when it's done. Called with the lease held.
+    private void runTask(StudyIdentifier study, Upload upload) {
         UploadValidationTask task = taskFactory.newTask(study, upload);
-        asyncExecutorService.execute(task);
+        try {
+            task.run();
+        } finally {
+            try {
+                uploadValidationQueueDao.completeWorkItem(upload.getUploadId(), workerId);
+            } catch (RuntimeException ex) {
+                // ExceptionInterceptor doesn't handle asynchronous tasks. If this fails, the work item will be
+                // cleaned up when its lease expires.
+                logger.error("Error completing upload validation work item for upload " + upload.getUploadId() +
+                        ": " + ex.getMessage(), ex);
+            }
+        }
     }
 }
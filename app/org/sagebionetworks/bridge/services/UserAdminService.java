@@ -5,13 +5,30 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope.NO_SHARING;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import javax.annotation.Resource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.CriteriaContext;
 import org.sagebionetworks.bridge.models.accounts.Account;
@@ -20,11 +37,16 @@ import org.sagebionetworks.bridge.models.accounts.IdentifierHolder;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
 import org.sagebionetworks.bridge.models.accounts.SignIn;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserDataPurgeStatus;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,9 +54,18 @@ import org.springframework.stereotype.Component;
 
 @Component("userAdminService")
 public class UserAdminService {
+    private static final Logger LOG = LoggerFactory.getLogger(UserAdminService.class);
     
     private static final Set<Roles> ADMIN_ROLE = Sets.newHashSet(Roles.ADMIN);
 
+    // package-scoped to be available in unit tests
+    static final int PURGE_STATUS_EXPIRE_IN_SECONDS = 7*24*60*60;
+    // An in-progress deletion that hasn't checkpointed in this long is assumed to have died with its server. The
+    // deletion checkpoints after every page of deletes, so this only needs to cover one slow page.
+    static final long PURGE_STALE_MILLIS = 10*60*1000;
+    // Only held while deciding whether to start a deletion, so two requests can't both start one.
+    static final int PURGE_LOCK_EXPIRE_IN_SECONDS = 60;
+
     private AuthenticationService authenticationService;
     private ParticipantService participantService;
     private AccountDao accountDao;
@@ -46,6 +77,8 @@ public class UserAdminService {
     private ParticipantOptionsService optionsService;
     private ExternalIdService externalIdService;
     private UploadService uploadService;
+    private DistributedLockDao lockDao;
+    private ExecutorService purgeExecutorService;
 
     @Autowired
     final void setAuthenticationService(AuthenticationService authenticationService) {
@@ -91,6 +124,15 @@ public class UserAdminService {
     final void setUploadService(UploadService uploadService) {
         this.uploadService = uploadService;
     }
+    @Autowired
+    final void setDistributedLockDao(DistributedLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+    /** Executor that deletes a user's data from each table concurrently. */
+    @Resource(name = "userDataPurgeExecutorService")
+    final void setPurgeExecutorService(ExecutorService purgeExecutorService) {
+        this.purgeExecutorService = purgeExecutorService;
+    }
     
     
     /**
@@ -163,7 +205,8 @@ public class UserAdminService {
     }
 
     /**
-     * Delete the target user.
+     * Delete the target user. The user's data is deleted from each table concurrently, but this method doesn't
+     * return until everything is deleted. For users with a lot of data, use {@link #deleteUserAsync}.
      *
      * @param study
      *      target user's study
@@ -176,26 +219,225 @@ public class UserAdminService {
         
         Account account = accountDao.getAccount(study, id);
         if (account != null) {
-            // remove this first so if account is partially deleted, re-authenticating will pick
-            // up accurate information about the state of the account (as we can recover it)
-            cacheProvider.removeSessionByUserId(account.getId());
-            cacheProvider.removeRequestInfo(account.getId());
-            
-            String healthCode = account.getHealthCode();
-            healthDataService.deleteRecordsForHealthCode(healthCode);
-            uploadService.deleteUploadsForHealthCode(healthCode);
-            scheduledActivityService.deleteActivitiesForUser(healthCode);
-            activityEventService.deleteActivityEvents(healthCode);
-
-            // Remove the externalId from the table even if validation is not enabled. If the study
-            // turns it off/back on again, we want to track what has changed
-            ParticipantOptionsLookup lookup = optionsService.getOptions(healthCode);
-            String externalId = lookup.getString(EXTERNAL_IDENTIFIER);
-            if (externalId != null) {
-                externalIdService.unassignExternalId(study, externalId, healthCode);    
+            removeSessions(account);
+            try {
+                purgeUserData(study, account, ImmutableSet.of(), () -> {}, step -> {}).join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new BridgeServiceException(cause);
+            }
+        }
+    }
+
+    /**
+     * Start deleting the target user in the background, and return right away. Progress is checkpointed after each
+     * page of deletes, and can be checked with {@link #getDeleteUserStatus}. If a previous deletion of this user
+     * failed, this picks up where it left off. If a deletion is already in progress, this returns its status without
+     * starting another one.
+     *
+     * @param study
+     *      target user's study
+     * @param id
+     *      target user's ID
+     * @return status of the deletion
+     */
+    public UserDataPurgeStatus deleteUserAsync(Study study, String id) {
+        checkNotNull(study);
+        checkArgument(StringUtils.isNotBlank(id));
+
+        // Lock while we check for an in-progress deletion and mark this one in progress, so concurrent requests
+        // can't both start one.
+        String lockId = getPurgeId(study.getStudyIdentifier(), id);
+        String lock = null;
+        try {
+            lock = lockDao.acquireLock(UserDataPurgeStatus.class, lockId, PURGE_LOCK_EXPIRE_IN_SECONDS);
+            return startDeleteUser(study, id);
+        } catch (ConcurrentModificationException ex) {
+            // Another request is starting this deletion right now. Return its status, if it's gotten that far.
+            UserDataPurgeStatus status = getDeleteUserStatus(study.getStudyIdentifier(), id);
+            if (status != null) {
+                return status;
+            }
+            throw ex;
+        } finally {
+            if (lock != null) {
+                lockDao.releaseLock(UserDataPurgeStatus.class, lockId, lock);
+            }
+        }
+    }
+
+    // Starts the deletion, unless one is already in progress. Must be called with the purge lock held.
+    private UserDataPurgeStatus startDeleteUser(Study study, String id) {
+        // Statuses are keyed by study, so this only finds deletions of this study's user.
+        UserDataPurgeStatus previousStatus = getDeleteUserStatus(study.getStudyIdentifier(), id);
+        Account account = accountDao.getAccount(study, id);
+        if (account == null) {
+            // The account is deleted last, so if there's a status, this user is already deleted.
+            if (previousStatus != null) {
+                return previousStatus;
+            }
+            throw new EntityNotFoundException(Account.class);
+        }
+
+        long now = DateUtils.getCurrentMillisFromEpoch();
+        if (previousStatus != null && previousStatus.getState() == UserDataPurgeStatus.State.IN_PROGRESS
+                && now - previousStatus.getModifiedOn() < PURGE_STALE_MILLIS) {
+            return previousStatus;
+        }
+
+        // Resume from the last checkpoint, if there is one. Pages deleted in an unfinished step are already gone, so
+        // re-running that step only deletes what's left.
+        Set<UserDataPurgeStatus.Step> completedSteps = ImmutableSet.of();
+        long startedOn = now;
+        if (previousStatus != null) {
+            completedSteps = previousStatus.getCompletedSteps();
+            startedOn = previousStatus.getStartedOn();
+        }
+        UserDataPurgeStatus status = new UserDataPurgeStatus(id, UserDataPurgeStatus.State.IN_PROGRESS,
+                completedSteps, startedOn, now, null);
+        PurgeStatusTracker tracker = new PurgeStatusTracker(study.getStudyIdentifier(), status);
+
+        removeSessions(account);
+        purgeUserData(study, account, completedSteps, tracker::pageDeleted, tracker::stepCompleted).whenComplete(
+                (result, ex) -> tracker.finished(ex));
+        return status;
+    }
+
+    /**
+     * Get the status of the latest deletion of the target user, or null if the user hasn't been deleted
+     * asynchronously recently.
+     *
+     * @param studyId
+     *      target user's study
+     * @param id
+     *      target user's ID
+     * @return status of the deletion, or null if there isn't one
+     */
+    public UserDataPurgeStatus getDeleteUserStatus(StudyIdentifier studyId, String id) {
+        checkNotNull(studyId);
+        checkArgument(StringUtils.isNotBlank(id));
+
+        String statusJson = cacheProvider.getString(getPurgeStatusKey(studyId, id));
+        if (statusJson == null) {
+            return null;
+        }
+        try {
+            return BridgeObjectMapper.get().readValue(statusJson, UserDataPurgeStatus.class);
+        } catch (IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
+    // User IDs are only unique within a study, so the purge status and lock are keyed by both.
+    private static String getPurgeId(StudyIdentifier studyId, String userId) {
+        return studyId.getIdentifier() + RedisKey.SEPARATOR + userId;
+    }
+
+    // package-scoped to be available in unit tests
+    static String getPurgeStatusKey(StudyIdentifier studyId, String userId) {
+        return RedisKey.USER_DATA_PURGE.getRedisKey(getPurgeId(studyId, userId));
+    }
+
+    private void removeSessions(Account account) {
+        // remove this first so if account is partially deleted, re-authenticating will pick
+        // up accurate information about the state of the account (as we can recover it)
+        cacheProvider.removeSessionByUserId(account.getId());
+        cacheProvider.removeRequestInfo(account.getId());
+    }
+
+    // Deletes the user's data from each table concurrently, skipping the given completed steps. Once all of those
+    // succeed, deletes the external ID, participant options, and finally the account. Each page of deletes in the
+    // large tables is reported to onPageDeleted, and each step is reported to onStepCompleted as it finishes.
+    private CompletableFuture<Void> purgeUserData(Study study, Account account,
+            Set<UserDataPurgeStatus.Step> completedSteps, Runnable onPageDeleted,
+            Consumer<UserDataPurgeStatus.Step> onStepCompleted) {
+        String healthCode = account.getHealthCode();
+        Map<UserDataPurgeStatus.Step, Runnable> dataSteps = ImmutableMap.<UserDataPurgeStatus.Step, Runnable>of(
+                UserDataPurgeStatus.Step.HEALTH_DATA,
+                () -> healthDataService.deleteRecordsForHealthCode(healthCode, onPageDeleted),
+                UserDataPurgeStatus.Step.UPLOADS,
+                () -> uploadService.deleteUploadsForHealthCode(healthCode, onPageDeleted),
+                UserDataPurgeStatus.Step.SCHEDULED_ACTIVITIES,
+                () -> scheduledActivityService.deleteActivitiesForUser(healthCode, onPageDeleted),
+                UserDataPurgeStatus.Step.ACTIVITY_EVENTS, () -> activityEventService.deleteActivityEvents(healthCode));
+
+        List<CompletableFuture<Void>> stepFutures = new ArrayList<>();
+        for (Map.Entry<UserDataPurgeStatus.Step, Runnable> oneStep : dataSteps.entrySet()) {
+            if (!completedSteps.contains(oneStep.getKey())) {
+                stepFutures.add(CompletableFuture.runAsync(oneStep.getValue(), purgeExecutorService)
+                        .thenRun(() -> onStepCompleted.accept(oneStep.getKey())));
+            }
+        }
+
+        return CompletableFuture.allOf(stepFutures.toArray(new CompletableFuture<?>[stepFutures.size()]))
+                .thenRun(() -> {
+                    deleteAccount(study, account);
+                    onStepCompleted.accept(UserDataPurgeStatus.Step.ACCOUNT);
+                });
+    }
+
+    private void deleteAccount(Study study, Account account) {
+        String healthCode = account.getHealthCode();
+
+        // Remove the externalId from the table even if validation is not enabled. If the study
+        // turns it off/back on again, we want to track what has changed
+        ParticipantOptionsLookup lookup = optionsService.getOptions(healthCode);
+        String externalId = lookup.getString(EXTERNAL_IDENTIFIER);
+        if (externalId != null) {
+            externalIdService.unassignExternalId(study, externalId, healthCode);    
+        }
+        optionsService.deleteAllParticipantOptions(healthCode);
+        accountDao.deleteAccount(study, account.getId());
+    }
+
+    // Keeps the status of an async deletion up to date in the cache. Steps complete on different threads, so updates
+    // are synchronized.
+    private class PurgeStatusTracker {
+        private final String statusKey;
+        private UserDataPurgeStatus status;
+
+        PurgeStatusTracker(StudyIdentifier studyId, UserDataPurgeStatus status) {
+            this.statusKey = getPurgeStatusKey(studyId, status.getUserId());
+            this.status = status;
+            save();
+        }
+
+        // Refreshes modifiedOn, so a long-running step isn't mistaken for a dead one.
+        synchronized void pageDeleted() {
+            status = status.withModifiedOn(DateUtils.getCurrentMillisFromEpoch());
+            save();
+        }
+
+        synchronized void stepCompleted(UserDataPurgeStatus.Step step) {
+            status = status.withCompletedStep(step, DateUtils.getCurrentMillisFromEpoch());
+            save();
+        }
+
+        synchronized void finished(Throwable ex) {
+            long now = DateUtils.getCurrentMillisFromEpoch();
+            if (ex == null) {
+                status = status.withState(UserDataPurgeStatus.State.SUCCEEDED, now, null);
+                LOG.info("Deleted user " + status.getUserId() + " in " + (now - status.getStartedOn()) + " ms");
+            } else {
+                Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                status = status.withState(UserDataPurgeStatus.State.FAILED, now, cause.getMessage());
+                LOG.error("Error deleting user " + status.getUserId() + ", completed steps " +
+                        status.getCompletedSteps() + ": " + cause.getMessage(), cause);
+            }
+            save();
+        }
+
+        private void save() {
+            try {
+                cacheProvider.setString(statusKey, BridgeObjectMapper.get().writeValueAsString(status),
+                        PURGE_STATUS_EXPIRE_IN_SECONDS);
+            } catch (IOException | RuntimeException ex) {
+                // Losing a checkpoint only means a retry repeats some work. Don't fail the deletion over it.
+                LOG.warn("Error saving delete status for user " + status.getUserId() + ": " + ex.getMessage(), ex);
             }
-            optionsService.deleteAllParticipantOptions(healthCode);
-            accountDao.deleteAccount(study, account.getId());
         }
     }
 }
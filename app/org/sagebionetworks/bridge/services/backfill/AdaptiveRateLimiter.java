@@ -0,0 +1,74 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * <p>
+ * Rate limiter for backfills that adjusts its own rate, additive-increase, multiplicative-decrease style. After each
+ * batch of work, the backfill reports how many calls were throttled by DynamoDB and how deep the downstream queue is.
+ * If anything was throttled or the queue is backed up, the rate is halved. If the queue is mostly drained, the rate
+ * goes up by a fixed step. The rate never leaves [minRate, maxRate].
+ * </p>
+ * <p>
+ * {@link #acquire} is thread-safe. {@link #adjust} is meant to be called from the thread driving the backfill, between
+ * batches.
+ * </p>
+ */
+class AdaptiveRateLimiter {
+    private final RateLimiter rateLimiter;
+    private final double minRate;
+    private final double maxRate;
+    private final double rateStep;
+    private final int maxQueueDepth;
+
+    /**
+     * Creates a rate limiter that starts at minRate permits per second.
+     *
+     * @param minRate
+     *         lowest rate, in permits per second, also the starting rate and the step used for increases
+     * @param maxRate
+     *         highest rate, in permits per second
+     * @param maxQueueDepth
+     *         queue depth at which we start backing off
+     */
+    AdaptiveRateLimiter(double minRate, double maxRate, int maxQueueDepth) {
+        checkArgument(minRate > 0, "minRate must be positive");
+        checkArgument(maxRate >= minRate, "maxRate must be at least minRate");
+        checkArgument(maxQueueDepth > 0, "maxQueueDepth must be positive");
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rateStep = minRate;
+        this.maxQueueDepth = maxQueueDepth;
+        this.rateLimiter = RateLimiter.create(minRate);
+    }
+
+    /** Blocks until the next permit is available. */
+    void acquire() {
+        rateLimiter.acquire();
+    }
+
+    /** Current rate, in permits per second. */
+    double getRate() {
+        return rateLimiter.getRate();
+    }
+
+    /**
+     * Adjusts the rate based on the last batch.
+     *
+     * @param numThrottled
+     *         number of calls in the last batch that were throttled
+     * @param queueDepth
+     *         current depth of the downstream queue
+     */
+    void adjust(int numThrottled, int queueDepth) {
+        double rate = rateLimiter.getRate();
+        if (numThrottled > 0 || queueDepth > maxQueueDepth) {
+            rate = Math.max(minRate, rate / 2);
+        } else if (queueDepth < maxQueueDepth / 2) {
+            rate = Math.min(maxRate, rate + rateStep);
+        }
+        rateLimiter.setRate(rate);
+    }
+}
@@ -0,0 +1,164 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import java.util.Map;
+import java.util.function.Predicate;
+import javax.annotation.Resource;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dynamodb.CompressedJsonNodeMarshaller;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
+import org.sagebionetworks.bridge.dynamodb.DynamoReportData;
+import org.sagebionetworks.bridge.models.backfill.BackfillTask;
+
+/**
+ * <p>
+ * Rewrites health data records and report data so that large JSON attributes are stored compressed (see
+ * {@link CompressedJsonNodeMarshaller}). The scan filter only returns items with a large JSON attribute that isn't
+ * compressed yet, so this backfill can be safely re-run, and each run only picks up what's left. Items that are
+ * already stored as well as they can be, such as large JSON that doesn't compress, are skipped rather than rewritten.
+ * The backfill does nothing unless compressed writes are turned on.
+ * </p>
+ * <p>
+ * Health data records are re-saved with their version, so if a record is updated while the backfill is running, the
+ * backfill skips it. (The update itself writes the compressed format.) Report data has no version, so a report written
+ * between the scan and the rewrite could in theory be overwritten with the scanned value.
+ * </p>
+ */
+@Component("compressedJsonBackfill")
+public class CompressedJsonBackfill extends AsyncBackfillTemplate {
+    // package-scoped to be available in unit tests
+    static final int PAGE_SIZE = 100;
+    static final int PAGES_PER_PROGRESS_MESSAGE = 100;
+
+    // Rewrites per second. Starts low and ramps up while DynamoDB isn't throttling us.
+    private static final double MIN_RATE = 5.0;
+    private static final double MAX_RATE = 50.0;
+
+    private static final String HEALTH_DATA_FILTER_EXPRESSION = "(attribute_exists(#data) AND " +
+            "size(#data) >= :minSize AND NOT begins_with(#data, :prefix)) OR (attribute_exists(#metadata) AND " +
+            "size(#metadata) >= :minSize AND NOT begins_with(#metadata, :prefix))";
+    private static final String REPORT_DATA_FILTER_EXPRESSION = "attribute_exists(#data) AND " +
+            "size(#data) >= :minSize AND NOT begins_with(#data, :prefix)";
+    private static final Map<String, String> HEALTH_DATA_ATTR_NAMES = ImmutableMap.of("#data", "data",
+            "#metadata", "metadata");
+    private static final Map<String, String> REPORT_DATA_ATTR_NAMES = ImmutableMap.of("#data", "data");
+    private static final Map<String, AttributeValue> FILTER_ATTR_VALUES = ImmutableMap.of(
+            ":minSize", new AttributeValue().withN(String.valueOf(CompressedJsonNodeMarshaller.MIN_COMPRESSED_SIZE)),
+            ":prefix", new AttributeValue().withS(CompressedJsonNodeMarshaller.COMPRESSED_PREFIX));
+
+    private DynamoDBMapper healthDataMapper;
+    private DynamoDBMapper reportDataMapper;
+
+    /** Mapper for the HealthDataRecord table. */
+    @Resource(name = "healthDataDdbMapper")
+    final void setHealthDataMapper(DynamoDBMapper healthDataMapper) {
+        this.healthDataMapper = healthDataMapper;
+    }
+
+    /** Mapper for the ReportData table. */
+    @Resource(name = "reportDataMapper")
+    final void setReportDataMapper(DynamoDBMapper reportDataMapper) {
+        this.reportDataMapper = reportDataMapper;
+    }
+
+    @Override
+    int getLockExpireInSeconds() {
+        // Health data records are the biggest table we have. This can take a while.
+        return 24 * 60 * 60;
+    }
+
+    @Override
+    void doBackfill(BackfillTask task, BackfillCallback callback) {
+        if (!isWriteEnabled()) {
+            // Re-saving would write the same plain JSON back.
+            recordMessage(task, callback, CompressedJsonNodeMarshaller.CONFIG_KEY_WRITE_ENABLED +
+                    " is false, nothing to do");
+            return;
+        }
+
+        AdaptiveRateLimiter rateLimiter = newRateLimiter();
+        rewriteTable(task, callback, healthDataMapper, DynamoHealthDataRecord.class, HEALTH_DATA_FILTER_EXPRESSION,
+                HEALTH_DATA_ATTR_NAMES, record -> CompressedJsonNodeMarshaller.isCompressible(record.getData()) ||
+                        CompressedJsonNodeMarshaller.isCompressible(record.getMetadata()), rateLimiter);
+        rewriteTable(task, callback, reportDataMapper, DynamoReportData.class, REPORT_DATA_FILTER_EXPRESSION,
+                REPORT_DATA_ATTR_NAMES, report -> CompressedJsonNodeMarshaller.isCompressible(report.getData()),
+                rateLimiter);
+    }
+
+    /** True if compressed writes are on. Package-scoped so unit tests can turn them on. */
+    boolean isWriteEnabled() {
+        return CompressedJsonNodeMarshaller.isWriteEnabled();
+    }
+
+    /** Creates the rate limiter for rewrites. Package-scoped so unit tests can use a rate limiter that doesn't wait. */
+    AdaptiveRateLimiter newRateLimiter() {
+        // There's no downstream queue to watch, so only throttling slows us down.
+        return new AdaptiveRateLimiter(MIN_RATE, MAX_RATE, Integer.MAX_VALUE);
+    }
+
+    private <T> void rewriteTable(BackfillTask task, BackfillCallback callback, DynamoDBMapper mapper,
+            Class<T> clazz, String filterExpression, Map<String, String> attrNames, Predicate<T> isCompressible,
+            AdaptiveRateLimiter rateLimiter) {
+        String tableName = clazz.getSimpleName();
+        int numRewritten = 0;
+        int numSkipped = 0;
+        int numIncompressible = 0;
+        int numErrors = 0;
+        int numPages = 0;
+
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            DynamoDBScanExpression scan = new DynamoDBScanExpression().withLimit(PAGE_SIZE)
+                    .withFilterExpression(filterExpression).withExpressionAttributeNames(attrNames)
+                    .withExpressionAttributeValues(FILTER_ATTR_VALUES).withExclusiveStartKey(lastEvaluatedKey);
+            ScanResultPage<T> page = mapper.scanPage(clazz, scan);
+
+            int numThrottled = 0;
+            for (T oneItem : page.getResults()) {
+                if (!isCompressible.test(oneItem)) {
+                    // The scan filter can't tell whether JSON compresses. This is as small as it gets already, so
+                    // don't spend a write on it.
+                    numIncompressible++;
+                    continue;
+                }
+
+                rateLimiter.acquire();
+                try {
+                    // The mapper writes the item back with the compressed marshaller.
+                    mapper.save(oneItem);
+                    numRewritten++;
+                } catch (ConditionalCheckFailedException ex) {
+                    // Updated since we scanned it, which already rewrote it.
+                    numSkipped++;
+                } catch (ProvisionedThroughputExceededException ex) {
+                    // Left as is. It'll be picked up if the backfill is re-run.
+                    numThrottled++;
+                    numErrors++;
+                } catch (RuntimeException ex) {
+                    numErrors++;
+                    recordError(task, callback, "Error rewriting " + tableName + " item: " + ex.getMessage(), ex);
+                }
+            }
+            rateLimiter.adjust(numThrottled, 0);
+
+            lastEvaluatedKey = page.getLastEvaluatedKey();
+            numPages++;
+            if (numPages % PAGES_PER_PROGRESS_MESSAGE == 0) {
+                recordMessage(task, callback, tableName + ": scanned " + numPages + " pages, rewrote " +
+                        numRewritten + ", skipped " + numSkipped + ", incompressible " + numIncompressible +
+                        ", errors " + numErrors + ", rate " + rateLimiter.getRate() + "/s");
+            }
+        } while (lastEvaluatedKey != null);
+
+        recordMessage(task, callback, "Finished " + tableName + ": rewrote " + numRewritten + ", skipped " +
+                numSkipped + ", incompressible " + numIncompressible + ", errors " + numErrors);
+    }
+}
@@ -1,33 +1,95 @@
 package org.sagebionetworks.bridge.services.backfill;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import org.joda.time.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.redis.RedisKey;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.services.UploadValidationService;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskQueue;
 
 /**
+ * <p>
  * Re-drives upload validation. Depending on the sub-class, this can get upload IDs from a variety of sources. See
  * {@link UploadValidationByUploadIdBackfill} and TODO
+ * </p>
+ * <p>
+ * Uploads are re-driven in parallel, at a rate that adapts to DynamoDB throttling and the depth of the upload
+ * validation queue (see {@link AdaptiveRateLimiter}). Progress is checkpointed in Redis, under the backfill's name, so
+ * if a run is interrupted, the next run picks up from the last checkpoint. The checkpoint is removed when a run
+ * completes. A run stops before its lock expires, so two runs never advance the same checkpoint at once.
+ * </p>
  */
 public abstract class UploadValidationBackfill extends AsyncBackfillTemplate {
     private static final Logger logger = LoggerFactory.getLogger(UploadValidationBackfill.class);
 
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_CONCURRENCY = "upload.validation.backfill.concurrency";
+    static final String CONFIG_KEY_MAX_QUEUE_DEPTH = "upload.validation.backfill.max.queue.depth";
+    static final String CONFIG_KEY_MAX_RATE = "upload.validation.backfill.max.rate";
+    static final String CONFIG_KEY_MIN_RATE = "upload.validation.backfill.min.rate";
+
+    // Progress is checkpointed after every CHECKPOINT_INTERVAL uploads. An interrupted run can be resumed for
+    // CHECKPOINT_EXPIRE_IN_SECONDS. Package-scoped to be available in unit tests.
+    static final int CHECKPOINT_INTERVAL = 100;
+    static final int CHECKPOINT_EXPIRE_IN_SECONDS = (int) TimeUnit.DAYS.toSeconds(7);
+    static final int MAX_THROTTLED_ATTEMPTS = 3;
+
+    // The lock only keeps other runs out until it expires, and it can't be renewed. So a run stops starting new
+    // batches LOCK_MARGIN_IN_SECONDS before its lock expires, which leaves the last batch time to finish. At the
+    // minimum rate, a batch takes a few minutes at most, including retries. Package-scoped to be available in unit
+    // tests.
+    static final int LOCK_EXPIRE_IN_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+    static final int LOCK_MARGIN_IN_SECONDS = (int) TimeUnit.MINUTES.toSeconds(10);
+
+    private CacheProvider cacheProvider;
+    private int concurrency;
     private HealthCodeDao healthCodeDao;
+    private int maxQueueDepth;
+    private int maxRate;
+    private int minRate;
     private S3Helper s3Helper;
     private UploadDao uploadDao;
     private UploadValidationService uploadValidationService;
+    private UploadValidationTaskQueue uploadValidationTaskQueue;
+
+    /** Cache provider, where progress is checkpointed. This is configured by Spring. */
+    @Autowired
+    public final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+
+    /** Sets concurrency and rate limits from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        concurrency = config.getPropertyAsInt(CONFIG_KEY_CONCURRENCY);
+        maxQueueDepth = config.getPropertyAsInt(CONFIG_KEY_MAX_QUEUE_DEPTH);
+        maxRate = config.getPropertyAsInt(CONFIG_KEY_MAX_RATE);
+        minRate = config.getPropertyAsInt(CONFIG_KEY_MIN_RATE);
+    }
 
     /** DAO for getting the study ID from a health code. This is configured by Spring. */
     @Autowired
@@ -58,14 +120,25 @@ public abstract class UploadValidationBackfill extends AsyncBackfillTemplate {
         this.uploadValidationService = uploadValidationService;
     }
 
+    /** Upload validation task queue. Its queue depth is used to throttle the backfill. This is configured by Spring. */
+    @Autowired
+    public final void setUploadValidationTaskQueue(UploadValidationTaskQueue uploadValidationTaskQueue) {
+        this.uploadValidationTaskQueue = uploadValidationTaskQueue;
+    }
+
     @Override
     int getLockExpireInSeconds() {
-        // We do roughly one upload per second. One hour should be enough for most cases.
-        return 3600;
+        // Throughput adapts to load, but one hour is enough for tens of thousands of uploads. A larger backfill stops
+        // before the lock expires (see LOCK_MARGIN_IN_SECONDS), and can be re-run to resume from its checkpoint.
+        return LOCK_EXPIRE_IN_SECONDS;
     }
 
     @Override
     void doBackfill(BackfillTask task, BackfillCallback callback) {
+        // The lock was acquired just before this was called, so this is no later than the real deadline.
+        long stopAtMillis = DateTimeUtils.currentTimeMillis() +
+                (getLockExpireInSeconds() - LOCK_MARGIN_IN_SECONDS) * 1000L;
+
         // get list of upload IDs
         List<String> uploadIdList;
         try {
@@ -75,36 +148,134 @@ public abstract class UploadValidationBackfill extends AsyncBackfillTemplate {
             throw new RuntimeException(ex);
         }
 
-        for (String oneUploadId : uploadIdList) {
-            // rate limit so we down starve threads or brown out DDB
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                logger.error("Interrupted while sleeping: " + ex.getMessage(), ex);
+        // Resume from the last checkpoint if the previous run didn't finish.
+        int numUploads = uploadIdList.size();
+        int startIndex = getResumeIndex(task, numUploads);
+        if (startIndex > 0) {
+            recordMessage(task, callback, "Resuming from checkpoint at upload " + startIndex + " of " + numUploads);
+        }
+
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(minRate, maxRate, maxQueueDepth);
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (int batchStart = startIndex; batchStart < numUploads; batchStart += CHECKPOINT_INTERVAL) {
+                if (DateTimeUtils.currentTimeMillis() >= stopAtMillis) {
+                    // Keep the checkpoint, so the next run resumes here.
+                    recordMessage(task, callback, "Stopping at upload " + batchStart + " of " + numUploads +
+                            " before the backfill lock expires. Run the backfill again to resume.");
+                    return;
+                }
+
+                int batchEnd = Math.min(numUploads, batchStart + CHECKPOINT_INTERVAL);
+                redriveBatch(task, callback, uploadIdList.subList(batchStart, batchEnd), rateLimiter,
+                        executorService);
+                writeCheckpoint(task, batchEnd, numUploads);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        // The next run starts from the beginning.
+        cacheProvider.removeString(getCheckpointKey(task));
+
+        logger.info("UploadValidationBackfill complete");
+    }
+
+    // Re-drives a batch of uploads in parallel, limited by the rate limiter. Uploads that are throttled by DynamoDB
+    // are retried (at a lower rate) up to MAX_THROTTLED_ATTEMPTS times. Other errors are recorded and skipped, so they
+    // won't fail the entire backfill.
+    private void redriveBatch(BackfillTask task, BackfillCallback callback, List<String> batchUploadIdList,
+            AdaptiveRateLimiter rateLimiter, ExecutorService executorService) {
+        List<String> pendingUploadIdList = batchUploadIdList;
+        for (int attempt = 1; !pendingUploadIdList.isEmpty(); attempt++) {
+            Map<String, Future<String>> futuresByUploadId = new LinkedHashMap<>();
+            for (String oneUploadId : pendingUploadIdList) {
+                rateLimiter.acquire();
+                futuresByUploadId.put(oneUploadId, executorService.submit(() -> redriveUpload(oneUploadId)));
+            }
+
+            // Messages are recorded from this thread, since the callback isn't thread-safe.
+            Map<String, Throwable> throttledCauseByUploadId = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<String>> oneFutureEntry : futuresByUploadId.entrySet()) {
+                String oneUploadId = oneFutureEntry.getKey();
+                try {
+                    recordMessage(task, callback, oneFutureEntry.getValue().get());
+                } catch (InterruptedException ex) {
+                    // Stop here. The last checkpoint lets the next run pick up where we left off.
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while backfilling upload ID " + oneUploadId, ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof ProvisionedThroughputExceededException) {
+                        throttledCauseByUploadId.put(oneUploadId, cause);
+                    } else {
+                        recordError(task, callback, "Error backfilling upload ID " + oneUploadId + ": " +
+                                cause.getMessage(), cause);
+                    }
+                }
+            }
+
+            rateLimiter.adjust(throttledCauseByUploadId.size(), uploadValidationTaskQueue.getPendingCount());
+            if (!throttledCauseByUploadId.isEmpty() && attempt >= MAX_THROTTLED_ATTEMPTS) {
+                for (Map.Entry<String, Throwable> oneThrottledEntry : throttledCauseByUploadId.entrySet()) {
+                    recordError(task, callback, "Error backfilling upload ID " + oneThrottledEntry.getKey() +
+                            ": throttled " + attempt + " times", oneThrottledEntry.getValue());
+                }
+                break;
             }
+            pendingUploadIdList = new ArrayList<>(throttledCauseByUploadId.keySet());
+        }
+    }
 
-            try {
-                // Get upload.
-                Upload oneUpload = uploadDao.getUpload(oneUploadId);
+    // Kicks off upload validation for a single upload. Returns the message to record.
+    private String redriveUpload(String uploadId) {
+        // Get upload.
+        Upload upload = uploadDao.getUpload(uploadId);
 
-                // Get study ID from health code. Upload validation needs this.
-                String studyId = healthCodeDao.getStudyIdentifier(oneUpload.getHealthCode());
-                StudyIdentifier studyIdentifier = new StudyIdentifierImpl(studyId);
+        // Get study ID from health code. Upload validation needs this.
+        String studyId = healthCodeDao.getStudyIdentifier(upload.getHealthCode());
+        StudyIdentifier studyIdentifier = new StudyIdentifierImpl(studyId);
 
-                // Kick off upload validation.
-                uploadValidationService.validateUpload(studyIdentifier, oneUpload);
+        // Kick off upload validation.
+        uploadValidationService.validateUpload(studyIdentifier, upload);
 
-                recordMessage(task, callback, "Backfilled upload ID " + oneUploadId);
-                logger.info("Backfilled upload ID " + oneUploadId);
-            } catch (RuntimeException ex) {
-                // Ensure that errors won't fail the entire backfill. Log an error and move on.
-                String errMsg = "Error backfilling upload ID " + oneUploadId + ": " + ex.getMessage();
-                logger.error(errMsg, ex);
-                recordMessage(task, callback, errMsg);
+        return "Backfilled upload ID " + uploadId;
+    }
+
+    // Returns the index in the upload ID list to resume from. If the last run of this backfill didn't complete, this
+    // is its last checkpoint. Otherwise, or if the upload ID list has changed size since, we start from the beginning.
+    private int getResumeIndex(BackfillTask task, int numUploads) {
+        String checkpoint = cacheProvider.getString(getCheckpointKey(task));
+        if (checkpoint == null) {
+            return 0;
+        }
+
+        // Checkpoint is in the form "[index]/[numUploads]".
+        String[] checkpointParts = checkpoint.split("/");
+        if (checkpointParts.length != 2) {
+            logger.warn("Invalid backfill checkpoint " + checkpoint);
+            return 0;
+        }
+        try {
+            int checkpointIndex = Integer.parseInt(checkpointParts[0]);
+            int checkpointNumUploads = Integer.parseInt(checkpointParts[1]);
+            if (checkpointNumUploads == numUploads && checkpointIndex <= numUploads) {
+                return checkpointIndex;
             }
+        } catch (NumberFormatException ex) {
+            logger.warn("Invalid backfill checkpoint " + checkpoint);
         }
+        return 0;
+    }
 
-        logger.info("UploadValidationBackfill complete");
+    // Persists a checkpoint: every upload before the given index has been re-driven.
+    private void writeCheckpoint(BackfillTask task, int index, int numUploads) {
+        cacheProvider.setString(getCheckpointKey(task), index + "/" + numUploads, CHECKPOINT_EXPIRE_IN_SECONDS);
+    }
+
+    // Checkpoints are kept per backfill name, so each run of the same backfill sees the last run's checkpoint.
+    private static String getCheckpointKey(BackfillTask task) {
+        return RedisKey.BACKFILL_CHECKPOINT.getRedisKey(task.getName());
     }
 
     /** Subclasses should override this to return a list of upload IDs to redrive upload validation for. */
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.upload;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+
+/**
+ * <p>
+ * Strict validation for a single schema revision, compiled ahead of time. Compiling walks the field definitions once
+ * and turns each one into a small check, with the field name, type, required flag, and multi-choice answer set all
+ * resolved up front. Validating a record is then a single pass over the checks, with no further lookups into the
+ * field definitions.
+ * </p>
+ * <p>
+ * Compiled validators are immutable and thread-safe. They're cached alongside the schema revision in
+ * {@link org.sagebionetworks.bridge.services.UploadSchemaService#getCompiledValidator}.
+ * </p>
+ */
+public class CompiledSchemaValidator {
+    // Many schemas (and many revisions of the same schema) share the same multi-choice answer lists. Interning the
+    // answer sets means we only keep one copy of each in memory, no matter how many compiled validators use it.
+    private static final Interner<ImmutableSet<String>> ANSWER_SET_INTERNER = Interners.newWeakInterner();
+
+    private final FieldCheck[] fieldChecks;
+
+    // Private constructor. Use compile().
+    private CompiledSchemaValidator(FieldCheck[] fieldChecks) {
+        this.fieldChecks = fieldChecks;
+    }
+
+    /** Compiles the given list of field definitions (generally from a schema) into a validator. */
+    public static CompiledSchemaValidator compile(@Nonnull List<UploadFieldDefinition> fieldDefList) {
+        FieldCheck[] fieldChecks = new FieldCheck[fieldDefList.size()];
+        for (int i = 0; i < fieldChecks.length; i++) {
+            fieldChecks[i] = compileField(fieldDefList.get(i));
+        }
+        return new CompiledSchemaValidator(fieldChecks);
+    }
+
+    /** Number of compiled field checks. Package-scoped to facilitate unit tests. */
+    int getNumFieldChecks() {
+        return fieldChecks.length;
+    }
+
+    /**
+     * Validates the record data and attachments against the compiled schema. Valid field values are canonicalized
+     * and written back into the record data node.
+     *
+     * @param attachmentFieldNameSet
+     *         set of attachment field names that we have attachments for
+     * @param recordDataNode
+     *         JSON node of the parsed data to validate
+     * @return list of error messages, empty if there are no errors
+     */
+    public List<String> validate(@Nonnull Set<String> attachmentFieldNameSet, @Nonnull JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (FieldCheck oneFieldCheck : fieldChecks) {
+            oneFieldCheck.check(attachmentFieldNameSet, recordDataNode, errorList);
+        }
+        return errorList;
+    }
+
+    // Compiles a single field definition into a check.
+    private static FieldCheck compileField(UploadFieldDefinition fieldDef) {
+        String fieldName = fieldDef.getName();
+        UploadFieldType fieldType = fieldDef.getType();
+        boolean isRequired = fieldDef.isRequired();
+
+        if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
+            // For attachment types, since they just get exported as raw files, we only need to check if it's
+            // required and present. Specifically, if it's required and it's not present, then that's an error.
+            if (!isRequired) {
+                return (attachmentFieldNameSet, recordDataNode, errorList) -> {};
+            }
+            String missingMessage = "Required attachment field " + fieldName + " missing";
+            return (attachmentFieldNameSet, recordDataNode, errorList) -> {
+                if (!attachmentFieldNameSet.contains(fieldName)) {
+                    errorList.add(missingMessage);
+                }
+            };
+        }
+
+        // Special case: MULTI_CHOICE value validation (unless it allows other choices)
+        ImmutableSet<String> validAnswerSet = null;
+        if (fieldType == UploadFieldType.MULTI_CHOICE && !Boolean.TRUE.equals(fieldDef.getAllowOtherChoices())) {
+            //noinspection ConstantConditions
+            validAnswerSet = ANSWER_SET_INTERNER.intern(ImmutableSet.copyOf(fieldDef.getMultiChoiceAnswerList()));
+        }
+        ImmutableSet<String> finalValidAnswerSet = validAnswerSet;
+        String missingMessage = isRequired ? "Required field " + fieldName + " missing" : null;
+
+        return (attachmentFieldNameSet, recordDataNode, errorList) -> {
+            JsonNode fieldValueNode = recordDataNode.get(fieldName);
+
+            if (fieldValueNode != null && !fieldValueNode.isNull()) {
+                // Canonicalize the field.
+                CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
+                if (canonicalizationResult.isValid()) {
+                    JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+                    if (finalValidAnswerSet != null) {
+                        int numAnswers = canonicalizedValueNode.size();
+                        for (int i = 0; i < numAnswers; i++) {
+                            String answer = canonicalizedValueNode.get(i).textValue();
+                            if (!finalValidAnswerSet.contains(answer)) {
+                                errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
+                                        answer);
+                            }
+                        }
+                    }
+
+                    // Write the canonicalization back into the field data map.
+                    ((ObjectNode) recordDataNode).set(fieldName, canonicalizedValueNode);
+                } else {
+                    errorList.add("Canonicalization failed for field " + fieldName + ": " +
+                            canonicalizationResult.getErrorMessage());
+                }
+            } else if (missingMessage != null) {
+                errorList.add(missingMessage);
+            }
+        };
+    }
+
+    // A single precompiled field check. Appends error messages, if any, to the error list.
+    @FunctionalInterface
+    private interface FieldCheck {
+        void check(Set<String> attachmentFieldNameSet, JsonNode recordDataNode, List<String> errorList);
+    }
+}
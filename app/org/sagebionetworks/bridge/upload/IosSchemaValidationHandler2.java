@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -171,6 +172,10 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
 
         UploadSchemaType schemaType = schema.getSchemaType();
         if (schemaType == UploadSchemaType.IOS_SURVEY) {
+            // Survey answers are small and we need all of them, so parse any JSON that ParseJsonHandler left as raw
+            // bytes.
+            parseRemainingJson(jsonDataMap, unzippedDataMap);
+
             // Convert survey format to JSON data format. This means creating a JSON data map where the "filenames" are
             // just the question names (items) and the file data is the answer JSON node.
             Map<String, JsonNode> convertedSurveyMap = convertSurveyToJsonData(context, uploadId, jsonDataMap);
@@ -438,6 +443,20 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
         return convertedSurveyMap;
     }
 
+    // ParseJsonHandler leaves large JSON files as raw bytes. This parses them into the JSON data map, for code paths
+    // that need the whole file.
+    private static void parseRemainingJson(Map<String, JsonNode> jsonDataMap, Map<String, byte[]> unzippedDataMap) {
+        Iterator<Map.Entry<String, byte[]>> unzippedDataIter = unzippedDataMap.entrySet().iterator();
+        while (unzippedDataIter.hasNext()) {
+            Map.Entry<String, byte[]> oneUnzippedData = unzippedDataIter.next();
+            JsonNode jsonNode = parseJsonOrNull(oneUnzippedData.getValue());
+            if (jsonNode != null) {
+                jsonDataMap.put(oneUnzippedData.getKey(), jsonNode);
+                unzippedDataIter.remove();
+            }
+        }
+    }
+
     // Note that handleSurvey() converts the survey format into the data format, treating each answer as its own file
     // with filename equal to the question name and JsonNode equal to the answer.
     private static void handleData(UploadValidationContext context, String uploadId,
@@ -451,19 +470,109 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
         Map<String, JsonNode> sanitizedFlattenedJsonDataMap = sanitizeFieldNames(flattenedJsonDataMap);
         Map<String, byte[]> sanitizedUnzippedDataMap = sanitizeFieldNames(unzippedDataMap);
 
+        // Large JSON files are still raw bytes. Stream out just the fields the schema needs from these.
+        Map<String, UploadFieldDefinition> fieldDefMap = new HashMap<>();
+        for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
+            fieldDefMap.put(oneFieldDef.getName(), oneFieldDef);
+        }
+        Map<String, JsonNode> streamedJsonFieldMap = new HashMap<>();
+        Map<String, byte[]> streamedRawFieldMap = new HashMap<>();
+        extractJsonFields(unzippedDataMap, fieldDefMap, streamedJsonFieldMap, streamedRawFieldMap);
+
         // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
         for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
             String fieldName = oneFieldDef.getName();
 
             if (sanitizedUnzippedDataMap.containsKey(fieldName)) {
-                addAttachment(attachmentMap, fieldName, sanitizedUnzippedDataMap.get(fieldName));
+                byte[] data = sanitizedUnzippedDataMap.get(fieldName);
+                JsonNode wholeFileNode = null;
+                if (!UploadFieldType.ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
+                    // A large JSON file referenced wholly by a non-attachment field. We need the tree for this.
+                    wholeFileNode = parseJsonOrNull(data);
+                }
+
+                if (wholeFileNode != null) {
+                    copyJsonField(context, uploadId, wholeFileNode, oneFieldDef, dataMap, attachmentMap);
+                } else {
+                    addAttachment(attachmentMap, fieldName, data);
+                }
             } else if (sanitizedFlattenedJsonDataMap.containsKey(fieldName)) {
                 copyJsonField(context, uploadId, sanitizedFlattenedJsonDataMap.get(fieldName), oneFieldDef, dataMap,
                         attachmentMap);
+            } else if (streamedRawFieldMap.containsKey(fieldName)) {
+                addAttachment(attachmentMap, fieldName, streamedRawFieldMap.get(fieldName));
+            } else if (streamedJsonFieldMap.containsKey(fieldName)) {
+                copyJsonField(context, uploadId, streamedJsonFieldMap.get(fieldName), oneFieldDef, dataMap,
+                        attachmentMap);
             }
         }
     }
 
+    // Streams fields out of JSON files that ParseJsonHandler left as raw bytes. Fields are keyed by sanitized
+    // filename.fieldname, the same as the flattened JSON data map. Attachment fields are copied as JSON bytes and go in
+    // the raw field map. Other fields go in the JSON field map. Fields the schema doesn't reference are skipped.
+    private static void extractJsonFields(Map<String, byte[]> unzippedDataMap,
+            Map<String, UploadFieldDefinition> fieldDefMap, Map<String, JsonNode> jsonFieldMap,
+            Map<String, byte[]> rawFieldMap) {
+        for (Map.Entry<String, byte[]> oneUnzippedData : unzippedDataMap.entrySet()) {
+            String filename = oneUnzippedData.getKey();
+            byte[] data = oneUnzippedData.getValue();
+            if (!UploadUtil.looksLikeJson(data) || !hasFieldsInFile(filename, fieldDefMap)) {
+                // Either not JSON, or the schema only references the file as a whole (if at all).
+                continue;
+            }
+
+            Map<String, String> fieldNameByKey = new HashMap<>();
+            try {
+                JsonFieldExtractor extractor = JsonFieldExtractor.extract(data, key -> {
+                    String fieldName = SchemaUtils.sanitizeFieldName(filename + "." + key);
+                    UploadFieldDefinition fieldDef = fieldDefMap.get(fieldName);
+                    if (fieldDef == null) {
+                        return JsonFieldExtractor.Mode.SKIP;
+                    }
+
+                    fieldNameByKey.put(key, fieldName);
+                    return UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldDef.getType()) ?
+                            JsonFieldExtractor.Mode.RAW : JsonFieldExtractor.Mode.TREE;
+                });
+
+                for (Map.Entry<String, JsonNode> oneTreeField : extractor.getTreeFieldMap().entrySet()) {
+                    jsonFieldMap.put(fieldNameByKey.get(oneTreeField.getKey()), oneTreeField.getValue());
+                }
+                for (Map.Entry<String, byte[]> oneRawField : extractor.getRawFieldMap().entrySet()) {
+                    rawFieldMap.put(fieldNameByKey.get(oneRawField.getKey()), oneRawField.getValue());
+                }
+            } catch (IOException ex) {
+                // Not a JSON object after all. The file can still be used as a whole, same as any other file.
+            }
+        }
+    }
+
+    // Fields inside a file are named filename.fieldname, so their sanitized names start with the sanitized filename.
+    // Checking the prefix lets us skip files that the schema doesn't reach into, without parsing them.
+    private static boolean hasFieldsInFile(String filename, Map<String, UploadFieldDefinition> fieldDefMap) {
+        String sanitizedFilename = SchemaUtils.sanitizeFieldName(filename);
+        for (String oneFieldName : fieldDefMap.keySet()) {
+            if (oneFieldName.length() > sanitizedFilename.length() && oneFieldName.startsWith(sanitizedFilename)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Parses the given bytes as JSON. Returns null if they can't be parsed.
+    private static JsonNode parseJsonOrNull(byte[] data) {
+        if (!UploadUtil.looksLikeJson(data)) {
+            return null;
+        }
+
+        try {
+            return BridgeObjectMapper.get().readTree(data);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
     private static Map<String, JsonNode> flattenJsonDataMap(Map<String, JsonNode> jsonDataMap) {
         Map<String, JsonNode> dataFieldMap = new HashMap<>();
         for (Map.Entry<String, JsonNode> oneJsonFile : jsonDataMap.entrySet()) {
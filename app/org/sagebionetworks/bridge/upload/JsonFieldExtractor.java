@@ -0,0 +1,96 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * Pulls selected top-level fields out of a JSON object using a streaming parser, without building a tree for the whole
+ * object. Fields that will be stored as attachments are copied out token by token as JSON bytes, so large arrays never
+ * become trees. Other fields we need are read as trees, one field at a time. Everything else is skipped.
+ */
+class JsonFieldExtractor {
+    /** What to do with a top-level field. */
+    enum Mode {
+        /** Field isn't needed. */
+        SKIP,
+
+        /** Read the field as a JSON tree. */
+        TREE,
+
+        /** Copy the field's JSON bytes without building a tree. */
+        RAW,
+    }
+
+    private final Map<String, JsonNode> treeFieldMap = new HashMap<>();
+    private final Map<String, byte[]> rawFieldMap = new HashMap<>();
+
+    private JsonFieldExtractor() {
+    }
+
+    /**
+     * Extracts fields from the given JSON object.
+     *
+     * @param jsonBytes
+     *         JSON object to extract fields from
+     * @param modeForKey
+     *         given a top-level key, returns what to do with that field
+     * @return extractor holding the extracted fields
+     * @throws IOException
+     *         if the data isn't a JSON object or is malformed
+     */
+    static JsonFieldExtractor extract(byte[] jsonBytes, Function<String, Mode> modeForKey) throws IOException {
+        JsonFieldExtractor extractor = new JsonFieldExtractor();
+        JsonFactory jsonFactory = BridgeObjectMapper.get().getFactory();
+        try (JsonParser parser = jsonFactory.createParser(jsonBytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                Mode mode = modeForKey.apply(key);
+
+                if (mode == Mode.RAW && valueToken != JsonToken.VALUE_NULL) {
+                    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+                    try (JsonGenerator generator = jsonFactory.createGenerator(byteStream)) {
+                        generator.copyCurrentStructure(parser);
+                    }
+                    extractor.rawFieldMap.put(key, byteStream.toByteArray());
+                } else if (mode == Mode.TREE || mode == Mode.RAW) {
+                    // Null raw fields go in the tree map, so callers can handle nulls in one place.
+                    extractor.treeFieldMap.put(key, parser.readValueAsTree());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Unexpected end of JSON object");
+            }
+        }
+        return extractor;
+    }
+
+    /** Fields read as JSON trees, keyed by top-level key. */
+    Map<String, JsonNode> getTreeFieldMap() {
+        return treeFieldMap;
+    }
+
+    /** Fields copied as JSON bytes, keyed by top-level key. */
+    Map<String, byte[]> getRawFieldMap() {
+        return rawFieldMap;
+    }
+}
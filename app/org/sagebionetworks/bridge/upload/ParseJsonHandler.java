@@ -6,18 +6,42 @@ import java.util.Map;
 import javax.annotation.Nonnull;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 
 /**
+ * <p>
  * Validation handler for parsing the upload data into JSON, if applicable. This handler reads unzipped data from
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. As it iterates over the unzipped
  * data, if it's able to parse any entries into JSON, it will remove it from getUnzippedDataMap, and write it to
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap}.
+ * </p>
+ * <p>
+ * Entries that clearly aren't JSON (see {@link UploadUtil#looksLikeJson}) are skipped without parsing. JSON entries
+ * larger than the configured max tree size (other than info.json) are left in getUnzippedDataMap as raw bytes. The
+ * schema validation handler pulls out just the fields it needs from these with a streaming parser, instead of holding
+ * a tree of the whole file.
+ * </p>
  */
 @Component
 public class ParseJsonHandler implements UploadValidationHandler {
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_MAX_TREE_BYTES = "upload.json.tree.max.bytes";
+    static final int DEFAULT_MAX_TREE_BYTES = 256 * 1024;
+
+    private static final String FILENAME_INFO_JSON = "info.json";
+
+    private int maxTreeBytes = DEFAULT_MAX_TREE_BYTES;
+
+    /** Sets the max size of JSON entries that are parsed into trees from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        maxTreeBytes = config.getPropertyAsInt(CONFIG_KEY_MAX_TREE_BYTES);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) {
@@ -30,15 +54,25 @@ public class ParseJsonHandler implements UploadValidationHandler {
         while (unzippedDataIter.hasNext()) {
             Map.Entry<String, byte[]> oneUnzippedData = unzippedDataIter.next();
             String entryName = oneUnzippedData.getKey();
+            byte[] data = oneUnzippedData.getValue();
+
+            if (!UploadUtil.looksLikeJson(data)) {
+                // Definitely not JSON (for example, audio files). Don't bother parsing.
+                continue;
+            }
+            if (data.length > maxTreeBytes && !FILENAME_INFO_JSON.equals(entryName)) {
+                // Too big to hold as a tree. Leave it for streaming extraction.
+                continue;
+            }
 
             try {
                 // Try to parse it as JSON. If you can, remove the entry from unzippedDataMap and add it to
                 // jsonDataMap.
-                JsonNode jsonNode = BridgeObjectMapper.get().readTree(oneUnzippedData.getValue());
+                JsonNode jsonNode = BridgeObjectMapper.get().readTree(data);
                 jsonDataMap.put(entryName, jsonNode);
                 unzippedDataIter.remove();
             } catch (Exception ex) {
-                // Can't parse this as a JSON node. This could be normal (for example, for audio files). Ignore the
+                // Can't parse this as a JSON node. This could be normal (for example, for text files). Ignore the
                 // error and move on.
             }
         }
@@ -2,13 +2,10 @@ package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,9 +15,6 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
-import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
-import org.sagebionetworks.bridge.models.upload.UploadFieldType;
-import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.services.StudyService;
 import org.sagebionetworks.bridge.services.UploadSchemaService;
 
@@ -63,7 +57,7 @@ public class StrictValidationHandler implements UploadValidationHandler {
         this.studyService = studyService;
     }
 
-    /** Upload Schema Service, used to get the schema to validate against the upload. */
+    /** Upload Schema Service, used to get the compiled schema to validate against the upload. */
     @Autowired
     public final void setUploadSchemaService(UploadSchemaService uploadSchemaService) {
         this.uploadSchemaService = uploadSchemaService;
@@ -83,12 +77,10 @@ public class StrictValidationHandler implements UploadValidationHandler {
         // get attachment field names
         Set<String> attachmentFieldNameSet = context.getAttachmentsByFieldName().keySet();
 
-        // get schema
-        UploadSchema schema = uploadSchemaService.getUploadSchemaByIdAndRev(studyIdentifier, schemaId, schemaRev);
-        List<UploadFieldDefinition> fieldDefList = schema.getFieldDefinitions();
-
-        List<String> errorList = validateAllFields(fieldDefList, attachmentFieldNameSet,
-                recordDataNode);
+        // get compiled validator for the schema and validate
+        CompiledSchemaValidator validator = uploadSchemaService.getCompiledValidator(studyIdentifier, schemaId,
+                schemaRev);
+        List<String> errorList = validator.validate(attachmentFieldNameSet, recordDataNode);
 
         handleErrors(context, schemaId, schemaRev, errorList);
     }
@@ -142,71 +134,4 @@ public class StrictValidationHandler implements UploadValidationHandler {
         Study study = studyService.getStudy(studyIdentifier);
         return study.isStrictUploadValidationEnabled();
     }
-
-    /**
-     * Given the schema, the attachments (all we need are names), and the JSON data nodes, we validate the data against
-     * the schema.
-     *
-     * @param fieldDefList
-     *         list of field definitions from the schema
-     * @param attachmentFieldNameSet
-     *         set of attachment field names that we have attachments for
-     * @param recordDataNode
-     *         JSON node of the parsed data to validate
-     * @return list of error messages, empty if there are no errors
-     */
-    private static List<String> validateAllFields(
-            @Nonnull List<UploadFieldDefinition> fieldDefList, @Nonnull Set<String> attachmentFieldNameSet,
-            @Nonnull JsonNode recordDataNode) {
-        // walk the field definitions and validate fields
-        List<String> errorList = new ArrayList<>();
-        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
-            String fieldName = oneFieldDef.getName();
-            UploadFieldType fieldType = oneFieldDef.getType();
-            boolean isRequired = oneFieldDef.isRequired();
-
-            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
-                // For attachment types, since they just get exported as raw files, we only need to check if it's
-                // required and present. Specifically, if it's required and it's not present, then that's an error.
-                if (isRequired && !attachmentFieldNameSet.contains(fieldName)) {
-                    errorList.add("Required attachment field " + fieldName + " missing");
-                }
-            } else {
-                JsonNode fieldValueNode = recordDataNode.get(fieldName);
-
-                if (fieldValueNode != null && !fieldValueNode.isNull()) {
-                    // Canonicalize the field.
-                    CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
-                    if (canonicalizationResult.isValid()) {
-                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
-
-                        // Special case: MULTI_CHOICE value validation (unless it allows other choices)
-                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
-                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
-                            //noinspection ConstantConditions
-                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
-                            int numAnswers = canonicalizedValueNode.size();
-                            for (int i = 0; i < numAnswers; i++) {
-                                String answer = canonicalizedValueNode.get(i).textValue();
-                                if (!validAnswerSet.contains(answer)) {
-                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
-                                            answer);
-                                }
-                            }
-                        }
-
-                        // Write the canonicalization back into the field data map.
-                        ((ObjectNode)recordDataNode).set(fieldName, canonicalizedValueNode);
-                    } else {
-                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
-                                canonicalizationResult.getErrorMessage());
-                    }
-                } else if (isRequired) {
-                    errorList.add("Required field " + fieldName + " missing");
-                }
-            }
-        }
-
-        return errorList;
-    }
 }
@@ -1,11 +1,21 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ForwardingMapEntry;
+import com.google.common.collect.ForwardingSet;
+import com.google.common.collect.Iterators;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
 
 /**
@@ -26,7 +36,79 @@ public class UnzipHandler implements UploadValidationHandler {
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) {
-        Map<String, byte[]> unzippedDataMap = uploadArchiveService.unzip(context.getDecryptedData());
-        context.setUnzippedDataMap(unzippedDataMap);
+        // The archive's declared entry count and sizes are checked before anything is decompressed. Entries are still
+        // inflated lazily, so large entries that end up as attachments are never inflated. A corrupt entry fails the
+        // upload as a bad request when a later handler reads it.
+        Map<String, byte[]> unzippedDataMap = uploadArchiveService.unzipLazily(context.getDecryptedData());
+        context.setUnzippedDataMap(new CorruptEntryCheckingMap(unzippedDataMap));
+    }
+
+    // Wraps the lazily unzipped map, so reading (or removing) an entry that can't be inflated throws a
+    // BadRequestException instead of an UncheckedIOException. Entries read through entrySet() and values() are
+    // wrapped too.
+    private static class CorruptEntryCheckingMap extends ForwardingMap<String, byte[]> {
+        private final Map<String, byte[]> delegate;
+
+        CorruptEntryCheckingMap(Map<String, byte[]> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected Map<String, byte[]> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public byte[] get(Object key) {
+            return readEntry(() -> delegate.get(key));
+        }
+
+        @Override
+        public byte[] remove(Object key) {
+            return readEntry(() -> delegate.remove(key));
+        }
+
+        @Override
+        public Set<Entry<String, byte[]>> entrySet() {
+            Set<Entry<String, byte[]>> delegateEntrySet = delegate.entrySet();
+            return new ForwardingSet<Entry<String, byte[]>>() {
+                @Override
+                protected Set<Entry<String, byte[]>> delegate() {
+                    return delegateEntrySet;
+                }
+
+                @Override
+                public Iterator<Entry<String, byte[]>> iterator() {
+                    return Iterators.transform(delegateEntrySet.iterator(), CorruptEntryCheckingMap::wrapEntry);
+                }
+            };
+        }
+
+        @Override
+        public Collection<byte[]> values() {
+            return new StandardValues();
+        }
+
+        private static Entry<String, byte[]> wrapEntry(Entry<String, byte[]> delegateEntry) {
+            return new ForwardingMapEntry<String, byte[]>() {
+                @Override
+                protected Entry<String, byte[]> delegate() {
+                    return delegateEntry;
+                }
+
+                @Override
+                public byte[] getValue() {
+                    return readEntry(delegateEntry::getValue);
+                }
+            };
+        }
+
+        private static byte[] readEntry(Supplier<byte[]> reader) {
+            try {
+                return reader.get();
+            } catch (UncheckedIOException ex) {
+                throw new BadRequestException(ex.getCause());
+            }
+        }
     }
 }
@@ -1,8 +1,14 @@
 package org.sagebionetworks.bridge.upload;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 
@@ -12,7 +18,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
@@ -25,9 +33,26 @@ public class UploadArtifactsHandler implements UploadValidationHandler {
 
     private static final String ATTACHMENT_BUCKET = BridgeConfigFactory.getConfig().getProperty("attachment.bucket");
 
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_ATTACHMENT_PARALLELISM = "upload.attachment.parallelism";
+
+    private ExecutorService attachmentExecutorService;
     private HealthDataService healthDataService;
+    private int maxParallelism;
     private S3Helper s3Helper;
 
+    /** Thread pool used to write attachments to S3, shared by all uploads. This is configured by Spring. */
+    @Resource(name = "uploadAttachmentExecutorService")
+    public final void setAttachmentExecutorService(ExecutorService attachmentExecutorService) {
+        this.attachmentExecutorService = attachmentExecutorService;
+    }
+
+    /** Sets the max number of concurrent S3 writes per upload from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        maxParallelism = config.getPropertyAsInt(CONFIG_KEY_ATTACHMENT_PARALLELISM);
+    }
+
     @Autowired
     public void setHealthDataService(HealthDataService healthDataService) {
         this.healthDataService = healthDataService;
@@ -51,26 +76,24 @@ public class UploadArtifactsHandler implements UploadValidationHandler {
         Map<String, byte[]> attachmentMap = context.getAttachmentsByFieldName();
         if (!attachmentMap.isEmpty()) {
             // step 2: upload health data attachments
-            Map<String, String> attachmentIdsByFieldName = new HashMap<>();
-            for (Map.Entry<String, byte[]> oneAttachment : attachmentMap.entrySet()) {
-                String fieldName = oneAttachment.getKey();
-                byte[] data = oneAttachment.getValue();
+            List<String> fieldNameList = new ArrayList<>(attachmentMap.keySet());
 
-                // step 2a: upload attachments to metadata table
-                HealthDataAttachment attachmentMetadata = healthDataService.getAttachmentBuilder()
-                        .withRecordId(recordId).build();
-                String attachmentId = healthDataService.createOrUpdateAttachment(attachmentMetadata);
-                attachmentIdsByFieldName.put(fieldName, attachmentId);
+            // step 2a: upload attachments to metadata table. This is a single batch write, instead of one write per
+            // attachment.
+            List<HealthDataAttachment> attachmentMetadataList = new ArrayList<>();
+            for (int i = 0; i < fieldNameList.size(); i++) {
+                attachmentMetadataList.add(healthDataService.getAttachmentBuilder().withRecordId(recordId).build());
+            }
+            List<String> attachmentIdList = healthDataService.createOrUpdateAttachments(attachmentMetadataList);
 
-                // step 2b: upload attachments to S3
-                try {
-                    s3Helper.writeBytesToS3(ATTACHMENT_BUCKET, attachmentId, data);
-                } catch (IOException ex) {
-                    addMessageAndWarn(context, String.format("Upload ID %s error uploading attachment for field %s: %s",
-                            uploadId, fieldName, ex.getMessage()), ex);
-                }
+            Map<String, String> attachmentIdsByFieldName = new HashMap<>();
+            for (int i = 0; i < fieldNameList.size(); i++) {
+                attachmentIdsByFieldName.put(fieldNameList.get(i), attachmentIdList.get(i));
             }
 
+            // step 2b: upload attachments to S3
+            writeAttachmentsToS3(context, attachmentIdsByFieldName, attachmentMap);
+
             // step 3: add attachment IDs to health data record
 
             // Get the record back from the health data table (as it might have added new fields, like a record ID and
@@ -99,6 +122,64 @@ public class UploadArtifactsHandler implements UploadValidationHandler {
         }
     }
 
+    // Writes attachments to S3 in parallel, with at most maxParallelism writes in flight for this upload, so that a
+    // single upload with many attachments can't take over the shared thread pool. Waits for all writes to finish.
+    private void writeAttachmentsToS3(UploadValidationContext context, Map<String, String> attachmentIdsByFieldName,
+            Map<String, byte[]> attachmentMap) {
+        String uploadId = context.getUpload().getUploadId();
+        Semaphore permits = new Semaphore(maxParallelism);
+        Map<String, Future<?>> futuresByFieldName = new HashMap<>();
+        try {
+            for (Map.Entry<String, String> oneAttachmentId : attachmentIdsByFieldName.entrySet()) {
+                String fieldName = oneAttachmentId.getKey();
+                String attachmentId = oneAttachmentId.getValue();
+                byte[] data = attachmentMap.get(fieldName);
+
+                permits.acquire();
+                try {
+                    futuresByFieldName.put(fieldName, attachmentExecutorService.submit(() -> {
+                        try {
+                            s3Helper.writeBytesToS3(ATTACHMENT_BUCKET, attachmentId, data);
+                            return null;
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException ex) {
+                    // Thread pool rejected the task. Give back the permit, so we don't block forever.
+                    permits.release();
+                    throw ex;
+                }
+            }
+
+            // Wait for all writes. S3 errors are recorded per field, as before. Anything else fails the upload.
+            for (Map.Entry<String, Future<?>> oneFuture : futuresByFieldName.entrySet()) {
+                String fieldName = oneFuture.getKey();
+                try {
+                    oneFuture.getValue().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        addMessageAndWarn(context, String.format(
+                                "Upload ID %s error uploading attachment for field %s: %s", uploadId, fieldName,
+                                cause.getMessage()), cause);
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new BridgeServiceException(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Restore the interrupt and stop waiting. Don't leave writes running for an upload we've abandoned.
+            Thread.currentThread().interrupt();
+            for (Future<?> oneFuture : futuresByFieldName.values()) {
+                oneFuture.cancel(true);
+            }
+            throw new BridgeServiceException("Interrupted while uploading attachments for upload " + uploadId);
+        }
+    }
+
     private static void addMessageAndWarn(UploadValidationContext context, String message, Throwable ex) {
         context.addMessage(message);
         if (ex != null) {
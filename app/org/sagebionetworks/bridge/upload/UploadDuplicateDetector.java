@@ -0,0 +1,291 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
+import org.sagebionetworks.bridge.services.HealthDataService;
+
+/**
+ * <p>
+ * Detects duplicate health data records after upload validation, off the validation thread. Validation tasks submit
+ * the record they just wrote. A low-priority background thread drains submitted records in batches and queries for
+ * other records with the same health code, schema, and createdOn. Records in a batch that share a health code, schema,
+ * and createdOn are checked with a single query.
+ * </p>
+ * <p>
+ * Duplicates are logged and counted. This is purely informational, so if the queue is full, new records are dropped
+ * (and counted) rather than blocking validation.
+ * </p>
+ */
+@Component
+public class UploadDuplicateDetector {
+    private static final Logger logger = LoggerFactory.getLogger(UploadDuplicateDetector.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_BATCH_SIZE = "upload.duplicate.detector.batch.size";
+    static final String CONFIG_KEY_INTERVAL_SECONDS = "upload.duplicate.detector.interval.seconds";
+    static final String CONFIG_KEY_MAX_QUEUE_SIZE = "upload.duplicate.detector.max.queue.size";
+
+    private int batchSize;
+    private HealthDataService healthDataService;
+    private int intervalSeconds;
+    private BlockingQueue<PendingRecord> pendingQueue;
+    private ScheduledExecutorService scheduledExecutorService;
+
+    // Metrics.
+    private final AtomicLong numSubmitted = new AtomicLong();
+    private final AtomicLong numDropped = new AtomicLong();
+    private final AtomicLong numChecked = new AtomicLong();
+    private final AtomicLong numQueries = new AtomicLong();
+    private final AtomicLong numRecordsWithDupes = new AtomicLong();
+    private final AtomicLong numDupeRecords = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+
+    /** Sets the batch size, interval, and queue size from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        batchSize = config.getPropertyAsInt(CONFIG_KEY_BATCH_SIZE);
+        intervalSeconds = config.getPropertyAsInt(CONFIG_KEY_INTERVAL_SECONDS);
+        pendingQueue = new LinkedBlockingQueue<>(config.getPropertyAsInt(CONFIG_KEY_MAX_QUEUE_SIZE));
+    }
+
+    /** Health data service, used to query for duplicate records. This is configured by Spring. */
+    @Autowired
+    public final void setHealthDataService(HealthDataService healthDataService) {
+        this.healthDataService = healthDataService;
+    }
+
+    /** Scheduled executor, used to periodically process pending records. This is configured by Spring. */
+    @Resource(name = "uploadDuplicateDetectorExecutor")
+    public final void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    /** Starts periodic processing of pending records. Called by Spring after the detector is configured. */
+    @PostConstruct
+    public void scheduleProcessing() {
+        scheduledExecutorService.scheduleWithFixedDelay(this::processPending, intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues the given record to be checked for duplicates. The record builder is the one used to write the record.
+     * Its health code, schema ID, and createdOn are copied now, so we don't need to re-read the record later. This
+     * method returns immediately.
+     *
+     * @param recordId
+     *         ID of the record that was just written
+     * @param recordBuilder
+     *         builder the record was created from, may be null, in which case the record is re-read from DynamoDB
+     */
+    public void submit(@Nonnull String recordId, HealthDataRecordBuilder recordBuilder) {
+        PendingRecord pendingRecord;
+        if (recordBuilder != null) {
+            pendingRecord = new PendingRecord(recordId, recordBuilder.getStudyId(), recordBuilder.getHealthCode(),
+                    recordBuilder.getSchemaId(), recordBuilder.getCreatedOn());
+        } else {
+            pendingRecord = new PendingRecord(recordId, null, null, null, null);
+        }
+
+        numSubmitted.incrementAndGet();
+        if (!pendingQueue.offer(pendingRecord)) {
+            numDropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Snapshot of detector metrics, including the number of records checked, the number of queries made, and the
+     * number of duplicates found.
+     */
+    public Map<String, Long> getMetrics() {
+        return ImmutableMap.<String, Long>builder().put("submitted", numSubmitted.get())
+                .put("dropped", numDropped.get()).put("pending", (long) pendingQueue.size())
+                .put("checked", numChecked.get()).put("queries", numQueries.get())
+                .put("recordsWithDupes", numRecordsWithDupes.get()).put("dupeRecords", numDupeRecords.get())
+                .put("errors", numErrors.get()).build();
+    }
+
+    /**
+     * Drains the pending queue in batches, checks each batch for duplicates, then logs metrics. Package-scoped so
+     * unit tests can call it directly.
+     */
+    void processPending() {
+        // If this throws, the executor never runs it again, and the pending queue fills up and drops every record
+        // submitted after that. Catch errors too, not just runtime exceptions.
+        try {
+            // Only process what's already queued, so a steady stream of submissions can't keep this pass going
+            // forever. Anything submitted later is picked up in the next pass.
+            int remaining = pendingQueue.size();
+            if (remaining == 0) {
+                return;
+            }
+
+            List<PendingRecord> batch = new ArrayList<>();
+            while (remaining > 0 && pendingQueue.drainTo(batch, Math.min(batchSize, remaining)) > 0) {
+                remaining -= batch.size();
+                processBatch(batch);
+                batch.clear();
+            }
+            logMetrics();
+        } catch (Throwable t) {
+            logger.error("Error processing upload duplicate checks: " + t.getMessage(), t);
+        }
+    }
+
+    // Groups the batch by dupe key, so records that would run the same query share one query.
+    private void processBatch(List<PendingRecord> batch) {
+        Map<DupeKey, List<PendingRecord>> recordsByKey = new LinkedHashMap<>();
+        for (PendingRecord onePendingRecord : batch) {
+            try {
+                PendingRecord resolvedRecord = resolve(onePendingRecord);
+                if (resolvedRecord == null) {
+                    // Record was never written or has since been deleted. Nothing to check.
+                    continue;
+                }
+                recordsByKey.computeIfAbsent(resolvedRecord.getDupeKey(), key -> new ArrayList<>()).add(
+                        resolvedRecord);
+            } catch (RuntimeException ex) {
+                numErrors.incrementAndGet();
+                logger.error("Error loading record " + onePendingRecord.recordId + " for duplicate check: " +
+                        ex.getMessage(), ex);
+            }
+        }
+
+        for (Map.Entry<DupeKey, List<PendingRecord>> oneEntry : recordsByKey.entrySet()) {
+            DupeKey key = oneEntry.getKey();
+            List<PendingRecord> pendingRecordList = oneEntry.getValue();
+            try {
+                numQueries.incrementAndGet();
+                List<HealthDataRecord> candidateList = healthDataService.getRecordsByHealthcodeCreatedOnSchemaId(
+                        key.healthCode, key.createdOn, key.schemaId);
+                for (PendingRecord onePendingRecord : pendingRecordList) {
+                    checkRecord(onePendingRecord, candidateList);
+                }
+            } catch (RuntimeException ex) {
+                numErrors.addAndGet(pendingRecordList.size());
+                logger.error("Error checking duplicates for health code " + key.healthCode + ", schema " +
+                        key.schemaId + ", created on " + key.createdOn + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // Fills in the dupe key from DynamoDB if the submitter didn't have it. Returns null if the record doesn't exist.
+    private PendingRecord resolve(PendingRecord pendingRecord) {
+        if (pendingRecord.healthCode != null && pendingRecord.schemaId != null && pendingRecord.createdOn != null) {
+            return pendingRecord;
+        }
+
+        HealthDataRecord record = healthDataService.getRecordById(pendingRecord.recordId);
+        if (record == null) {
+            return null;
+        }
+        return new PendingRecord(pendingRecord.recordId, record.getStudyId(), record.getHealthCode(),
+                record.getSchemaId(), record.getCreatedOn());
+    }
+
+    private void checkRecord(PendingRecord pendingRecord, List<HealthDataRecord> candidateList) {
+        numChecked.incrementAndGet();
+
+        // Skip the record itself, because it's not really a dupe of itself.
+        List<String> dupeRecordIdList = candidateList.stream().map(HealthDataRecord::getId)
+                .filter(recordId -> !pendingRecord.recordId.equals(recordId)).collect(Collectors.toList());
+        if (!dupeRecordIdList.isEmpty()) {
+            numRecordsWithDupes.incrementAndGet();
+            numDupeRecords.addAndGet(dupeRecordIdList.size());
+            logger.info("Duplicate health data records for record id: " + pendingRecord.recordId +
+                    ", created on: " + pendingRecord.createdOn + ", schema id: " + pendingRecord.schemaId +
+                    ", study: " + pendingRecord.studyId + ", duplicate size: " + dupeRecordIdList.size() +
+                    ", duplicate record IDs: " + BridgeUtils.COMMA_SPACE_JOINER.join(dupeRecordIdList));
+        }
+    }
+
+    // Logs detector metrics as a single JSON line.
+    private void logMetrics() {
+        try {
+            ObjectNode json = MAPPER.createObjectNode();
+            json.set("upload_duplicate_detector", MAPPER.valueToTree(getMetrics()));
+            logger.info(json.toString());
+        } catch (RuntimeException ex) {
+            logger.error("Error logging upload duplicate detector metrics: " + ex.getMessage(), ex);
+        }
+    }
+
+    // A record waiting to be checked. Key fields may be null if the submitter didn't have them.
+    private static class PendingRecord {
+        final String recordId;
+        final String studyId;
+        final String healthCode;
+        final String schemaId;
+        final Long createdOn;
+
+        PendingRecord(String recordId, String studyId, String healthCode, String schemaId, Long createdOn) {
+            this.recordId = recordId;
+            this.studyId = studyId;
+            this.healthCode = healthCode;
+            this.schemaId = schemaId;
+            this.createdOn = createdOn;
+        }
+
+        DupeKey getDupeKey() {
+            return new DupeKey(healthCode, schemaId, createdOn);
+        }
+    }
+
+    // Records with the same dupe key get the same duplicate query results. Key fields may be null if the record
+    // itself is missing them.
+    private static class DupeKey {
+        final String healthCode;
+        final String schemaId;
+        final Long createdOn;
+
+        DupeKey(String healthCode, String schemaId, Long createdOn) {
+            this.healthCode = healthCode;
+            this.schemaId = schemaId;
+            this.createdOn = createdOn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            DupeKey that = (DupeKey) o;
+            return Objects.equals(healthCode, that.healthCode) && Objects.equals(schemaId, that.schemaId) &&
+                    Objects.equals(createdOn, that.createdOn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(healthCode, schemaId, createdOn);
+        }
+    }
+}
@@ -467,6 +467,49 @@ public class UploadUtil {
         return true;
     }
 
+    /**
+     * Cheap check for whether the given bytes could be JSON, by looking at the first non-whitespace byte (after an
+     * optional UTF-8 byte order mark). This lets us skip binary files (audio, images) and plain text without handing
+     * them to a JSON parser. A true result doesn't mean the data is valid JSON, only that it's worth trying to parse.
+     *
+     * @param data
+     *         raw file data
+     * @return true if the data might be JSON, false if it's definitely not
+     */
+    public static boolean looksLikeJson(byte[] data) {
+        if (data == null) {
+            return false;
+        }
+
+        int i = 0;
+        if (data.length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF) {
+            i = 3;
+        }
+        for (; i < data.length; i++) {
+            switch (data[i]) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    // whitespace, keep looking
+                    continue;
+                case '{':
+                case '[':
+                case '"':
+                case '-':
+                case 't':
+                case 'f':
+                case 'n':
+                    return true;
+                default:
+                    return data[i] >= '0' && data[i] <= '9';
+            }
+        }
+
+        // Empty or all whitespace. Jackson can't parse this either.
+        return false;
+    }
+
     /**
      * <p>
      * For some reason, the iOS are inserting arbitrary times into calendar dates. We need to convert them back to
@@ -103,8 +103,8 @@ public class UploadValidationContext {
 
     /**
      * Unzipped data as bytes, keyed by filename. This is initially created by the UnzipHandler. The ParseJsonHandler
-     * will read this and remove entries that can be parsed into JSON. Non-JSON entries will still remain in this map.
-     * This is also read by the IosSchemaValidationHandler.
+     * will read this and remove entries that can be parsed into JSON. Non-JSON entries will still remain in this map, as
+     * will JSON entries too large to parse into trees. This is also read by the IosSchemaValidationHandler.
      */
     public Map<String, byte[]> getUnzippedDataMap() {
         return unzippedDataMap;
@@ -3,14 +3,9 @@ package org.sagebionetworks.bridge.upload;
 import javax.annotation.Nonnull;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import com.google.common.base.Stopwatch;
 
-import org.sagebionetworks.bridge.BridgeUtils;
-import org.sagebionetworks.bridge.exceptions.BadRequestException;
-import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
-import org.sagebionetworks.bridge.services.HealthDataService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,15 +23,7 @@ public class UploadValidationTask implements Runnable {
 
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
-    private HealthDataService healthDataService;
-
-    public final void setHealthDataService(HealthDataService healthDataService) {
-        this.healthDataService = healthDataService;
-    }
-
-    public HealthDataService getHealthDataService() {
-        return this.healthDataService;
-    }
+    private UploadDuplicateDetector duplicateDetector;
 
     /**
      * Constructs an upload validation task instance with the given context. This should only be called by the
@@ -72,6 +59,16 @@ public class UploadValidationTask implements Runnable {
         return uploadDao;
     }
 
+    /** Duplicate detector, for checking new records for dupes. This is configured by Spring through the factory. */
+    public void setDuplicateDetector(UploadDuplicateDetector duplicateDetector) {
+        this.duplicateDetector = duplicateDetector;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ UploadDuplicateDetector getDuplicateDetector() {
+        return duplicateDetector;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void run() {
@@ -127,56 +124,11 @@ public class UploadValidationTask implements Runnable {
 
         // TODO: if validation fails, wipe the files from S3
 
-        // dedupe logic over here:
-        try {
-            dedupeHelper(context.getRecordId());
-        } catch (Throwable e) {
-            logErrorMsg(e);
+        // Duplicate detection is informational only. Hand it off to the detector, which checks records in batches in
+        // the background, instead of making extra DynamoDB calls on the validation thread.
+        if (context.getRecordId() != null) {
+            duplicateDetector.submit(context.getRecordId(), context.getHealthDataRecordBuilder());
         }
-
-    }
-
-    // helper method to log exception
-    void logErrorMsg(Throwable e) {
-        logger.error("An error occurred:", e);
-    }
-
-    /**
-     * helper method: query healthdatarecord by healthcode, schema and createdOn from the upload just finished above,
-     * if there are more than 1 such records in ddb, there are duplicates. log that information but not stop or delete anything right now
-     */
-    private void dedupeHelper(String healthRecordId) throws BadRequestException {
-        if (healthRecordId == null) {
-            return; // no record yet, no need to check duplicates
-        }
-        // get necessary information for query first
-        HealthDataRecord record = healthDataService.getRecordById(healthRecordId);
-
-        // if there is no record in ddb, we should just finish dedupe logic since no record is a common case
-        if (record == null) {
-            return;
-        }
-
-        Long createdOn = record.getCreatedOn();
-        String healthCode = record.getHealthCode();
-        String schemaId = record.getSchemaId();
-
-        List<HealthDataRecord> retList = healthDataService.getRecordsByHealthcodeCreatedOnSchemaId(healthCode, createdOn, schemaId);
-        // Convert to a list of recordIds, skip the current record ID because it's not really a dupe of itself.
-        List<String> dupeRecordIdList = retList.stream().map(HealthDataRecord::getId)
-                .filter(recordId -> !healthRecordId.equals(recordId)).collect(Collectors.toList());
-        if (dupeRecordIdList.size() > 0) {
-            logDuplicateUploadRecords(record, dupeRecordIdList);
-        }
-        // else there is only one such record exists in ddb or no record exists yet, means no duplicate -- do nothing
-    }
-
-    // Package-scoped so we can spy this and verify this is being called.
-    void logDuplicateUploadRecords(HealthDataRecord originRecord, List<String> dupeRecordIdList) {
-        logger.info("Duplicate health data records for record id: " + originRecord.getId() + ", created on: "
-                + originRecord.getCreatedOn() + ", schema id: " + originRecord.getSchemaId() + ", study: "
-                + originRecord.getStudyId() + ", duplicate size: " + dupeRecordIdList.size()
-                + ", duplicate record IDs: " + BridgeUtils.COMMA_SPACE_JOINER.join(dupeRecordIdList));
     }
 
     // Log helper. Unit tests will mock (spy) this, so we verify that we're catching and logging the exception.
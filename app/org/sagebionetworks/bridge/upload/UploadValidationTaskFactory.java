@@ -8,7 +8,6 @@ import javax.annotation.Resource;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.upload.Upload;
-import org.sagebionetworks.bridge.services.HealthDataService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -21,7 +20,7 @@ import org.springframework.stereotype.Component;
 public class UploadValidationTaskFactory {
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
-    private HealthDataService healthDataService;
+    private UploadDuplicateDetector duplicateDetector;
 
     /** Validation handler list. This is configured by Spring. */
     @Resource(name = "uploadValidationHandlerList")
@@ -35,9 +34,10 @@ public class UploadValidationTaskFactory {
         this.uploadDao = uploadDao;
     }
 
+    /** Duplicate detector, used to check new records for dupes in the background. This is configured by Spring. */
     @Autowired
-    public final void setHealthDataService(HealthDataService healthDataService) {
-        this.healthDataService = healthDataService;
+    public final void setDuplicateDetector(UploadDuplicateDetector duplicateDetector) {
+        this.duplicateDetector = duplicateDetector;
     }
 
     /**
@@ -59,7 +59,7 @@ public class UploadValidationTaskFactory {
         UploadValidationTask task = new UploadValidationTask(context);
         task.setHandlerList(handlerList);
         task.setUploadDao(uploadDao);
-        task.setHealthDataService(healthDataService);
+        task.setDuplicateDetector(duplicateDetector);
         return task;
     }
 }
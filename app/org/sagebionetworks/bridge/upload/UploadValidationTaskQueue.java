@@ -0,0 +1,285 @@
+package org.sagebionetworks.bridge.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+/**
+ * <p>
+ * Fair, per-study scheduler that sits in front of the async thread pool for upload validation. Each study gets its
+ * own FIFO queue. Studies with pending tasks take turns in weighted round-robin order, so a single study backfilling
+ * or releasing an app can't starve validation for every other study.
+ * </p>
+ * <p>
+ * Tasks are only handed to the thread pool when a thread is free, so the thread pool's own (unfair) queue never
+ * builds up. Each study can also be capped at a maximum number of concurrently running tasks, and at a maximum number
+ * of pending tasks. Tasks submitted to a full study queue are rejected.
+ * </p>
+ */
+@Component
+public class UploadValidationTaskQueue {
+    private static final Logger logger = LoggerFactory.getLogger(UploadValidationTaskQueue.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // package-scoped to be available in unit tests
+    static final String CONFIG_KEY_DEFAULT_STUDY_CONCURRENCY = "upload.validation.study.max.concurrency";
+    static final String CONFIG_KEY_METRICS_INTERVAL_SECONDS = "upload.validation.metrics.interval.seconds";
+    static final String CONFIG_KEY_STUDY_MAX_QUEUE_SIZE = "upload.validation.study.max.queue.size";
+    static final String CONFIG_KEY_STUDY_CONCURRENCY_OVERRIDES = "upload.validation.study.concurrency.overrides";
+    static final String CONFIG_KEY_STUDY_WEIGHTS = "upload.validation.study.weights";
+    static final String CONFIG_KEY_THREAD_COUNT = "async.worker.thread.count";
+
+    private ExecutorService asyncExecutorService;
+    private int defaultStudyConcurrency;
+    private int maxConcurrency;
+    private int maxStudyQueueSize;
+    private int metricsIntervalSeconds;
+    private ScheduledExecutorService scheduledExecutorService;
+    private Map<String, Integer> studyConcurrencyOverrides;
+    private Map<String, Integer> studyWeights;
+
+    // All of the following state is guarded by "this".
+    private final Map<String, StudyQueue> studyQueueMap = new HashMap<>();
+    private final Deque<StudyQueue> activeStudyQueues = new ArrayDeque<>();
+    private int totalRunning = 0;
+
+    /** Async thread pool that runs the tasks. This is configured by Spring. */
+    @Resource(name = "asyncExecutorService")
+    public final void setAsyncExecutorService(ExecutorService asyncExecutorService) {
+        this.asyncExecutorService = asyncExecutorService;
+    }
+
+    /** Sets concurrency caps, weights, and the metrics interval from the specified Bridge config. */
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        // Never dispatch more tasks than there are threads. Otherwise, the thread pool's own FIFO queue would undo
+        // the fairness.
+        maxConcurrency = config.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT);
+        defaultStudyConcurrency = config.getPropertyAsInt(CONFIG_KEY_DEFAULT_STUDY_CONCURRENCY);
+        metricsIntervalSeconds = config.getPropertyAsInt(CONFIG_KEY_METRICS_INTERVAL_SECONDS);
+        maxStudyQueueSize = config.getPropertyAsInt(CONFIG_KEY_STUDY_MAX_QUEUE_SIZE);
+        studyConcurrencyOverrides = parseStudyIntMap(config.getPropertyAsList(
+                CONFIG_KEY_STUDY_CONCURRENCY_OVERRIDES));
+        studyWeights = parseStudyIntMap(config.getPropertyAsList(CONFIG_KEY_STUDY_WEIGHTS));
+    }
+
+    /** Scheduled executor, used to periodically log queue metrics. This is configured by Spring. */
+    @Resource(name = "uploadValidationRedriveExecutor")
+    public final void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    /** Starts periodic logging of per-study queue metrics. Called by Spring after the queue is configured. */
+    @PostConstruct
+    public void scheduleMetrics() {
+        scheduledExecutorService.scheduleAtFixedRate(this::logMetrics, metricsIntervalSeconds,
+                metricsIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a task to the given study's queue. The task runs on the async thread pool once it's the study's turn and
+     * the study is under its concurrency cap. This method returns immediately.
+     *
+     * @param studyId
+     *         study the task belongs to
+     * @param task
+     *         task to run
+     * @return true if the task was queued, false if the study's queue is full
+     */
+    public boolean submit(@Nonnull String studyId, @Nonnull Runnable task) {
+        checkArgument(StringUtils.isNotBlank(studyId), "studyId must be specified");
+        checkNotNull(task, "task must be specified");
+
+        synchronized (this) {
+            StudyQueue studyQueue = studyQueueMap.computeIfAbsent(studyId, this::newStudyQueue);
+            if (studyQueue.pending.size() >= maxStudyQueueSize) {
+                studyQueue.rejectedCount++;
+                return false;
+            }
+            studyQueue.pending.add(task);
+            studyQueue.submittedCount++;
+            if (!studyQueue.active) {
+                studyQueue.active = true;
+                activeStudyQueues.add(studyQueue);
+            }
+            dispatch();
+            return true;
+        }
+    }
+
+    /**
+     * Snapshot of per-study queue metrics, keyed by study ID. Each value contains the number of pending, running,
+     * submitted, completed, and rejected tasks for that study.
+     */
+    public synchronized Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metricsMap = new TreeMap<>();
+        for (StudyQueue oneStudyQueue : studyQueueMap.values()) {
+            metricsMap.put(oneStudyQueue.studyId, ImmutableMap.of(
+                    "pending", (long) oneStudyQueue.pending.size(),
+                    "running", (long) oneStudyQueue.running,
+                    "submitted", oneStudyQueue.submittedCount,
+                    "completed", oneStudyQueue.completedCount,
+                    "rejected", oneStudyQueue.rejectedCount));
+        }
+        return metricsMap;
+    }
+
+    /** Total number of tasks waiting to run, across all studies. Backfills use this to throttle themselves. */
+    public synchronized int getPendingCount() {
+        int pendingCount = 0;
+        for (StudyQueue oneStudyQueue : studyQueueMap.values()) {
+            pendingCount += oneStudyQueue.pending.size();
+        }
+        return pendingCount;
+    }
+
+    /** Logs per-study queue metrics as a single JSON line. Package-scoped so unit tests can call it directly. */
+    void logMetrics() {
+        // If this throws, the executor stops logging queue metrics for good, and per-study backlogs go unseen. This
+        // only reads counters, so anything thrown here, Errors included, is safe to log and skip.
+        try {
+            ObjectNode json = MAPPER.createObjectNode();
+            json.set("upload_validation_queue", MAPPER.valueToTree(getMetrics()));
+            logger.info(json.toString());
+        } catch (Throwable t) {
+            logger.error("Error logging upload validation queue metrics: " + t.getMessage(), t);
+        }
+    }
+
+    // Hands tasks to the thread pool until we run out of free threads or every study with pending tasks is at its
+    // concurrency cap. Must be called while holding the lock.
+    private void dispatch() {
+        // Number of consecutive studies we looked at without dispatching anything. If we've looked at every active
+        // study and none of them can run, stop.
+        int skipped = 0;
+        while (totalRunning < maxConcurrency && !activeStudyQueues.isEmpty()
+                && skipped < activeStudyQueues.size()) {
+            StudyQueue studyQueue = activeStudyQueues.peekFirst();
+            if (studyQueue.running >= studyQueue.maxConcurrency) {
+                // Study is at its cap. Move it to the back. It'll get its turn when one of its tasks finishes.
+                activeStudyQueues.addLast(activeStudyQueues.pollFirst());
+                studyQueue.credits = 0;
+                skipped++;
+                continue;
+            }
+            skipped = 0;
+
+            // Weighted round-robin: A study gets as many consecutive dispatches per turn as its weight.
+            if (studyQueue.credits <= 0) {
+                studyQueue.credits = studyQueue.weight;
+            }
+            Runnable task = studyQueue.pending.poll();
+            studyQueue.credits--;
+            studyQueue.running++;
+            totalRunning++;
+
+            if (studyQueue.pending.isEmpty()) {
+                // Nothing left for this study. Remove it from the rotation until it gets more tasks.
+                activeStudyQueues.pollFirst();
+                studyQueue.active = false;
+                studyQueue.credits = 0;
+            } else if (studyQueue.credits <= 0) {
+                // Study used up its turn. Move it to the back.
+                activeStudyQueues.addLast(activeStudyQueues.pollFirst());
+            }
+
+            // Update our bookkeeping before executing, in case the thread pool runs the task inline and re-enters
+            // dispatch().
+            execute(studyQueue, task);
+        }
+    }
+
+    private void execute(StudyQueue studyQueue, Runnable task) {
+        try {
+            asyncExecutorService.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    onTaskFinished(studyQueue);
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Thread pool rejected the task, for example because it's shutting down. The validation work queue
+            // re-drives anything that doesn't finish, so just log and release the slot.
+            logger.error("Error submitting upload validation task for study " + studyQueue.studyId + ": " +
+                    ex.getMessage(), ex);
+            studyQueue.running--;
+            totalRunning--;
+        }
+    }
+
+    private synchronized void onTaskFinished(StudyQueue studyQueue) {
+        studyQueue.running--;
+        studyQueue.completedCount++;
+        totalRunning--;
+        dispatch();
+    }
+
+    private StudyQueue newStudyQueue(String studyId) {
+        int studyMaxConcurrency = studyConcurrencyOverrides.getOrDefault(studyId, defaultStudyConcurrency);
+        int weight = studyWeights.getOrDefault(studyId, 1);
+        return new StudyQueue(studyId, studyMaxConcurrency, weight);
+    }
+
+    // Parses config entries of the form "studyId:value".
+    private static Map<String, Integer> parseStudyIntMap(List<String> entryList) {
+        Map<String, Integer> studyIntMap = new HashMap<>();
+        if (entryList != null) {
+            for (String oneEntry : entryList) {
+                if (StringUtils.isBlank(oneEntry)) {
+                    continue;
+                }
+                String[] parts = oneEntry.trim().split(":", 2);
+                checkArgument(parts.length == 2, "Invalid study config entry: " + oneEntry);
+                int value = Integer.parseInt(parts[1].trim());
+                checkArgument(value > 0, "Study config value must be positive: " + oneEntry);
+                studyIntMap.put(parts[0].trim(), value);
+            }
+        }
+        return studyIntMap;
+    }
+
+    // Per-study queue state. Guarded by the enclosing queue's lock.
+    private static class StudyQueue {
+        final String studyId;
+        final int maxConcurrency;
+        final int weight;
+        final Deque<Runnable> pending = new ArrayDeque<>();
+        boolean active = false;
+        int credits = 0;
+        int running = 0;
+        long submittedCount = 0;
+        long completedCount = 0;
+        long rejectedCount = 0;
+
+        StudyQueue(String studyId, int maxConcurrency, int weight) {
+            this.studyId = studyId;
+            this.maxConcurrency = maxConcurrency;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * <p>
+ * Random-access reader for a zip file held in memory. Unlike {@link java.util.zip.ZipInputStream}, which decompresses
+ * every entry in order, this reads the zip's central directory first. Entry count, entry sizes, and duplicate
+ * filenames are all checked against the declared metadata before anything is decompressed, so zip bombs are rejected
+ * up front. Entries are only inflated when {@link #getEntryBytes} is called.
+ * </p>
+ * <p>
+ * Inflated entries are also checked against their declared size and CRC, since the central directory could be lying.
+ * Zip64 archives, multi-disk archives, and encrypted entries are not supported and are rejected with a
+ * {@link ZipException}.
+ * </p>
+ */
+public class ZipArchive {
+    // Zip format constants. See https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int FLAG_ENCRYPTED = 0x1;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int METHOD_STORED = 0;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    private final byte[] bytes;
+    private final Map<String, EntryInfo> entryMap;
+    private final int maxZipEntrySize;
+
+    /**
+     * Reads the central directory of the given zip file and validates it against the given limits. This doesn't
+     * decompress any data.
+     *
+     * @param bytes
+     *         raw bytes of the zip file
+     * @param maxZipEntrySize
+     *         max number of uncompressed bytes per zip entry
+     * @param maxNumZipEntries
+     *         max number of zip entries per archive
+     * @throws ZipException
+     *         if the central directory can't be read
+     * @throws ZipOverflowException
+     *         if the archive declares too many entries or an entry that's too big
+     * @throws DuplicateZipEntryException
+     *         if the archive contains the same filename more than once
+     */
+    public ZipArchive(@Nonnull byte[] bytes, int maxZipEntrySize, int maxNumZipEntries)
+            throws ZipException, ZipOverflowException, DuplicateZipEntryException {
+        checkNotNull(bytes);
+        checkArgument(maxZipEntrySize > 0);
+        checkArgument(maxNumZipEntries > 0);
+        this.bytes = bytes;
+        this.maxZipEntrySize = maxZipEntrySize;
+        this.entryMap = readCentralDirectory(maxNumZipEntries);
+    }
+
+    /** Filenames of all entries in the archive, in central directory order. */
+    public Set<String> getEntryNames() {
+        return ImmutableSet.copyOf(entryMap.keySet());
+    }
+
+    /** Declared uncompressed size of the given entry, or -1 if there's no such entry. */
+    public long getEntrySize(String entryName) {
+        EntryInfo entryInfo = entryMap.get(entryName);
+        return entryInfo != null ? entryInfo.uncompressedSize : -1;
+    }
+
+    /**
+     * Inflates and returns the given entry. Each call inflates the entry again, so callers that need an entry more
+     * than once should hold on to the result.
+     *
+     * @param entryName
+     *         filename of the entry to inflate
+     * @return uncompressed bytes of the entry, or null if there's no such entry
+     * @throws ZipException
+     *         if the entry is corrupt or doesn't match its declared size or CRC
+     */
+    public byte[] getEntryBytes(String entryName) throws ZipException {
+        EntryInfo entryInfo = entryMap.get(entryName);
+        if (entryInfo == null) {
+            return null;
+        }
+
+        // Find the entry data. The local header's filename and extra field lengths can differ from the central
+        // directory's, so we need to read them from the local header.
+        ByteBuffer buffer = littleEndianBuffer();
+        int localHeaderOffset = entryInfo.localHeaderOffset;
+        checkBounds(localHeaderOffset, LOCAL_HEADER_SIZE, entryName);
+        if (buffer.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header for zip entry " + entryName);
+        }
+        int localNameLength = buffer.getShort(localHeaderOffset + 26) & 0xFFFF;
+        int localExtraLength = buffer.getShort(localHeaderOffset + 28) & 0xFFFF;
+        int dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + localNameLength + localExtraLength;
+        checkBounds(dataOffset, entryInfo.compressedSize, entryName);
+
+        // Inflate. We allocate exactly the declared size, and fail if the data inflates to more or less than that.
+        byte[] output = new byte[entryInfo.uncompressedSize];
+        if (entryInfo.method == METHOD_STORED) {
+            if (entryInfo.compressedSize != entryInfo.uncompressedSize) {
+                throw new ZipException("Stored zip entry " + entryName + " has mismatched sizes");
+            }
+            System.arraycopy(bytes, dataOffset, output, 0, entryInfo.uncompressedSize);
+        } else {
+            inflate(entryName, dataOffset, entryInfo, output);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(output);
+        if (crc.getValue() != entryInfo.crc) {
+            throw new ZipException("CRC mismatch for zip entry " + entryName);
+        }
+        return output;
+    }
+
+    /**
+     * <p>
+     * Returns a mutable map of entry bytes keyed by filename, which inflates each entry the first time its value is
+     * read and keeps the result. Entries that are removed through the entry set iterator, or replaced with
+     * {@link Map#put}, before they're read are never inflated. {@link Map#remove} returns the removed value, so it
+     * inflates an entry that hasn't been read yet.
+     * </p>
+     * <p>
+     * Since {@link Map#get} can't throw checked exceptions, a corrupt entry throws an {@link UncheckedIOException}
+     * when its value is read. {@link Map#put} returns null when it replaces an entry that hasn't been inflated yet.
+     * </p>
+     */
+    public Map<String, byte[]> asLazyMap() {
+        return new LazyEntryMap();
+    }
+
+    private void inflate(String entryName, int dataOffset, EntryInfo entryInfo, byte[] output) throws ZipException {
+        // Raw deflate data, without zlib headers.
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, dataOffset, entryInfo.compressedSize);
+            int totalBytes = 0;
+            while (totalBytes < output.length && !inflater.finished()) {
+                int bytesInflated = inflater.inflate(output, totalBytes, output.length - totalBytes);
+                if (bytesInflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                totalBytes += bytesInflated;
+            }
+
+            if (totalBytes != output.length) {
+                throw new ZipException("Zip entry " + entryName + " is shorter than its declared size");
+            }
+            if (!inflater.finished()) {
+                // Check that there's no more data than declared. The inflater may need one more call with an empty
+                // buffer to notice the end of the stream.
+                byte[] extraByte = new byte[1];
+                if (inflater.inflate(extraByte) > 0 || !inflater.finished()) {
+                    throw new ZipException("Zip entry " + entryName + " is longer than its declared size");
+                }
+            }
+        } catch (DataFormatException ex) {
+            ZipException zipEx = new ZipException("Corrupt data in zip entry " + entryName + ": " + ex.getMessage());
+            zipEx.initCause(ex);
+            throw zipEx;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Reads and validates the central directory. Returns entry info keyed by filename, in central directory order.
+    private Map<String, EntryInfo> readCentralDirectory(int maxNumZipEntries)
+            throws ZipException, ZipOverflowException, DuplicateZipEntryException {
+        ByteBuffer buffer = littleEndianBuffer();
+        int eocdOffset = findEndOfCentralDirectory(buffer);
+
+        int diskNumber = buffer.getShort(eocdOffset + 4) & 0xFFFF;
+        int centralDirectoryDisk = buffer.getShort(eocdOffset + 6) & 0xFFFF;
+        int numEntries = buffer.getShort(eocdOffset + 10) & 0xFFFF;
+        long centralDirectorySize = buffer.getInt(eocdOffset + 12) & 0xFFFFFFFFL;
+        long centralDirectoryOffset = buffer.getInt(eocdOffset + 16) & 0xFFFFFFFFL;
+        if (diskNumber != 0 || centralDirectoryDisk != 0) {
+            throw new ZipException("Multi-disk zip files are not supported");
+        }
+        if (numEntries == 0xFFFF || centralDirectorySize == ZIP64_MARKER || centralDirectoryOffset == ZIP64_MARKER) {
+            throw new ZipException("Zip64 files are not supported");
+        }
+        if (numEntries > maxNumZipEntries) {
+            throw new ZipOverflowException("The number of zip entries is over the max allowed");
+        }
+        if (centralDirectoryOffset + centralDirectorySize > eocdOffset) {
+            throw new ZipException("Central directory is out of bounds");
+        }
+
+        Map<String, EntryInfo> entryInfoMap = new LinkedHashMap<>();
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < numEntries; i++) {
+            if (offset + CENTRAL_DIRECTORY_HEADER_SIZE > eocdOffset ||
+                    buffer.getInt(offset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory header at entry " + i);
+            }
+            int flags = buffer.getShort(offset + 8) & 0xFFFF;
+            int method = buffer.getShort(offset + 10) & 0xFFFF;
+            long crc = buffer.getInt(offset + 16) & 0xFFFFFFFFL;
+            long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+            long uncompressedSize = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+            long localHeaderOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+
+            int nameOffset = offset + CENTRAL_DIRECTORY_HEADER_SIZE;
+            if (nameOffset + nameLength > eocdOffset) {
+                throw new ZipException("Bad central directory header at entry " + i);
+            }
+            String entryName = new String(bytes, nameOffset, nameLength, StandardCharsets.UTF_8);
+
+            if (entryInfoMap.containsKey(entryName)) {
+                throw new DuplicateZipEntryException(String.format("Duplicate filename %s", entryName));
+            }
+            if (uncompressedSize > maxZipEntrySize) {
+                throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " +
+                        entryName + " has size " + uncompressedSize + ". The max allowed size is" + maxZipEntrySize +
+                        ".");
+            }
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new ZipException("Encrypted zip entry " + entryName + " is not supported");
+            }
+            if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+                throw new ZipException("Zip entry " + entryName + " has unsupported compression method " + method);
+            }
+            if (compressedSize == ZIP64_MARKER || localHeaderOffset == ZIP64_MARKER ||
+                    compressedSize > bytes.length || localHeaderOffset >= centralDirectoryOffset) {
+                throw new ZipException("Zip entry " + entryName + " is out of bounds");
+            }
+
+            entryInfoMap.put(entryName, new EntryInfo(method, crc, (int) compressedSize, (int) uncompressedSize,
+                    (int) localHeaderOffset));
+            offset = nameOffset + nameLength + extraLength + commentLength;
+        }
+        return entryInfoMap;
+    }
+
+    // The end of central directory record is at the end of the file, followed by a variable-length comment. Scan
+    // backwards for its signature.
+    private int findEndOfCentralDirectory(ByteBuffer buffer) throws ZipException {
+        int lastPossibleOffset = bytes.length - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int firstPossibleOffset = Math.max(0, lastPossibleOffset - MAX_COMMENT_SIZE);
+        for (int offset = lastPossibleOffset; offset >= firstPossibleOffset; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                int commentLength = buffer.getShort(offset + 20) & 0xFFFF;
+                if (offset + END_OF_CENTRAL_DIRECTORY_SIZE + commentLength == bytes.length) {
+                    return offset;
+                }
+            }
+        }
+        throw new ZipException("Can't find zip central directory");
+    }
+
+    private void checkBounds(int offset, int length, String entryName) throws ZipException {
+        if (offset < 0 || length < 0 || (long) offset + length > bytes.length) {
+            throw new ZipException("Zip entry " + entryName + " is out of bounds");
+        }
+    }
+
+    private ByteBuffer littleEndianBuffer() {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Map view for asLazyMap(). Inflated (or put) values live in loadedMap. Entries that haven't been inflated yet
+    // live in pendingNameSet.
+    private class LazyEntryMap extends AbstractMap<String, byte[]> {
+        private final Map<String, byte[]> loadedMap = new LinkedHashMap<>();
+        private final Set<String> pendingNameSet = new LinkedHashSet<>(entryMap.keySet());
+
+        @Override
+        public boolean containsKey(Object key) {
+            return loadedMap.containsKey(key) || pendingNameSet.contains(key);
+        }
+
+        @Override
+        public byte[] get(Object key) {
+            if (pendingNameSet.contains(key)) {
+                return load((String) key);
+            }
+            return loadedMap.get(key);
+        }
+
+        @Override
+        public byte[] put(String key, byte[] value) {
+            pendingNameSet.remove(key);
+            return loadedMap.put(key, value);
+        }
+
+        @Override
+        public byte[] remove(Object key) {
+            // Callers rename entries by removing and re-adding them, so this needs to return the value.
+            if (pendingNameSet.contains(key)) {
+                load((String) key);
+            }
+            return loadedMap.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return loadedMap.size() + pendingNameSet.size();
+        }
+
+        @Override
+        public Set<Entry<String, byte[]>> entrySet() {
+            return new AbstractSet<Entry<String, byte[]>>() {
+                @Override
+                public Iterator<Entry<String, byte[]>> iterator() {
+                    return new LazyEntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return LazyEntryMap.this.size();
+                }
+            };
+        }
+
+        private byte[] load(String entryName) {
+            byte[] value;
+            try {
+                value = getEntryBytes(entryName);
+            } catch (ZipException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            pendingNameSet.remove(entryName);
+            loadedMap.put(entryName, value);
+            return value;
+        }
+
+        // Iterates over a snapshot of the keys, so entries can be removed or replaced while iterating. Removing
+        // through the iterator doesn't inflate the entry.
+        private class LazyEntryIterator implements Iterator<Entry<String, byte[]>> {
+            private final List<String> keyList = ImmutableList.<String>builder().addAll(loadedMap.keySet())
+                    .addAll(pendingNameSet).build();
+            private int nextIndex = 0;
+            private String currentKey = null;
+
+            @Override
+            public boolean hasNext() {
+                return nextIndex < keyList.size();
+            }
+
+            @Override
+            public Entry<String, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String key = keyList.get(nextIndex++);
+                currentKey = key;
+                return new SimpleEntry<String, byte[]>(key, null) {
+                    @Override
+                    public byte[] getValue() {
+                        return get(key);
+                    }
+
+                    @Override
+                    public byte[] setValue(byte[] value) {
+                        return put(key, value);
+                    }
+                };
+            }
+
+            @Override
+            public void remove() {
+                if (currentKey == null) {
+                    throw new IllegalStateException();
+                }
+                pendingNameSet.remove(currentKey);
+                loadedMap.remove(currentKey);
+                currentKey = null;
+            }
+        }
+    }
+
+    // Entry metadata from the central directory.
+    private static class EntryInfo {
+        final int method;
+        final long crc;
+        final int compressedSize;
+        final int uncompressedSize;
+        final int localHeaderOffset;
+
+        EntryInfo(int method, long crc, int compressedSize, int uncompressedSize, int localHeaderOffset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
@@ -3,23 +3,40 @@ package org.sagebionetworks.bridge.util;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Nonnull;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
-
 public class Zipper {
     // Size of temporary buffer in bytes. This is big enough that there should be no churn for most files, but small
     // enough to have minimal memory overhead.
     private static final int TEMP_BUFFER_SIZE = 4096;
 
+    // Pooled buffers that grow larger than this are dropped after use instead of being kept for the next call, so a
+    // single huge upload doesn't pin memory on a worker thread forever. Package-scoped to facilitate unit tests.
+    static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    // Per-thread buffers. Validation workers zip and unzip one archive at a time, so reusing buffers per thread means
+    // we no longer allocate a temp buffer and a growing output buffer for every entry, which the young generation then
+    // has to collect.
+    private static final ThreadLocal<byte[]> TEMP_BUFFER = ThreadLocal.withInitial(() -> new byte[TEMP_BUFFER_SIZE]);
+    private static final ThreadLocal<PooledByteArrayOutputStream> POOLED_STREAM = ThreadLocal.withInitial(
+            PooledByteArrayOutputStream::new);
+
     /** Max number of uncompressed bytes per zip entry. */
     private final int maxZipEntrySize;
 
@@ -38,16 +55,22 @@ public class Zipper {
      * is a byte array of data keyed by file name.
      */
     public byte[] zip(@Nonnull Map<String, byte[]> dataMap) throws IOException {
-        try (final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                final ZipOutputStream zos = new ZipOutputStream(baos)) {
-            for (Map.Entry<String, byte[]> oneData : dataMap.entrySet()) {
-                ZipEntry zipEntry = new ZipEntry(oneData.getKey());
-                zos.putNextEntry(zipEntry);
-                zos.write(oneData.getValue());
-                zos.closeEntry();
+        PooledByteArrayOutputStream pooledStream = borrowPooledStream();
+        try {
+            try (final ZipOutputStream zos = new ZipOutputStream(pooledStream)) {
+                for (Map.Entry<String, byte[]> oneData : dataMap.entrySet()) {
+                    ZipEntry zipEntry = new ZipEntry(oneData.getKey());
+                    zos.putNextEntry(zipEntry);
+                    zos.write(oneData.getValue());
+                    zos.closeEntry();
+                }
+
+                // finish() writes the central directory, so the result is a complete zip file.
+                zos.finish();
             }
-            zos.flush();
-            return baos.toByteArray();
+            return pooledStream.toByteArray();
+        } finally {
+            returnPooledStream(pooledStream);
         }
     }
 
@@ -56,21 +79,81 @@ public class Zipper {
      * unzipped data entries as a byte array.
      * @param bytes
      * @return
-     * @throws ZipOverflowException 
-     * @throws DuplicateZipEntryException 
+     * @throws ZipOverflowException
+     * @throws DuplicateZipEntryException
      */
     public Map<String, byte[]> unzip(@Nonnull byte[] bytes)
             throws IOException, ZipOverflowException, DuplicateZipEntryException {
         final Map<String, byte[]> dataMap = new HashMap<>();
+        PooledByteArrayOutputStream pooledStream = borrowPooledStream();
+        try {
+            readEntries(bytes, pooledStream, (entryName, offset, length) -> {
+                // Each entry is read into the start of the pooled buffer, so copy it out before the next entry.
+                dataMap.put(entryName, Arrays.copyOfRange(pooledStream.getBuffer(), offset, offset + length));
+                pooledStream.reset();
+            });
+            return dataMap;
+        } finally {
+            returnPooledStream(pooledStream);
+        }
+    }
+
+    /**
+     * Unzips the given byte array into read-only ByteBuffer views, keyed by filename. All entries share a single
+     * backing array, so unzipping an archive makes exactly one allocation for the entry data, regardless of the
+     * number of entries. The same limits apply as in {@link #unzip}.
+     */
+    public Map<String, ByteBuffer> unzipToByteBuffers(@Nonnull byte[] bytes)
+            throws IOException, ZipOverflowException, DuplicateZipEntryException {
+        final List<String> entryNameList = new ArrayList<>();
+        final List<int[]> entryBoundsList = new ArrayList<>();
+        PooledByteArrayOutputStream pooledStream = borrowPooledStream();
+        try {
+            // Entries are read back to back into the pooled buffer. Remember where each one lives.
+            readEntries(bytes, pooledStream, (entryName, offset, length) -> {
+                entryNameList.add(entryName);
+                entryBoundsList.add(new int[] { offset, length });
+            });
+
+            byte[] backingArray = pooledStream.toByteArray();
+            Map<String, ByteBuffer> dataMap = new HashMap<>();
+            for (int i = 0; i < entryNameList.size(); i++) {
+                int[] entryBounds = entryBoundsList.get(i);
+                ByteBuffer view = ByteBuffer.wrap(backingArray, entryBounds[0], entryBounds[1]).slice()
+                        .asReadOnlyBuffer();
+                dataMap.put(entryNameList.get(i), view);
+            }
+            return dataMap;
+        } finally {
+            returnPooledStream(pooledStream);
+        }
+    }
+
+    /**
+     * Opens the given zip file for random access. This reads the zip's central directory and checks the declared entry
+     * count, entry sizes, and filenames against this Zipper's limits, without decompressing anything. See
+     * {@link ZipArchive}.
+     */
+    public ZipArchive openArchive(@Nonnull byte[] bytes)
+            throws ZipException, ZipOverflowException, DuplicateZipEntryException {
+        return new ZipArchive(bytes, maxZipEntrySize, maxNumZipEntries);
+    }
+
+    // Reads each entry of the zip file and appends its uncompressed bytes to the given output stream, then calls the
+    // callback with the entry's offset and length in the output stream's buffer. This is where we enforce the max
+    // number of entries, max entry size, and unique filenames.
+    private void readEntries(byte[] bytes, PooledByteArrayOutputStream out, EntryCallback callback)
+            throws IOException, ZipOverflowException, DuplicateZipEntryException {
+        final Set<String> entryNameSet = new HashSet<>();
         try (final ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
                 final ZipInputStream zis = new ZipInputStream(bais)) {
             ZipEntry zipEntry = zis.getNextEntry();
             while (zipEntry != null) {
-                if (dataMap.size() >= maxNumZipEntries) {
+                if (entryNameSet.size() >= maxNumZipEntries) {
                     throw new ZipOverflowException("The number of zip entries is over the max allowed");
                 }
                 final String entryName = zipEntry.getName();
-                if (dataMap.containsKey(entryName)) {
+                if (!entryNameSet.add(entryName)) {
                     throw new DuplicateZipEntryException(String.format("Duplicate filename %s", entryName));
                 }
                 final long entrySize = zipEntry.getSize();
@@ -78,34 +161,73 @@ public class Zipper {
                     throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " + entryName +
                             " has size " + entrySize + ". The max allowed size is" + maxZipEntrySize + ".");
                 }
-                byte[] content = toByteArray(entryName, zis);
-                dataMap.put(entryName, content);
+                int offset = out.size();
+                int length = copyEntry(entryName, zis, out);
+                callback.accept(entryName, offset, length);
                 zipEntry = zis.getNextEntry();
             }
-            return dataMap;
         }
     }
 
-    private byte[] toByteArray(final String entryName, final InputStream inputStream)
+    private int copyEntry(final String entryName, final InputStream inputStream, final ByteArrayOutputStream out)
             throws IOException, ZipOverflowException {
-        // We want copy data from the stream to a byte array manually, so we can count the bytes and protect against
-        // zip bombs. We use Apache IO's ByteArrayOutputStream, because it's memory optimized, so we don't have to
-        // clean up a bunch of byte arrays.
-        byte[] tempBuffer = new byte[TEMP_BUFFER_SIZE];
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            int totalBytes = 0;
-            int bytesRead;
-            while ((bytesRead = inputStream.read(tempBuffer, 0, TEMP_BUFFER_SIZE)) >= 0) {
-                totalBytes += bytesRead;
-                if (totalBytes > maxZipEntrySize) {
-                    throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " + entryName +
-                            " has size more than " + totalBytes + ". The max allowed size is" + maxZipEntrySize + ".");
-                }
-
-                baos.write(tempBuffer, 0, bytesRead);
+        // We want copy data from the stream manually, so we can count the bytes and protect against zip bombs. Both
+        // the temp buffer and the output buffer are pooled per thread.
+        byte[] tempBuffer = TEMP_BUFFER.get();
+        int totalBytes = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(tempBuffer, 0, TEMP_BUFFER_SIZE)) >= 0) {
+            totalBytes += bytesRead;
+            if (totalBytes > maxZipEntrySize) {
+                throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " + entryName +
+                        " has size more than " + totalBytes + ". The max allowed size is" + maxZipEntrySize + ".");
             }
 
-            return baos.toByteArray();
+            out.write(tempBuffer, 0, bytesRead);
+        }
+        return totalBytes;
+    }
+
+    // Gets this thread's pooled output stream, emptied and ready for use.
+    private static PooledByteArrayOutputStream borrowPooledStream() {
+        PooledByteArrayOutputStream pooledStream = POOLED_STREAM.get();
+        pooledStream.reset();
+        return pooledStream;
+    }
+
+    // Releases the pooled output stream. If it grew too big, drop it, and the next call gets a fresh one.
+    private static void returnPooledStream(PooledByteArrayOutputStream pooledStream) {
+        if (pooledStream.getCapacity() > MAX_POOLED_BUFFER_SIZE) {
+            POOLED_STREAM.remove();
+        } else {
+            pooledStream.reset();
+        }
+    }
+
+    // This thread's pooled output buffer. Package-scoped to facilitate unit tests.
+    static byte[] getPooledBuffer() {
+        return POOLED_STREAM.get().getBuffer();
+    }
+
+    // Callback for each zip entry read. Offset and length locate the entry's bytes in the pooled buffer.
+    @FunctionalInterface
+    private interface EntryCallback {
+        void accept(String entryName, int offset, int length);
+    }
+
+    // ByteArrayOutputStream that exposes its buffer, so we can copy or wrap entries without an intermediate
+    // toByteArray() copy.
+    private static class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+        PooledByteArrayOutputStream() {
+            super(TEMP_BUFFER_SIZE);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        int getCapacity() {
+            return buf.length;
         }
     }
 }
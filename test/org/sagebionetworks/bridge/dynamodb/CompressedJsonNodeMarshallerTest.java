@@ -0,0 +1,105 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+public class CompressedJsonNodeMarshallerTest {
+    private static final CompressedJsonNodeMarshaller MARSHALLER = new CompressedJsonNodeMarshaller(true);
+
+    @Test
+    public void smallJsonStaysPlain() throws Exception {
+        JsonNode node = BridgeObjectMapper.get().readTree("{\"key\":\"value\"}");
+
+        String converted = MARSHALLER.convert(node);
+        assertEquals("{\"key\":\"value\"}", converted);
+        assertFalse(CompressedJsonNodeMarshaller.isCompressed(converted));
+        assertEquals(node, MARSHALLER.unconvert(converted));
+    }
+
+    @Test
+    public void largeJsonIsCompressed() {
+        JsonNode node = makeLargeJson();
+        String plainText = node.toString();
+
+        String converted = MARSHALLER.convert(node);
+        assertTrue(CompressedJsonNodeMarshaller.isCompressed(converted));
+        assertTrue(converted.length() < plainText.length() / 4);
+
+        // round trip
+        assertEquals(node, MARSHALLER.unconvert(converted));
+    }
+
+    @Test
+    public void writesPlainWhenDisabled() {
+        JsonNode node = makeLargeJson();
+        CompressedJsonNodeMarshaller disabledMarshaller = new CompressedJsonNodeMarshaller(false);
+
+        String converted = disabledMarshaller.convert(node);
+        assertEquals(node.toString(), converted);
+
+        // Still reads values written compressed.
+        assertEquals(node, disabledMarshaller.unconvert(MARSHALLER.convert(node)));
+    }
+
+    @Test
+    public void isCompressible() {
+        assertTrue(CompressedJsonNodeMarshaller.isCompressible(makeLargeJson()));
+        assertFalse(CompressedJsonNodeMarshaller.isCompressible(BridgeObjectMapper.get().createObjectNode()));
+        assertFalse(CompressedJsonNodeMarshaller.isCompressible(null));
+    }
+
+    @Test
+    public void incompressibleJsonStaysPlain() {
+        JsonNode node = makeIncompressibleJson();
+        assertFalse(CompressedJsonNodeMarshaller.isCompressible(node));
+        assertEquals(node.toString(), MARSHALLER.convert(node));
+    }
+
+    @Test
+    public void readsPlainJsonWrittenByOldMarshaller() {
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            longValue.append('a');
+        }
+        node.put("long", longValue.toString());
+
+        String plainText = new JsonNodeMarshaller().convert(node);
+        assertEquals(node, MARSHALLER.unconvert(plainText));
+    }
+
+    private static JsonNode makeLargeJson() {
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        ArrayNode samples = node.putArray("samples");
+        for (int i = 0; i < 1000; i++) {
+            ObjectNode oneSample = samples.addObject();
+            oneSample.put("timestamp", "2017-04-01T12:00:00.000Z");
+            oneSample.put("x", i % 10);
+            oneSample.put("y", i % 7);
+        }
+        return node;
+    }
+
+    // Random CJK characters. Each is 3 bytes of UTF-8 that deflate can't shrink, so the Base64 encoded value would be
+    // longer than the plain text.
+    private static JsonNode makeIncompressibleJson() {
+        Random random = new Random(1234);
+        StringBuilder randomText = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            randomText.append((char) (0x4E00 + random.nextInt(0x5000)));
+        }
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        node.put("text", randomText.toString());
+        return node;
+    }
+}
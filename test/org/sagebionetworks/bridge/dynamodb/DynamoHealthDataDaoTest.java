@@ -1,26 +1,47 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.NotFoundException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -45,6 +66,117 @@ public class DynamoHealthDataDaoTest {
         assertEquals(id, arg.getValue().getId());
     }
 
+    @Test
+    public void createRecordBatched() {
+        // mock batch writer
+        HealthDataRecordBatchWriter mockBatchWriter = mock(HealthDataRecordBatchWriter.class);
+        when(mockBatchWriter.isEnabled()).thenReturn(true);
+        when(mockBatchWriter.submit(any(DynamoHealthDataRecord.class))).thenAnswer(invocation -> CompletableFuture
+                .completedFuture(invocation.getArgumentAt(0, DynamoHealthDataRecord.class).getId()));
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setBatchWriter(mockBatchWriter);
+        dao.setMapper(mockMapper);
+
+        // execute
+        String id = dao.createOrUpdateRecord(new DynamoHealthDataRecord());
+
+        // New records go through the batch writer.
+        ArgumentCaptor<DynamoHealthDataRecord> arg = ArgumentCaptor.forClass(DynamoHealthDataRecord.class);
+        verify(mockBatchWriter).submit(arg.capture());
+        assertEquals(id, arg.getValue().getId());
+        verify(mockMapper, never()).save(any());
+    }
+
+    @Test
+    public void updateRecordNotBatched() {
+        HealthDataRecordBatchWriter mockBatchWriter = mock(HealthDataRecordBatchWriter.class);
+        when(mockBatchWriter.isEnabled()).thenReturn(true);
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setBatchWriter(mockBatchWriter);
+        dao.setMapper(mockMapper);
+
+        // execute
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        record.setId("existing-record");
+        record.setVersion(3L);
+        String id = dao.createOrUpdateRecord(record);
+        assertEquals("existing-record", id);
+
+        // Updates need the version check, so they're written directly.
+        verify(mockMapper).save(record);
+        verify(mockBatchWriter, never()).submit(any(DynamoHealthDataRecord.class));
+    }
+
+    @Test
+    public void createRecordBatchedFailure() {
+        CompletableFuture<String> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new BridgeServiceException("test exception"));
+
+        HealthDataRecordBatchWriter mockBatchWriter = mock(HealthDataRecordBatchWriter.class);
+        when(mockBatchWriter.isEnabled()).thenReturn(true);
+        when(mockBatchWriter.submit(any(DynamoHealthDataRecord.class))).thenReturn(failedFuture);
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setBatchWriter(mockBatchWriter);
+        dao.setMapper(mock(DynamoDBMapper.class));
+
+        try {
+            dao.createOrUpdateRecord(new DynamoHealthDataRecord());
+            fail("expected exception");
+        } catch (BridgeServiceException ex) {
+            assertEquals("test exception", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void createRecordBatchedTimeoutWritesDirectly() {
+        // The batch writer never gets to the record.
+        CompletableFuture<String> stuckFuture = new CompletableFuture<>();
+        HealthDataRecordBatchWriter mockBatchWriter = mock(HealthDataRecordBatchWriter.class);
+        when(mockBatchWriter.isEnabled()).thenReturn(true);
+        when(mockBatchWriter.getMaxWaitMillis()).thenReturn(1);
+        when(mockBatchWriter.submit(any(DynamoHealthDataRecord.class))).thenReturn(stuckFuture);
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setBatchWriter(mockBatchWriter);
+        dao.setMapper(mockMapper);
+
+        // execute
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        String id = dao.createOrUpdateRecord(record);
+
+        // The batched write is cancelled, and the record is written directly.
+        assertTrue(stuckFuture.isCancelled());
+        verify(mockMapper).save(record);
+        assertEquals(record.getId(), id);
+    }
+
+    @Test
+    public void createRecordBatchedTimeoutAlreadyWritten() {
+        CompletableFuture<String> stuckFuture = new CompletableFuture<>();
+        HealthDataRecordBatchWriter mockBatchWriter = mock(HealthDataRecordBatchWriter.class);
+        when(mockBatchWriter.isEnabled()).thenReturn(true);
+        when(mockBatchWriter.getMaxWaitMillis()).thenReturn(1);
+        when(mockBatchWriter.submit(any(DynamoHealthDataRecord.class))).thenReturn(stuckFuture);
+
+        // A batch that was already in flight wrote the record before our direct write.
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        doThrow(ConditionalCheckFailedException.class).when(mockMapper).save(any(DynamoHealthDataRecord.class));
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setBatchWriter(mockBatchWriter);
+        dao.setMapper(mockMapper);
+
+        // Doesn't throw.
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        String id = dao.createOrUpdateRecord(record);
+        assertEquals(record.getId(), id);
+    }
+
     @Test
     public void deleteRecordsForHealthCode() {
         // mock mapper
@@ -59,7 +191,9 @@ public class DynamoHealthDataDaoTest {
         List<HealthDataRecord> mockResult = Collections.<HealthDataRecord>singletonList(record);
 
         DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
-        when(mockIndex.queryKeys(HealthDataRecord.class, "healthCode", "test health code", null)).thenReturn(mockResult);
+        when(mockIndex.queryKeyPage(HealthDataRecord.class, "healthCode", "test health code",
+                DynamoHealthDataDao.DELETE_PAGE_SIZE, null)).thenReturn(new DynamoIndexHelper.QueryPage<>(mockResult,
+                null));
 
         // set up and execute
         DynamoHealthDataDao dao = new DynamoHealthDataDao();
@@ -75,6 +209,46 @@ public class DynamoHealthDataDaoTest {
         assertEquals("test ID", recordKeyList.get(0).getId());
     }
 
+    @Test
+    public void deleteRecordsForHealthCodeMultiplePages() {
+        // mock mapper
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        ArgumentCaptor<List> arg = ArgumentCaptor.forClass(List.class);
+        when(mockMapper.batchDelete(arg.capture())).thenReturn(Collections.<DynamoDBMapper.FailedBatch>emptyList());
+
+        // mock index helper - 2 pages of keys
+        DynamoHealthDataRecord record1 = new DynamoHealthDataRecord();
+        record1.setId("record-1");
+        DynamoHealthDataRecord record2 = new DynamoHealthDataRecord();
+        record2.setId("record-2");
+        DynamoHealthDataRecord record3 = new DynamoHealthDataRecord();
+        record3.setId("record-3");
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of("id", new AttributeValue("record-2"));
+
+        DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
+        when(mockIndex.queryKeyPage(HealthDataRecord.class, "healthCode", "test health code",
+                DynamoHealthDataDao.DELETE_PAGE_SIZE, null)).thenReturn(new DynamoIndexHelper.QueryPage<>(
+                ImmutableList.of(record1, record2), lastEvaluatedKey));
+        when(mockIndex.queryKeyPage(HealthDataRecord.class, "healthCode", "test health code",
+                DynamoHealthDataDao.DELETE_PAGE_SIZE, lastEvaluatedKey)).thenReturn(new DynamoIndexHelper.QueryPage<>(
+                ImmutableList.of(record3), null));
+
+        // set up and execute
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setMapper(mockMapper);
+        dao.setHealthCodeIndex(mockIndex);
+        AtomicInteger pageCount = new AtomicInteger();
+        int numDeleted = dao.deleteRecordsForHealthCode("test health code", pageCount::incrementAndGet);
+        assertEquals(3, numDeleted);
+
+        // Each page is deleted separately, and reported as it's deleted.
+        assertEquals(2, pageCount.get());
+        List<List> deletedList = arg.getAllValues();
+        assertEquals(2, deletedList.size());
+        assertEquals(ImmutableList.of(record1, record2), deletedList.get(0));
+        assertEquals(ImmutableList.of(record3), deletedList.get(1));
+    }
+
     @Test
     public void deleteRecordsForHealthCodeMapperException() {
         // mock failed batch
@@ -95,7 +269,9 @@ public class DynamoHealthDataDaoTest {
         List<HealthDataRecord> mockResult = Collections.<HealthDataRecord>singletonList(record);
 
         DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
-        when(mockIndex.queryKeys(HealthDataRecord.class, "healthCode", "test health code", null)).thenReturn(mockResult);
+        when(mockIndex.queryKeyPage(HealthDataRecord.class, "healthCode", "test health code",
+                DynamoHealthDataDao.DELETE_PAGE_SIZE, null)).thenReturn(new DynamoIndexHelper.QueryPage<>(mockResult,
+                null));
 
         // set up
         DynamoHealthDataDao dao = new DynamoHealthDataDao();
@@ -134,6 +310,115 @@ public class DynamoHealthDataDaoTest {
         assertSame(mockResult, retVal);
     }
 
+    @Test
+    public void getRecordsForUploadDatePage() {
+        // mock index helper
+        List<HealthDataRecord> mockRecordList = ImmutableList.of(new DynamoHealthDataRecord());
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of("uploadDate",
+                new AttributeValue("2015-02-11"), "id", new AttributeValue("last-record"));
+        DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
+        when(mockIndex.queryPage(eq(HealthDataRecord.class), eq("uploadDate"), eq("2015-02-11"), eq(10),
+                isNull(Map.class))).thenReturn(new DynamoIndexHelper.QueryPage<>(mockRecordList, lastEvaluatedKey));
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setUploadDateIndex(mockIndex);
+
+        // execute and validate
+        ForwardCursorPagedResourceList<HealthDataRecord> page = dao.getRecordsForUploadDate("2015-02-11", 10, null);
+        assertSame(mockRecordList, page.getItems());
+        assertEquals("last-record", page.getOffsetKey());
+        assertEquals(10, page.getPageSize());
+        assertEquals("2015-02-11", page.getFilters().get("uploadDate"));
+    }
+
+    @Test
+    public void getRecordsForUploadDateLastPage() {
+        // mock index helper
+        List<HealthDataRecord> mockRecordList = ImmutableList.of(new DynamoHealthDataRecord());
+        Map<String, AttributeValue> exclusiveStartKey = ImmutableMap.of("uploadDate",
+                new AttributeValue("2015-02-11"), "id", new AttributeValue("offset-record"));
+        DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
+        when(mockIndex.queryPage(HealthDataRecord.class, "uploadDate", "2015-02-11", 10, exclusiveStartKey))
+                .thenReturn(new DynamoIndexHelper.QueryPage<>(mockRecordList, null));
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setUploadDateIndex(mockIndex);
+
+        // execute and validate
+        ForwardCursorPagedResourceList<HealthDataRecord> page = dao.getRecordsForUploadDate("2015-02-11", 10,
+                "offset-record");
+        assertSame(mockRecordList, page.getItems());
+        assertFalse(page.hasNext());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getRecordsForUploadDatePageSizeTooLarge() {
+        new DynamoHealthDataDao().getRecordsForUploadDate("2015-02-11", 1000, null);
+    }
+
+    @Test
+    public void getRecordIteratorForUploadDate() {
+        // mock index helper
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        Iterator<HealthDataRecord> mockIterator = ImmutableList.<HealthDataRecord>of(new DynamoHealthDataRecord())
+                .iterator();
+        DynamoIndexHelper mockIndex = mock(DynamoIndexHelper.class);
+        when(mockIndex.queryIterator(HealthDataRecord.class, "uploadDate", "2015-02-11",
+                DynamoHealthDataDao.ITERATOR_PAGE_SIZE, mockExecutor, DynamoHealthDataDao.ITERATOR_MAX_PAGES_IN_FLIGHT))
+                .thenReturn(mockIterator);
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setLoadExecutorService(mockExecutor);
+        dao.setUploadDateIndex(mockIndex);
+
+        // execute and validate
+        Iterator<HealthDataRecord> retVal = dao.getRecordIteratorForUploadDate("2015-02-11");
+        assertSame(mockIterator, retVal);
+        assertTrue(retVal.hasNext());
+    }
+
+    @Test
+    public void updateExporterStatus() {
+        Table mockTable = mock(Table.class);
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setLoadExecutorService(MoreExecutors.newDirectExecutorService());
+        dao.setTable(mockTable);
+
+        // execute
+        List<String> recordIdList = ImmutableList.of("record-1", "record-2");
+        List<String> retVal = dao.updateExporterStatus(recordIdList, HealthDataRecord.ExporterStatus.SUCCEEDED);
+        assertEquals(recordIdList, retVal);
+
+        // One update per record, which only sets the exporter status and bumps the version.
+        ArgumentCaptor<UpdateItemSpec> specCaptor = ArgumentCaptor.forClass(UpdateItemSpec.class);
+        verify(mockTable, times(2)).updateItem(specCaptor.capture());
+        for (UpdateItemSpec oneSpec : specCaptor.getAllValues()) {
+            assertEquals("SET #status = :status ADD #version :one", oneSpec.getUpdateExpression());
+            assertEquals("attribute_exists(#id)", oneSpec.getConditionExpression());
+            assertEquals("synapseExporterStatus", oneSpec.getNameMap().get("#status"));
+            assertEquals("SUCCEEDED", oneSpec.getValueMap().get(":status"));
+        }
+        verify(mockTable, never()).putItem(any(Item.class));
+    }
+
+    @Test
+    public void updateExporterStatusNotFound() {
+        Table mockTable = mock(Table.class);
+        when(mockTable.updateItem(any(UpdateItemSpec.class))).thenThrow(new ConditionalCheckFailedException(
+                "test exception"));
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setLoadExecutorService(MoreExecutors.newDirectExecutorService());
+        dao.setTable(mockTable);
+
+        try {
+            dao.updateExporterStatus(ImmutableList.of("missing-record"), HealthDataRecord.ExporterStatus.SUCCEEDED);
+            fail("expected exception");
+        } catch (NotFoundException ex) {
+            assertTrue(ex.getMessage().contains("missing-record"));
+        }
+    }
+
     @Test
     public void getRecordsByHealthCodeCreatedOnSchemaId() {
         // For branch coverage, first record has the wrong schema ID.
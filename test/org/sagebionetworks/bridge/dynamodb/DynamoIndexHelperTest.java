@@ -1,16 +1,23 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.annotation.Nonnull;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.document.Index;
@@ -20,8 +27,11 @@ import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
 import org.junit.Test;
@@ -171,6 +181,118 @@ public class DynamoIndexHelperTest {
         verify(mockIndex).query(spec);
     }
 
+    @Test
+    public void queryPage() {
+        // One page of 2 keys, with more pages after it.
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of("key", new AttributeValue("bar key"));
+        List<QuerySpec> specList = new ArrayList<>();
+        helper = new PagedTestDynamoIndexHelper(specList, ImmutableList.of(makeQueryOutcome(lastEvaluatedKey,
+                "foo key", "bar key")));
+        helper.setMapper(makeEchoMapper());
+
+        DynamoIndexHelper.QueryPage<Thing> page = helper.queryPage(Thing.class, "test key", "test value", 2, null);
+        assertEquals(lastEvaluatedKey, page.getLastEvaluatedKey());
+        assertEquals(2, page.getItems().size());
+        assertEquals("foo key value", toThingMap(page.getItems()).get("foo key"));
+        assertEquals("bar key value", toThingMap(page.getItems()).get("bar key"));
+
+        assertEquals(1, specList.size());
+        assertEquals(2, specList.get(0).getMaxPageSize().intValue());
+        assertNull(specList.get(0).getExclusiveStartKey());
+    }
+
+    @Test
+    public void queryIterator() {
+        // Use an executor, so pages are loaded in parallel.
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            testQueryIterator(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void queryIteratorWithoutExecutor() {
+        testQueryIterator(null);
+    }
+
+    private void testQueryIterator(ExecutorService executor) {
+        // 3 pages. The middle page is empty, which happens sometimes at the end of a DynamoDB query.
+        Map<String, AttributeValue> lastEvaluatedKey1 = ImmutableMap.of("key", new AttributeValue("bar key"));
+        Map<String, AttributeValue> lastEvaluatedKey2 = ImmutableMap.of("key", new AttributeValue("baz key"));
+        List<QuerySpec> specList = new ArrayList<>();
+        helper = new PagedTestDynamoIndexHelper(specList, ImmutableList.of(
+                makeQueryOutcome(lastEvaluatedKey1, "foo key", "bar key"),
+                makeQueryOutcome(lastEvaluatedKey2),
+                makeQueryOutcome(null, "asdf key")));
+        DynamoDBMapper mockMapper = makeEchoMapper();
+        helper.setMapper(mockMapper);
+
+        // Nothing is queried until we start iterating.
+        Iterator<Thing> thingIter = helper.queryIterator(Thing.class, "test key", "test value", 2, executor, 2);
+        assertEquals(0, specList.size());
+
+        List<Thing> thingList = Lists.newArrayList(thingIter);
+        assertFalse(thingIter.hasNext());
+        assertEquals(3, thingList.size());
+        Map<String, String> thingMap = toThingMap(thingList);
+        assertEquals("foo key value", thingMap.get("foo key"));
+        assertEquals("bar key value", thingMap.get("bar key"));
+        assertEquals("asdf key value", thingMap.get("asdf key"));
+
+        // Each query starts where the last one left off. The empty page is never loaded from the table.
+        assertEquals(3, specList.size());
+        verify(mockMapper, times(2)).batchLoad(anyList());
+    }
+
+    // Returns the query outcomes in order, and records the query specs it was called with.
+    private static class PagedTestDynamoIndexHelper extends DynamoIndexHelper {
+        private final List<QuerySpec> specList;
+        private final Iterator<QueryOutcome> outcomeIter;
+
+        PagedTestDynamoIndexHelper(List<QuerySpec> specList, List<QueryOutcome> outcomeList) {
+            this.specList = specList;
+            this.outcomeIter = outcomeList.iterator();
+        }
+
+        @Override
+        public QueryOutcome query(@Nonnull QuerySpec spec) {
+            specList.add(spec);
+            return outcomeIter.next();
+        }
+    }
+
+    private static QueryOutcome makeQueryOutcome(Map<String, AttributeValue> lastEvaluatedKey, String... keys) {
+        List<Map<String, AttributeValue>> itemList = new ArrayList<>();
+        for (String oneKey : keys) {
+            itemList.add(ImmutableMap.of("key", new AttributeValue(oneKey)));
+        }
+        return new QueryOutcome(new QueryResult().withItems(itemList).withLastEvaluatedKey(lastEvaluatedKey));
+    }
+
+    // Mock mapper that "loads" each key object as a Thing with value "[key] value".
+    private static DynamoDBMapper makeEchoMapper() {
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        when(mockMapper.batchLoad(anyList())).thenAnswer(invocation -> {
+            List<Object> resultList = new ArrayList<>();
+            for (Object oneKey : invocation.getArgumentAt(0, List.class)) {
+                String key = ((Thing) oneKey).key;
+                resultList.add(new Thing(key, key + " value"));
+            }
+            return ImmutableMap.of("dummy table", resultList);
+        });
+        return mockMapper;
+    }
+
+    private static Map<String, String> toThingMap(List<Thing> thingList) {
+        Map<String, String> thingMap = new HashMap<>();
+        for (Thing oneThing : thingList) {
+            thingMap.put(oneThing.key, oneThing.value);
+        }
+        return thingMap;
+    }
+
     private static void validateKeyObjects(List<Thing> keyList) {
         assertEquals(4, keyList.size());
 
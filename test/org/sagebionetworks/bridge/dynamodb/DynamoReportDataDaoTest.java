@@ -1,8 +1,12 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 
+import java.util.List;
+
 import org.joda.time.LocalDate;
 import org.junit.After;
 import org.junit.Before;
@@ -12,14 +16,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 
 @ContextConfiguration("classpath:test-context.xml")
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -105,6 +114,92 @@ public class DynamoReportDataDaoTest {
         assertEquals(0, dao.getReportData(reportDataKey, START_DATE, END_DATE).getTotal());
     }
     
+    @Test
+    public void canSaveBatch() {
+        String reportId = TestUtils.randomName(DynamoReportDataDaoTest.class);
+        differentReportDataKey = new ReportDataKey.Builder().withReportType(ReportType.STUDY).withIdentifier(reportId)
+                .withStudyIdentifier(TEST_STUDY).build();
+
+        // Two reports in one batch.
+        ReportData report1 = createReport(LocalDate.parse("2016-03-30"), "a", "b");
+        ReportData report2 = createReport(LocalDate.parse("2016-03-31"), "c", "d");
+        ReportData report3 = createReport(LocalDate.parse("2016-03-30"), "e", "f");
+        report3.setKey(differentReportDataKey.getKeyString());
+
+        List<ReportData> failedList = dao.saveReportDataBatch(ImmutableList.of(report1, report2, report3));
+        assertTrue(failedList.isEmpty());
+
+        DateRangeResourceList<? extends ReportData> results = dao.getReportData(reportDataKey, START_DATE,
+                END_DATE);
+        assertResourceList(results, 2);
+        assertReportDataEqual(report1, results.getItems().get(0));
+        assertReportDataEqual(report2, results.getItems().get(1));
+
+        results = dao.getReportData(differentReportDataKey, START_DATE, END_DATE);
+        assertEquals(1, results.getTotal());
+        assertEquals("e", results.getItems().get(0).getData().get("field1").asText());
+    }
+
+    @Test
+    public void canPage() {
+        ReportData report1 = createReport(LocalDate.parse("2016-03-29"), "a", "b");
+        ReportData report2 = createReport(LocalDate.parse("2016-03-30"), "c", "d");
+        ReportData report3 = createReport(LocalDate.parse("2016-03-31"), "e", "f");
+        dao.saveReportData(report3);
+        dao.saveReportData(report2);
+        dao.saveReportData(report1);
+
+        // First page has two records, in date order.
+        ForwardCursorPagedResourceList<ReportData> page = dao.getReportDataV4(reportDataKey, START_DATE, END_DATE,
+                2, null);
+        assertEquals(2, page.getItems().size());
+        assertReportDataEqual(report1, page.getItems().get(0));
+        assertReportDataEqual(report2, page.getItems().get(1));
+        assertEquals("2016-03-30", page.getOffsetKey());
+
+        // Second page has the last record.
+        page = dao.getReportDataV4(reportDataKey, START_DATE, END_DATE, 2, page.getOffsetKey());
+        assertEquals(1, page.getItems().size());
+        assertReportDataEqual(report3, page.getItems().get(0));
+        assertNull(page.getOffsetKey());
+    }
+
+    @Test
+    public void canPageSummaries() {
+        ReportData report1 = createReport(LocalDate.parse("2016-03-29"), "a", "b");
+        ReportData report2 = createReport(LocalDate.parse("2016-03-30"), "cc", "dd");
+        ReportData report3 = createReport(LocalDate.parse("2016-03-31"), "eee", "fff");
+        dao.saveReportData(report1);
+        dao.saveReportDataBatch(ImmutableList.of(report2, report3));
+
+        // {"field1":"a","field2":"b"} is 27 bytes. Each of the others is 2 bytes longer than the last.
+        ForwardCursorPagedResourceList<ReportDataSummary> page = dao.getReportDataSummariesV4(reportDataKey,
+                START_DATE, END_DATE, 2, null);
+        assertEquals(ImmutableList.of(new ReportDataSummary(LocalDate.parse("2016-03-29"), 27),
+                new ReportDataSummary(LocalDate.parse("2016-03-30"), 29)), page.getItems());
+        assertEquals("2016-03-30", page.getOffsetKey());
+
+        page = dao.getReportDataSummariesV4(reportDataKey, START_DATE, END_DATE, 2, page.getOffsetKey());
+        assertEquals(ImmutableList.of(new ReportDataSummary(LocalDate.parse("2016-03-31"), 31)), page.getItems());
+        assertNull(page.getOffsetKey());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void summaryPageSizeTooLarge() {
+        dao.getReportDataSummariesV4(reportDataKey, START_DATE, END_DATE, BridgeConstants.API_MAXIMUM_PAGE_SIZE + 1,
+                null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void pageSizeTooLarge() {
+        dao.getReportDataV4(reportDataKey, START_DATE, END_DATE, BridgeConstants.API_MAXIMUM_PAGE_SIZE + 1, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void invalidOffsetKey() {
+        dao.getReportDataV4(reportDataKey, START_DATE, END_DATE, 2, "not-a-date");
+    }
+    
     private ReportData createReport(LocalDate date, String fieldValue1, String fieldValue2) {
         ObjectNode node = JsonNodeFactory.instance.objectNode();
         node.put("field1", fieldValue1);
@@ -0,0 +1,196 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.models.ReportTypeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportIndex;
+import org.sagebionetworks.bridge.models.reports.ReportType;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+public class DynamoReportIndexDaoMockTest {
+    private static final String INDEX_KEY = TEST_STUDY.getIdentifier() + ":STUDY";
+    private static final ReportDataKey EXISTING_KEY = makeKey("existing-report");
+    private static final ReportDataKey NEW_KEY = makeKey("new-report");
+
+    private DynamoReportIndexDao dao;
+    private DynamoDBMapper mockMapper;
+    private AtomicLong tickerNanos;
+
+    @Before
+    public void before() {
+        mockMapper = mock(DynamoDBMapper.class);
+        mockQuery(ImmutableList.of(makeIndex("existing-report", true)));
+
+        tickerNanos = new AtomicLong();
+        dao = new DynamoReportIndexDao(new Ticker() {
+            @Override
+            public long read() {
+                return tickerNanos.get();
+            }
+        });
+        dao.setReportIndexMapper(mockMapper);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getIndicesIsCached() {
+        ReportTypeResourceList<? extends ReportIndex> indices = dao.getIndices(TEST_STUDY, ReportType.STUDY);
+        assertEquals(1, indices.getItems().size());
+        assertEquals("existing-report", indices.getItems().get(0).getIdentifier());
+        assertTrue(indices.getItems().get(0).isPublic());
+
+        // Callers can't modify the cached copy.
+        indices.getItems().get(0).setPublic(false);
+
+        indices = dao.getIndices(TEST_STUDY, ReportType.STUDY);
+        assertTrue(indices.getItems().get(0).isPublic());
+        verify(mockMapper, times(1)).query(eq(DynamoReportIndex.class), any(DynamoDBQueryExpression.class));
+    }
+
+    @Test
+    public void addIndexSkipsKnownIndex() {
+        dao.addIndex(EXISTING_KEY);
+        dao.addIndex(EXISTING_KEY);
+
+        // Neither the old load nor a write is needed.
+        verify(mockMapper, never()).load(any());
+        verify(mockMapper, never()).save(any(), any(DynamoDBSaveExpression.class));
+    }
+
+    @Test
+    public void addIndexConfirmsKnownIndexAfterAFewSeconds() {
+        dao.addIndex(EXISTING_KEY);
+        doReturn(makeIndex("existing-report", true)).when(mockMapper).load(any(DynamoReportIndex.class));
+
+        // The listing is still cached, but is too old to skip the write on its own.
+        tickerNanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        dao.addIndex(EXISTING_KEY);
+        dao.addIndex(EXISTING_KEY);
+
+        // One read confirms the index, which is then trusted for a few seconds.
+        verify(mockMapper, times(1)).load(any(DynamoReportIndex.class));
+        verify(mockMapper, never()).save(any(), any(DynamoDBSaveExpression.class));
+    }
+
+    @Test
+    public void addIndexRemovedElsewhereIsWritten() {
+        dao.addIndex(EXISTING_KEY);
+
+        // Another node removes the index. This node's listing still has it.
+        tickerNanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        dao.addIndex(EXISTING_KEY);
+
+        verify(mockMapper, times(1)).load(any(DynamoReportIndex.class));
+        verify(mockMapper, times(1)).save(any(DynamoReportIndex.class), any(DynamoDBSaveExpression.class));
+        assertEquals(ImmutableList.of("existing-report"), getIdentifiers());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void addIndexWritesNewIndexOnce() {
+        dao.addIndex(NEW_KEY);
+        dao.addIndex(NEW_KEY);
+        verify(mockMapper, times(1)).save(any(DynamoReportIndex.class), any(DynamoDBSaveExpression.class));
+
+        // The new index is in the listing, without querying again.
+        List<String> identifierList = getIdentifiers();
+        assertEquals(ImmutableList.of("existing-report", "new-report"), identifierList);
+        verify(mockMapper, times(1)).query(eq(DynamoReportIndex.class), any(DynamoDBQueryExpression.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void addIndexCreatedElsewhereRefreshesListing() {
+        doThrow(new ConditionalCheckFailedException("test exception")).when(mockMapper).save(
+                any(DynamoReportIndex.class), any(DynamoDBSaveExpression.class));
+        dao.addIndex(NEW_KEY);
+
+        // The next listing comes from DynamoDB.
+        mockQuery(ImmutableList.of(makeIndex("existing-report", true), makeIndex("new-report", false)));
+        assertEquals(ImmutableList.of("existing-report", "new-report"), getIdentifiers());
+        verify(mockMapper, times(2)).query(eq(DynamoReportIndex.class), any(DynamoDBQueryExpression.class));
+    }
+
+    @Test
+    public void addIndicesOnlyWritesNewIndices() {
+        dao.addIndices(ImmutableList.of(EXISTING_KEY, NEW_KEY, NEW_KEY));
+
+        verify(mockMapper, times(1)).save(any(DynamoReportIndex.class), any(DynamoDBSaveExpression.class));
+        assertEquals(ImmutableList.of("existing-report", "new-report"), getIdentifiers());
+    }
+
+    @Test
+    public void updateIndexUpdatesListing() {
+        dao.getIndices(TEST_STUDY, ReportType.STUDY);
+
+        dao.updateIndex(makeIndex("existing-report", false));
+        assertFalse(dao.getIndices(TEST_STUDY, ReportType.STUDY).getItems().get(0).isPublic());
+    }
+
+    @Test
+    public void removeIndexUpdatesListing() {
+        dao.getIndices(TEST_STUDY, ReportType.STUDY);
+        doReturn(makeIndex("existing-report", true)).when(mockMapper).load(any(DynamoReportIndex.class));
+
+        dao.removeIndex(EXISTING_KEY);
+        assertTrue(dao.getIndices(TEST_STUDY, ReportType.STUDY).getItems().isEmpty());
+
+        // A removed index is written again the next time it's added.
+        dao.addIndex(EXISTING_KEY);
+        verify(mockMapper).save(any(DynamoReportIndex.class), any(DynamoDBSaveExpression.class));
+    }
+
+    private List<String> getIdentifiers() {
+        return dao.getIndices(TEST_STUDY, ReportType.STUDY).getItems().stream().map(ReportIndex::getIdentifier)
+                .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockQuery(List<DynamoReportIndex> indexList) {
+        PaginatedQueryList<DynamoReportIndex> mockQueryList = mock(PaginatedQueryList.class);
+        when(mockQueryList.stream()).thenAnswer(invocation -> indexList.stream());
+        doReturn(mockQueryList).when(mockMapper).query(eq(DynamoReportIndex.class),
+                any(DynamoDBQueryExpression.class));
+    }
+
+    private static DynamoReportIndex makeIndex(String identifier, boolean isPublic) {
+        DynamoReportIndex index = new DynamoReportIndex();
+        index.setKey(INDEX_KEY);
+        index.setIdentifier(identifier);
+        index.setPublic(isPublic);
+        return index;
+    }
+
+    private static ReportDataKey makeKey(String identifier) {
+        return new ReportDataKey.Builder().withReportType(ReportType.STUDY).withStudyIdentifier(TEST_STUDY)
+                .withIdentifier(identifier).build();
+    }
+}
@@ -25,6 +25,7 @@ import org.sagebionetworks.bridge.models.reports.ReportIndex;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.google.common.collect.ImmutableList;
 
 @ContextConfiguration("classpath:test-context.xml")
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -143,6 +144,27 @@ public class DynamoReportIndexDaoTest {
         assertTrue(index.isPublic());
     }
     
+    @Test
+    public void canAddIndices() {
+        // studyReportKey1 already exists and has metadata, which should be kept.
+        dao.addIndex(studyReportKey1);
+        ReportIndex index = dao.getIndex(studyReportKey1);
+        index.setPublic(true);
+        dao.updateIndex(index);
+
+        int studyIndexCount = dao.getIndices(TEST_STUDY, ReportType.STUDY).getTotal();
+        int participantIndexCount = dao.getIndices(TEST_STUDY, ReportType.PARTICIPANT).getTotal();
+
+        // Repeated keys are fine.
+        dao.addIndices(ImmutableList.of(studyReportKey1, studyReportKey2, studyReportKey2, participantReportKey1,
+                participantReportKey2));
+
+        assertEquals(studyIndexCount + 1, dao.getIndices(TEST_STUDY, ReportType.STUDY).getTotal());
+        assertEquals(participantIndexCount + 2, dao.getIndices(TEST_STUDY, ReportType.PARTICIPANT).getTotal());
+        assertTrue(dao.getIndex(studyReportKey1).isPublic());
+        assertEquals(studyReportKey2.getIdentifier(), dao.getIndex(studyReportKey2).getIdentifier());
+    }
+    
     @Test
     public void canCreateAndReadParticipantIndex() {
         int studyIndexCount = dao.getIndices(TEST_STUDY, ReportType.STUDY).getTotal();
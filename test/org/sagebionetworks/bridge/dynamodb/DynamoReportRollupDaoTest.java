@@ -0,0 +1,125 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
+
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
+import org.sagebionetworks.bridge.models.reports.ReportType;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+@ContextConfiguration("classpath:test-context.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class DynamoReportRollupDaoTest {
+
+    @Autowired
+    DynamoReportRollupDao dao;
+
+    private ReportDataKey reportDataKey;
+
+    @Before
+    public void before() {
+        String reportId = TestUtils.randomName(DynamoReportRollupDaoTest.class);
+        reportDataKey = new ReportDataKey.Builder().withReportType(ReportType.STUDY).withIdentifier(reportId)
+                .withStudyIdentifier(TEST_STUDY).build();
+    }
+
+    @After
+    public void after() {
+        dao.deleteRollups(reportDataKey);
+    }
+
+    @Test
+    public void canCrud() {
+        dao.saveRollup(reportDataKey, ReportRollupPeriod.WEEK, createRollup(ReportRollupPeriod.WEEK,
+                LocalDate.parse("2016-03-21"), 10));
+        dao.saveRollup(reportDataKey, ReportRollupPeriod.WEEK, createRollup(ReportRollupPeriod.WEEK,
+                LocalDate.parse("2016-03-28"), 20));
+        dao.saveRollup(reportDataKey, ReportRollupPeriod.MONTH, createRollup(ReportRollupPeriod.MONTH,
+                LocalDate.parse("2016-03-01"), 30));
+
+        // Weekly and monthly rollups are kept apart.
+        List<? extends ReportRollup> weeks = dao.getRollups(reportDataKey, ReportRollupPeriod.WEEK,
+                LocalDate.parse("2016-03-01"), LocalDate.parse("2016-03-31")).getItems();
+        assertEquals(2, weeks.size());
+        assertEquals(LocalDate.parse("2016-03-21"), weeks.get(0).getStartDate());
+        assertEquals(LocalDate.parse("2016-03-27"), weeks.get(0).getEndDate());
+        assertEquals(10, weeks.get(0).getData().get("steps").get("sum").intValue());
+        assertEquals(LocalDate.parse("2016-03-28"), weeks.get(1).getStartDate());
+
+        List<? extends ReportRollup> months = dao.getRollups(reportDataKey, ReportRollupPeriod.MONTH,
+                LocalDate.parse("2016-03-01"), LocalDate.parse("2016-03-31")).getItems();
+        assertEquals(1, months.size());
+        assertEquals(30, months.get(0).getData().get("steps").get("sum").intValue());
+
+        // Saving the same bucket, with the stored version, replaces it.
+        ReportRollup oldRollup = dao.getRollup(reportDataKey, ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28"));
+        ReportRollup newRollup = createRollup(ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28"), 25);
+        newRollup.setVersion(oldRollup.getVersion());
+        dao.saveRollup(reportDataKey, ReportRollupPeriod.WEEK, newRollup);
+        weeks = dao.getRollups(reportDataKey, ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28"),
+                LocalDate.parse("2016-03-28")).getItems();
+        assertEquals(1, weeks.size());
+        assertEquals(25, weeks.get(0).getData().get("steps").get("sum").intValue());
+
+        // Saving or deleting with the old version fails.
+        ReportRollup staleRollup = createRollup(ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28"), 15);
+        staleRollup.setVersion(oldRollup.getVersion());
+        try {
+            dao.saveRollup(reportDataKey, ReportRollupPeriod.WEEK, staleRollup);
+            fail("expected exception");
+        } catch (ConcurrentModificationException ex) {
+            // expected exception
+        }
+        try {
+            dao.deleteRollup(reportDataKey, ReportRollupPeriod.WEEK, oldRollup);
+            fail("expected exception");
+        } catch (ConcurrentModificationException ex) {
+            // expected exception
+        }
+
+        dao.deleteRollup(reportDataKey, ReportRollupPeriod.WEEK, dao.getRollup(reportDataKey,
+                ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28")));
+        assertNull(dao.getRollup(reportDataKey, ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-28")));
+        weeks = dao.getRollups(reportDataKey, ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-01"),
+                LocalDate.parse("2016-03-31")).getItems();
+        assertEquals(1, weeks.size());
+
+        dao.deleteRollups(reportDataKey);
+        assertTrue(dao.getRollups(reportDataKey, ReportRollupPeriod.WEEK, LocalDate.parse("2016-03-01"),
+                LocalDate.parse("2016-03-31")).getItems().isEmpty());
+        assertTrue(dao.getRollups(reportDataKey, ReportRollupPeriod.MONTH, LocalDate.parse("2016-03-01"),
+                LocalDate.parse("2016-03-31")).getItems().isEmpty());
+    }
+
+    private static ReportRollup createRollup(ReportRollupPeriod period, LocalDate startDate, int sum) {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.putObject("steps").put("count", 1).put("sum", sum);
+
+        ReportRollup rollup = ReportRollup.create();
+        rollup.setStartDate(startDate);
+        rollup.setEndDate(period.getEndDate(startDate));
+        rollup.setDayCount(1);
+        rollup.setData(data);
+        return rollup;
+    }
+}
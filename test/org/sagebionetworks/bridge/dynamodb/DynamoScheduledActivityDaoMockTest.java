@@ -1,9 +1,12 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -13,6 +16,7 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
@@ -35,7 +39,10 @@ import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -181,25 +188,40 @@ public class DynamoScheduledActivityDaoMockTest {
     @SuppressWarnings({"unchecked","rawtypes"})
     @Test
     public void canDeleteActivities() {
-        mockMapperResults(Lists.newArrayList(new DynamoScheduledActivity(), new DynamoScheduledActivity()));
+        // Two pages of keys. The first page has a last evaluated key, the second doesn't.
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of("healthCode", new AttributeValue("AAA"),
+                "guid", new AttributeValue("guid-2"));
+        QueryResultPage<DynamoScheduledActivity> page1 = new QueryResultPage<>();
+        page1.setResults(ImmutableList.of(makeActivityKey("guid-1"), makeActivityKey("guid-2")));
+        page1.setLastEvaluatedKey(lastEvaluatedKey);
+        QueryResultPage<DynamoScheduledActivity> page2 = new QueryResultPage<>();
+        page2.setResults(ImmutableList.of(makeActivityKey("guid-3")));
+        when(mapper.queryPage(eq(DynamoScheduledActivity.class), any(DynamoDBQueryExpression.class)))
+                .thenReturn(page1, page2);
 
         ArgumentCaptor<List> argument = ArgumentCaptor.forClass(List.class);
         ArgumentCaptor<DynamoDBQueryExpression> queryArg = ArgumentCaptor.forClass(DynamoDBQueryExpression.class);
-        activityDao.deleteActivitiesForUser("AAA");
+        AtomicInteger numPagesDeleted = new AtomicInteger();
+        activityDao.deleteActivitiesForUser("AAA", numPagesDeleted::incrementAndGet);
 
-        // This doesn't verify that the query was done with the "AAA" key
-        verify(mapper).query((Class<DynamoScheduledActivity>) any(Class.class),
-                        (DynamoDBQueryExpression<DynamoScheduledActivity>) queryArg.capture());
-        
-        verify(mapper).batchDelete(argument.capture());
+        verify(mapper, times(2)).queryPage(eq(DynamoScheduledActivity.class), queryArg.capture());
+        verify(mapper, times(2)).batchDelete(argument.capture());
         verifyNoMoreInteractions(mapper);
+        assertEquals(2, numPagesDeleted.get());
 
-        DynamoDBQueryExpression query = queryArg.getValue();
-        ScheduledActivity activity = (ScheduledActivity)query.getHashKeyValues();
-        assertEquals("AAA", activity.getHealthCode());
-        
-        // Both activities were passed in to be deleted.
-        assertEquals(2, argument.getValue().size());
+        // Each query is for one page of keys only.
+        List<DynamoDBQueryExpression> queryList = queryArg.getAllValues();
+        for (DynamoDBQueryExpression oneQuery : queryList) {
+            assertEquals("AAA", ((ScheduledActivity) oneQuery.getHashKeyValues()).getHealthCode());
+            assertEquals(DynamoScheduledActivityDao.DELETE_PAGE_SIZE, oneQuery.getLimit().intValue());
+            assertEquals("healthCode, guid", oneQuery.getProjectionExpression());
+        }
+        assertNull(queryList.get(0).getExclusiveStartKey());
+        assertEquals(lastEvaluatedKey, queryList.get(1).getExclusiveStartKey());
+
+        List<List> deletedList = argument.getAllValues();
+        assertEquals(2, deletedList.get(0).size());
+        assertEquals(1, deletedList.get(1).size());
     }
 
     @SuppressWarnings({"unchecked","rawtypes"})
@@ -250,4 +272,10 @@ public class DynamoScheduledActivityDaoMockTest {
         }
     }
 
+    private static DynamoScheduledActivity makeActivityKey(String guid) {
+        DynamoScheduledActivity activity = new DynamoScheduledActivity();
+        activity.setHealthCode("AAA");
+        activity.setGuid(guid);
+        return activity;
+    }
 }
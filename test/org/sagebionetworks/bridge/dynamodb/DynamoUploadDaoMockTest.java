@@ -15,6 +15,7 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.apache.commons.codec.binary.Base64;
@@ -44,6 +45,7 @@ import com.amazonaws.services.dynamodbv2.document.ItemCollection;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.internal.IteratorSupport;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -287,6 +289,28 @@ public class DynamoUploadDaoMockTest {
         assertEquals(30000, page.getItems().get(1).getRequestedOn());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void deleteUploadsForHealthCode() {
+        // Two pages of keys.
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of(UPLOAD_ID, new AttributeValue(UPLOAD_ID));
+        when(mockIndexHelper.queryKeyPage(DynamoUpload2.class, "healthCode", "healthCode",
+                DynamoUploadDao.DELETE_PAGE_SIZE, null)).thenReturn(new DynamoIndexHelper.QueryPage<>(
+                ImmutableList.of(upload1), lastEvaluatedKey));
+        when(mockIndexHelper.queryKeyPage(DynamoUpload2.class, "healthCode", "healthCode",
+                DynamoUploadDao.DELETE_PAGE_SIZE, lastEvaluatedKey)).thenReturn(new DynamoIndexHelper.QueryPage<>(
+                ImmutableList.of(upload2), null));
+        when(mockMapper.batchDelete(any(List.class))).thenReturn(ImmutableList.of());
+
+        AtomicInteger pageCount = new AtomicInteger();
+        dao.deleteUploadsForHealthCode("healthCode", pageCount::incrementAndGet);
+
+        // Each page is deleted separately, and reported as it's deleted.
+        verify(mockMapper).batchDelete(ImmutableList.of(upload1));
+        verify(mockMapper).batchDelete(ImmutableList.of(upload2));
+        assertEquals(2, pageCount.get());
+    }
+
     private static UploadRequest createUploadRequest() {
         final String text = "test upload dao";
         ObjectNode node = JsonNodeFactory.instance.objectNode();
@@ -0,0 +1,218 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDeleteExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.TestConstants;
+
+public class DynamoUploadValidationQueueDaoMockTest {
+    private static final long LEASE_MILLIS = 1000;
+    private static final long MOCK_NOW_MILLIS = 1500000000000L;
+    private static final String UPLOAD_ID = "test-upload";
+    private static final String WORKER_ID = "test-worker";
+
+    private DynamoDBMapper mockMapper;
+    private DynamoUploadValidationQueueDao dao;
+
+    @Before
+    public void setup() {
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW_MILLIS);
+
+        mockMapper = mock(DynamoDBMapper.class);
+        dao = new DynamoUploadValidationQueueDao();
+        dao.setMapper(mockMapper);
+    }
+
+    @After
+    public void cleanup() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void enqueue() {
+        dao.enqueue(TestConstants.TEST_STUDY, UPLOAD_ID);
+
+        ArgumentCaptor<DynamoUploadValidationWorkItem> workItemCaptor = ArgumentCaptor.forClass(
+                DynamoUploadValidationWorkItem.class);
+        verify(mockMapper).save(workItemCaptor.capture(), any(DynamoDBMapperConfig.class));
+
+        DynamoUploadValidationWorkItem workItem = workItemCaptor.getValue();
+        assertEquals(UPLOAD_ID, workItem.getUploadId());
+        assertEquals(TestConstants.TEST_STUDY_IDENTIFIER, workItem.getStudyId());
+        assertEquals(MOCK_NOW_MILLIS, workItem.getEnqueuedOn());
+        assertNull(workItem.getLeaseOwner());
+        assertEquals(0, workItem.getLeaseExpiresOn());
+        assertEquals(0, workItem.getAttemptCount());
+    }
+
+    @Test
+    public void claimUnclaimedWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(0, 0);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+
+        assertTrue(dao.claimLease(UPLOAD_ID, WORKER_ID, LEASE_MILLIS));
+        verify(mockMapper).save(workItem);
+        assertEquals(WORKER_ID, workItem.getLeaseOwner());
+        assertEquals(MOCK_NOW_MILLIS + LEASE_MILLIS, workItem.getLeaseExpiresOn());
+        assertEquals(1, workItem.getAttemptCount());
+    }
+
+    @Test
+    public void claimExpiredWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(MOCK_NOW_MILLIS - 1, 1);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+
+        assertTrue(dao.claimLease(UPLOAD_ID, WORKER_ID, LEASE_MILLIS));
+        assertEquals(2, workItem.getAttemptCount());
+    }
+
+    @Test
+    public void cantClaimLeasedWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(MOCK_NOW_MILLIS + 1, 1);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+
+        assertFalse(dao.claimLease(UPLOAD_ID, WORKER_ID, LEASE_MILLIS));
+        verify(mockMapper, never()).save(any());
+    }
+
+    @Test
+    public void cantClaimMissingWorkItem() {
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(null);
+        assertFalse(dao.claimLease(UPLOAD_ID, WORKER_ID, LEASE_MILLIS));
+    }
+
+    @Test
+    public void claimLosesRace() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(0, 0);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+        doThrow(ConditionalCheckFailedException.class).when(mockMapper).save(workItem);
+
+        assertFalse(dao.claimLease(UPLOAD_ID, WORKER_ID, LEASE_MILLIS));
+    }
+
+    @Test
+    public void completeWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(MOCK_NOW_MILLIS + 1, 1);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+
+        dao.completeWorkItem(UPLOAD_ID, WORKER_ID);
+
+        // Delete is conditional on the lease owner.
+        ArgumentCaptor<DynamoDBDeleteExpression> deleteExpressionCaptor = ArgumentCaptor.forClass(
+                DynamoDBDeleteExpression.class);
+        verify(mockMapper).delete(eq(workItem), deleteExpressionCaptor.capture());
+        ExpectedAttributeValue expectedLeaseOwner = deleteExpressionCaptor.getValue().getExpected().get(
+                "leaseOwner");
+        assertEquals(WORKER_ID, expectedLeaseOwner.getValue().getS());
+    }
+
+    @Test
+    public void completeMissingWorkItem() {
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(null);
+
+        dao.completeWorkItem(UPLOAD_ID, WORKER_ID);
+        verify(mockMapper, never()).delete(any(), any(DynamoDBDeleteExpression.class));
+    }
+
+    @Test
+    public void completeWorkItemClaimedByAnotherWorker() {
+        // Our lease expired and another worker re-drove the work item.
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(MOCK_NOW_MILLIS + 1, 2);
+        workItem.setLeaseOwner("other-worker");
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+
+        dao.completeWorkItem(UPLOAD_ID, WORKER_ID);
+        verify(mockMapper, never()).delete(any(), any(DynamoDBDeleteExpression.class));
+    }
+
+    @Test
+    public void completeReEnqueuedWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(MOCK_NOW_MILLIS + 1, 1);
+        when(mockMapper.load(any(DynamoUploadValidationWorkItem.class))).thenReturn(workItem);
+        doThrow(ConditionalCheckFailedException.class).when(mockMapper).delete(eq(workItem),
+                any(DynamoDBDeleteExpression.class));
+
+        // Should not throw.
+        dao.completeWorkItem(UPLOAD_ID, WORKER_ID);
+    }
+
+    @Test
+    public void getStalledWorkItemsPagesUntilLimit() {
+        // The first page is all filtered out. The second page has 2 matches. We stop there, even though there's more
+        // table to scan.
+        DynamoUploadValidationWorkItem workItem1 = makeWorkItem(0, 1);
+        DynamoUploadValidationWorkItem workItem2 = makeWorkItem(0, 1);
+        when(mockMapper.scanPage(eq(DynamoUploadValidationWorkItem.class), any(DynamoDBScanExpression.class)))
+                .thenReturn(makePage(ImmutableList.of(), "key-1"),
+                        makePage(ImmutableList.of(workItem1, workItem2), "key-2"));
+
+        List<DynamoUploadValidationWorkItem> resultList = dao.getStalledWorkItems(LEASE_MILLIS, 2);
+        assertEquals(ImmutableList.of(workItem1, workItem2), resultList);
+
+        ArgumentCaptor<DynamoDBScanExpression> scanCaptor = ArgumentCaptor.forClass(DynamoDBScanExpression.class);
+        verify(mockMapper, times(2)).scanPage(eq(DynamoUploadValidationWorkItem.class), scanCaptor.capture());
+        assertNull(scanCaptor.getAllValues().get(0).getExclusiveStartKey());
+        assertEquals("key-1", scanCaptor.getAllValues().get(1).getExclusiveStartKey().get("uploadId").getS());
+    }
+
+    @Test
+    public void getStalledWorkItemsStopsAtEndOfTable() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(0, 1);
+        when(mockMapper.scanPage(eq(DynamoUploadValidationWorkItem.class), any(DynamoDBScanExpression.class)))
+                .thenReturn(makePage(ImmutableList.of(workItem), "key-1"), makePage(ImmutableList.of(), null));
+
+        List<DynamoUploadValidationWorkItem> resultList = dao.getStalledWorkItems(LEASE_MILLIS, 10);
+        assertEquals(ImmutableList.of(workItem), resultList);
+        verify(mockMapper, times(2)).scanPage(eq(DynamoUploadValidationWorkItem.class),
+                any(DynamoDBScanExpression.class));
+    }
+
+    private static ScanResultPage<DynamoUploadValidationWorkItem> makePage(
+            List<DynamoUploadValidationWorkItem> resultList, String lastUploadId) {
+        ScanResultPage<DynamoUploadValidationWorkItem> page = new ScanResultPage<>();
+        page.setResults(resultList);
+        if (lastUploadId != null) {
+            page.setLastEvaluatedKey(ImmutableMap.of("uploadId", new AttributeValue().withS(lastUploadId)));
+        }
+        return page;
+    }
+
+    private static DynamoUploadValidationWorkItem makeWorkItem(long leaseExpiresOn, int attemptCount) {
+        DynamoUploadValidationWorkItem workItem = new DynamoUploadValidationWorkItem();
+        workItem.setUploadId(UPLOAD_ID);
+        workItem.setStudyId(TestConstants.TEST_STUDY_IDENTIFIER);
+        workItem.setLeaseExpiresOn(leaseExpiresOn);
+        workItem.setLeaseOwner(WORKER_ID);
+        workItem.setAttemptCount(attemptCount);
+        workItem.setVersion(1L);
+        return workItem;
+    }
+}
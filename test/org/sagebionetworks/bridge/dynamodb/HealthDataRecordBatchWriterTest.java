@@ -0,0 +1,202 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class HealthDataRecordBatchWriterTest {
+    private static final int MAX_RETRIES = 2;
+
+    private DynamoDBMapper mockMapper;
+    private HealthDataRecordBatchWriter writer;
+
+    @Before
+    public void setup() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getProperty(HealthDataRecordBatchWriter.CONFIG_KEY_ENABLED)).thenReturn("true");
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_BATCH_SIZE)).thenReturn(25);
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_FLUSH_INTERVAL_MILLIS))
+                .thenReturn(20);
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_MAX_QUEUE_SIZE)).thenReturn(30);
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_MAX_RETRIES)).thenReturn(
+                MAX_RETRIES);
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_MAX_WAIT_MILLIS)).thenReturn(10000);
+        // Retry waits are short enough that unit tests don't actually wait.
+        when(mockConfig.getPropertyAsInt(HealthDataRecordBatchWriter.CONFIG_KEY_RETRY_BASE_MILLIS)).thenReturn(1);
+
+        mockMapper = mock(DynamoDBMapper.class);
+        when(mockMapper.batchSave(anyList())).thenReturn(Collections.emptyList());
+
+        writer = new HealthDataRecordBatchWriter();
+        writer.setConfig(mockConfig);
+        writer.setMapper(mockMapper);
+    }
+
+    @Test
+    public void writesInBatches() throws Exception {
+        List<CompletableFuture<String>> futureList = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futureList.add(writer.submit(makeRecord("record-" + i)));
+        }
+
+        // Nothing is written until the next flush.
+        assertFalse(futureList.get(0).isDone());
+        writer.flush();
+
+        // 30 records is one full batch of 25, plus a batch of 5.
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockMapper, times(2)).batchSave(batchCaptor.capture());
+        assertEquals(25, batchCaptor.getAllValues().get(0).size());
+        assertEquals(5, batchCaptor.getAllValues().get(1).size());
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals("record-" + i, futureList.get(i).get());
+        }
+
+        Map<String, Long> metrics = writer.getMetrics();
+        assertEquals(2, metrics.get("batches").longValue());
+        assertEquals(30, metrics.get("written").longValue());
+    }
+
+    @Test
+    public void retriesUnprocessedItems() throws Exception {
+        // First try leaves record-2 unprocessed. Second try succeeds.
+        DynamoHealthDataRecord record1 = makeRecord("record-1");
+        DynamoHealthDataRecord record2 = makeRecord("record-2");
+        when(mockMapper.batchSave(anyList())).thenReturn(ImmutableList.of(makeFailedBatch("record-2")),
+                Collections.emptyList());
+
+        CompletableFuture<String> future1 = writer.submit(record1);
+        CompletableFuture<String> future2 = writer.submit(record2);
+        writer.flush();
+
+        assertEquals("record-1", future1.get());
+        assertEquals("record-2", future2.get());
+
+        // Only record-2 is retried.
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockMapper, times(2)).batchSave(batchCaptor.capture());
+        assertEquals(ImmutableList.of(record1, record2), batchCaptor.getAllValues().get(0));
+        assertEquals(ImmutableList.of(record2), batchCaptor.getAllValues().get(1));
+
+        assertEquals(1, writer.getMetrics().get("retried").longValue());
+    }
+
+    @Test
+    public void failsAfterMaxRetries() throws Exception {
+        when(mockMapper.batchSave(anyList())).thenThrow(new RuntimeException("test exception"));
+
+        CompletableFuture<String> future = writer.submit(makeRecord("record-1"));
+        writer.flush();
+
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeServiceException);
+        }
+
+        // First try plus retries.
+        verify(mockMapper, times(MAX_RETRIES + 1)).batchSave(anyList());
+        assertEquals(1, writer.getMetrics().get("failed").longValue());
+    }
+
+    @Test
+    public void skipsCancelledWrites() throws Exception {
+        DynamoHealthDataRecord record1 = makeRecord("record-1");
+        DynamoHealthDataRecord record2 = makeRecord("record-2");
+        CompletableFuture<String> future1 = writer.submit(record1);
+        CompletableFuture<String> future2 = writer.submit(record2);
+
+        // The caller gave up on record-1 and wrote it directly.
+        future1.cancel(false);
+        writer.flush();
+
+        assertEquals("record-2", future2.get());
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockMapper).batchSave(batchCaptor.capture());
+        assertEquals(ImmutableList.of(record2), batchCaptor.getValue());
+        assertEquals(1, writer.getMetrics().get("cancelled").longValue());
+        assertEquals(10000, writer.getMaxWaitMillis());
+    }
+
+    @Test
+    public void flushSurvivesErrors() throws Exception {
+        // Errors aren't RuntimeExceptions. They still mustn't stop the flush, or leave callers waiting.
+        when(mockMapper.batchSave(anyList())).thenThrow(new OutOfMemoryError("test error"))
+                .thenReturn(Collections.emptyList());
+
+        CompletableFuture<String> future1 = writer.submit(makeRecord("record-1"));
+        writer.flush();
+        try {
+            future1.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeServiceException);
+        }
+
+        // The next flush still works.
+        CompletableFuture<String> future2 = writer.submit(makeRecord("record-2"));
+        writer.flush();
+        assertEquals("record-2", future2.get());
+    }
+
+    @Test
+    public void fullQueueWritesDirectly() throws Exception {
+        // Max queue size is 30.
+        for (int i = 0; i < 30; i++) {
+            writer.submit(makeRecord("record-" + i));
+        }
+        DynamoHealthDataRecord overflowRecord = makeRecord("overflow");
+        CompletableFuture<String> overflowFuture = writer.submit(overflowRecord);
+
+        assertEquals("overflow", overflowFuture.get());
+        verify(mockMapper).save(overflowRecord);
+        verify(mockMapper, never()).batchSave(anyList());
+        assertEquals(1, writer.getMetrics().get("writtenDirectly").longValue());
+    }
+
+    private static DynamoHealthDataRecord makeRecord(String id) {
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        record.setId(id);
+        return record;
+    }
+
+    private static DynamoDBMapper.FailedBatch makeFailedBatch(String unprocessedId) {
+        WriteRequest writeRequest = new WriteRequest().withPutRequest(new PutRequest().withItem(ImmutableMap.of(
+                "id", new AttributeValue().withS(unprocessedId))));
+
+        DynamoDBMapper.FailedBatch failure = new DynamoDBMapper.FailedBatch();
+        failure.setException(new Exception("test exception"));
+        failure.setUnprocessedItems(ImmutableMap.of("HealthDataRecord3", ImmutableList.of(writeRequest)));
+        return failure;
+    }
+}
@@ -1,25 +1,31 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.junit.AfterClass;
@@ -31,10 +37,12 @@ import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.exceptions.AccountDisabledException;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountStatus;
@@ -53,6 +61,7 @@ import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.services.AccountWorkflowService;
 import org.sagebionetworks.bridge.services.HealthCodeService;
+import org.sagebionetworks.bridge.services.PasswordHashService;
 
 public class HibernateAccountDaoTest {
     private static final String ACCOUNT_ID = "account-id";
@@ -90,7 +99,7 @@ public class HibernateAccountDaoTest {
     }
 
     @Before
-    public void before() {
+    public void before() throws Exception {
         mockAccountWorkflowService = mock(AccountWorkflowService.class);
         mockHealthCodeService = mock(HealthCodeService.class);
         mockHibernateHelper = mock(HibernateHelper.class);
@@ -98,6 +107,16 @@ public class HibernateAccountDaoTest {
         dao.setAccountWorkflowService(mockAccountWorkflowService);
         dao.setHealthCodeService(mockHealthCodeService);
         dao.setHibernateHelper(mockHibernateHelper);
+        dao.setAccountCountExecutorService(MoreExecutors.newDirectExecutorService());
+
+        // Password hashing runs inline, with the real algorithms.
+        PasswordHashService mockPasswordHashService = mock(PasswordHashService.class);
+        when(mockPasswordHashService.checkHash(any(), any(), any())).thenAnswer(invocation -> invocation
+                .getArgumentAt(0, PasswordAlgorithm.class).checkHash(invocation.getArgumentAt(1, String.class),
+                        invocation.getArgumentAt(2, String.class)));
+        when(mockPasswordHashService.generateHash(any(), any())).thenAnswer(invocation -> invocation
+                .getArgumentAt(0, PasswordAlgorithm.class).generateHash(invocation.getArgumentAt(1, String.class)));
+        dao.setPasswordHashService(mockPasswordHashService);
 
         when(mockHealthCodeService.createMapping(TestConstants.TEST_STUDY)).thenReturn(new HealthIdImpl(HEALTH_ID,
                 HEALTH_CODE));
@@ -577,8 +596,8 @@ public class HibernateAccountDaoTest {
         hibernateAccount2.setId("account-2");
         hibernateAccount2.setEmail("email2@example.com");
 
-        when(mockHibernateHelper.queryGet(any(), any(), any(), any())).thenReturn(ImmutableList.of(hibernateAccount1,
-                hibernateAccount2));
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                hibernateAccount1, hibernateAccount2));
 
         // execute and validate - just ID, study, and email is sufficient
         Iterator<AccountSummary> accountSummaryIter = dao.getAllAccounts();
@@ -594,7 +613,51 @@ public class HibernateAccountDaoTest {
         assertEquals("email2@example.com", accountSummaryList.get(1).getEmail());
 
         // verify hibernate call
-        verify(mockHibernateHelper).queryGet("from HibernateAccount", null, null, HibernateAccount.class);
+        verify(mockHibernateHelper).queryGet("from HibernateAccount order by id", ImmutableMap.of(), null,
+                HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE, HibernateAccount.class);
+    }
+
+    @Test
+    public void getAllLoadsOnePageAtATime() throws Exception {
+        // mock hibernate - one full page, then a partial page
+        List<HibernateAccount> page1 = new ArrayList<>();
+        for (int i = 0; i < HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE; i++) {
+            HibernateAccount hibernateAccount = makeValidHibernateAccount(false);
+            hibernateAccount.setId(String.format("account-%03d", i));
+            page1.add(hibernateAccount);
+        }
+        String lastIdInPage1 = page1.get(page1.size() - 1).getId();
+
+        HibernateAccount lastAccount = makeValidHibernateAccount(false);
+        lastAccount.setId("account-last");
+
+        String page1Query = "from HibernateAccount where studyId=:studyId order by id";
+        Map<String, Object> page1Parameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER);
+        String page2Query = "from HibernateAccount where studyId=:studyId and id > :lastId order by id";
+        Map<String, Object> page2Parameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER,
+                "lastId", lastIdInPage1);
+        when(mockHibernateHelper.queryGet(page1Query, page1Parameters, null,
+                HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE, HibernateAccount.class)).thenReturn(page1);
+        when(mockHibernateHelper.queryGet(page2Query, page2Parameters, null,
+                HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE, HibernateAccount.class)).thenReturn(
+                ImmutableList.of(lastAccount));
+
+        // Nothing is loaded until the iterator is used.
+        Iterator<AccountSummary> accountSummaryIter = dao.getStudyAccounts(STUDY);
+        verify(mockHibernateHelper, never()).queryGet(any(), any(), any(), any(), any());
+
+        // The second page is only loaded once the first page is used up.
+        for (int i = 0; i < HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE; i++) {
+            assertEquals(String.format("account-%03d", i), accountSummaryIter.next().getId());
+        }
+        verify(mockHibernateHelper, never()).queryGet(eq(page2Query), any(), any(), any(), any());
+
+        assertTrue(accountSummaryIter.hasNext());
+        assertEquals("account-last", accountSummaryIter.next().getId());
+
+        // The second page was partial, so there's no third query.
+        assertFalse(accountSummaryIter.hasNext());
+        verify(mockHibernateHelper, times(2)).queryGet(any(), any(), any(), any(), any());
     }
 
     @Test
@@ -608,8 +671,8 @@ public class HibernateAccountDaoTest {
         hibernateAccount2.setId("account-2");
         hibernateAccount2.setEmail("email2@example.com");
 
-        when(mockHibernateHelper.queryGet(any(), any(), any(), any())).thenReturn(ImmutableList.of(hibernateAccount1,
-                hibernateAccount2));
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                hibernateAccount1, hibernateAccount2));
 
         // execute and validate - just ID, study, and email is sufficient
         Iterator<AccountSummary> accountSummaryIter = dao.getStudyAccounts(STUDY);
@@ -625,8 +688,9 @@ public class HibernateAccountDaoTest {
         assertEquals("email2@example.com", accountSummaryList.get(1).getEmail());
 
         // verify hibernate call
-        verify(mockHibernateHelper).queryGet("from HibernateAccount where studyId='" +
-                TestConstants.TEST_STUDY_IDENTIFIER + "'", null, null, HibernateAccount.class);
+        verify(mockHibernateHelper).queryGet("from HibernateAccount where studyId=:studyId order by id",
+                ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER), null,
+                HibernateAccountDao.ACCOUNT_ITERATOR_PAGE_SIZE, HibernateAccount.class);
     }
 
     @Test
@@ -640,9 +704,9 @@ public class HibernateAccountDaoTest {
         hibernateAccount2.setId("account-2");
         hibernateAccount2.setEmail("email2@example.com");
 
-        when(mockHibernateHelper.queryGet(any(), any(), any(), any())).thenReturn(ImmutableList.of(hibernateAccount1,
-                hibernateAccount2));
-        when(mockHibernateHelper.queryCount(any())).thenReturn(12);
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                hibernateAccount1, hibernateAccount2));
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(12);
 
         // execute and validate
         PagedResourceList<AccountSummary> accountSummaryResourceList = dao.getPagedAccountSummaries(STUDY, 10, 5,
@@ -667,10 +731,10 @@ public class HibernateAccountDaoTest {
         assertEquals("email2@example.com", accountSummaryList.get(1).getEmail());
 
         // verify hibernate calls
-        String expectedQueryString = "from HibernateAccount where studyId='" + TestConstants.TEST_STUDY_IDENTIFIER +
-                "'";
-        verify(mockHibernateHelper).queryGet(expectedQueryString, 10, 5, HibernateAccount.class);
-        verify(mockHibernateHelper).queryCount(expectedQueryString);
+        String expectedQueryString = "from HibernateAccount where studyId=:studyId";
+        Map<String, Object> expectedParameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER);
+        verify(mockHibernateHelper).queryGet(expectedQueryString, expectedParameters, 10, 5, HibernateAccount.class);
+        verify(mockHibernateHelper).queryCount(expectedQueryString, expectedParameters);
     }
 
     @Test
@@ -680,9 +744,9 @@ public class HibernateAccountDaoTest {
         DateTime endDate = DateTime.parse("2017-05-19T18:32:03.434-0700");
 
         // mock hibernate
-        when(mockHibernateHelper.queryGet(any(), any(), any(), any())).thenReturn(ImmutableList.of(
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
                 makeValidHibernateAccount(false)));
-        when(mockHibernateHelper.queryCount(any())).thenReturn(11);
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(11);
 
         // execute and validate - Just validate filters and query, since everything else is tested in getPaged().
         PagedResourceList<AccountSummary> accountSummaryResourceList = dao.getPagedAccountSummaries(STUDY, 10, 5,
@@ -695,11 +759,159 @@ public class HibernateAccountDaoTest {
         assertEquals(endDate.toString(), filterMap.get("endDate"));
 
         // verify hibernate calls
-        String expectedQueryString = "from HibernateAccount where studyId='" + TestConstants.TEST_STUDY_IDENTIFIER +
-                "' and email like '%" + EMAIL + "%' and createdOn >= " + startDate.getMillis() + " and createdOn <= " +
-                endDate.getMillis();
-        verify(mockHibernateHelper).queryGet(expectedQueryString, 10, 5, HibernateAccount.class);
-        verify(mockHibernateHelper).queryCount(expectedQueryString);
+        String expectedQueryString = "from HibernateAccount where studyId=:studyId and email like :emailPattern " +
+                "and createdOn >= :startDate and createdOn <= :endDate";
+        Map<String, Object> expectedParameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER,
+                "emailPattern", "%" + EMAIL + "%", "startDate", startDate.getMillis(), "endDate",
+                endDate.getMillis());
+        verify(mockHibernateHelper).queryGet(expectedQueryString, expectedParameters, 10, 5, HibernateAccount.class);
+        verify(mockHibernateHelper).queryCount(expectedQueryString, expectedParameters);
+    }
+
+    @Test
+    public void getPagedCountIsCached() throws Exception {
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of());
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(12);
+
+        // Paging through the same query only counts once.
+        assertEquals(12, dao.getPagedAccountSummaries(STUDY, 0, 5, null, null, null).getTotal());
+        assertEquals(12, dao.getPagedAccountSummaries(STUDY, 5, 5, null, null, null).getTotal());
+        verify(mockHibernateHelper, times(1)).queryCount(any(), any());
+
+        // A different filter is counted separately.
+        dao.getPagedAccountSummaries(STUDY, 0, 5, EMAIL, null, null);
+        verify(mockHibernateHelper, times(2)).queryCount(any(), any());
+
+        // Deleting an account drops the study's counts.
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(11);
+        dao.deleteAccount(STUDY, ACCOUNT_ID);
+        assertEquals(11, dao.getPagedAccountSummaries(STUDY, 0, 5, null, null, null).getTotal());
+        verify(mockHibernateHelper, times(3)).queryCount(any(), any());
+    }
+
+    @Test
+    public void getStudyAccountCountIsNotCached() throws Exception {
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(12);
+
+        assertEquals(12, dao.getStudyAccountCount(STUDY));
+        assertEquals(12, dao.getStudyAccountCount(STUDY));
+
+        Map<String, Object> expectedParameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER);
+        verify(mockHibernateHelper, times(2)).queryCount("from HibernateAccount where studyId=:studyId",
+                expectedParameters);
+    }
+
+    @Test
+    public void getPagedV4() throws Exception {
+        // mock hibernate - one more account than the page size
+        HibernateAccount hibernateAccount1 = makeValidHibernateAccount(false);
+        hibernateAccount1.setId("account-1");
+        hibernateAccount1.setCreatedOn(CREATED_ON.getMillis());
+
+        HibernateAccount hibernateAccount2 = makeValidHibernateAccount(false);
+        hibernateAccount2.setId("account-2");
+        hibernateAccount2.setCreatedOn(CREATED_ON.getMillis());
+
+        HibernateAccount hibernateAccount3 = makeValidHibernateAccount(false);
+        hibernateAccount3.setId("account-3");
+        hibernateAccount3.setCreatedOn(CREATED_ON.getMillis() + 1);
+
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                hibernateAccount1, hibernateAccount2, hibernateAccount3));
+
+        // execute and validate
+        ForwardCursorPagedResourceList<AccountSummary> page = dao.getPagedAccountSummariesV4(STUDY, null, 2, null,
+                null, null);
+        assertEquals(2, page.getPageSize());
+        assertEquals(CREATED_ON.getMillis() + ":account-2", page.getOffsetKey());
+        assertTrue(page.getFilters().isEmpty());
+
+        List<AccountSummary> accountSummaryList = page.getItems();
+        assertEquals(2, accountSummaryList.size());
+        assertEquals("account-1", accountSummaryList.get(0).getId());
+        assertEquals("account-2", accountSummaryList.get(1).getId());
+
+        // verify hibernate calls - no count query
+        verify(mockHibernateHelper).queryGet("from HibernateAccount where studyId=:studyId order by " +
+                "coalesce(createdOn, 0), id", ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER), null, 3,
+                HibernateAccount.class);
+        verify(mockHibernateHelper, never()).queryCount(any(), any());
+    }
+
+    @Test
+    public void getPagedV4WithoutCreatedOn() throws Exception {
+        // mock hibernate - older accounts may not have createdOn
+        HibernateAccount hibernateAccount1 = makeValidHibernateAccount(false);
+        hibernateAccount1.setId("account-1");
+        hibernateAccount1.setCreatedOn(null);
+
+        HibernateAccount hibernateAccount2 = makeValidHibernateAccount(false);
+        hibernateAccount2.setId("account-2");
+        hibernateAccount2.setCreatedOn(CREATED_ON.getMillis());
+
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                hibernateAccount1, hibernateAccount2));
+
+        // execute and validate - createdOn is 0 in the offset key
+        ForwardCursorPagedResourceList<AccountSummary> page = dao.getPagedAccountSummariesV4(STUDY, null, 1, null,
+                null, null);
+        assertEquals("0:account-1", page.getOffsetKey());
+
+        // The offset key can be used to get the next page.
+        dao.getPagedAccountSummariesV4(STUDY, page.getOffsetKey(), 1, null, null, null);
+        String expectedQueryString = "from HibernateAccount where studyId=:studyId and (coalesce(createdOn, 0) > " +
+                ":offsetCreatedOn or (coalesce(createdOn, 0) = :offsetCreatedOn and id > :offsetId)) order by " +
+                "coalesce(createdOn, 0), id";
+        Map<String, Object> expectedParameters = ImmutableMap.of("studyId", TestConstants.TEST_STUDY_IDENTIFIER,
+                "offsetCreatedOn", 0L, "offsetId", "account-1");
+        verify(mockHibernateHelper).queryGet(expectedQueryString, expectedParameters, null, 2,
+                HibernateAccount.class);
+    }
+
+    @Test
+    public void getPagedV4WithOffsetKeyAndOptionalParams() throws Exception {
+        // Setup start and end dates.
+        DateTime startDate = DateTime.parse("2017-05-19T11:40:06.247-0700");
+        DateTime endDate = DateTime.parse("2017-05-19T18:32:03.434-0700");
+
+        // mock hibernate - last page
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                makeValidHibernateAccount(false)));
+
+        // execute and validate
+        ForwardCursorPagedResourceList<AccountSummary> page = dao.getPagedAccountSummariesV4(STUDY,
+                CREATED_ON.getMillis() + ":account-2", 5, "eggplant", startDate, endDate);
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getOffsetKey());
+        assertFalse(page.hasNext());
+
+        Map<String, String> filterMap = page.getFilters();
+        assertEquals(3, filterMap.size());
+        assertEquals("eggplant", filterMap.get("emailPrefix"));
+        assertEquals(startDate.toString(), filterMap.get("startDate"));
+        assertEquals(endDate.toString(), filterMap.get("endDate"));
+
+        // verify hibernate calls
+        String expectedQueryString = "from HibernateAccount where studyId=:studyId and email like :emailPattern " +
+                "and createdOn >= :startDate and createdOn <= :endDate and (coalesce(createdOn, 0) > " +
+                ":offsetCreatedOn or (coalesce(createdOn, 0) = :offsetCreatedOn and id > :offsetId)) order by " +
+                "coalesce(createdOn, 0), id";
+        Map<String, Object> expectedParameters = ImmutableMap.<String, Object>builder()
+                .put("studyId", TestConstants.TEST_STUDY_IDENTIFIER).put("emailPattern", "eggplant%")
+                .put("startDate", startDate.getMillis()).put("endDate", endDate.getMillis())
+                .put("offsetCreatedOn", CREATED_ON.getMillis()).put("offsetId", "account-2").build();
+        verify(mockHibernateHelper).queryGet(expectedQueryString, expectedParameters, null, 6,
+                HibernateAccount.class);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getPagedV4InvalidOffsetKey() {
+        dao.getPagedAccountSummariesV4(STUDY, "not-a-timestamp:account-2", 5, null, null, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getPagedV4OffsetKeyWithoutId() {
+        dao.getPagedAccountSummariesV4(STUDY, String.valueOf(CREATED_ON.getMillis()), 5, null, null, null);
     }
 
     @Test
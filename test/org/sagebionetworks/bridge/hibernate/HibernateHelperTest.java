@@ -19,6 +19,7 @@ import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceException;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -124,6 +125,21 @@ public class HibernateHelperTest {
         assertEquals(0, count);
     }
 
+    @Test
+    public void queryCountWithParameters() {
+        // mock query
+        Query<Long> mockQuery = mock(Query.class);
+        when(mockQuery.uniqueResult()).thenReturn(42L);
+
+        when(mockSession.createQuery("select count(*) " + QUERY + " where key=:key", Long.class)).thenReturn(
+                mockQuery);
+
+        // execute and validate
+        int count = helper.queryCount(QUERY + " where key=:key", ImmutableMap.of("key", "value"));
+        assertEquals(42, count);
+        verify(mockQuery).setParameter("key", "value");
+    }
+
     @Test
     public void queryGetSuccess() {
         // mock query
@@ -152,6 +168,21 @@ public class HibernateHelperTest {
         verify(mockQuery).setMaxResults(25);
     }
 
+    @Test
+    public void queryGetWithParameters() {
+        // mock query
+        Query<Object> mockQuery = mock(Query.class);
+        when(mockQuery.list()).thenReturn(ImmutableList.of());
+
+        when(mockSession.createQuery(QUERY + " where key=:key", Object.class)).thenReturn(mockQuery);
+
+        // execute and verify we bind the parameters, as well as the offset and limit
+        helper.queryGet(QUERY + " where key=:key", ImmutableMap.of("key", 37L), 100, 25, Object.class);
+        verify(mockQuery).setParameter("key", 37L);
+        verify(mockQuery).setFirstResult(100);
+        verify(mockQuery).setMaxResults(25);
+    }
+
     @Test
     public void queryUpdate() {
         // mock query
@@ -0,0 +1,138 @@
+package org.sagebionetworks.bridge.models.accounts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+
+/**
+ * <p>
+ * Offline benchmark for password hashing. For each PasswordAlgorithm, this prints the latency of generating and
+ * checking a hash with the default settings. It also prints check latency for other PBKDF2 iteration counts and
+ * bcrypt costs, so the defaults can be tuned against the sign-in latency budget, and hashes/sec with several threads
+ * checking at once, to size password.hash.thread.count.
+ * </p>
+ * <p>
+ * Checks against the other iteration counts use a made-up hash, so they don't match, but they do the same work as a
+ * real check. Latencies are per call on an otherwise idle machine, so compare them against each other, and against
+ * the same benchmark on production hardware.
+ * </p>
+ * <p>
+ * Usage: play "test:run-main org.sagebionetworks.bridge.models.accounts.PasswordAlgorithmBenchmark [[iterations]
+ * [warmup iterations] [threads]]"
+ * </p>
+ */
+public class PasswordAlgorithmBenchmark {
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+
+    private static final int[] BCRYPT_COSTS = { 10, 11, 12, 13 };
+    private static final String PASSWORD = "Aa!Aa!Aa!Aa!1";
+    private static final int[] PBKDF2_ITERATION_COUNTS = { 100000, 250000, 500000 };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WARMUP_ITERATIONS;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("%d iterations, %d warmup iterations, %d threads", iterations,
+                warmupIterations, threadCount));
+        System.out.println(String.format("%-44s %10s %10s %10s", "operation", "mean ms", "p50 ms", "max ms"));
+
+        // Default settings, which are what new passwords get.
+        for (PasswordAlgorithm oneAlgorithm : PasswordAlgorithm.values()) {
+            String hash = oneAlgorithm.generateHash(PASSWORD);
+            printLatency(oneAlgorithm + " generate", iterations, warmupIterations,
+                    () -> oneAlgorithm.generateHash(PASSWORD));
+            printLatency(oneAlgorithm + " check", iterations, warmupIterations,
+                    () -> oneAlgorithm.checkHash(hash, PASSWORD));
+        }
+
+        // Other work factors. Checks read the work factor from the hash, so we can measure them without changing
+        // the defaults.
+        for (int oneIterationCount : PBKDF2_ITERATION_COUNTS) {
+            String hash = oneIterationCount + "$" + Base64.encodeBase64String(BridgeUtils.generateSalt()) +
+                    "$not-a-real-hash";
+            printLatency(PasswordAlgorithm.PBKDF2_HMAC_SHA_256 + " check, " + oneIterationCount + " iterations",
+                    iterations, warmupIterations,
+                    () -> PasswordAlgorithm.PBKDF2_HMAC_SHA_256.checkHash(hash, PASSWORD));
+        }
+        for (int oneCost : BCRYPT_COSTS) {
+            String hash = OpenBSDBCrypt.generate(PASSWORD.toCharArray(), BridgeUtils.generateSalt(), oneCost);
+            printLatency(PasswordAlgorithm.BCRYPT + " check, cost " + oneCost, iterations, warmupIterations,
+                    () -> PasswordAlgorithm.BCRYPT.checkHash(hash, PASSWORD));
+        }
+
+        // Throughput of the default algorithm with several threads, like a sign-in storm on the hash thread pool.
+        PasswordAlgorithm defaultAlgorithm = PasswordAlgorithm.DEFAULT_PASSWORD_ALGORITHM;
+        String defaultHash = defaultAlgorithm.generateHash(PASSWORD);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = 1; i <= threadCount; i *= 2) {
+                double hashesPerSecond = measureThroughput(executor, i, iterations,
+                        () -> defaultAlgorithm.checkHash(defaultHash, PASSWORD));
+                System.out.println(String.format("%s check, %d threads: %.1f hashes/s", defaultAlgorithm, i,
+                        hashesPerSecond));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Warms up, then times each call of the operation on the current thread, and prints the results.
+    private static void printLatency(String name, int iterations, int warmupIterations, HashOperation operation)
+            throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run();
+        }
+
+        long[] elapsedNanosArray = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long startNanos = System.nanoTime();
+            operation.run();
+            elapsedNanosArray[i] = System.nanoTime() - startNanos;
+        }
+        Arrays.sort(elapsedNanosArray);
+
+        long totalNanos = 0;
+        for (long oneElapsedNanos : elapsedNanosArray) {
+            totalNanos += oneElapsedNanos;
+        }
+        System.out.println(String.format("%-44s %10.2f %10.2f %10.2f", name, totalNanos / 1e6 / iterations,
+                elapsedNanosArray[iterations / 2] / 1e6, elapsedNanosArray[iterations - 1] / 1e6));
+    }
+
+    // Runs the operation the given number of times on each of the given number of threads at once, and returns the
+    // total number of operations per second.
+    private static double measureThroughput(ExecutorService executor, int threadCount, int iterationsPerThread,
+            HashOperation operation) throws Exception {
+        long startNanos = System.nanoTime();
+        List<Future<?>> futureList = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futureList.add(executor.submit(() -> {
+                for (int j = 0; j < iterationsPerThread; j++) {
+                    operation.run();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> oneFuture : futureList) {
+            oneFuture.get();
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        return threadCount * iterationsPerThread / elapsedSeconds;
+    }
+
+    // A single hash or check. PasswordAlgorithm methods throw checked exceptions, so we can't use Runnable.
+    @FunctionalInterface
+    private interface HashOperation {
+        void run() throws Exception;
+    }
+}
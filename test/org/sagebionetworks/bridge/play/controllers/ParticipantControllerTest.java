@@ -25,6 +25,7 @@ import java.util.Set;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -217,6 +218,28 @@ public class ParticipantControllerTest {
         assertEquals(end.toString(), endTimeCaptor.getValue().toString());
     }
     
+    @Test
+    public void getParticipantsV4() throws Exception {
+        DateTime start = DateTime.now();
+        DateTime end = DateTime.now();
+        ForwardCursorPagedResourceList<AccountSummary> page = new ForwardCursorPagedResourceList<>(
+                ImmutableList.of(SUMMARY), "nextKey", 20).withFilter("emailPrefix", "foo");
+        doReturn(page).when(mockParticipantService).getPagedAccountSummariesV4(eq(study), eq("offsetKey"), eq(20),
+                eq("foo"), any(), any());
+        
+        Result result = controller.getParticipantsV4("offsetKey", 20, "foo", start.toString(), end.toString());
+        assertEquals(200, result.status());
+        JsonNode node = TestUtils.getJson(result);
+        assertEquals("nextKey", node.get("offsetKey").textValue());
+        assertEquals("foo", node.get("emailPrefix").textValue());
+        assertEquals(1, node.get("items").size());
+        
+        verify(mockParticipantService).getPagedAccountSummariesV4(eq(study), eq("offsetKey"), eq(20), eq("foo"),
+                startTimeCaptor.capture(), endTimeCaptor.capture());
+        assertEquals(start.toString(), startTimeCaptor.getValue().toString());
+        assertEquals(end.toString(), endTimeCaptor.getValue().toString());
+    }
+    
     @Test(expected = BadRequestException.class)
     public void oddParametersUseDefaults() throws Exception {
         controller.getParticipants("asdf", "qwer", null, null, null);
@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.play.controllers;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
@@ -33,14 +34,20 @@ import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataItem;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataResult;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.services.ReportService;
@@ -254,6 +261,144 @@ public class ReportControllerTest {
         assertResult(result);
     }
     
+    @Test
+    public void getStudyReportRollups() throws Exception {
+        setupContext();
+        ReportRollup rollup = ReportRollup.create();
+        rollup.setStartDate(LocalDate.parse("2015-01-01"));
+        rollup.setEndDate(LocalDate.parse("2015-01-31"));
+        rollup.setDayCount(3);
+        rollup.setData(JsonNodeFactory.instance.objectNode());
+        doReturn(new DateRangeResourceList<>(Lists.newArrayList(rollup), START_DATE, END_DATE))
+                .when(mockReportService).getStudyReportRollups(session.getStudyIdentifier(), REPORT_ID,
+                        ReportRollupPeriod.MONTH, START_DATE, END_DATE);
+        
+        Result result = controller.getStudyReportRollups(REPORT_ID, "month", START_DATE.toString(),
+                END_DATE.toString());
+        assertEquals(200, result.status());
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        JsonNode rollupNode = node.get("items").get(0);
+        assertEquals("2015-01-01", rollupNode.get("startDate").asText());
+        assertEquals("2015-01-31", rollupNode.get("endDate").asText());
+        assertEquals(3, rollupNode.get("dayCount").asInt());
+        assertEquals("ReportRollup", rollupNode.get("type").asText());
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportRollupsInvalidPeriod() throws Exception {
+        setupContext();
+        controller.getStudyReportRollups(REPORT_ID, "fortnight", START_DATE.toString(), END_DATE.toString());
+    }
+    
+    @Test
+    public void getStudyReportDataV4() throws Exception {
+        setupContext();
+        ForwardCursorPagedResourceList<ReportData> page = makePage();
+        doReturn(page).when(mockReportService).getStudyReportV4(TEST_STUDY, REPORT_ID, START_DATE, END_DATE, 20,
+                "offsetKey");
+
+        Result result = controller.getStudyReportV4(REPORT_ID, START_DATE.toString(), END_DATE.toString(),
+                "offsetKey", 20, null);
+        assertEquals(200, result.status());
+
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals("nextPageKey", node.get("offsetKey").textValue());
+        assertTrue(node.get("hasNext").booleanValue());
+        assertEquals(2, node.get("items").size());
+        assertEquals("First", node.get("items").get(0).get("data").get("field1").textValue());
+        verify(mockReportService, never()).getStudyReportSummariesV4(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void getStudyReportDataV4Summary() throws Exception {
+        setupContext();
+        ForwardCursorPagedResourceList<ReportDataSummary> summaryPage = new ForwardCursorPagedResourceList<>(
+                Lists.newArrayList(new ReportDataSummary(LocalDate.parse("2015-02-10"), 34)), "nextPageKey", 20);
+        doReturn(summaryPage).when(mockReportService).getStudyReportSummariesV4(TEST_STUDY, REPORT_ID, null, null,
+                null, null);
+
+        Result result = controller.getStudyReportV4(REPORT_ID, null, null, null, null,
+                ReportController.SUMMARY_PROJECTION);
+        assertEquals(200, result.status());
+
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        JsonNode summaryNode = node.get("items").get(0);
+        assertEquals("2015-02-10", summaryNode.get("date").textValue());
+        assertEquals(34, summaryNode.get("size").intValue());
+        assertEquals("ReportDataSummary", summaryNode.get("type").textValue());
+        assertNull(summaryNode.get("data"));
+        verify(mockReportService, never()).getStudyReportV4(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void getParticipantReportDataV4() throws Exception {
+        setupContext();
+        ForwardCursorPagedResourceList<ReportData> page = makePage();
+        doReturn(page).when(mockReportService).getParticipantReportV4(TEST_STUDY, REPORT_ID, HEALTH_CODE,
+                START_DATE, END_DATE, null, null);
+
+        Result result = controller.getParticipantReportV4(REPORT_ID, START_DATE.toString(), END_DATE.toString(),
+                null, null, null);
+        assertEquals(200, result.status());
+
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals(2, node.get("items").size());
+    }
+
+    @Test
+    public void getParticipantReportForResearcherV4Summary() throws Exception {
+        setupContext();
+        doReturn(session).when(controller).getAuthenticatedSession(Roles.RESEARCHER);
+        ForwardCursorPagedResourceList<ReportDataSummary> summaryPage = new ForwardCursorPagedResourceList<>(
+                Lists.newArrayList(new ReportDataSummary(LocalDate.parse("2015-02-10"), 34)), null, 20);
+        doReturn(summaryPage).when(mockReportService).getParticipantReportSummariesV4(TEST_STUDY, REPORT_ID,
+                OTHER_PARTICIPANT_HEALTH_CODE, null, null, null, null);
+
+        Result result = controller.getParticipantReportForResearcherV4(OTHER_PARTICIPANT_ID, REPORT_ID, null, null,
+                null, null, ReportController.SUMMARY_PROJECTION);
+        assertEquals(200, result.status());
+
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals(34, node.get("items").get(0).get("size").intValue());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void getParticipantReportForResearcherV4AccountNotFound() throws Exception {
+        setupContext();
+        doReturn(session).when(controller).getAuthenticatedSession(Roles.RESEARCHER);
+
+        try {
+            controller.getParticipantReportForResearcherV4("nonexistentUserId", REPORT_ID, null, null, null, null,
+                    null);
+        } finally {
+            verifyNoMoreInteractions(mockReportService);
+        }
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void getParticipantReportRollupsForResearcherAccountNotFound() throws Exception {
+        setupContext();
+        doReturn(session).when(controller).getAuthenticatedSession(Roles.RESEARCHER);
+
+        try {
+            controller.getParticipantReportRollupsForResearcher("nonexistentUserId", REPORT_ID, "month",
+                    START_DATE.toString(), END_DATE.toString());
+        } finally {
+            verifyNoMoreInteractions(mockReportService);
+        }
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportDataV4InvalidProjection() throws Exception {
+        setupContext();
+        try {
+            controller.getStudyReportV4(REPORT_ID, null, null, null, null, "everything");
+        } finally {
+            verifyNoMoreInteractions(mockReportService);
+        }
+    }
+
     @Test
     public void getStudyReportDataWithNoDates() throws Exception {
         setupContext();
@@ -366,6 +511,57 @@ public class ReportControllerTest {
         assertEquals("Name", reportData.getData().get("field2").asText());
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void saveStudyReports() throws Exception {
+        String json = TestUtils.createJson("[{'identifier':'foo','date':'2015-02-12','data':{'field1':'Last'}}," +
+                "{'identifier':'foo','date':'2015-02-13','data':{'field1':'First'}}]");
+        TestUtils.mockPlayContextWithJson(json);
+        
+        BulkReportDataItem savedItem = new BulkReportDataItem(REPORT_ID, null, LocalDate.parse("2015-02-12"), null);
+        BulkReportDataItem failedItem = new BulkReportDataItem(REPORT_ID, null, LocalDate.parse("2015-02-13"), null);
+        doReturn(Lists.newArrayList(BulkReportDataResult.saved(savedItem),
+                BulkReportDataResult.failed(failedItem, "Error saving report data."))).when(mockReportService)
+                .saveStudyReports(eq(TEST_STUDY), any());
+        
+        Result result = controller.saveStudyReports();
+        assertEquals(200, result.status());
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals(2, node.get("total").asInt());
+        assertTrue(node.get("items").get(0).get("saved").asBoolean());
+        assertEquals("2015-02-13", node.get("items").get(1).get("date").asText());
+        assertEquals("Error saving report data.", node.get("items").get(1).get("message").asText());
+        
+        ArgumentCaptor<List<BulkReportDataItem>> itemsCaptor = ArgumentCaptor.forClass((Class) List.class);
+        verify(mockReportService).saveStudyReports(eq(TEST_STUDY), itemsCaptor.capture());
+        List<BulkReportDataItem> items = itemsCaptor.getValue();
+        assertEquals(2, items.size());
+        assertEquals(REPORT_ID, items.get(0).getIdentifier());
+        assertEquals(LocalDate.parse("2015-02-12"), items.get(0).getDate());
+        assertEquals("Last", items.get(0).getData().get("field1").asText());
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void saveParticipantReportsForWorker() throws Exception {
+        String json = TestUtils.createJson("[{'identifier':'foo','healthCode':'" + OTHER_PARTICIPANT_HEALTH_CODE +
+                "','date':'2015-02-12','data':{'field1':'Last'}}]");
+        TestUtils.mockPlayContextWithJson(json);
+        
+        BulkReportDataItem item = new BulkReportDataItem(REPORT_ID, OTHER_PARTICIPANT_HEALTH_CODE,
+                LocalDate.parse("2015-02-12"), null);
+        doReturn(Lists.newArrayList(BulkReportDataResult.saved(item))).when(mockReportService)
+                .saveParticipantReports(eq(TEST_STUDY), any());
+        
+        Result result = controller.saveParticipantReportsForWorker();
+        assertEquals(200, result.status());
+        
+        ArgumentCaptor<List<BulkReportDataItem>> itemsCaptor = ArgumentCaptor.forClass((Class) List.class);
+        verify(mockReportService).saveParticipantReports(eq(TEST_STUDY), itemsCaptor.capture());
+        assertEquals(OTHER_PARTICIPANT_HEALTH_CODE, itemsCaptor.getValue().get(0).getHealthCode());
+    }
+    
     @Test
     public void getStudyReportIndices() throws Exception {
         Result result = controller.getReportIndices("study");
@@ -562,6 +758,13 @@ public class ReportControllerTest {
         return new DateRangeResourceList<ReportData>(list, startDate, endDate);
     }
     
+    private ForwardCursorPagedResourceList<ReportData> makePage() {
+        List<ReportData> list = Lists.newArrayList();
+        list.add(createReport(LocalDate.parse("2015-02-10"), "First", "Name"));
+        list.add(createReport(LocalDate.parse("2015-02-12"), "Last", "Name"));
+        return new ForwardCursorPagedResourceList<>(list, "nextPageKey", 20);
+    }
+    
     private ReportData createReport(LocalDate date, String fieldValue1, String fieldValue2) {
         ObjectNode node = JsonNodeFactory.instance.objectNode();
         node.put("field1", fieldValue1);
@@ -0,0 +1,106 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Play dispatches a request to the first route in conf/routes that matches it. This checks that no route is shadowed
+ * by an earlier route with a path parameter, like POST /v3/participants/:userId matching POST
+ * /v3/participants/reports.
+ */
+public class RoutesTest {
+    private static final String ROUTES_FILE = "conf/routes";
+    private static final String SAMPLE_PARAM_VALUE = "sample-param-value";
+
+    @Test
+    public void noRouteIsShadowed() throws IOException {
+        List<Route> routeList = readRoutes();
+        assertTrue(routeList.size() > 0);
+
+        List<String> shadowedList = new ArrayList<>();
+        for (int i = 0; i < routeList.size(); i++) {
+            Route route = routeList.get(i);
+            String samplePath = route.getSamplePath();
+            for (Route earlierRoute : routeList.subList(0, i)) {
+                if (earlierRoute.method.equals(route.method) && earlierRoute.pattern.matcher(samplePath).matches()) {
+                    shadowedList.add(route + " is shadowed by " + earlierRoute);
+                }
+            }
+        }
+        assertEquals(new ArrayList<String>(), shadowedList);
+    }
+
+    @Test
+    public void bulkParticipantReportsRouteIsReachable() throws IOException {
+        for (Route route : readRoutes()) {
+            if (route.method.equals("POST") && route.pattern.matcher("/v3/participants/reports").matches()) {
+                assertTrue(route.action.contains("ReportController.saveParticipantReportsForWorker"));
+                return;
+            }
+        }
+        throw new AssertionError("No route for POST /v3/participants/reports");
+    }
+
+    private static List<Route> readRoutes() throws IOException {
+        List<Route> routeList = new ArrayList<>();
+        for (String oneLine : Files.readAllLines(Paths.get(ROUTES_FILE), StandardCharsets.UTF_8)) {
+            String trimmed = oneLine.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("->")) {
+                continue;
+            }
+            String[] parts = trimmed.split("\\s+", 3);
+            routeList.add(new Route(parts[0], parts[1], parts[2]));
+        }
+        return routeList;
+    }
+
+    private static class Route {
+        final String method;
+        final String path;
+        final String action;
+        final Pattern pattern;
+
+        Route(String method, String path, String action) {
+            this.method = method;
+            this.path = path;
+            this.action = action;
+
+            // :param matches one path segment. *param matches the rest of the path.
+            String[] segments = path.split("/", -1);
+            StringBuilder regexBuilder = new StringBuilder();
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0) {
+                    regexBuilder.append("/");
+                }
+                if (segments[i].startsWith(":")) {
+                    regexBuilder.append("[^/]+");
+                } else if (segments[i].startsWith("*")) {
+                    regexBuilder.append(".+");
+                } else {
+                    regexBuilder.append(Pattern.quote(segments[i]));
+                }
+            }
+            this.pattern = Pattern.compile(regexBuilder.toString());
+        }
+
+        // A path this route matches, with a value that isn't a literal segment anywhere in each parameter.
+        String getSamplePath() {
+            return path.replaceAll("[:*][^/]+", SAMPLE_PARAM_VALUE);
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+    }
+}
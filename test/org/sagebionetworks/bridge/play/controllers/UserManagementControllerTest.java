@@ -5,6 +5,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyObject;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
@@ -29,8 +30,10 @@ import play.mvc.Result;
 import play.test.Helpers;
 
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserDataPurgeStatus;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
@@ -108,9 +111,41 @@ public class UserManagementControllerTest {
     
     @Test
     public void deleteUser() throws Exception {
-        Result result = controller.deleteUser("ASDF");
+        Result result = controller.deleteUser("ASDF", null);
         
         assertResult(result, 200, "User deleted.");
         verify(userAdminService).deleteUser(study, "ASDF");
     }
+    
+    @Test
+    public void deleteUserAsync() throws Exception {
+        UserDataPurgeStatus status = new UserDataPurgeStatus("ASDF", UserDataPurgeStatus.State.IN_PROGRESS, null,
+                1000L, 1000L, null);
+        doReturn(status).when(userAdminService).deleteUserAsync(study, "ASDF");
+        
+        Result result = controller.deleteUser("ASDF", "true");
+        
+        assertEquals(202, result.status());
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals("IN_PROGRESS", node.get("state").textValue());
+        verify(userAdminService, never()).deleteUser(any(), any());
+    }
+    
+    @Test
+    public void getDeleteUserStatus() throws Exception {
+        UserDataPurgeStatus status = new UserDataPurgeStatus("ASDF", UserDataPurgeStatus.State.SUCCEEDED, null,
+                1000L, 2000L, null);
+        doReturn(status).when(userAdminService).getDeleteUserStatus(TEST_STUDY, "ASDF");
+        
+        Result result = controller.getDeleteUserStatus("ASDF");
+        
+        assertEquals(200, result.status());
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals("SUCCEEDED", node.get("state").textValue());
+    }
+    
+    @Test(expected = EntityNotFoundException.class)
+    public void getDeleteUserStatusNotFound() throws Exception {
+        controller.getDeleteUserStatus("ASDF");
+    }
 }
@@ -1,13 +1,16 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
@@ -18,6 +21,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.RecordExportStatusRequest;
 
@@ -136,6 +140,43 @@ public class HealthDataServiceTest {
         assertEquals("baz healthcode", recordList.get(2).getHealthCode());
     }
 
+    @Test(expected = BadRequestException.class)
+    public void getRecordsForUploadDatePageInvalidUploadDate() {
+        new HealthDataService().getRecordsForUploadDate("2014-02-31", 10, null);
+    }
+
+    @Test
+    public void getRecordsForUploadDatePageSuccess() {
+        ForwardCursorPagedResourceList<HealthDataRecord> mockPage = new ForwardCursorPagedResourceList<>(
+                ImmutableList.of(), "next-key", 10);
+        HealthDataDao mockDao = mock(HealthDataDao.class);
+        when(mockDao.getRecordsForUploadDate("2014-02-12", 10, "offset-key")).thenReturn(mockPage);
+
+        HealthDataService svc = new HealthDataService();
+        svc.setHealthDataDao(mockDao);
+
+        // execute and validate
+        assertSame(mockPage, svc.getRecordsForUploadDate("2014-02-12", 10, "offset-key"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getRecordIteratorForUploadDateBlankUploadDate() {
+        new HealthDataService().getRecordIteratorForUploadDate("");
+    }
+
+    @Test
+    public void getRecordIteratorForUploadDateSuccess() {
+        Iterator<HealthDataRecord> mockIterator = ImmutableList.<HealthDataRecord>of().iterator();
+        HealthDataDao mockDao = mock(HealthDataDao.class);
+        when(mockDao.getRecordIteratorForUploadDate("2014-02-12")).thenReturn(mockIterator);
+
+        HealthDataService svc = new HealthDataService();
+        svc.setHealthDataDao(mockDao);
+
+        // execute and validate
+        assertSame(mockIterator, svc.getRecordIteratorForUploadDate("2014-02-12"));
+    }
+
     @Test(expected = InvalidEntityException.class)
     public void updateRecordsWithExporterStatusNullRecordIds() {
         RecordExportStatusRequest request = new RecordExportStatusRequest();
@@ -172,44 +213,23 @@ public class HealthDataServiceTest {
 
     @Test
     public void updateRecordSuccess() throws Exception {
-
-        // first create a mock record
-        // record
-        HealthDataRecord record = DAO.getRecordBuilder().withHealthCode(TEST_HEALTH_CODE)
-                .withSchemaId(TEST_SCHEMA_ID).withSchemaRevision(3).withStudyId(TEST_STUDY_ID).build();
-
-        HealthDataRecord record2 = DAO.getRecordBuilder().withHealthCode(TEST_HEALTH_CODE)
-                .withSchemaId(TEST_SCHEMA_ID).withSchemaRevision(3).withStudyId(TEST_STUDY_ID).build();
-
-
         // mock dao
         HealthDataDao mockDao = mock(HealthDataDao.class);
-        when(mockDao.createOrUpdateRecord(record)).thenReturn(TEST_RECORD_ID);
-        when(mockDao.createOrUpdateRecord(record2)).thenReturn(TEST_RECORD_ID_2);
+        List<String> recordIdList = Arrays.asList(TEST_RECORD_ID, TEST_RECORD_ID_2);
+        when(mockDao.updateExporterStatus(recordIdList, HealthDataRecord.ExporterStatus.SUCCEEDED)).thenReturn(
+                recordIdList);
 
         HealthDataService svc = new HealthDataService();
         svc.setHealthDataDao(mockDao);
 
         // execute and validate
-        String retVal = svc.createOrUpdateRecord(record);
-        assertEquals(TEST_RECORD_ID, retVal);
-
-        // then create a mock json request
-        RecordExportStatusRequest recordExportStatusRequest = createMockRecordExportStatusRequest();
-        when(mockDao.getRecordById(TEST_RECORD_ID)).thenReturn(record);
-        when(mockDao.getRecordById(TEST_RECORD_ID_2)).thenReturn(record2);
-
-        // finally call service method and assert
-        svc.updateRecordsWithExporterStatus(recordExportStatusRequest);
-        verify(mockDao).getRecordById(TEST_RECORD_ID);
-        HealthDataRecord recordAfter = svc.getRecordById(TEST_RECORD_ID);
-        assertNotNull(recordAfter.getSynapseExporterStatus());
-        assertEquals(HealthDataRecord.ExporterStatus.SUCCEEDED, recordAfter.getSynapseExporterStatus());
-        verify(mockDao).getRecordById(TEST_RECORD_ID_2);
-        HealthDataRecord record2After = svc.getRecordById(TEST_RECORD_ID_2);
-        assertNotNull(record2After.getSynapseExporterStatus());
-        assertEquals(HealthDataRecord.ExporterStatus.SUCCEEDED, record2After.getSynapseExporterStatus());
+        List<String> retVal = svc.updateRecordsWithExporterStatus(createMockRecordExportStatusRequest());
+        assertEquals(recordIdList, retVal);
 
+        // Records are updated in place, without loading or rewriting them.
+        verify(mockDao).updateExporterStatus(recordIdList, HealthDataRecord.ExporterStatus.SUCCEEDED);
+        verify(mockDao, never()).getRecordById(any());
+        verify(mockDao, never()).createOrUpdateRecord(any());
     }
 
     private RecordExportStatusRequest createMockRecordExportStatusRequest() throws Exception {
@@ -14,6 +14,7 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.DATA_GROUPS;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EMAIL_NOTIFICATIONS;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
@@ -41,7 +42,6 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestUtils;
@@ -58,10 +58,8 @@ import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.exceptions.LimitExceededException;
 import org.sagebionetworks.bridge.models.CriteriaContext;
-import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountStatus;
-import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.accounts.Email;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifier;
 import org.sagebionetworks.bridge.models.accounts.IdentifierHolder;
@@ -170,9 +168,6 @@ public class ParticipantServiceTest {
     @Mock
     private ScheduledActivityService scheduledActivityService;
     
-    @Mock
-    private PagedResourceList<AccountSummary> accountSummaries;
-    
     @Captor
     ArgumentCaptor<StudyParticipant> participantCaptor;
     
@@ -355,6 +350,30 @@ public class ParticipantServiceTest {
         participantService.getPagedAccountSummaries(STUDY, 0, 251, null, null, null);
     }
     
+    @Test
+    public void getPagedAccountSummariesV4() {
+        participantService.getPagedAccountSummariesV4(STUDY, "offsetKey", 50, "foo", START_DATE, END_DATE);
+        
+        verify(accountDao).getPagedAccountSummariesV4(STUDY, "offsetKey", 50, "foo", START_DATE, END_DATE);
+    }
+    
+    @Test
+    public void getPagedAccountSummariesV4DefaultsPageSize() {
+        participantService.getPagedAccountSummariesV4(STUDY, null, null, null, null, null);
+        
+        verify(accountDao).getPagedAccountSummariesV4(STUDY, null, API_DEFAULT_PAGE_SIZE, null, null, null);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void getPagedAccountSummariesV4WithTooLargePageSize() {
+        participantService.getPagedAccountSummariesV4(STUDY, null, 251, null, null, null);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void getPagedAccountSummariesV4WithBadDateRange() {
+        participantService.getPagedAccountSummariesV4(STUDY, null, 50, null, END_DATE, START_DATE);
+    }
+    
     @Test(expected = EntityNotFoundException.class)
     public void getParticipantEmailDoesNotExist() {
         when(accountDao.getAccount(STUDY, ID)).thenReturn(null);
@@ -885,9 +904,7 @@ public class ParticipantServiceTest {
     public void limitNotExceededException() {
         mockHealthCodeAndAccountRetrieval();
         STUDY.setAccountLimit(10);
-        when(accountSummaries.getTotal()).thenReturn(9);
-        when(accountDao.getPagedAccountSummaries(STUDY, 0, BridgeConstants.API_MINIMUM_PAGE_SIZE, null, null, null))
-                .thenReturn(accountSummaries);
+        when(accountDao.getStudyAccountCount(STUDY)).thenReturn(9);
         
         participantService.createParticipant(STUDY,  CALLER_ROLES, PARTICIPANT, false);
     }
@@ -895,9 +912,7 @@ public class ParticipantServiceTest {
     @Test
     public void throwLimitExceededExactlyException() {
         STUDY.setAccountLimit(10);
-        when(accountSummaries.getTotal()).thenReturn(10);
-        when(accountDao.getPagedAccountSummaries(STUDY, 0, BridgeConstants.API_MINIMUM_PAGE_SIZE, null, null, null))
-                .thenReturn(accountSummaries);
+        when(accountDao.getStudyAccountCount(STUDY)).thenReturn(10);
         
         try {
             participantService.createParticipant(STUDY,  CALLER_ROLES, PARTICIPANT, false);
@@ -910,9 +925,7 @@ public class ParticipantServiceTest {
     @Test(expected = LimitExceededException.class)
     public void throwLimitExceededException() {
         STUDY.setAccountLimit(10);
-        when(accountSummaries.getTotal()).thenReturn(13);
-        when(accountDao.getPagedAccountSummaries(STUDY, 0, BridgeConstants.API_MINIMUM_PAGE_SIZE, null, null, null))
-                .thenReturn(accountSummaries);
+        when(accountDao.getStudyAccountCount(STUDY)).thenReturn(13);
         
         participantService.createParticipant(STUDY,  CALLER_ROLES, PARTICIPANT, false);
     }
@@ -0,0 +1,125 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.accounts.PasswordAlgorithm;
+
+public class PasswordHashServiceTest {
+    private static final String PASSWORD = "Aa!Aa!Aa!Aa!1";
+
+    // Stormpath HMAC is the cheapest algorithm, which keeps these tests fast.
+    private static final PasswordAlgorithm ALGORITHM = PasswordAlgorithm.STORMPATH_HMAC_SHA_256;
+
+    private ThreadPoolExecutor executor;
+    private CountDownLatch releaseLatch;
+    private PasswordHashService service;
+
+    @Before
+    public void before() {
+        // One thread, with room for one hash in the queue.
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        releaseLatch = new CountDownLatch(1);
+        service = makeService(1000);
+    }
+
+    @After
+    public void after() {
+        releaseLatch.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void generateAndCheckHash() throws Exception {
+        String hash = service.generateHash(ALGORITHM, PASSWORD);
+        assertTrue(service.checkHash(ALGORITHM, hash, PASSWORD));
+        assertFalse(service.checkHash(ALGORITHM, hash, "wrong password"));
+    }
+
+    @Test
+    public void fullQueueFailsFast() throws Exception {
+        // Occupy the thread and the queue.
+        blockThread();
+        executor.execute(() -> {});
+
+        try {
+            service.generateHash(ALGORITHM, PASSWORD);
+            fail("expected exception");
+        } catch (ServiceUnavailableException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+
+        Map<String, Long> metricsMap = service.getMetrics();
+        assertEquals(1L, metricsMap.get("rejected").longValue());
+        assertEquals(1L, metricsMap.get("active").longValue());
+        assertEquals(1L, metricsMap.get("queued").longValue());
+    }
+
+    @Test
+    public void longWaitFailsFast() throws Exception {
+        service = makeService(10);
+
+        // Occupy the thread, so the hash waits in the queue.
+        blockThread();
+
+        try {
+            service.checkHash(ALGORITHM, "$stormpath1$c2FsdA==$aGFzaA==", PASSWORD);
+            fail("expected exception");
+        } catch (ServiceUnavailableException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+        assertEquals(1L, service.getMetrics().get("timedOut").longValue());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void hashExceptionIsRethrown() throws Exception {
+        service.checkHash(PasswordAlgorithm.PBKDF2_HMAC_SHA_256, "not-a-number$c2FsdA==$aGFzaA==", PASSWORD);
+    }
+
+    @Test
+    public void logMetrics() {
+        // Doesn't throw.
+        service.logMetrics();
+    }
+
+    private PasswordHashService makeService(int maxWaitMillis) {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(PasswordHashService.CONFIG_KEY_MAX_WAIT_MILLIS)).thenReturn(maxWaitMillis);
+        when(mockConfig.getPropertyAsInt(PasswordHashService.CONFIG_KEY_METRICS_INTERVAL_SECONDS)).thenReturn(60);
+
+        PasswordHashService passwordHashService = new PasswordHashService();
+        passwordHashService.setConfig(mockConfig);
+        passwordHashService.setPasswordHashExecutor(executor);
+        return passwordHashService;
+    }
+
+    // Runs a task that holds the pool's only thread until the test releases it, and waits for it to start.
+    private void blockThread() throws InterruptedException {
+        CountDownLatch startedLatch = new CountDownLatch(1);
+        executor.execute(() -> {
+            startedLatch.countDown();
+            try {
+                releaseLatch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(startedLatch.await(1, TimeUnit.SECONDS));
+    }
+}
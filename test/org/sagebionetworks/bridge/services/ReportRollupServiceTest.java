@@ -0,0 +1,267 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.ReportDataDao;
+import org.sagebionetworks.bridge.dao.ReportRollupDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
+import org.sagebionetworks.bridge.models.reports.ReportType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportRollupServiceTest {
+
+    private static final ReportDataKey KEY = new ReportDataKey.Builder().withReportType(ReportType.STUDY)
+            .withStudyIdentifier(TEST_STUDY).withIdentifier("foo").build();
+
+    // Wednesday. Its week is 2015-02-09 to 2015-02-15, and its month is February.
+    private static final LocalDate DATE = LocalDate.parse("2015-02-11");
+    private static final LocalDate WEEK_START = LocalDate.parse("2015-02-09");
+    private static final LocalDate WEEK_END = LocalDate.parse("2015-02-15");
+    private static final LocalDate MONTH_START = LocalDate.parse("2015-02-01");
+    private static final LocalDate MONTH_END = LocalDate.parse("2015-02-28");
+
+    @Mock
+    ReportDataDao mockReportDataDao;
+
+    @Mock
+    ReportRollupDao mockReportRollupDao;
+
+    @Mock
+    ScheduledExecutorService mockScheduledExecutorService;
+
+    @Captor
+    ArgumentCaptor<ReportRollup> rollupCaptor;
+
+    @Captor
+    ArgumentCaptor<Runnable> runnableCaptor;
+
+    ReportRollupService service;
+
+    @Before
+    public void before() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(ReportRollupService.CONFIG_KEY_DELAY_MILLIS)).thenReturn(5000);
+
+        service = new ReportRollupService();
+        service.setConfig(mockConfig);
+        service.setReportDataDao(mockReportDataDao);
+        service.setReportRollupDao(mockReportRollupDao);
+        service.setScheduledExecutorService(mockScheduledExecutorService);
+    }
+
+    @Test
+    public void aggregate() {
+        List<ReportData> reportDataList = ImmutableList.of(
+                createReport(DATE, JsonNodeFactory.instance.objectNode().put("steps", 100).put("minutes", 1.5)
+                        .put("mood", "good")),
+                createReport(DATE.plusDays(1), JsonNodeFactory.instance.objectNode().put("steps", 300)),
+                createReport(DATE.plusDays(2), JsonNodeFactory.instance.arrayNode().add(5)));
+
+        ObjectNode rollupData = ReportRollupService.aggregate(reportDataList);
+
+        JsonNode steps = rollupData.get("steps");
+        assertEquals(2, steps.get(ReportRollupService.COUNT).intValue());
+        assertEquals(400.0, steps.get(ReportRollupService.SUM).doubleValue(), 0.0);
+        assertEquals(100.0, steps.get(ReportRollupService.MIN).doubleValue(), 0.0);
+        assertEquals(300.0, steps.get(ReportRollupService.MAX).doubleValue(), 0.0);
+        assertEquals(200.0, steps.get(ReportRollupService.AVERAGE).doubleValue(), 0.0);
+
+        JsonNode minutes = rollupData.get("minutes");
+        assertEquals(1, minutes.get(ReportRollupService.COUNT).intValue());
+        assertEquals(1.5, minutes.get(ReportRollupService.AVERAGE).doubleValue(), 0.0);
+
+        // Non-numeric fields, and data that isn't an object, are skipped.
+        assertFalse(rollupData.has("mood"));
+        assertEquals(2, rollupData.size());
+    }
+
+    @Test
+    public void updateRollupsRecomputesWeekAndMonth() {
+        List<ReportData> weekData = ImmutableList.of(createReport(DATE, JsonNodeFactory.instance.objectNode()
+                .put("steps", 100)));
+        List<ReportData> monthData = ImmutableList.of(createReport(LocalDate.parse("2015-02-02"),
+                JsonNodeFactory.instance.objectNode().put("steps", 50)), weekData.get(0));
+        doReturn(new DateRangeResourceList<>(weekData, WEEK_START, WEEK_END)).when(mockReportDataDao)
+                .getReportData(KEY, WEEK_START, WEEK_END);
+        doReturn(new DateRangeResourceList<>(monthData, MONTH_START, MONTH_END)).when(mockReportDataDao)
+                .getReportData(KEY, MONTH_START, MONTH_END);
+
+        // Two dates in the same week and month only recompute each bucket once.
+        service.updateRollups(KEY, ImmutableList.of(DATE, DATE.plusDays(1)));
+        runScheduledUpdates(2);
+
+        verify(mockReportRollupDao).saveRollup(eq(KEY), eq(ReportRollupPeriod.WEEK), rollupCaptor.capture());
+        ReportRollup weekRollup = rollupCaptor.getValue();
+        assertEquals(WEEK_START, weekRollup.getStartDate());
+        assertEquals(WEEK_END, weekRollup.getEndDate());
+        assertEquals(1, weekRollup.getDayCount());
+        assertEquals(100.0, weekRollup.getData().get("steps").get(ReportRollupService.SUM).doubleValue(), 0.0);
+
+        verify(mockReportRollupDao).saveRollup(eq(KEY), eq(ReportRollupPeriod.MONTH), rollupCaptor.capture());
+        ReportRollup monthRollup = rollupCaptor.getValue();
+        assertEquals(MONTH_START, monthRollup.getStartDate());
+        assertEquals(MONTH_END, monthRollup.getEndDate());
+        assertEquals(2, monthRollup.getDayCount());
+        assertEquals(150.0, monthRollup.getData().get("steps").get(ReportRollupService.SUM).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void updateRollupsDoesNotRecomputeRightAway() {
+        service.updateRollups(KEY, ImmutableList.of(DATE));
+
+        verify(mockScheduledExecutorService, times(2)).schedule(any(Runnable.class), eq(5000L),
+                eq(TimeUnit.MILLISECONDS));
+        verifyZeroInteractions(mockReportDataDao, mockReportRollupDao);
+    }
+
+    @Test
+    public void pendingBucketIsOnlyScheduledOnce() {
+        service.updateRollups(KEY, ImmutableList.of(DATE));
+        service.updateRollups(KEY, ImmutableList.of(DATE.plusDays(1)));
+        verify(mockScheduledExecutorService, times(2)).schedule(runnableCaptor.capture(), anyLong(), any());
+
+        // Once the update starts, a new write schedules another one.
+        doReturn(new DateRangeResourceList<>(Lists.newArrayList(), WEEK_START, WEEK_END)).when(mockReportDataDao)
+                .getReportData(any(), any(), any());
+        runnableCaptor.getAllValues().get(0).run();
+        service.updateRollups(KEY, ImmutableList.of(DATE));
+        verify(mockScheduledExecutorService, times(3)).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    public void updateRollupsKeepsVersion() {
+        ReportRollup oldRollup = ReportRollup.create();
+        oldRollup.setVersion(3L);
+        doReturn(oldRollup).when(mockReportRollupDao).getRollup(KEY, ReportRollupPeriod.WEEK, WEEK_START);
+        doReturn(new DateRangeResourceList<>(ImmutableList.of(createReport(DATE, JsonNodeFactory.instance
+                .objectNode().put("steps", 100))), WEEK_START, WEEK_END)).when(mockReportDataDao)
+                .getReportData(KEY, WEEK_START, WEEK_END);
+
+        service.updateRollup(KEY, ReportRollupPeriod.WEEK, WEEK_START);
+
+        verify(mockReportRollupDao).saveRollup(eq(KEY), eq(ReportRollupPeriod.WEEK), rollupCaptor.capture());
+        assertEquals(3L, rollupCaptor.getValue().getVersion().longValue());
+    }
+
+    @Test
+    public void updateRollupsConflictRecomputesAgain() {
+        doReturn(new DateRangeResourceList<>(ImmutableList.of(createReport(DATE, JsonNodeFactory.instance
+                .objectNode().put("steps", 100))), WEEK_START, WEEK_END)).when(mockReportDataDao)
+                .getReportData(KEY, WEEK_START, WEEK_END);
+        doThrow(new ConcurrentModificationException("test exception")).when(mockReportRollupDao).saveRollup(
+                eq(KEY), eq(ReportRollupPeriod.WEEK), any());
+
+        service.updateRollup(KEY, ReportRollupPeriod.WEEK, WEEK_START);
+
+        verify(mockScheduledExecutorService).schedule(any(Runnable.class), eq(5000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void updateRollupsDeletesEmptyBuckets() {
+        ReportRollup oldWeekRollup = ReportRollup.create();
+        doReturn(oldWeekRollup).when(mockReportRollupDao).getRollup(KEY, ReportRollupPeriod.WEEK, WEEK_START);
+        doReturn(new DateRangeResourceList<>(Lists.newArrayList(), WEEK_START, WEEK_END)).when(mockReportDataDao)
+                .getReportData(any(), any(), any());
+
+        service.updateRollups(KEY, ImmutableList.of(DATE));
+        runScheduledUpdates(2);
+
+        // There's no monthly rollup, so there's nothing to delete.
+        verify(mockReportRollupDao).deleteRollup(KEY, ReportRollupPeriod.WEEK, oldWeekRollup);
+        verify(mockReportRollupDao, times(1)).deleteRollup(any(), any(), any());
+        verify(mockReportRollupDao, never()).saveRollup(any(), any(), any());
+    }
+
+    @Test
+    public void updateRollupsErrorIsNotThrown() {
+        ReportRollup oldMonthRollup = ReportRollup.create();
+        doReturn(oldMonthRollup).when(mockReportRollupDao).getRollup(KEY, ReportRollupPeriod.MONTH, MONTH_START);
+        doThrow(new RuntimeException("test exception")).when(mockReportDataDao).getReportData(KEY, WEEK_START,
+                WEEK_END);
+        doReturn(new DateRangeResourceList<>(Lists.newArrayList(), MONTH_START, MONTH_END)).when(mockReportDataDao)
+                .getReportData(KEY, MONTH_START, MONTH_END);
+
+        service.updateRollups(KEY, ImmutableList.of(DATE));
+        runScheduledUpdates(2);
+
+        // The monthly rollup is still updated.
+        verify(mockReportRollupDao).deleteRollup(KEY, ReportRollupPeriod.MONTH, oldMonthRollup);
+    }
+
+    @Test
+    public void getRollupsIncludesBucketContainingStartDate() {
+        DateRangeResourceList<ReportRollup> rollups = new DateRangeResourceList<>(Lists.newArrayList(),
+                WEEK_START, MONTH_END);
+        doReturn(rollups).when(mockReportRollupDao).getRollups(KEY, ReportRollupPeriod.WEEK, WEEK_START, MONTH_END);
+
+        DateRangeResourceList<? extends ReportRollup> retrieved = service.getRollups(KEY, ReportRollupPeriod.WEEK,
+                DATE, MONTH_END);
+
+        verify(mockReportRollupDao).getRollups(KEY, ReportRollupPeriod.WEEK, WEEK_START, MONTH_END);
+        // The requested range is echoed back.
+        assertEquals(DATE, retrieved.getStartDate());
+        assertEquals(MONTH_END, retrieved.getEndDate());
+    }
+
+    @Test
+    public void deleteRollups() {
+        service.deleteRollups(KEY);
+
+        verify(mockReportRollupDao).deleteRollups(KEY);
+    }
+
+    // Runs the updates updateRollups scheduled, which should be the given number of them.
+    private void runScheduledUpdates(int expectedCount) {
+        verify(mockScheduledExecutorService, times(expectedCount)).schedule(runnableCaptor.capture(), anyLong(),
+                any());
+        for (Runnable oneRunnable : runnableCaptor.getAllValues()) {
+            oneRunnable.run();
+        }
+    }
+
+    private static ReportData createReport(LocalDate date, JsonNode data) {
+        ReportData report = ReportData.create();
+        report.setKey(KEY.getKeyString());
+        report.setDate(date);
+        report.setData(data);
+        return report;
+    }
+}
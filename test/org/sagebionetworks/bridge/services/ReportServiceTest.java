@@ -4,11 +4,16 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -23,19 +28,28 @@ import org.mockito.Mock;
 
 import org.mockito.runners.MockitoJUnitRunner;
 
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataItem;
+import org.sagebionetworks.bridge.models.reports.BulkReportDataResult;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
+import org.sagebionetworks.bridge.models.reports.ReportDataSummary;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
+import org.sagebionetworks.bridge.models.reports.ReportRollup;
+import org.sagebionetworks.bridge.models.reports.ReportRollupPeriod;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -66,6 +80,9 @@ public class ReportServiceTest {
     @Mock
     ReportIndexDao mockReportIndexDao;
     
+    @Mock
+    ReportRollupService mockReportRollupService;
+    
     @Captor
     ArgumentCaptor<ReportData> reportDataCaptor;
     
@@ -75,6 +92,12 @@ public class ReportServiceTest {
     @Captor
     ArgumentCaptor<ReportDataKey> reportDataKeyCaptor;
     
+    @Captor
+    ArgumentCaptor<List<ReportData>> reportDataListCaptor;
+    
+    @Captor
+    ArgumentCaptor<Collection<ReportDataKey>> reportDataKeySetCaptor;
+    
     ReportService service;
     
     DateRangeResourceList<? extends ReportData> results;
@@ -86,6 +109,7 @@ public class ReportServiceTest {
         service = new ReportService();
         service.setReportDataDao(mockReportDataDao);
         service.setReportIndexDao(mockReportIndexDao);
+        service.setReportRollupService(mockReportRollupService);
 
         List<ReportData> list = Lists.newArrayList();
         list.add(createReport(LocalDate.parse("2015-02-10"), "First", "Name"));
@@ -192,6 +216,82 @@ public class ReportServiceTest {
         }
     }
     
+    @Test
+    public void getStudyReportDataV4() {
+        ForwardCursorPagedResourceList<ReportData> page = makePage("nextPageKey");
+        // Paged reads aren't limited to the 45 day window.
+        LocalDate startDate = LocalDate.parse("2014-01-01");
+        doReturn(page).when(mockReportDataDao).getReportDataV4(STUDY_REPORT_DATA_KEY, startDate, END_DATE, 20,
+                "offsetKey");
+
+        ForwardCursorPagedResourceList<ReportData> retrieved = service.getStudyReportV4(TEST_STUDY, IDENTIFIER,
+                startDate, END_DATE, 20, "offsetKey");
+
+        verify(mockReportDataDao).getReportDataV4(STUDY_REPORT_DATA_KEY, startDate, END_DATE, 20, "offsetKey");
+        assertEquals(page, retrieved);
+    }
+
+    @Test
+    public void getParticipantReportDataV4DefaultPageSize() {
+        ForwardCursorPagedResourceList<ReportData> page = makePage(null);
+        doReturn(page).when(mockReportDataDao).getReportDataV4(PARTICIPANT_REPORT_DATA_KEY, START_DATE, END_DATE,
+                BridgeConstants.API_DEFAULT_PAGE_SIZE, null);
+
+        ForwardCursorPagedResourceList<ReportData> retrieved = service.getParticipantReportV4(TEST_STUDY,
+                IDENTIFIER, HEALTH_CODE, START_DATE, END_DATE, null, null);
+
+        verify(mockReportDataDao).getReportDataV4(PARTICIPANT_REPORT_DATA_KEY, START_DATE, END_DATE,
+                BridgeConstants.API_DEFAULT_PAGE_SIZE, null);
+        assertEquals(page, retrieved);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportDataV4StartDateAfterEndDate() {
+        service.getStudyReportV4(TEST_STUDY, IDENTIFIER, END_DATE, START_DATE, null, null);
+    }
+
+    @Test
+    public void getStudyReportSummariesV4() {
+        ForwardCursorPagedResourceList<ReportDataSummary> summaryPage = makeSummaryPage();
+        doReturn(summaryPage).when(mockReportDataDao).getReportDataSummariesV4(STUDY_REPORT_DATA_KEY, START_DATE,
+                END_DATE, 20, "offsetKey");
+
+        ForwardCursorPagedResourceList<ReportDataSummary> retrieved = service.getStudyReportSummariesV4(TEST_STUDY,
+                IDENTIFIER, START_DATE, END_DATE, 20, "offsetKey");
+        assertEquals(summaryPage, retrieved);
+        verify(mockReportDataDao, never()).getReportDataV4(any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    public void getParticipantReportSummariesV4DefaultPageSize() {
+        ForwardCursorPagedResourceList<ReportDataSummary> summaryPage = makeSummaryPage();
+        doReturn(summaryPage).when(mockReportDataDao).getReportDataSummariesV4(PARTICIPANT_REPORT_DATA_KEY,
+                START_DATE, END_DATE, BridgeConstants.API_DEFAULT_PAGE_SIZE, null);
+
+        ForwardCursorPagedResourceList<ReportDataSummary> retrieved = service.getParticipantReportSummariesV4(
+                TEST_STUDY, IDENTIFIER, HEALTH_CODE, START_DATE, END_DATE, null, null);
+        assertEquals(summaryPage, retrieved);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportSummariesV4StartDateAfterEndDate() {
+        service.getStudyReportSummariesV4(TEST_STUDY, IDENTIFIER, END_DATE, START_DATE, null, null);
+    }
+
+    private static ForwardCursorPagedResourceList<ReportDataSummary> makeSummaryPage() {
+        List<ReportDataSummary> list = Lists.newArrayList(new ReportDataSummary(LocalDate.parse("2015-02-10"), 34),
+                new ReportDataSummary(LocalDate.parse("2015-02-12"), 33));
+        return new ForwardCursorPagedResourceList<>(list, "nextPageKey", 20);
+    }
+
+    private ForwardCursorPagedResourceList<ReportData> makePage(String offsetKey) {
+        List<ReportData> list = Lists.newArrayList();
+        list.add(createReport(LocalDate.parse("2015-02-10"), "First", "Name"));
+        list.add(createReport(LocalDate.parse("2015-02-12"), "Last", "Name"));
+        return new ForwardCursorPagedResourceList<>(list, offsetKey, 20).withFilter("startDate",
+                START_DATE.toString()).withFilter("endDate", END_DATE.toString());
+    }
+
     @Test
     public void saveStudyReportData() {
         ReportData someData = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
@@ -209,6 +309,8 @@ public class ReportServiceTest {
                 .withStudyIdentifier(TEST_STUDY)
                 .withReportType(ReportType.STUDY)
                 .withIdentifier(IDENTIFIER).build());
+        verify(mockReportRollupService).updateRollups(STUDY_REPORT_DATA_KEY,
+                ImmutableList.of(LocalDate.parse("2015-02-10")));
     }
     
     @Test
@@ -229,6 +331,132 @@ public class ReportServiceTest {
                 .withStudyIdentifier(TEST_STUDY)
                 .withReportType(ReportType.PARTICIPANT)
                 .withIdentifier(IDENTIFIER).build());
+        verify(mockReportRollupService).updateRollups(PARTICIPANT_REPORT_DATA_KEY,
+                ImmutableList.of(LocalDate.parse("2015-02-10")));
+    }
+    
+    @Test
+    public void saveStudyReports() {
+        ObjectNode data = JsonNodeFactory.instance.objectNode().put("field1", "value");
+        List<BulkReportDataItem> items = Lists.newArrayList(
+                new BulkReportDataItem(IDENTIFIER, null, LocalDate.parse("2015-02-10"), data),
+                new BulkReportDataItem(IDENTIFIER, null, LocalDate.parse("2015-02-11"), data),
+                // invalid, no identifier
+                new BulkReportDataItem(null, null, LocalDate.parse("2015-02-10"), data),
+                // duplicate of the first item
+                new BulkReportDataItem(IDENTIFIER, null, LocalDate.parse("2015-02-10"), data),
+                // different report, which the DAO fails to write
+                new BulkReportDataItem("OtherReport", null, LocalDate.parse("2015-02-10"), data));
+
+        // The DAO fails whatever was last in the batch.
+        doAnswer(invocation -> {
+            List<ReportData> reportDataList = invocation.getArgumentAt(0, List.class);
+            return Lists.newArrayList(reportDataList.get(reportDataList.size() - 1));
+        }).when(mockReportDataDao).saveReportDataBatch(any());
+
+        List<BulkReportDataResult> results = service.saveStudyReports(TEST_STUDY, items);
+        assertEquals(5, results.size());
+        assertTrue(results.get(0).isSaved());
+        assertTrue(results.get(1).isSaved());
+        assertFalse(results.get(2).isSaved());
+        assertTrue(results.get(2).getMessage().contains("identifier"));
+        assertFalse(results.get(3).isSaved());
+        assertTrue(results.get(3).getMessage().contains("more than once"));
+        assertFalse(results.get(4).isSaved());
+        assertEquals("OtherReport", results.get(4).getIdentifier());
+
+        // Three valid, distinct rows are written in one batch.
+        verify(mockReportDataDao).saveReportDataBatch(reportDataListCaptor.capture());
+        List<ReportData> reportDataList = reportDataListCaptor.getValue();
+        assertEquals(3, reportDataList.size());
+        assertEquals(STUDY_REPORT_DATA_KEY.getKeyString(), reportDataList.get(0).getKey());
+        assertEquals(LocalDate.parse("2015-02-10"), reportDataList.get(0).getDate());
+        assertEquals("value", reportDataList.get(0).getData().get("field1").textValue());
+
+        // Only the report that was written to is indexed, once.
+        verify(mockReportIndexDao).addIndices(reportDataKeySetCaptor.capture());
+        assertEquals(ImmutableSet.of(STUDY_REPORT_DATA_KEY), ImmutableSet.copyOf(
+                reportDataKeySetCaptor.getValue()));
+        
+        // Rollups are updated once for the report, with both dates.
+        verify(mockReportRollupService).updateRollups(STUDY_REPORT_DATA_KEY, ImmutableSet.of(
+                LocalDate.parse("2015-02-10"), LocalDate.parse("2015-02-11")));
+        verifyNoMoreInteractions(mockReportRollupService);
+    }
+
+    @Test
+    public void saveParticipantReportsRequiresHealthCode() {
+        ObjectNode data = JsonNodeFactory.instance.objectNode().put("field1", "value");
+        List<BulkReportDataItem> items = Lists.newArrayList(
+                new BulkReportDataItem(IDENTIFIER, HEALTH_CODE, LocalDate.parse("2015-02-10"), data),
+                new BulkReportDataItem(IDENTIFIER, null, LocalDate.parse("2015-02-10"), data));
+        doReturn(Lists.newArrayList()).when(mockReportDataDao).saveReportDataBatch(any());
+
+        List<BulkReportDataResult> results = service.saveParticipantReports(TEST_STUDY, items);
+        assertTrue(results.get(0).isSaved());
+        assertFalse(results.get(1).isSaved());
+        assertTrue(results.get(1).getMessage().contains("healthCode"));
+
+        verify(mockReportDataDao).saveReportDataBatch(reportDataListCaptor.capture());
+        assertEquals(1, reportDataListCaptor.getValue().size());
+        assertEquals(PARTICIPANT_REPORT_DATA_KEY.getKeyString(), reportDataListCaptor.getValue().get(0).getKey());
+        verify(mockReportIndexDao).addIndices(reportDataKeySetCaptor.capture());
+        assertEquals(ImmutableSet.of(PARTICIPANT_REPORT_DATA_KEY), ImmutableSet.copyOf(
+                reportDataKeySetCaptor.getValue()));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void saveStudyReportsEmpty() {
+        service.saveStudyReports(TEST_STUDY, Lists.newArrayList());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void saveStudyReportsTooMany() {
+        List<BulkReportDataItem> items = Lists.newArrayList();
+        for (int i = 0; i <= ReportService.MAX_BULK_REPORT_DATA; i++) {
+            items.add(new BulkReportDataItem(IDENTIFIER, null, LocalDate.parse("2015-02-10").plusDays(i), null));
+        }
+        service.saveStudyReports(TEST_STUDY, items);
+    }
+    
+    @Test
+    public void getStudyReportRollups() {
+        LocalDate startDate = LocalDate.parse("2015-01-01");
+        LocalDate endDate = LocalDate.parse("2015-06-30");
+        DateRangeResourceList<ReportRollup> rollups = new DateRangeResourceList<>(Lists.newArrayList(), startDate,
+                endDate);
+        doReturn(rollups).when(mockReportRollupService).getRollups(STUDY_REPORT_DATA_KEY, ReportRollupPeriod.MONTH,
+                startDate, endDate);
+        
+        DateRangeResourceList<? extends ReportRollup> retrieved = service.getStudyReportRollups(TEST_STUDY,
+                IDENTIFIER, ReportRollupPeriod.MONTH, startDate, endDate);
+        assertEquals(rollups, retrieved);
+    }
+    
+    @Test
+    public void getParticipantReportRollupsDefaultsToLastYear() {
+        DateTimeUtils.setCurrentMillisFixed(DateTime.parse("2016-02-08T09:00-0800").getMillis());
+        try {
+            service.getParticipantReportRollups(TEST_STUDY, IDENTIFIER, HEALTH_CODE, ReportRollupPeriod.WEEK, null,
+                    null);
+            
+            verify(mockReportRollupService).getRollups(PARTICIPANT_REPORT_DATA_KEY, ReportRollupPeriod.WEEK,
+                    LocalDate.parse("2015-02-08"), LocalDate.parse("2016-02-08"));
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportRollupsRangeTooLarge() {
+        service.getStudyReportRollups(TEST_STUDY, IDENTIFIER, ReportRollupPeriod.WEEK, LocalDate.parse("2013-01-01"),
+                LocalDate.parse("2015-06-30"));
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void getStudyReportRollupsStartAfterEnd() {
+        service.getStudyReportRollups(TEST_STUDY, IDENTIFIER, ReportRollupPeriod.WEEK, LocalDate.parse("2015-06-30"),
+                LocalDate.parse("2015-01-01"));
     }
     
     @Test
@@ -237,6 +465,7 @@ public class ReportServiceTest {
         
         verify(mockReportDataDao).deleteReportData(STUDY_REPORT_DATA_KEY);
         verify(mockReportIndexDao).removeIndex(STUDY_REPORT_DATA_KEY);
+        verify(mockReportRollupService).deleteRollups(STUDY_REPORT_DATA_KEY);
     }
     
     @Test
@@ -244,6 +473,7 @@ public class ReportServiceTest {
         service.deleteParticipantReport(TEST_STUDY, IDENTIFIER, HEALTH_CODE);
         
         verify(mockReportDataDao).deleteReportData(PARTICIPANT_REPORT_DATA_KEY);
+        verify(mockReportRollupService).deleteRollups(PARTICIPANT_REPORT_DATA_KEY);
         verifyNoMoreInteractions(mockReportIndexDao);
     }
     
@@ -292,6 +522,7 @@ public class ReportServiceTest {
             verify(mockReportDataDao).deleteReportDataRecord(STUDY_REPORT_DATA_KEY, DATE);
             verify(mockReportDataDao).getReportData(STUDY_REPORT_DATA_KEY, startDate, endDate);
             verify(mockReportIndexDao).removeIndex(STUDY_REPORT_DATA_KEY);
+            verify(mockReportRollupService).updateRollups(STUDY_REPORT_DATA_KEY, ImmutableList.of(DATE));
         } finally {
             DateTimeUtils.setCurrentMillisSystem();
         }
@@ -308,6 +539,7 @@ public class ReportServiceTest {
             service.deleteParticipantReportRecord(TEST_STUDY, IDENTIFIER, DATE, HEALTH_CODE);
 
             verify(mockReportDataDao).deleteReportDataRecord(PARTICIPANT_REPORT_DATA_KEY, DATE);
+            verify(mockReportRollupService).updateRollups(PARTICIPANT_REPORT_DATA_KEY, ImmutableList.of(DATE));
         } finally {
             DateTimeUtils.setCurrentMillisSystem();
         }
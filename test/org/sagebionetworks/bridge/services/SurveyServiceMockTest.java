@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -11,6 +12,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
@@ -46,7 +48,10 @@ import org.sagebionetworks.bridge.models.schedules.Schedule;
 import org.sagebionetworks.bridge.models.schedules.SchedulePlan;
 import org.sagebionetworks.bridge.models.schedules.SimpleScheduleStrategy;
 import org.sagebionetworks.bridge.models.schedules.SurveyReference;
+import org.sagebionetworks.bridge.models.surveys.MultiValueConstraints;
 import org.sagebionetworks.bridge.models.surveys.Survey;
+import org.sagebionetworks.bridge.models.surveys.SurveyQuestion;
+import org.sagebionetworks.bridge.models.surveys.TestSurvey;
 import org.sagebionetworks.bridge.validators.SurveyPublishValidator;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -316,10 +321,89 @@ public class SurveyServiceMockTest {
         service.deleteSurveyPermanently(TEST_STUDY, survey);
     }    
     
+    @Test
+    public void getPublishedSurveyIsCached() {
+        Survey survey = createSurvey();
+        survey.setPublished(true);
+        survey.setName("Survey Name");
+        doReturn(survey).when(mockSurveyDao).getSurvey(any());
+
+        // First call goes to the DAO. Modifying the result doesn't affect the cache.
+        Survey firstSurvey = service.getSurvey(survey);
+        assertSame(survey, firstSurvey);
+        firstSurvey.setName("modified name");
+
+        // Subsequent calls come from the cache, and each caller gets its own copy.
+        Survey secondSurvey = service.getSurvey(survey);
+        Survey thirdSurvey = service.getSurvey(survey);
+        assertNotSame(secondSurvey, thirdSurvey);
+        assertEquals("Survey Name", secondSurvey.getName());
+        assertEquals(SURVEY_GUID, secondSurvey.getGuid());
+        assertEquals(SURVEY_CREATED_ON.getMillis(), secondSurvey.getCreatedOn());
+        assertTrue(secondSurvey.isPublished());
+
+        verify(mockSurveyDao, times(1)).getSurvey(any());
+    }
+
+    @Test
+    public void cachedSurveyElementsAreNotShared() {
+        TestSurvey survey = new TestSurvey(SurveyServiceMockTest.class, false);
+        survey.setGuid(SURVEY_GUID);
+        survey.setCreatedOn(SURVEY_CREATED_ON.getMillis());
+        doReturn(survey).when(mockSurveyDao).getSurvey(any());
+        service.getSurvey(survey);
+
+        // Modify a question and its answer options in one copy.
+        SurveyQuestion firstQuestion = getQuestion(service.getSurvey(survey), "feeling");
+        firstQuestion.setPrompt("modified prompt");
+        ((MultiValueConstraints) firstQuestion.getConstraints()).getEnumeration().clear();
+
+        // The next copy is unchanged.
+        SurveyQuestion secondQuestion = getQuestion(service.getSurvey(survey), "feeling");
+        assertEquals("How do you feel today?", secondQuestion.getPrompt());
+        assertEquals(5, ((MultiValueConstraints) secondQuestion.getConstraints()).getEnumeration().size());
+    }
+
+    @Test
+    public void getUnpublishedSurveyIsNotCached() {
+        Survey survey = createSurvey();
+        doReturn(survey).when(mockSurveyDao).getSurvey(any());
+
+        service.getSurvey(survey);
+        service.getSurvey(survey);
+        verify(mockSurveyDao, times(2)).getSurvey(any());
+    }
+
+    @Test
+    public void deleteSurveyPermanentlyInvalidatesCache() {
+        doReturn(ImmutableList.of()).when(mockSchedulePlanService).getSchedulePlans(ClientInfo.UNKNOWN_CLIENT,
+                TEST_STUDY);
+
+        Survey survey = createSurvey();
+        survey.setPublished(true);
+        doReturn(survey).when(mockSurveyDao).getSurvey(any());
+
+        // Populate the cache, delete, then get again. The second get goes back to the DAO.
+        service.getSurvey(survey);
+        service.deleteSurveyPermanently(TEST_STUDY, survey);
+        service.getSurvey(survey);
+        verify(mockSurveyDao, times(2)).getSurvey(any());
+    }
+
     private List<Activity> getActivityList(List<SchedulePlan> plans) {
         return ((SimpleScheduleStrategy) plans.get(0).getStrategy()).getSchedule().getActivities();
     }
 
+    private static SurveyQuestion getQuestion(Survey survey, String identifier) {
+        for (SurveyQuestion question : survey.getUnmodifiableQuestionList()) {
+            if (question.getIdentifier().equals(identifier)) {
+                return question;
+            }
+        }
+        fail("no question " + identifier);
+        return null;
+    }
+
     private Survey createSurvey() {
         Survey survey = new DynamoSurvey();
         survey.setGuid(SURVEY_GUID);
@@ -94,6 +94,26 @@ public class UploadArchiveServiceTest {
         assertArrayEquals(inputMap.get("baz"), unzippedData.get("baz"));
     }
 
+    @Test
+    public void zipUnzipLazilyRoundTrip() {
+        Map<String, byte[]> inputMap = ImmutableMap.of(
+                "foo", "foo data".getBytes(Charsets.UTF_8),
+                "bar", "bar data".getBytes(Charsets.UTF_8));
+
+        Map<String, byte[]> unzippedData = archiveService.unzipLazily(archiveService.zip(inputMap));
+        assertEquals(2, unzippedData.size());
+        assertArrayEquals(inputMap.get("foo"), unzippedData.get("foo"));
+        assertArrayEquals(inputMap.get("bar"), unzippedData.get("bar"));
+    }
+
+    @Test
+    public void unzipLazilyGarbageFallsBackToSequentialUnzip() {
+        // Garbage has no central directory, so this falls back to unzip(), which returns an empty map for garbage.
+        Map<String, byte[]> unzippedData = archiveService.unzipLazily("This is not a zip file".getBytes(
+                Charsets.UTF_8));
+        assertTrue(unzippedData.isEmpty());
+    }
+
     // There was originally a test here for unzipping garbage data. However, it looks like Java
     // ZipInputStream.getNextEntry() will just return null if the stream contains garbage data.
 
@@ -115,5 +135,12 @@ public class UploadArchiveServiceTest {
             assertNotNull(oneData);
             assertTrue(oneData.length > 0);
         }
+
+        // unzip lazily, using the central directory
+        Map<String, byte[]> lazyUnzippedData = archiveService.unzipLazily(decryptedData);
+        assertEquals(unzippedData.keySet(), lazyUnzippedData.keySet());
+        for (Map.Entry<String, byte[]> oneData : unzippedData.entrySet()) {
+            assertArrayEquals(oneData.getValue(), lazyUnzippedData.get(oneData.getKey()));
+        }
     }
 }
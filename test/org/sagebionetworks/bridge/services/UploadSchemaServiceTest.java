@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -12,6 +13,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.services.SharedModuleMetadataServiceTest.makeValidMetadata;
@@ -36,6 +38,7 @@ import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
 import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.models.upload.UploadSchemaType;
+import org.sagebionetworks.bridge.upload.CompiledSchemaValidator;
 
 public class UploadSchemaServiceTest {
     private static final UploadFieldDefinition FIELD_DEF = new UploadFieldDefinition.Builder().withName("field")
@@ -491,6 +494,119 @@ public class UploadSchemaServiceTest {
         assertSame(daoOutputSchema, svcOutputSchema);
     }
 
+    @Test
+    public void getByIdAndRevCached() {
+        // mock dao
+        UploadSchema daoOutputSchema = makeSimpleSchema();
+        daoOutputSchema.setPublished(true);
+        daoOutputSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                daoOutputSchema);
+
+        // First call goes to the DAO. Modifying the result doesn't affect the cache.
+        UploadSchema firstSchema = svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        firstSchema.setName("modified name");
+
+        // Second call comes from the cache, and each caller gets its own copy.
+        UploadSchema secondSchema = svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        UploadSchema thirdSchema = svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        assertNotSame(secondSchema, thirdSchema);
+        assertEquals(SCHEMA_NAME, secondSchema.getName());
+        assertEquals(SCHEMA_ID, secondSchema.getSchemaId());
+        assertEquals(SCHEMA_REV, secondSchema.getRevision());
+        assertEquals(FIELD_DEF_LIST, secondSchema.getFieldDefinitions());
+        assertTrue(secondSchema.getPublished());
+
+        verify(dao, times(1)).getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+    }
+
+    @Test
+    public void getByIdAndRevCacheInvalidatedOnDelete() {
+        // mock dao
+        UploadSchema daoOutputSchema = makeSimpleSchema();
+        daoOutputSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                daoOutputSchema);
+
+        // Populate the cache, then delete.
+        svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        svc.deleteUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+
+        // Schema is gone from the DAO. Get should now throw.
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(null);
+        try {
+            svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+            fail("expected exception");
+        } catch (EntityNotFoundException ex) {
+            // expected exception
+        }
+    }
+
+    @Test
+    public void getByIdAndRevCacheInvalidatedOnUpdate() {
+        // mock dao
+        UploadSchema oldSchema = makeSimpleSchema();
+        oldSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                oldSchema);
+
+        UploadSchema updatedSchema = makeSimpleSchema();
+        updatedSchema.setName("updated name");
+        updatedSchema.setRevision(SCHEMA_REV);
+        when(dao.updateSchemaRevision(any())).thenReturn(updatedSchema);
+
+        // Populate the cache, then update.
+        svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        svc.updateSchemaRevisionV4(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV, makeSimpleSchema());
+
+        // Next get goes back to the DAO.
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                updatedSchema);
+        UploadSchema svcOutputSchema = svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        assertEquals("updated name", svcOutputSchema.getName());
+    }
+
+    @Test
+    public void getCompiledValidatorCached() {
+        // mock dao
+        UploadSchema daoOutputSchema = makeSimpleSchema();
+        daoOutputSchema.setPublished(true);
+        daoOutputSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                daoOutputSchema);
+
+        // Compiled validators are immutable, so every caller shares the same one.
+        CompiledSchemaValidator firstValidator = svc.getCompiledValidator(TestConstants.TEST_STUDY, SCHEMA_ID,
+                SCHEMA_REV);
+        CompiledSchemaValidator secondValidator = svc.getCompiledValidator(TestConstants.TEST_STUDY, SCHEMA_ID,
+                SCHEMA_REV);
+        assertSame(firstValidator, secondValidator);
+
+        verify(dao, times(1)).getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+    }
+
+    @Test
+    public void getCompiledValidatorInvalidatedOnDelete() {
+        // mock dao
+        UploadSchema daoOutputSchema = makeSimpleSchema();
+        daoOutputSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                daoOutputSchema);
+
+        // Populate the cache, then delete.
+        svc.getCompiledValidator(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        svc.deleteUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+
+        // Schema is gone from the DAO. Get should now throw.
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(null);
+        try {
+            svc.getCompiledValidator(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+            fail("expected exception");
+        } catch (EntityNotFoundException ex) {
+            // expected exception
+        }
+    }
+
     @Test(expected = BadRequestException.class)
     public void getLatestNullId() {
         svc.getLatestUploadSchemaRevisionForAppVersion(TestConstants.TEST_STUDY, null, ClientInfo.UNKNOWN_CLIENT);
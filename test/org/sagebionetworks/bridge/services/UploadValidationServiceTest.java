@@ -1,48 +1,280 @@
 package org.sagebionetworks.bridge.services;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dao.UploadValidationQueueDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadValidationWorkItem;
 import org.sagebionetworks.bridge.models.studies.Study;
-import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskQueue;
 
 public class UploadValidationServiceTest {
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(1800);
+    private static final String STUDY_ID = "test-study";
+    private static final String UPLOAD_ID = "test-upload";
+
+    private UploadValidationQueueDao mockQueueDao;
+    private ScheduledExecutorService mockRedriveExecutor;
+    private UploadValidationTask mockTask;
+    private UploadValidationTaskFactory mockTaskFactory;
+    private UploadValidationTaskQueue mockTaskQueue;
+    private UploadDao mockUploadDao;
+    private UploadValidationService svc;
+
+    @Before
+    public void setup() {
+        // mock config
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadValidationService.CONFIG_KEY_LEASE_SECONDS)).thenReturn(1800);
+        when(mockConfig.getPropertyAsInt(UploadValidationService.CONFIG_KEY_MAX_ATTEMPTS)).thenReturn(3);
+        when(mockConfig.getPropertyAsInt(UploadValidationService.CONFIG_KEY_REDRIVE_INTERVAL_SECONDS))
+                .thenReturn(60);
+
+        // mock dependencies
+        mockQueueDao = mock(UploadValidationQueueDao.class);
+        mockRedriveExecutor = mock(ScheduledExecutorService.class);
+        mockTask = mock(UploadValidationTask.class);
+        mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        mockTaskQueue = mock(UploadValidationTaskQueue.class);
+        mockUploadDao = mock(UploadDao.class);
+        when(mockTaskQueue.submit(anyString(), any(Runnable.class))).thenReturn(true);
+
+        // set up service
+        svc = new UploadValidationService();
+        svc.setConfig(mockConfig);
+        svc.setRedriveExecutorService(mockRedriveExecutor);
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setTaskQueue(mockTaskQueue);
+        svc.setUploadDao(mockUploadDao);
+        svc.setUploadValidationQueueDao(mockQueueDao);
+    }
+
     @Test
     public void test() {
-        // UploadValidationService is a simple call-through to the task factory and the async thread pool. As such, our
-        // test strategy is to verify that execution flows through to these dependencies.
+        // UploadValidationService enqueues the upload and submits it to the per-study task queue. When the task runs,
+        // it claims the work item and calls through to the task factory.
 
         // inputs
         Study study = TestUtils.getValidStudy(UploadValidationServiceTest.class);
-        Upload upload = new DynamoUpload2();
-
-        // mock task
-        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
 
-        // mock task factory
-        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
         when(mockTaskFactory.newTask(study, upload)).thenReturn(mockTask);
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(true);
 
-        // mock async thread pool
-        ExecutorService mockExecutor = mock(ExecutorService.class);
+        // execute
+        svc.validateUpload(study, upload);
 
-        // set up service
-        UploadValidationService svc = new UploadValidationService();
-        svc.setAsyncExecutorService(mockExecutor);
-        svc.setTaskFactory(mockTaskFactory);
+        // validate - Lease isn't claimed until the task comes off the queue.
+        verify(mockQueueDao).enqueue(study, UPLOAD_ID);
+        verify(mockQueueDao, never()).claimLease(anyString(), anyString(), anyLong());
+        verifyAndRunSubmittedRunnable(study.getIdentifier());
+        verify(mockTask).run();
+
+        // Completes the work item with the same worker ID it claimed the lease with.
+        ArgumentCaptor<String> workerIdCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockQueueDao).claimLease(eq(UPLOAD_ID), workerIdCaptor.capture(), eq(LEASE_MILLIS));
+        verify(mockQueueDao).completeWorkItem(UPLOAD_ID, workerIdCaptor.getValue());
+    }
+
+    @Test
+    public void leaseNotClaimed() {
+        Study study = TestUtils.getValidStudy(UploadValidationServiceTest.class);
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(false);
+
+        svc.validateUpload(study, upload);
+
+        verify(mockQueueDao).enqueue(study, UPLOAD_ID);
+        verifyAndRunSubmittedRunnable(study.getIdentifier());
+        verify(mockTaskFactory, never()).newTask(any(), any());
+        verify(mockQueueDao, never()).completeWorkItem(anyString(), anyString());
+    }
+
+    @Test
+    public void studyQueueFull() {
+        Study study = TestUtils.getValidStudy(UploadValidationServiceTest.class);
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+
+        when(mockTaskQueue.submit(anyString(), any(Runnable.class))).thenReturn(false);
+
+        // Work item is left in the durable queue, without a lease, so it's re-driven later.
+        svc.validateUpload(study, upload);
+        verify(mockQueueDao).enqueue(study, UPLOAD_ID);
+        verify(mockQueueDao, never()).claimLease(anyString(), anyString(), anyLong());
+
+        // Rejected work items aren't remembered as pending, so the redrive can submit them again.
+        mockStalledWorkItems(makeWorkItem(0));
+        svc.redriveStalledWorkItems();
+        verify(mockTaskQueue, times(2)).submit(eq(study.getIdentifier()), any(Runnable.class));
+    }
+
+    @Test
+    public void completesWorkItemEvenIfTaskThrows() {
+        Study study = TestUtils.getValidStudy(UploadValidationServiceTest.class);
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+
+        when(mockTaskFactory.newTask(study, upload)).thenReturn(mockTask);
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(true);
+        doThrow(new RuntimeException("test exception")).when(mockTask).run();
 
-        // execute
         svc.validateUpload(study, upload);
 
-        // validate
-        verify(mockExecutor).execute(mockTask);
+        try {
+            verifyAndRunSubmittedRunnable(study.getIdentifier());
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        verify(mockQueueDao).completeWorkItem(eq(UPLOAD_ID), anyString());
+    }
+
+    @Test
+    public void scheduleRedrive() {
+        svc.scheduleRedrive();
+        verify(mockRedriveExecutor).scheduleWithFixedDelay(any(Runnable.class), eq(60L), eq(60L),
+                eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void redriveStalledWorkItem() {
+        DynamoUploadValidationWorkItem workItem = makeWorkItem(1);
+        mockStalledWorkItems(workItem);
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(true);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+        upload.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        when(mockUploadDao.getUpload(UPLOAD_ID)).thenReturn(upload);
+
+        StudyIdentifier studyId = new StudyIdentifierImpl(STUDY_ID);
+        when(mockTaskFactory.newTask(studyId, upload)).thenReturn(mockTask);
+
+        svc.redriveStalledWorkItems();
+
+        verifyAndRunSubmittedRunnable(STUDY_ID);
+        verify(mockTask).run();
+        verify(mockQueueDao).completeWorkItem(eq(UPLOAD_ID), anyString());
+    }
+
+    @Test
+    public void redriveSkipsWorkItemClaimedByOtherNode() {
+        mockStalledWorkItems(makeWorkItem(1));
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(false);
+
+        svc.redriveStalledWorkItems();
+        verifyAndRunSubmittedRunnable(STUDY_ID);
+
+        verify(mockUploadDao, never()).getUpload(anyString());
+        verify(mockTaskFactory, never()).newTask(any(), any());
+    }
+
+    @Test
+    public void redriveSkipsWorkItemAlreadyQueuedOnThisNode() {
+        // Work item is still waiting in the task queue when the next redrive runs.
+        mockStalledWorkItems(makeWorkItem(0));
+        svc.redriveStalledWorkItems();
+        svc.redriveStalledWorkItems();
+        verify(mockTaskQueue, times(1)).submit(eq(STUDY_ID), any(Runnable.class));
+
+        // Once it's dequeued, it can be submitted again.
+        verifyAndRunSubmittedRunnable(STUDY_ID);
+        svc.redriveStalledWorkItems();
+        verify(mockTaskQueue, times(2)).submit(eq(STUDY_ID), any(Runnable.class));
+    }
+
+    @Test
+    public void redriveCleansUpAlreadyValidatedUpload() {
+        mockStalledWorkItems(makeWorkItem(1));
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(true);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+        upload.setStatus(UploadStatus.SUCCEEDED);
+        when(mockUploadDao.getUpload(UPLOAD_ID)).thenReturn(upload);
+
+        svc.redriveStalledWorkItems();
+        verifyAndRunSubmittedRunnable(STUDY_ID);
+
+        verify(mockQueueDao).completeWorkItem(eq(UPLOAD_ID), anyString());
+        verify(mockTaskFactory, never()).newTask(any(), any());
+    }
+
+    @Test
+    public void redriveGivesUpAfterMaxAttempts() {
+        mockStalledWorkItems(makeWorkItem(3));
+        when(mockQueueDao.claimLease(eq(UPLOAD_ID), anyString(), eq(LEASE_MILLIS))).thenReturn(true);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+        upload.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        when(mockUploadDao.getUpload(UPLOAD_ID)).thenReturn(upload);
+
+        svc.redriveStalledWorkItems();
+        verifyAndRunSubmittedRunnable(STUDY_ID);
+
+        verify(mockUploadDao).writeValidationStatus(eq(upload), eq(UploadStatus.VALIDATION_FAILED), any(List.class),
+                eq(null));
+        verify(mockQueueDao).completeWorkItem(eq(UPLOAD_ID), anyString());
+        verify(mockTaskFactory, never()).newTask(any(), any());
+    }
+
+    @Test
+    public void redriveSwallowsExceptions() {
+        when(mockQueueDao.getStalledWorkItems(anyLong(), eq(UploadValidationService.REDRIVE_BATCH_SIZE)))
+                .thenThrow(new RuntimeException("test exception"));
+
+        // Should not throw.
+        svc.redriveStalledWorkItems();
+    }
+
+    private static DynamoUploadValidationWorkItem makeWorkItem(int attemptCount) {
+        DynamoUploadValidationWorkItem workItem = new DynamoUploadValidationWorkItem();
+        workItem.setUploadId(UPLOAD_ID);
+        workItem.setStudyId(STUDY_ID);
+        workItem.setAttemptCount(attemptCount);
+        return workItem;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockStalledWorkItems(DynamoUploadValidationWorkItem... workItems) {
+        List workItemList = ImmutableList.copyOf(workItems);
+        when(mockQueueDao.getStalledWorkItems(LEASE_MILLIS, UploadValidationService.REDRIVE_BATCH_SIZE))
+                .thenReturn(workItemList);
+    }
+
+    private void verifyAndRunSubmittedRunnable(String studyId) {
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockTaskQueue).submit(eq(studyId), runnableCaptor.capture());
+        runnableCaptor.getValue().run();
     }
 }
@@ -1,17 +1,25 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyObject;
 import static org.mockito.Mockito.anySet;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
@@ -26,7 +34,12 @@ import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.CriteriaContext;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
@@ -34,12 +47,16 @@ import org.sagebionetworks.bridge.models.accounts.IdentifierHolder;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
 import org.sagebionetworks.bridge.models.accounts.SignIn;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserDataPurgeStatus;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UserAdminServiceMockTest {
@@ -83,11 +100,17 @@ public class UserAdminServiceMockTest {
     @Mock
     private ParticipantOptionsLookup lookup;
     
+    @Mock
+    private DistributedLockDao lockDao;
+    
     @Captor
     private ArgumentCaptor<CriteriaContext> contextCaptor;
     
     @Captor
     private ArgumentCaptor<SignIn> signInCaptor;
+    
+    @Captor
+    private ArgumentCaptor<String> statusJsonCaptor;
 
     private UserAdminService service;
     
@@ -108,6 +131,10 @@ public class UserAdminServiceMockTest {
         service.setActivityEventService(activityEventService);
         service.setParticipantOptionsService(participantOptionsService);
         service.setExternalIdService(externalIdService);
+        service.setDistributedLockDao(lockDao);
+        doReturn("lock").when(lockDao).acquireLock(eq(UserDataPurgeStatus.class), any(), anyInt());
+        // Run purge steps on the calling thread, so tests don't have to wait for them.
+        service.setPurgeExecutorService(MoreExecutors.newDirectExecutorService());
 
         // Make a user with multiple consent statuses, and just verify that we call the 
         // consent service that many times.
@@ -189,13 +216,210 @@ public class UserAdminServiceMockTest {
         // Verify a lot of stuff is deleted or removed
         verify(cacheProvider).removeSessionByUserId("userId");
         verify(cacheProvider).removeRequestInfo("userId");
-        verify(healthDataService).deleteRecordsForHealthCode("healthCode");
-        verify(uploadService).deleteUploadsForHealthCode("healthCode");
-        verify(scheduledActivityService).deleteActivitiesForUser("healthCode");
+        verify(healthDataService).deleteRecordsForHealthCode(eq("healthCode"), any());
+        verify(uploadService).deleteUploadsForHealthCode(eq("healthCode"), any());
+        verify(scheduledActivityService).deleteActivitiesForUser(eq("healthCode"), any());
         verify(activityEventService).deleteActivityEvents("healthCode");
         verify(externalIdService).unassignExternalId(study, "externalId", "healthCode");
         verify(participantOptionsService).deleteAllParticipantOptions("healthCode");
         verify(accountDao).deleteAccount(study, "userId");
     }
     
+    @Test
+    public void deleteUserAsync() throws Exception {
+        Study study = mockAccountToDelete();
+        
+        UserDataPurgeStatus status = service.deleteUserAsync(study, "userId");
+        assertEquals(UserDataPurgeStatus.State.IN_PROGRESS, status.getState());
+        
+        verify(cacheProvider).removeSessionByUserId("userId");
+        verify(healthDataService).deleteRecordsForHealthCode(eq("healthCode"), any());
+        verify(uploadService).deleteUploadsForHealthCode(eq("healthCode"), any());
+        verify(scheduledActivityService).deleteActivitiesForUser(eq("healthCode"), any());
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        verify(accountDao).deleteAccount(study, "userId");
+        
+        // Status is checkpointed after each step, and finally marked succeeded.
+        UserDataPurgeStatus finalStatus = getLastSavedStatus(study);
+        assertEquals(UserDataPurgeStatus.State.SUCCEEDED, finalStatus.getState());
+        assertEquals(EnumSet.allOf(UserDataPurgeStatus.Step.class), finalStatus.getCompletedSteps());
+        assertNull(finalStatus.getErrorMessage());
+    }
+    
+    @Test
+    public void deleteUserAsyncFailureKeepsAccount() throws Exception {
+        Study study = mockAccountToDelete();
+        doThrow(new RuntimeException("test exception")).when(scheduledActivityService)
+                .deleteActivitiesForUser(eq("healthCode"), any());
+        
+        service.deleteUserAsync(study, "userId");
+        
+        // Other tables are still purged, but the account isn't deleted, so the deletion can be retried.
+        verify(healthDataService).deleteRecordsForHealthCode(eq("healthCode"), any());
+        verify(uploadService).deleteUploadsForHealthCode(eq("healthCode"), any());
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        verify(accountDao, never()).deleteAccount(any(), any());
+        
+        UserDataPurgeStatus finalStatus = getLastSavedStatus(study);
+        assertEquals(UserDataPurgeStatus.State.FAILED, finalStatus.getState());
+        assertEquals("test exception", finalStatus.getErrorMessage());
+        assertEquals(EnumSet.of(UserDataPurgeStatus.Step.HEALTH_DATA, UserDataPurgeStatus.Step.UPLOADS,
+                UserDataPurgeStatus.Step.ACTIVITY_EVENTS), finalStatus.getCompletedSteps());
+    }
+    
+    @Test
+    public void deleteUserAsyncResumesFromCheckpoint() throws Exception {
+        Study study = mockAccountToDelete();
+        UserDataPurgeStatus failedStatus = new UserDataPurgeStatus("userId", UserDataPurgeStatus.State.FAILED,
+                ImmutableSet.of(UserDataPurgeStatus.Step.HEALTH_DATA, UserDataPurgeStatus.Step.UPLOADS), 1000L,
+                2000L, "test exception");
+        doReturn(BridgeObjectMapper.get().writeValueAsString(failedStatus)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(study, "userId"));
+        
+        UserDataPurgeStatus status = service.deleteUserAsync(study, "userId");
+        assertEquals(1000L, status.getStartedOn());
+        
+        // Completed steps aren't re-run.
+        verify(healthDataService, never()).deleteRecordsForHealthCode(any(), any());
+        verify(uploadService, never()).deleteUploadsForHealthCode(any(), any());
+        verify(scheduledActivityService).deleteActivitiesForUser(eq("healthCode"), any());
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        verify(accountDao).deleteAccount(study, "userId");
+        
+        assertEquals(UserDataPurgeStatus.State.SUCCEEDED, getLastSavedStatus(study).getState());
+    }
+    
+    @Test
+    public void deleteUserAsyncAlreadyInProgress() throws Exception {
+        Study study = mockAccountToDelete();
+        UserDataPurgeStatus inProgressStatus = new UserDataPurgeStatus("userId",
+                UserDataPurgeStatus.State.IN_PROGRESS, null, DateUtils.getCurrentMillisFromEpoch(),
+                DateUtils.getCurrentMillisFromEpoch(), null);
+        doReturn(BridgeObjectMapper.get().writeValueAsString(inProgressStatus)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(study, "userId"));
+        
+        UserDataPurgeStatus status = service.deleteUserAsync(study, "userId");
+        assertEquals(inProgressStatus, status);
+        
+        verify(healthDataService, never()).deleteRecordsForHealthCode(any(), any());
+        verify(accountDao, never()).deleteAccount(any(), any());
+    }
+    
+    @Test
+    public void deleteUserAsyncStaleInProgressIsRestarted() throws Exception {
+        Study study = mockAccountToDelete();
+        long staleOn = DateUtils.getCurrentMillisFromEpoch() - UserAdminService.PURGE_STALE_MILLIS - 1;
+        UserDataPurgeStatus staleStatus = new UserDataPurgeStatus("userId", UserDataPurgeStatus.State.IN_PROGRESS,
+                ImmutableSet.of(UserDataPurgeStatus.Step.HEALTH_DATA), 1000L, staleOn, null);
+        doReturn(BridgeObjectMapper.get().writeValueAsString(staleStatus)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(study, "userId"));
+        
+        service.deleteUserAsync(study, "userId");
+        
+        verify(healthDataService, never()).deleteRecordsForHealthCode(any(), any());
+        verify(accountDao).deleteAccount(study, "userId");
+        assertEquals(UserDataPurgeStatus.State.SUCCEEDED, getLastSavedStatus(study).getState());
+    }
+    
+    @Test
+    public void deleteUserAsyncCheckpointsEachPage() throws Exception {
+        Study study = mockAccountToDelete();
+        // Health data has two pages of records.
+        doAnswer(invocation -> {
+            Runnable onPageDeleted = invocation.getArgumentAt(1, Runnable.class);
+            onPageDeleted.run();
+            onPageDeleted.run();
+            return 200;
+        }).when(healthDataService).deleteRecordsForHealthCode(eq("healthCode"), any());
+        
+        service.deleteUserAsync(study, "userId");
+        
+        // Started, 2 pages, 5 steps, and finished.
+        verify(cacheProvider, times(9)).setString(eq(UserAdminService.getPurgeStatusKey(study, "userId")),
+                any(), eq(UserAdminService.PURGE_STATUS_EXPIRE_IN_SECONDS));
+    }
+    
+    @Test
+    public void deleteUserAsyncLocksWhileStarting() throws Exception {
+        Study study = mockAccountToDelete();
+        String lockId = study.getIdentifier() + ":userId";
+        
+        service.deleteUserAsync(study, "userId");
+        
+        verify(lockDao).acquireLock(UserDataPurgeStatus.class, lockId, UserAdminService.PURGE_LOCK_EXPIRE_IN_SECONDS);
+        verify(lockDao).releaseLock(UserDataPurgeStatus.class, lockId, "lock");
+    }
+    
+    @Test
+    public void deleteUserAsyncLockedReturnsStatus() throws Exception {
+        Study study = mockAccountToDelete();
+        doThrow(new ConcurrentModificationException("Lock already set.")).when(lockDao)
+                .acquireLock(eq(UserDataPurgeStatus.class), any(), anyInt());
+        UserDataPurgeStatus inProgressStatus = new UserDataPurgeStatus("userId",
+                UserDataPurgeStatus.State.IN_PROGRESS, null, 1000L, 1000L, null);
+        doReturn(BridgeObjectMapper.get().writeValueAsString(inProgressStatus)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(study, "userId"));
+        
+        UserDataPurgeStatus status = service.deleteUserAsync(study, "userId");
+        assertEquals(inProgressStatus, status);
+        
+        verify(healthDataService, never()).deleteRecordsForHealthCode(any(), any());
+        verify(lockDao, never()).releaseLock(any(), any(), any());
+    }
+    
+    @Test(expected = ConcurrentModificationException.class)
+    public void deleteUserAsyncLockedWithoutStatus() throws Exception {
+        Study study = mockAccountToDelete();
+        doThrow(new ConcurrentModificationException("Lock already set.")).when(lockDao)
+                .acquireLock(eq(UserDataPurgeStatus.class), any(), anyInt());
+        
+        service.deleteUserAsync(study, "userId");
+    }
+    
+    @Test(expected = EntityNotFoundException.class)
+    public void deleteUserAsyncIgnoresOtherStudysStatus() throws Exception {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        // A user in another study with the same ID has been deleted. This study has no such account.
+        UserDataPurgeStatus otherStatus = new UserDataPurgeStatus("userId", UserDataPurgeStatus.State.SUCCEEDED,
+                EnumSet.allOf(UserDataPurgeStatus.Step.class), 1000L, 2000L, null);
+        doReturn(BridgeObjectMapper.get().writeValueAsString(otherStatus)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(new StudyIdentifierImpl("other-study"), "userId"));
+        
+        service.deleteUserAsync(study, "userId");
+    }
+    
+    @Test
+    public void getDeleteUserStatusNotFound() {
+        assertNull(service.getDeleteUserStatus(new StudyIdentifierImpl("api"), "userId"));
+    }
+    
+    @Test
+    public void getDeleteUserStatus() throws Exception {
+        UserDataPurgeStatus status = new UserDataPurgeStatus("userId", UserDataPurgeStatus.State.SUCCEEDED,
+                EnumSet.allOf(UserDataPurgeStatus.Step.class), 1000L, 2000L, null);
+        doReturn(BridgeObjectMapper.get().writeValueAsString(status)).when(cacheProvider).getString(
+                UserAdminService.getPurgeStatusKey(new StudyIdentifierImpl("api"), "userId"));
+        
+        assertEquals(status, service.getDeleteUserStatus(new StudyIdentifierImpl("api"), "userId"));
+        assertNull(service.getDeleteUserStatus(new StudyIdentifierImpl("other-study"), "userId"));
+    }
+    
+    private Study mockAccountToDelete() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        
+        doReturn("userId").when(account).getId();
+        doReturn("healthCode").when(account).getHealthCode();
+        doReturn(account).when(accountDao).getAccount(study, "userId");
+        
+        doReturn(lookup).when(participantOptionsService).getOptions("healthCode");
+        return study;
+    }
+    
+    private UserDataPurgeStatus getLastSavedStatus(Study study) throws Exception {
+        verify(cacheProvider, atLeastOnce()).setString(eq(UserAdminService.getPurgeStatusKey(study, "userId")),
+                statusJsonCaptor.capture(), eq(UserAdminService.PURGE_STATUS_EXPIRE_IN_SECONDS));
+        List<String> statusJsonList = statusJsonCaptor.getAllValues();
+        return BridgeObjectMapper.get().readValue(statusJsonList.get(statusJsonList.size() - 1),
+                UserDataPurgeStatus.class);
+    }
 }
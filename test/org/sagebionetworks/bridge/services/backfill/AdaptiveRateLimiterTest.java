@@ -0,0 +1,58 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveRateLimiterTest {
+    private static final double DELTA = 0.001;
+
+    @Test
+    public void rampsUpToMaxRate() {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(2.0, 5.0, 100);
+        assertEquals(2.0, rateLimiter.getRate(), DELTA);
+
+        rateLimiter.adjust(0, 0);
+        assertEquals(4.0, rateLimiter.getRate(), DELTA);
+
+        rateLimiter.adjust(0, 0);
+        assertEquals(5.0, rateLimiter.getRate(), DELTA);
+    }
+
+    @Test
+    public void holdsRateWhenQueueIsPartlyFull() {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(2.0, 10.0, 100);
+        rateLimiter.adjust(0, 0);
+        rateLimiter.adjust(0, 75);
+        assertEquals(4.0, rateLimiter.getRate(), DELTA);
+    }
+
+    @Test
+    public void backsOffWhenThrottled() {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1.0, 10.0, 100);
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.adjust(0, 0);
+        }
+        assertEquals(10.0, rateLimiter.getRate(), DELTA);
+
+        rateLimiter.adjust(3, 0);
+        assertEquals(5.0, rateLimiter.getRate(), DELTA);
+    }
+
+    @Test
+    public void backsOffWhenQueueIsBackedUp() {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1.0, 10.0, 100);
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.adjust(0, 0);
+        }
+
+        rateLimiter.adjust(0, 101);
+        assertEquals(5.0, rateLimiter.getRate(), DELTA);
+        rateLimiter.adjust(0, 101);
+        rateLimiter.adjust(0, 101);
+        rateLimiter.adjust(0, 101);
+
+        // Never goes below min rate.
+        assertEquals(1.0, rateLimiter.getRate(), DELTA);
+    }
+}
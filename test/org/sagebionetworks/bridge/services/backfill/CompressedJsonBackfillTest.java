@@ -0,0 +1,169 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.dynamodb.CompressedJsonNodeMarshaller;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
+import org.sagebionetworks.bridge.dynamodb.DynamoReportData;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
+import org.sagebionetworks.bridge.models.backfill.BackfillTask;
+
+public class CompressedJsonBackfillTest {
+    private BackfillCallback mockCallback;
+    private DynamoDBMapper mockHealthDataMapper;
+    private DynamoDBMapper mockReportDataMapper;
+    private BackfillTask mockTask;
+    private CompressedJsonBackfill backfill;
+    private boolean writeEnabled;
+
+    @Before
+    public void setup() {
+        mockCallback = mock(BackfillCallback.class);
+        mockHealthDataMapper = mock(DynamoDBMapper.class);
+        mockReportDataMapper = mock(DynamoDBMapper.class);
+        mockTask = mock(BackfillTask.class);
+        writeEnabled = true;
+
+        // Rates are high enough that unit tests don't actually wait.
+        backfill = new CompressedJsonBackfill() {
+            @Override
+            boolean isWriteEnabled() {
+                return writeEnabled;
+            }
+
+            @Override
+            AdaptiveRateLimiter newRateLimiter() {
+                return new AdaptiveRateLimiter(100000, 100000, Integer.MAX_VALUE);
+            }
+        };
+        backfill.setBackfillRecordFactory(new BackfillRecordFactory());
+        backfill.setHealthDataMapper(mockHealthDataMapper);
+        backfill.setReportDataMapper(mockReportDataMapper);
+    }
+
+    @Test
+    public void rewritesAllPages() {
+        // Health data records come back in 2 pages. Report data is a single page. Record 4 doesn't compress.
+        DynamoHealthDataRecord record1 = makeRecord("record-1", makeLargeJson());
+        DynamoHealthDataRecord record2 = makeRecord("record-2", makeLargeJson());
+        DynamoHealthDataRecord record3 = makeRecord("record-3", makeLargeJson());
+        DynamoHealthDataRecord record4 = makeRecord("record-4", makeIncompressibleJson());
+        ScanResultPage<DynamoHealthDataRecord> recordPage1 = makePage(ImmutableList.of(record1, record2),
+                ImmutableMap.of("id", new AttributeValue().withS("record-2")));
+        ScanResultPage<DynamoHealthDataRecord> recordPage2 = makePage(ImmutableList.of(record3, record4), null);
+        when(mockHealthDataMapper.scanPage(eq(DynamoHealthDataRecord.class), any(DynamoDBScanExpression.class)))
+                .thenReturn(recordPage1, recordPage2);
+
+        DynamoReportData report = new DynamoReportData();
+        report.setData(makeLargeJson());
+        when(mockReportDataMapper.scanPage(eq(DynamoReportData.class), any(DynamoDBScanExpression.class)))
+                .thenReturn(makePage(ImmutableList.of(report), null));
+
+        // Record 2 was updated after we scanned it.
+        doThrow(ConditionalCheckFailedException.class).when(mockHealthDataMapper).save(record2);
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verify(mockHealthDataMapper).save(record1);
+        verify(mockHealthDataMapper).save(record2);
+        verify(mockHealthDataMapper).save(record3);
+        verify(mockHealthDataMapper, never()).save(record4);
+        verify(mockReportDataMapper).save(report);
+
+        // Second scan starts where the first one left off, and both only look for uncompressed items.
+        ArgumentCaptor<DynamoDBScanExpression> scanCaptor = ArgumentCaptor.forClass(DynamoDBScanExpression.class);
+        verify(mockHealthDataMapper, times(2)).scanPage(eq(DynamoHealthDataRecord.class), scanCaptor.capture());
+        List<DynamoDBScanExpression> scanList = scanCaptor.getAllValues();
+        assertNull(scanList.get(0).getExclusiveStartKey());
+        assertEquals("record-2", scanList.get(1).getExclusiveStartKey().get("id").getS());
+        assertEquals(CompressedJsonNodeMarshaller.COMPRESSED_PREFIX,
+                scanList.get(0).getExpressionAttributeValues().get(":prefix").getS());
+
+        // Final messages for each table.
+        ArgumentCaptor<BackfillRecord> recordCaptor = ArgumentCaptor.forClass(BackfillRecord.class);
+        verify(mockCallback, times(2)).newRecords(recordCaptor.capture());
+        String healthDataMessage = recordCaptor.getAllValues().get(0).toJsonNode().textValue();
+        assertTrue(healthDataMessage.contains("rewrote 2, skipped 1, incompressible 1, errors 0"));
+        String reportMessage = recordCaptor.getAllValues().get(1).toJsonNode().textValue();
+        assertTrue(reportMessage.contains("rewrote 1, skipped 0, incompressible 0, errors 0"));
+    }
+
+    @Test
+    public void doesNothingWhenWritesDisabled() {
+        writeEnabled = false;
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verifyZeroInteractions(mockHealthDataMapper, mockReportDataMapper);
+        ArgumentCaptor<BackfillRecord> recordCaptor = ArgumentCaptor.forClass(BackfillRecord.class);
+        verify(mockCallback).newRecords(recordCaptor.capture());
+        assertTrue(recordCaptor.getValue().toJsonNode().textValue().contains(
+                CompressedJsonNodeMarshaller.CONFIG_KEY_WRITE_ENABLED));
+    }
+
+    private static DynamoHealthDataRecord makeRecord(String id, JsonNode data) {
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        record.setId(id);
+        record.setData(data);
+        return record;
+    }
+
+    private static JsonNode makeLargeJson() {
+        ArrayNode samples = BridgeObjectMapper.get().createArrayNode();
+        for (int i = 0; i < 100; i++) {
+            ObjectNode oneSample = samples.addObject();
+            oneSample.put("timestamp", "2017-04-01T12:00:00.000Z");
+            oneSample.put("x", i % 10);
+        }
+        return samples;
+    }
+
+    // Random CJK characters, which deflate can't shrink enough to make up for Base64 encoding.
+    private static JsonNode makeIncompressibleJson() {
+        Random random = new Random(1234);
+        StringBuilder randomText = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            randomText.append((char) (0x4E00 + random.nextInt(0x5000)));
+        }
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        node.put("text", randomText.toString());
+        return node;
+    }
+
+    private static <T> ScanResultPage<T> makePage(List<T> resultList, Map<String, AttributeValue> lastEvaluatedKey) {
+        ScanResultPage<T> page = new ScanResultPage<>();
+        page.setResults(resultList);
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        return page;
+    }
+}
@@ -0,0 +1,247 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.BackfillDao;
+import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.models.backfill.BackfillTask;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.services.UploadValidationService;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskQueue;
+
+public class UploadValidationBackfillTest {
+    private static final String HEALTH_CODE = "test-health-code";
+    private static final StudyIdentifier STUDY_ID = new StudyIdentifierImpl("test-study");
+    private static final String TASK_ID = "test-task";
+    private static final String TASK_NAME = "uploadValidationByUploadIdBackfill";
+    private static final String CHECKPOINT_KEY = RedisKey.BACKFILL_CHECKPOINT.getRedisKey(TASK_NAME);
+    private static final int NUM_UPLOADS = 150;
+
+    private CacheProvider mockCacheProvider;
+    private BackfillCallback mockCallback;
+    private BackfillTask mockTask;
+    private UploadDao mockUploadDao;
+    private UploadValidationService mockUploadValidationService;
+    private List<String> uploadIdList;
+    private UploadValidationBackfill backfill;
+
+    @After
+    public void after() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Before
+    public void setup() {
+        uploadIdList = new ArrayList<>();
+        for (int i = 0; i < NUM_UPLOADS; i++) {
+            uploadIdList.add("upload-" + i);
+        }
+
+        // Rates are high enough that unit tests don't actually wait.
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadValidationBackfill.CONFIG_KEY_CONCURRENCY)).thenReturn(4);
+        when(mockConfig.getPropertyAsInt(UploadValidationBackfill.CONFIG_KEY_MAX_QUEUE_DEPTH)).thenReturn(200);
+        when(mockConfig.getPropertyAsInt(UploadValidationBackfill.CONFIG_KEY_MAX_RATE)).thenReturn(100000);
+        when(mockConfig.getPropertyAsInt(UploadValidationBackfill.CONFIG_KEY_MIN_RATE)).thenReturn(10000);
+
+        mockTask = mock(BackfillTask.class);
+        when(mockTask.getId()).thenReturn(TASK_ID);
+        when(mockTask.getName()).thenReturn(TASK_NAME);
+
+        mockCacheProvider = mock(CacheProvider.class);
+
+        mockUploadDao = mock(UploadDao.class);
+        when(mockUploadDao.getUpload(anyString())).thenAnswer(invocation -> makeUpload(
+                invocation.getArgumentAt(0, String.class)));
+
+        HealthCodeDao mockHealthCodeDao = mock(HealthCodeDao.class);
+        when(mockHealthCodeDao.getStudyIdentifier(HEALTH_CODE)).thenReturn(STUDY_ID.getIdentifier());
+
+        mockUploadValidationService = mock(UploadValidationService.class);
+        mockCallback = mock(BackfillCallback.class);
+
+        backfill = new UploadValidationBackfill() {
+            @Override
+            protected List<String> getUploadIdList(BackfillTask task, BackfillCallback callback) {
+                return uploadIdList;
+            }
+        };
+        backfill.setBackfillDao(mock(BackfillDao.class));
+        backfill.setBackfillRecordFactory(new BackfillRecordFactory());
+        backfill.setCacheProvider(mockCacheProvider);
+        backfill.setConfig(mockConfig);
+        backfill.setHealthCodeDao(mockHealthCodeDao);
+        backfill.setUploadDao(mockUploadDao);
+        backfill.setUploadValidationService(mockUploadValidationService);
+        backfill.setUploadValidationTaskQueue(mock(UploadValidationTaskQueue.class));
+    }
+
+    @Test
+    public void redrivesAllUploadsWithCheckpoints() {
+        backfill.doBackfill(mockTask, mockCallback);
+
+        ArgumentCaptor<Upload> uploadCaptor = ArgumentCaptor.forClass(Upload.class);
+        verify(mockUploadValidationService, times(NUM_UPLOADS)).validateUpload(eq(STUDY_ID),
+                uploadCaptor.capture());
+        assertEquals(NUM_UPLOADS, uploadIdSet(uploadCaptor.getAllValues()).size());
+
+        verify(mockCacheProvider).setString(CHECKPOINT_KEY, "100/150",
+                UploadValidationBackfill.CHECKPOINT_EXPIRE_IN_SECONDS);
+        verify(mockCacheProvider).setString(CHECKPOINT_KEY, "150/150",
+                UploadValidationBackfill.CHECKPOINT_EXPIRE_IN_SECONDS);
+
+        // The run completed, so the checkpoint is removed.
+        verify(mockCacheProvider).removeString(CHECKPOINT_KEY);
+    }
+
+    @Test
+    public void stopsBeforeLockExpires() {
+        // The clock reaches the lock margin while the first batch is running.
+        long startMillis = DateTime.parse("2017-03-01T12:00:00Z").getMillis();
+        DateTimeUtils.setCurrentMillisFixed(startMillis);
+        doAnswer(invocation -> {
+            DateTimeUtils.setCurrentMillisFixed(startMillis + (UploadValidationBackfill.LOCK_EXPIRE_IN_SECONDS -
+                    UploadValidationBackfill.LOCK_MARGIN_IN_SECONDS) * 1000L);
+            return null;
+        }).when(mockUploadValidationService).validateUpload(eq(STUDY_ID), any());
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        // The first batch finishes and is checkpointed. The second batch never starts.
+        verify(mockUploadValidationService, times(100)).validateUpload(eq(STUDY_ID), any());
+        verify(mockCacheProvider).setString(CHECKPOINT_KEY, "100/150",
+                UploadValidationBackfill.CHECKPOINT_EXPIRE_IN_SECONDS);
+        verify(mockCacheProvider, never()).setString(CHECKPOINT_KEY, "150/150",
+                UploadValidationBackfill.CHECKPOINT_EXPIRE_IN_SECONDS);
+
+        // The checkpoint is kept, so the next run resumes from it.
+        verify(mockCacheProvider, never()).removeString(CHECKPOINT_KEY);
+    }
+
+    @Test
+    public void resumesFromCheckpoint() {
+        // Previous run failed after its first checkpoint.
+        when(mockCacheProvider.getString(CHECKPOINT_KEY)).thenReturn("100/150");
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        // Only the last 50 uploads are re-driven.
+        ArgumentCaptor<Upload> uploadCaptor = ArgumentCaptor.forClass(Upload.class);
+        verify(mockUploadValidationService, times(50)).validateUpload(eq(STUDY_ID), uploadCaptor.capture());
+        Set<String> uploadIdSet = uploadIdSet(uploadCaptor.getAllValues());
+        assertEquals(50, uploadIdSet.size());
+        for (int i = 100; i < NUM_UPLOADS; i++) {
+            assertTrue(uploadIdSet.contains("upload-" + i));
+        }
+
+        verify(mockCacheProvider).setString(CHECKPOINT_KEY, "150/150",
+                UploadValidationBackfill.CHECKPOINT_EXPIRE_IN_SECONDS);
+    }
+
+    @Test
+    public void doesNotResumeWhenUploadListChanged() {
+        // Checkpoint is from a run with a different number of uploads.
+        when(mockCacheProvider.getString(CHECKPOINT_KEY)).thenReturn("100/200");
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verify(mockUploadValidationService, times(NUM_UPLOADS)).validateUpload(eq(STUDY_ID), any(Upload.class));
+    }
+
+    @Test
+    public void invalidCheckpointStartsFromBeginning() {
+        when(mockCacheProvider.getString(CHECKPOINT_KEY)).thenReturn("not-a-checkpoint");
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verify(mockUploadValidationService, times(NUM_UPLOADS)).validateUpload(eq(STUDY_ID), any(Upload.class));
+    }
+
+    @Test
+    public void throttledUploadIsRetried() {
+        // The first call for upload-7 is throttled. The retry succeeds.
+        Set<String> throttledSet = ConcurrentHashMap.newKeySet();
+        when(mockUploadDao.getUpload(anyString())).thenAnswer(invocation -> {
+            String uploadId = invocation.getArgumentAt(0, String.class);
+            if (uploadId.equals("upload-7") && throttledSet.add(uploadId)) {
+                throw new ProvisionedThroughputExceededException("test exception");
+            }
+            return makeUpload(uploadId);
+        });
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verify(mockUploadDao, times(NUM_UPLOADS + 1)).getUpload(anyString());
+        verify(mockUploadValidationService, times(NUM_UPLOADS)).validateUpload(eq(STUDY_ID), any(Upload.class));
+    }
+
+    @Test
+    public void uploadThrottledTooManyTimesIsSkipped() {
+        when(mockUploadDao.getUpload("upload-7")).thenThrow(new ProvisionedThroughputExceededException(
+                "test exception"));
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        verify(mockUploadDao, times(UploadValidationBackfill.MAX_THROTTLED_ATTEMPTS)).getUpload("upload-7");
+        verify(mockUploadValidationService, times(NUM_UPLOADS - 1)).validateUpload(eq(STUDY_ID),
+                any(Upload.class));
+    }
+
+    @Test
+    public void errorDoesNotFailBackfill() {
+        when(mockUploadDao.getUpload("upload-7")).thenThrow(new RuntimeException("test exception"));
+
+        backfill.doBackfill(mockTask, mockCallback);
+
+        // Upload-7 isn't retried, but everything else is re-driven.
+        verify(mockUploadDao, times(1)).getUpload("upload-7");
+        verify(mockUploadValidationService, times(NUM_UPLOADS - 1)).validateUpload(eq(STUDY_ID),
+                any(Upload.class));
+    }
+
+    private static Upload makeUpload(String uploadId) {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setHealthCode(HEALTH_CODE);
+        upload.setUploadId(uploadId);
+        return upload;
+    }
+
+    private static Set<String> uploadIdSet(List<Upload> uploadList) {
+        Set<String> uploadIdSet = new HashSet<>();
+        for (Upload oneUpload : uploadList) {
+            uploadIdSet.add(oneUpload.getUploadId());
+        }
+        return uploadIdSet;
+    }
+}
@@ -0,0 +1,236 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+
+/**
+ * <p>
+ * Offline benchmark for strict upload validation on large schemas. For each schema size, this compares the per-field
+ * walk that StrictValidationHandler used to do for every record against {@link CompiledSchemaValidator}, and prints
+ * records/sec and bytes allocated per record for each, plus the one-time cost of compiling the validator.
+ * </p>
+ * <p>
+ * Schemas mix scalar fields, multi-choice fields with a few dozen answers, and required attachments. Validation
+ * canonicalizes values in place, so each iteration validates a fresh copy of the record. Both sides pay for the copy.
+ * Everything runs on one thread, so the numbers are for comparing the two against each other, not for capacity
+ * planning. Allocation is only reported on JVMs with per-thread allocation counters (HotSpot).
+ * </p>
+ * <p>
+ * Usage: play "test:run-main org.sagebionetworks.bridge.upload.CompiledSchemaValidatorBenchmark [[iterations]
+ * [warmup iterations]]"
+ * </p>
+ */
+public class CompiledSchemaValidatorBenchmark {
+    private static final int DEFAULT_ITERATIONS = 2000;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 1000;
+
+    private static final int NUM_MULTI_CHOICE_ANSWERS = 40;
+    private static final List<Integer> NUM_FIELDS_LIST = ImmutableList.of(50, 500, 2000);
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WARMUP_ITERATIONS;
+
+        System.out.println(String.format("%d iterations, %d warmup iterations", iterations, warmupIterations));
+        System.out.println(String.format("%-8s %-10s %12s %14s %14s", "fields", "validator", "records/s",
+                "alloc/record", "compile us"));
+        for (int oneNumFields : NUM_FIELDS_LIST) {
+            List<UploadFieldDefinition> fieldDefList = makeFieldDefList(oneNumFields);
+            Set<String> attachmentFieldNameSet = makeAttachmentFieldNameSet(fieldDefList);
+            ObjectNode recordTemplate = makeRecord(fieldDefList);
+
+            long compileStartNanos = System.nanoTime();
+            CompiledSchemaValidator validator = CompiledSchemaValidator.compile(fieldDefList);
+            long compileNanos = System.nanoTime() - compileStartNanos;
+
+            // Both should agree, or we're not comparing the same work.
+            List<String> walkErrorList = validateByWalkingFields(fieldDefList, attachmentFieldNameSet,
+                    recordTemplate.deepCopy());
+            List<String> compiledErrorList = validator.validate(attachmentFieldNameSet, recordTemplate.deepCopy());
+            if (!walkErrorList.equals(compiledErrorList)) {
+                throw new IllegalStateException("Validators disagree for " + oneNumFields + " fields: " +
+                        walkErrorList + " vs " + compiledErrorList);
+            }
+
+            measure(oneNumFields, "walk", "", iterations, warmupIterations, recordTemplate,
+                    record -> validateByWalkingFields(fieldDefList, attachmentFieldNameSet, record));
+            measure(oneNumFields, "compiled", String.format("%.1f", compileNanos / 1e3), iterations,
+                    warmupIterations, recordTemplate, record -> validator.validate(attachmentFieldNameSet, record));
+        }
+    }
+
+    // Warms up, then validates a fresh copy of the record the given number of times, and prints the results.
+    private static void measure(int numFields, String name, String compileMicros, int iterations,
+            int warmupIterations, ObjectNode recordTemplate, Function<JsonNode, List<String>> validateFunction) {
+        for (int i = 0; i < warmupIterations; i++) {
+            validateFunction.apply(recordTemplate.deepCopy());
+        }
+
+        long startAllocatedBytes = getAllocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            validateFunction.apply(recordTemplate.deepCopy());
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long endAllocatedBytes = getAllocatedBytes();
+
+        String allocPerRecord = startAllocatedBytes >= 0 && endAllocatedBytes >= 0 ?
+                String.valueOf((endAllocatedBytes - startAllocatedBytes) / iterations) : "n/a";
+        System.out.println(String.format("%-8d %-10s %12.1f %14s %14s", numFields, name,
+                iterations / (elapsedNanos / 1e9), allocPerRecord, compileMicros));
+    }
+
+    // Bytes allocated so far by this thread, or -1 if the JVM doesn't track it.
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * The per-field walk StrictValidationHandler did for every record before validators were compiled, kept here as
+     * the baseline. This looks up each field's type and flags, and rebuilds each multi-choice answer set, per record.
+     */
+    private static List<String> validateByWalkingFields(List<UploadFieldDefinition> fieldDefList,
+            Set<String> attachmentFieldNameSet, JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            String fieldName = oneFieldDef.getName();
+            UploadFieldType fieldType = oneFieldDef.getType();
+            boolean isRequired = oneFieldDef.isRequired();
+
+            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
+                if (isRequired && !attachmentFieldNameSet.contains(fieldName)) {
+                    errorList.add("Required attachment field " + fieldName + " missing");
+                }
+            } else {
+                JsonNode fieldValueNode = recordDataNode.get(fieldName);
+
+                if (fieldValueNode != null && !fieldValueNode.isNull()) {
+                    CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
+                    if (canonicalizationResult.isValid()) {
+                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
+                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
+                            //noinspection ConstantConditions
+                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
+                            int numAnswers = canonicalizedValueNode.size();
+                            for (int i = 0; i < numAnswers; i++) {
+                                String answer = canonicalizedValueNode.get(i).textValue();
+                                if (!validAnswerSet.contains(answer)) {
+                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
+                                            answer);
+                                }
+                            }
+                        }
+
+                        ((ObjectNode) recordDataNode).set(fieldName, canonicalizedValueNode);
+                    } else {
+                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
+                                canonicalizationResult.getErrorMessage());
+                    }
+                } else if (isRequired) {
+                    errorList.add("Required field " + fieldName + " missing");
+                }
+            }
+        }
+        return errorList;
+    }
+
+    // Cycles through field types, so every schema size has the same mix. One in ten fields is a required attachment.
+    private static List<UploadFieldDefinition> makeFieldDefList(int numFields) {
+        List<String> answerList = new ArrayList<>();
+        for (int i = 0; i < NUM_MULTI_CHOICE_ANSWERS; i++) {
+            answerList.add("answer-" + i);
+        }
+
+        List<UploadFieldDefinition> fieldDefList = new ArrayList<>();
+        for (int i = 0; i < numFields; i++) {
+            UploadFieldDefinition.Builder builder = new UploadFieldDefinition.Builder().withName("field-" + i);
+            switch (i % 10) {
+                case 0:
+                    builder.withType(UploadFieldType.ATTACHMENT_BLOB);
+                    break;
+                case 1:
+                case 2:
+                    builder.withType(UploadFieldType.INT);
+                    break;
+                case 3:
+                    builder.withType(UploadFieldType.FLOAT);
+                    break;
+                case 4:
+                    builder.withType(UploadFieldType.BOOLEAN);
+                    break;
+                case 5:
+                case 6:
+                    builder.withType(UploadFieldType.MULTI_CHOICE).withMultiChoiceAnswerList(answerList);
+                    break;
+                default:
+                    builder.withType(UploadFieldType.STRING).withRequired(false);
+                    break;
+            }
+            fieldDefList.add(builder.build());
+        }
+        return fieldDefList;
+    }
+
+    // Every attachment field has an attachment.
+    private static Set<String> makeAttachmentFieldNameSet(List<UploadFieldDefinition> fieldDefList) {
+        Set<String> attachmentFieldNameSet = new HashSet<>();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
+                attachmentFieldNameSet.add(oneFieldDef.getName());
+            }
+        }
+        return attachmentFieldNameSet;
+    }
+
+    // A valid record, with values in the loosely typed form apps send, so they go through canonicalization.
+    private static ObjectNode makeRecord(List<UploadFieldDefinition> fieldDefList) {
+        ObjectNode recordNode = BridgeObjectMapper.get().createObjectNode();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            String fieldName = oneFieldDef.getName();
+            switch (oneFieldDef.getType()) {
+                case INT:
+                    recordNode.put(fieldName, "42");
+                    break;
+                case FLOAT:
+                    recordNode.put(fieldName, "3.14");
+                    break;
+                case BOOLEAN:
+                    recordNode.put(fieldName, "true");
+                    break;
+                case MULTI_CHOICE:
+                    ArrayNode answerArray = recordNode.putArray(fieldName);
+                    answerArray.add("answer-1");
+                    answerArray.add("answer-" + (NUM_MULTI_CHOICE_ANSWERS - 1));
+                    break;
+                case STRING:
+                    recordNode.put(fieldName, "some string value");
+                    break;
+                default:
+                    // Attachments aren't in the record.
+                    break;
+            }
+        }
+        return recordNode;
+    }
+}
@@ -0,0 +1,55 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+
+public class CompiledSchemaValidatorTest {
+    private static final List<UploadFieldDefinition> FIELD_DEF_LIST = ImmutableList.of(
+            new UploadFieldDefinition.Builder().withName("attachment").withType(UploadFieldType.ATTACHMENT_BLOB)
+                    .build(),
+            new UploadFieldDefinition.Builder().withName("int").withType(UploadFieldType.INT).build(),
+            new UploadFieldDefinition.Builder().withName("multi-choice").withType(UploadFieldType.MULTI_CHOICE)
+                    .withMultiChoiceAnswerList("foo", "bar").build());
+
+    @Test
+    public void emptySchema() throws Exception {
+        CompiledSchemaValidator validator = CompiledSchemaValidator.compile(ImmutableList.of());
+        assertEquals(0, validator.getNumFieldChecks());
+        assertTrue(validator.validate(ImmutableSet.of(), BridgeObjectMapper.get().readTree("{}")).isEmpty());
+    }
+
+    @Test
+    public void reusedAcrossRecords() throws Exception {
+        // One compiled validator is shared across many records. Make sure state from one record doesn't leak into
+        // the next.
+        CompiledSchemaValidator validator = CompiledSchemaValidator.compile(FIELD_DEF_LIST);
+        assertEquals(3, validator.getNumFieldChecks());
+
+        // Valid record. Values are canonicalized in place.
+        JsonNode validDataNode = BridgeObjectMapper.get().readTree("{\"int\":\"42\", \"multi-choice\":[\"foo\"]}");
+        List<String> errorList = validator.validate(ImmutableSet.of("attachment"), validDataNode);
+        assertTrue(errorList.isEmpty());
+        assertEquals(42, validDataNode.get("int").intValue());
+
+        // Invalid record.
+        JsonNode invalidDataNode = BridgeObjectMapper.get().readTree("{\"multi-choice\":[\"baz\"]}");
+        errorList = validator.validate(ImmutableSet.of(), invalidDataNode);
+        assertEquals(ImmutableList.of("Required attachment field attachment missing", "Required field int missing",
+                "Multi-Choice field multi-choice contains invalid answer baz"), errorList);
+
+        // Valid record again.
+        errorList = validator.validate(ImmutableSet.of("attachment"), validDataNode);
+        assertTrue(errorList.isEmpty());
+    }
+}
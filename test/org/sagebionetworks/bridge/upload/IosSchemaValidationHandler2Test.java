@@ -680,6 +680,85 @@ public class IosSchemaValidationHandler2Test {
         assertTrue(context.getMessageList().isEmpty());
     }
 
+    @Test
+    public void mixedDataUnparsedJson() throws Exception {
+        // Same as mixedData, except ParseJsonHandler left the JSON files as raw bytes, as it does for large files.
+        String infoJsonText = "{\n" +
+                "   \"files\":[{\n" +
+                "       \"filename\":\"nonJsonFile.txt\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:37:11-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"attachment.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:38:22-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"inline.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:39:33-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"field.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:39:44-07:00\"\n" +
+                "   }],\n" +
+                "   \"item\":\"mixed-data\"\n" +
+                "}";
+        JsonNode infoJsonNode = BridgeObjectMapper.get().readTree(infoJsonText);
+
+        String attachmentJsonText = "{\n" +
+                "   \"attachment\":\"This is an attachment\"\n" +
+                "}";
+
+        String inlineJsonText = "{\n" +
+                "   \"string\":\"inline value\"\n" +
+                "}";
+
+        // Includes a field that's not in the schema, which should be skipped.
+        String fieldJsonText = "{\n" +
+                "   \"attachment\":[\"mixed\", \"data\", \"attachment\"],\n" +
+                "   \"unused\":{\"nested\":[1, 2, 3]},\n" +
+                "   \"string\":\"This is a string\"\n" +
+                "}";
+
+        context.setJsonDataMap(ImmutableMap.of(
+                "info.json", infoJsonNode));
+        context.setUnzippedDataMap(ImmutableMap.of(
+                "nonJsonFile.txt", "Non-JSON in mixed data".getBytes(Charsets.UTF_8),
+                "attachment.json", attachmentJsonText.getBytes(Charsets.UTF_8),
+                "inline.json", inlineJsonText.getBytes(Charsets.UTF_8),
+                "field.json", fieldJsonText.getBytes(Charsets.UTF_8)));
+
+        // execute
+        handler.handle(context);
+
+        // validate
+        validateCommonProps(context);
+
+        HealthDataRecordBuilder recordBuilder = context.getHealthDataRecordBuilder();
+        assertEquals("mixed-data", recordBuilder.getSchemaId());
+
+        JsonNode dataNode = recordBuilder.getData();
+        assertEquals(2, dataNode.size());
+        assertEquals("This is a string", dataNode.get("field.json.string").textValue());
+
+        JsonNode outputInlineJsonNode = dataNode.get("inline.json");
+        assertEquals(1, outputInlineJsonNode.size());
+        assertEquals("inline value", outputInlineJsonNode.get("string").textValue());
+
+        Map<String, byte[]> attachmentMap = context.getAttachmentsByFieldName();
+        assertEquals(3, attachmentMap.size());
+        assertEquals("Non-JSON in mixed data", new String(attachmentMap.get("nonJsonFile.txt"), Charsets.UTF_8));
+
+        // Whole-file attachments are stored as the original bytes.
+        assertEquals(attachmentJsonText, new String(attachmentMap.get("attachment.json"), Charsets.UTF_8));
+
+        JsonNode fieldJsonAttachmentNode = BridgeObjectMapper.get().readTree(attachmentMap.get(
+                "field.json.attachment"));
+        assertEquals(3, fieldJsonAttachmentNode.size());
+        assertEquals("mixed", fieldJsonAttachmentNode.get(0).textValue());
+        assertEquals("data", fieldJsonAttachmentNode.get(1).textValue());
+        assertEquals("attachment", fieldJsonAttachmentNode.get(2).textValue());
+
+        // We should have no messages.
+        assertTrue(context.getMessageList().isEmpty());
+    }
+
     @Test
     public void schemaRevTestLegacyMap() throws Exception {
         // fill in context with JSON data
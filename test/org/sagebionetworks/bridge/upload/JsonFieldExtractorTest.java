@@ -0,0 +1,69 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+public class JsonFieldExtractorTest {
+    private static final String JSON_TEXT = "{\n" +
+            "   \"tree\":{\"key\":\"value\"},\n" +
+            "   \"raw\":[{\"x\":1}, {\"x\":2}, {\"x\":3}],\n" +
+            "   \"rawNull\":null,\n" +
+            "   \"skipped\":{\"nested\":[[1, 2], [3, 4]]},\n" +
+            "   \"scalar\":42\n" +
+            "}";
+
+    private static final Map<String, JsonFieldExtractor.Mode> MODE_MAP = ImmutableMap.of(
+            "tree", JsonFieldExtractor.Mode.TREE,
+            "raw", JsonFieldExtractor.Mode.RAW,
+            "rawNull", JsonFieldExtractor.Mode.RAW,
+            "scalar", JsonFieldExtractor.Mode.TREE);
+
+    @Test
+    public void extract() throws Exception {
+        JsonFieldExtractor extractor = JsonFieldExtractor.extract(JSON_TEXT.getBytes(Charsets.UTF_8),
+                key -> MODE_MAP.getOrDefault(key, JsonFieldExtractor.Mode.SKIP));
+
+        // Tree fields. Null raw fields show up here too.
+        Map<String, JsonNode> treeFieldMap = extractor.getTreeFieldMap();
+        assertEquals(3, treeFieldMap.size());
+        assertEquals("value", treeFieldMap.get("tree").get("key").textValue());
+        assertEquals(42, treeFieldMap.get("scalar").intValue());
+        assertTrue(treeFieldMap.get("rawNull").isNull());
+
+        // Raw fields.
+        Map<String, byte[]> rawFieldMap = extractor.getRawFieldMap();
+        assertEquals(1, rawFieldMap.size());
+        assertEquals("[{\"x\":1},{\"x\":2},{\"x\":3}]", new String(rawFieldMap.get("raw"), Charsets.UTF_8));
+
+        JsonNode rawNode = BridgeObjectMapper.get().readTree(rawFieldMap.get("raw"));
+        assertEquals(3, rawNode.size());
+    }
+
+    @Test
+    public void emptyObject() throws Exception {
+        JsonFieldExtractor extractor = JsonFieldExtractor.extract("{}".getBytes(Charsets.UTF_8),
+                key -> JsonFieldExtractor.Mode.TREE);
+        assertTrue(extractor.getTreeFieldMap().isEmpty());
+        assertTrue(extractor.getRawFieldMap().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnObject() throws Exception {
+        JsonFieldExtractor.extract("[1, 2, 3]".getBytes(Charsets.UTF_8), key -> JsonFieldExtractor.Mode.TREE);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedObject() throws Exception {
+        JsonFieldExtractor.extract("{\"a\":[1, 2".getBytes(Charsets.UTF_8), key -> JsonFieldExtractor.Mode.SKIP);
+    }
+}
@@ -1,7 +1,10 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -10,6 +13,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Charsets;
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 
 @SuppressWarnings("unchecked")
@@ -37,4 +41,60 @@ public class ParseJsonHandlerTest {
         assertEquals(1, jsonInnerMap.size());
         assertTrue((boolean) jsonInnerMap.get("isJson"));
     }
+
+    @Test
+    public void skipsNonJsonWithoutParsing() {
+        // inputs - binary data (the start of an m4a file) and a bare JSON scalar
+        Map<String, byte[]> inputMap = new HashMap<>();
+        inputMap.put("audio.m4a", new byte[] { 0, 0, 0, 0x20, 'f', 't', 'y', 'p' });
+        inputMap.put("number", " 42".getBytes(Charsets.UTF_8));
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUnzippedDataMap(inputMap);
+
+        // execute and validate
+        new ParseJsonHandler().handle(ctx);
+
+        Map<String, byte[]> byteMap = ctx.getUnzippedDataMap();
+        assertEquals(1, byteMap.size());
+        assertTrue(byteMap.containsKey("audio.m4a"));
+
+        Map<String, JsonNode> jsonDataMap = ctx.getJsonDataMap();
+        assertEquals(1, jsonDataMap.size());
+        assertEquals(42, jsonDataMap.get("number").intValue());
+    }
+
+    @Test
+    public void largeJsonLeftUnparsed() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(ParseJsonHandler.CONFIG_KEY_MAX_TREE_BYTES)).thenReturn(20);
+
+        ParseJsonHandler handler = new ParseJsonHandler();
+        handler.setConfig(mockConfig);
+
+        // inputs
+        String largeJsonText = "{\"data\":[1, 2, 3, 4, 5, 6, 7, 8, 9, 10]}";
+        Map<String, byte[]> inputMap = new HashMap<>();
+        inputMap.put("small.json", "{\"a\":1}".getBytes(Charsets.UTF_8));
+        inputMap.put("large.json", largeJsonText.getBytes(Charsets.UTF_8));
+        inputMap.put("info.json", "{\"item\":\"large-schema\"}".getBytes(Charsets.UTF_8));
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUnzippedDataMap(inputMap);
+
+        // execute and validate
+        handler.handle(ctx);
+
+        // large.json is left as raw bytes.
+        Map<String, byte[]> byteMap = ctx.getUnzippedDataMap();
+        assertEquals(1, byteMap.size());
+        assertEquals(largeJsonText, new String(byteMap.get("large.json"), Charsets.UTF_8));
+
+        // info.json is always parsed, even though it's over the limit.
+        Map<String, JsonNode> jsonDataMap = ctx.getJsonDataMap();
+        assertEquals(2, jsonDataMap.size());
+        assertEquals(1, jsonDataMap.get("small.json").get("a").intValue());
+        assertEquals("large-schema", jsonDataMap.get("info.json").get("item").textValue());
+        assertFalse(jsonDataMap.containsKey("large.json"));
+    }
 }
@@ -68,8 +68,8 @@ public class StrictValidationHandlerTest {
 
         // mock schema service
         UploadSchemaService mockSchemaService = mock(UploadSchemaService.class);
-        when(mockSchemaService.getUploadSchemaByIdAndRev(TEST_STUDY, "test-schema", 1)).thenReturn(
-                testSchema);
+        when(mockSchemaService.getCompiledValidator(TEST_STUDY, "test-schema", 1)).thenReturn(
+                CompiledSchemaValidator.compile(testSchema.getFieldDefinitions()));
         handler.setUploadSchemaService(mockSchemaService);
 
         // mock study service - this is to get the shouldThrow (strictUploadValidationEnabled) flag
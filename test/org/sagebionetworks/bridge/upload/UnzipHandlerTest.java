@@ -2,18 +2,26 @@ package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Iterator;
 import java.util.Map;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
+import org.sagebionetworks.bridge.util.Zipper;
 
 public class UnzipHandlerTest {
+    private static final byte[] GOOD_DATA = "good data".getBytes(Charsets.UTF_8);
+
     @Test
     public void test() {
         // The handler is a simple pass-through to the UploadArchiveService, so just test that execution flows through
@@ -30,7 +38,7 @@ public class UnzipHandlerTest {
                 "baz", "baz data".getBytes(Charsets.UTF_8));
 
         UploadArchiveService mockSvc = mock(UploadArchiveService.class);
-        when(mockSvc.unzip(ctx.getDecryptedData())).thenReturn(mockUnzippedDataMap);
+        when(mockSvc.unzipLazily(ctx.getDecryptedData())).thenReturn(mockUnzippedDataMap);
 
         // set up test handler
         UnzipHandler handler = new UnzipHandler();
@@ -44,4 +52,81 @@ public class UnzipHandlerTest {
         assertArrayEquals(mockUnzippedDataMap.get("bar"), retVal.get("bar"));
         assertArrayEquals(mockUnzippedDataMap.get("baz"), retVal.get("baz"));
     }
+
+    @Test
+    public void corruptEntryIsBadRequestWhenRead() throws Exception {
+        UploadValidationContext ctx = makeContextWithCorruptEntry();
+
+        // The entry isn't inflated until it's read.
+        Map<String, byte[]> retVal = ctx.getUnzippedDataMap();
+        assertEquals(2, retVal.size());
+        assertTrue(retVal.containsKey("corrupt"));
+        assertArrayEquals(GOOD_DATA, retVal.get("good"));
+
+        try {
+            retVal.get("corrupt");
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            // expected exception
+        }
+    }
+
+    @Test
+    public void corruptEntryIsBadRequestWhenIterated() throws Exception {
+        UploadValidationContext ctx = makeContextWithCorruptEntry();
+
+        int numBadRequests = 0;
+        for (Map.Entry<String, byte[]> oneEntry : ctx.getUnzippedDataMap().entrySet()) {
+            try {
+                oneEntry.getValue();
+            } catch (BadRequestException ex) {
+                assertEquals("corrupt", oneEntry.getKey());
+                numBadRequests++;
+            }
+        }
+        assertEquals(1, numBadRequests);
+
+        try {
+            ctx.getUnzippedDataMap().values().forEach(value -> {});
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            // expected exception
+        }
+    }
+
+    @Test
+    public void corruptEntryCanBeRemovedWithoutReading() throws Exception {
+        UploadValidationContext ctx = makeContextWithCorruptEntry();
+        Map<String, byte[]> retVal = ctx.getUnzippedDataMap();
+
+        Iterator<Map.Entry<String, byte[]>> entryIter = retVal.entrySet().iterator();
+        while (entryIter.hasNext()) {
+            if (entryIter.next().getKey().equals("corrupt")) {
+                entryIter.remove();
+            }
+        }
+        assertEquals(ImmutableSet.of("good"), retVal.keySet());
+        assertArrayEquals(GOOD_DATA, retVal.values().iterator().next());
+    }
+
+    // Unzips an archive with a good entry and an entry whose compressed data is corrupt. The central directory is
+    // intact, so the archive opens, and the corrupt entry only fails when it's inflated.
+    private static UploadValidationContext makeContextWithCorruptEntry() throws Exception {
+        // Corrupt the compressed data of the first entry. Its local header is 30 bytes, plus the 7-byte filename.
+        Zipper zipper = new Zipper(1000, 10);
+        byte[] zipped = zipper.zip(ImmutableMap.of("corrupt", "foo data foo data foo data".getBytes(Charsets.UTF_8),
+                "good", GOOD_DATA));
+        zipped[38] ^= 0xFF;
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setDecryptedData(zipped);
+
+        UploadArchiveService mockSvc = mock(UploadArchiveService.class);
+        when(mockSvc.unzipLazily(zipped)).thenReturn(zipper.openArchive(zipped).asLazyMap());
+
+        UnzipHandler handler = new UnzipHandler();
+        handler.setUploadArchiveService(mockSvc);
+        handler.handle(ctx);
+        return ctx;
+    }
 }
@@ -3,16 +3,22 @@ package org.sagebionetworks.bridge.upload;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.joda.time.LocalDate;
 import org.joda.time.format.ISODateTimeFormat;
@@ -20,6 +26,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.ParticipantOption;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataAttachment;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
@@ -31,6 +38,7 @@ import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.services.HealthDataService;
 
+@SuppressWarnings({ "rawtypes", "unchecked" })
 public class UploadArtifactsHandlerTest {
     private static final long ARBITRARY_TIMESTAMP = 1424136378727L;
     private static final String ATTACHMENT_ID_BAR = "attachment-bar";
@@ -58,10 +66,9 @@ public class UploadArtifactsHandlerTest {
         ArgumentCaptor<HealthDataRecord> createRecordArgCaptor = ArgumentCaptor.forClass(HealthDataRecord.class);
         when(mockHealthDataService.createOrUpdateRecord(createRecordArgCaptor.capture())).thenReturn(TEST_RECORD_ID);
 
-        ArgumentCaptor<HealthDataAttachment> createAttachmentArgCaptor = ArgumentCaptor.forClass(
-                HealthDataAttachment.class);
-        when(mockHealthDataService.createOrUpdateAttachment(createAttachmentArgCaptor.capture())).thenReturn(
-                ATTACHMENT_ID_BAR, ATTACHMENT_ID_FOO);
+        ArgumentCaptor<List> createAttachmentArgCaptor = ArgumentCaptor.forClass(List.class);
+        when(mockHealthDataService.createOrUpdateAttachments(createAttachmentArgCaptor.capture())).thenReturn(
+                ImmutableList.of(ATTACHMENT_ID_BAR, ATTACHMENT_ID_FOO));
 
         when(mockHealthDataService.getRecordById(TEST_RECORD_ID)).thenReturn(intermediateRecord);
 
@@ -74,9 +81,7 @@ public class UploadArtifactsHandlerTest {
         S3Helper mockS3Helper = mock(S3Helper.class);
 
         // set up handler
-        UploadArtifactsHandler handler = new UploadArtifactsHandler();
-        handler.setHealthDataService(mockHealthDataService);
-        handler.setS3Helper(mockS3Helper);
+        UploadArtifactsHandler handler = makeHandler(mockHealthDataService, mockS3Helper);
 
         // set up context
         // To make sure tests are consistent, use a TreeMap for the attachment map, so that the keys are returned in
@@ -154,9 +159,10 @@ public class UploadArtifactsHandlerTest {
         assertEquals(ATTACHMENT_ID_BAR, createFinalRecordDataJson.get("bar.txt").textValue());
         assertEquals(ATTACHMENT_ID_FOO, createFinalRecordDataJson.get("foo.txt").textValue());
 
-        // validate - create attachment. The order doesn't matter, since the call to create
-        // attachment only includes the record ID, which is the same for all attachments in a given record.
-        List<HealthDataAttachment> createAttachmentArgList = createAttachmentArgCaptor.getAllValues();
+        // validate - create attachment. All attachments are created in a single batch. The order doesn't matter,
+        // since the call to create attachment only includes the record ID, which is the same for all attachments in
+        // a given record.
+        List<HealthDataAttachment> createAttachmentArgList = createAttachmentArgCaptor.getValue();
         assertEquals(2, createAttachmentArgList.size());
         for (HealthDataAttachment oneAttachment : createAttachmentArgList) {
             assertEquals(TEST_RECORD_ID, oneAttachment.getRecordId());
@@ -173,6 +179,63 @@ public class UploadArtifactsHandlerTest {
         assertTrue(context.getMessageList().isEmpty());
     }
 
+    @Test
+    public void s3ErrorAddsMessageForField() throws Exception {
+        JsonNode dataJson = BridgeObjectMapper.get().createObjectNode();
+        HealthDataRecord intermediateRecord = createValidRecordBuilder(dataJson).withId(TEST_RECORD_ID).build();
+
+        // mock health data service
+        HealthDataService mockHealthDataService = mock(HealthDataService.class);
+        when(mockHealthDataService.createOrUpdateRecord(any(HealthDataRecord.class))).thenReturn(TEST_RECORD_ID);
+        when(mockHealthDataService.createOrUpdateAttachments(anyListOf(HealthDataAttachment.class))).thenReturn(
+                ImmutableList.of(ATTACHMENT_ID_BAR, ATTACHMENT_ID_FOO));
+        when(mockHealthDataService.getRecordById(TEST_RECORD_ID)).thenReturn(intermediateRecord);
+        when(mockHealthDataService.getAttachmentBuilder()).thenAnswer(
+                invocation -> new DynamoHealthDataAttachment.Builder());
+        when(mockHealthDataService.getRecordBuilder()).thenAnswer(invocation -> new DynamoHealthDataRecord.Builder());
+
+        // mock S3 helper - bar fails, foo succeeds
+        S3Helper mockS3Helper = mock(S3Helper.class);
+        doThrow(new IOException("test exception")).when(mockS3Helper).writeBytesToS3(TestConstants.ATTACHMENT_BUCKET,
+                ATTACHMENT_ID_BAR, BYTES_BAR);
+
+        // set up context
+        Map<String, byte[]> attachmentMap = new TreeMap<>();
+        attachmentMap.put("bar.txt", BYTES_BAR);
+        attachmentMap.put("foo.txt", BYTES_FOO);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(TEST_UPLOAD_ID);
+
+        UploadValidationContext context = new UploadValidationContext();
+        context.setAttachmentsByFieldName(attachmentMap);
+        context.setHealthDataRecordBuilder(createValidRecordBuilder(dataJson));
+        context.setUpload(upload);
+
+        // execute
+        makeHandler(mockHealthDataService, mockS3Helper).handle(context);
+
+        // Both attachments were written. Only bar has an error message.
+        verify(mockS3Helper).writeBytesToS3(TestConstants.ATTACHMENT_BUCKET, ATTACHMENT_ID_FOO, BYTES_FOO);
+        List<String> messageList = context.getMessageList();
+        assertEquals(1, messageList.size());
+        assertTrue(messageList.get(0).contains("bar.txt"));
+        assertTrue(messageList.get(0).contains("test exception"));
+    }
+
+    private static UploadArtifactsHandler makeHandler(HealthDataService healthDataService, S3Helper s3Helper) {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadArtifactsHandler.CONFIG_KEY_ATTACHMENT_PARALLELISM)).thenReturn(2);
+
+        // Direct executor, so S3 writes happen synchronously in the test.
+        UploadArtifactsHandler handler = new UploadArtifactsHandler();
+        handler.setAttachmentExecutorService(MoreExecutors.newDirectExecutorService());
+        handler.setConfig(mockConfig);
+        handler.setHealthDataService(healthDataService);
+        handler.setS3Helper(s3Helper);
+        return handler;
+    }
+
     // creates a record builder that has all the valid values filled in, with the data JsonNode specified
     private static HealthDataRecordBuilder createValidRecordBuilder(JsonNode dataNode) {
         // none of these values matter (except data, which is specified), so just fill in whatever
@@ -0,0 +1,189 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
+import org.sagebionetworks.bridge.services.HealthDataService;
+
+public class UploadDuplicateDetectorTest {
+    private static final long CREATED_ON = 1424136378727L;
+    private static final String HEALTH_CODE = "test-health-code";
+    private static final String SCHEMA_ID = "test-schema";
+    private static final String STUDY_ID = "test-study";
+
+    private UploadDuplicateDetector detector;
+    private HealthDataService mockHealthDataService;
+
+    @Before
+    public void setup() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadDuplicateDetector.CONFIG_KEY_BATCH_SIZE)).thenReturn(2);
+        when(mockConfig.getPropertyAsInt(UploadDuplicateDetector.CONFIG_KEY_INTERVAL_SECONDS)).thenReturn(30);
+        when(mockConfig.getPropertyAsInt(UploadDuplicateDetector.CONFIG_KEY_MAX_QUEUE_SIZE)).thenReturn(3);
+
+        mockHealthDataService = mock(HealthDataService.class);
+
+        detector = new UploadDuplicateDetector();
+        detector.setConfig(mockConfig);
+        detector.setHealthDataService(mockHealthDataService);
+    }
+
+    @Test
+    public void noDupes() {
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON, SCHEMA_ID))
+                .thenReturn(ImmutableList.of(makeRecord("record-1", CREATED_ON)));
+
+        detector.submit("record-1", makeRecordBuilder(CREATED_ON));
+        detector.processPending();
+
+        // Key fields come from the record builder, so the record isn't re-read.
+        verify(mockHealthDataService, never()).getRecordById(anyString());
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(1, metrics.get("checked").longValue());
+        assertEquals(1, metrics.get("queries").longValue());
+        assertEquals(0, metrics.get("recordsWithDupes").longValue());
+        assertEquals(0, metrics.get("dupeRecords").longValue());
+        assertEquals(0, metrics.get("pending").longValue());
+    }
+
+    @Test
+    public void recordsWithSameKeyShareQuery() {
+        // Two uploads of the same data, plus an unrelated record.
+        long otherCreatedOn = CREATED_ON + 60000;
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON, SCHEMA_ID))
+                .thenReturn(ImmutableList.of(makeRecord("record-1", CREATED_ON), makeRecord("record-2",
+                        CREATED_ON)));
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, otherCreatedOn,
+                SCHEMA_ID)).thenReturn(ImmutableList.of(makeRecord("record-3", otherCreatedOn)));
+
+        detector.submit("record-1", makeRecordBuilder(CREATED_ON));
+        detector.submit("record-2", makeRecordBuilder(CREATED_ON));
+        detector.submit("record-3", makeRecordBuilder(otherCreatedOn));
+        detector.processPending();
+
+        // Batch size is 2, so record-1 and record-2 are in the same batch and share a query.
+        verify(mockHealthDataService, times(1)).getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON,
+                SCHEMA_ID);
+        verify(mockHealthDataService, times(1)).getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE,
+                otherCreatedOn, SCHEMA_ID);
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(3, metrics.get("checked").longValue());
+        assertEquals(2, metrics.get("queries").longValue());
+        assertEquals(2, metrics.get("recordsWithDupes").longValue());
+        assertEquals(2, metrics.get("dupeRecords").longValue());
+    }
+
+    @Test
+    public void recordWithoutBuilderIsLoaded() {
+        HealthDataRecord record = makeRecord("record-1", CREATED_ON);
+        when(mockHealthDataService.getRecordById("record-1")).thenReturn(record);
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON, SCHEMA_ID))
+                .thenReturn(ImmutableList.of(record, makeRecord("record-2", CREATED_ON), makeRecord("record-3",
+                        CREATED_ON)));
+
+        detector.submit("record-1", null);
+        detector.processPending();
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(1, metrics.get("checked").longValue());
+        assertEquals(1, metrics.get("recordsWithDupes").longValue());
+        assertEquals(2, metrics.get("dupeRecords").longValue());
+    }
+
+    @Test
+    public void recordsWithoutSchemaShareQuery() {
+        // Records that failed validation may not have a schema.
+        DynamoHealthDataRecord record1 = (DynamoHealthDataRecord) makeRecord("record-1", CREATED_ON);
+        record1.setSchemaId(null);
+        DynamoHealthDataRecord record2 = (DynamoHealthDataRecord) makeRecord("record-2", CREATED_ON);
+        record2.setSchemaId(null);
+        when(mockHealthDataService.getRecordById("record-1")).thenReturn(record1);
+        when(mockHealthDataService.getRecordById("record-2")).thenReturn(record2);
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON, null))
+                .thenReturn(ImmutableList.of(record1, record2));
+
+        detector.submit("record-1", null);
+        detector.submit("record-2", null);
+        detector.processPending();
+
+        verify(mockHealthDataService, times(1)).getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON,
+                null);
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(2, metrics.get("checked").longValue());
+        assertEquals(1, metrics.get("queries").longValue());
+        assertEquals(2, metrics.get("recordsWithDupes").longValue());
+        assertEquals(0, metrics.get("errors").longValue());
+    }
+
+    @Test
+    public void missingRecordIsSkipped() {
+        when(mockHealthDataService.getRecordById("record-1")).thenReturn(null);
+
+        detector.submit("record-1", null);
+        detector.processPending();
+
+        verify(mockHealthDataService, never()).getRecordsByHealthcodeCreatedOnSchemaId(anyString(),
+                anyLong(), anyString());
+        assertEquals(0, detector.getMetrics().get("checked").longValue());
+    }
+
+    @Test
+    public void queryErrorIsCounted() {
+        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON, SCHEMA_ID))
+                .thenThrow(new RuntimeException("test exception"));
+
+        detector.submit("record-1", makeRecordBuilder(CREATED_ON));
+        detector.processPending();
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(0, metrics.get("checked").longValue());
+        assertEquals(1, metrics.get("errors").longValue());
+    }
+
+    @Test
+    public void fullQueueDropsRecords() {
+        // Max queue size is 3.
+        for (int i = 0; i < 5; i++) {
+            detector.submit("record-" + i, makeRecordBuilder(CREATED_ON));
+        }
+
+        Map<String, Long> metrics = detector.getMetrics();
+        assertEquals(5, metrics.get("submitted").longValue());
+        assertEquals(2, metrics.get("dropped").longValue());
+        assertEquals(3, metrics.get("pending").longValue());
+    }
+
+    private static HealthDataRecordBuilder makeRecordBuilder(long createdOn) {
+        return new DynamoHealthDataRecord.Builder().withCreatedOn(createdOn).withHealthCode(HEALTH_CODE)
+                .withSchemaId(SCHEMA_ID).withStudyId(STUDY_ID);
+    }
+
+    private static HealthDataRecord makeRecord(String recordId, long createdOn) {
+        DynamoHealthDataRecord record = new DynamoHealthDataRecord();
+        record.setCreatedOn(createdOn);
+        record.setHealthCode(HEALTH_CODE);
+        record.setId(recordId);
+        record.setSchemaId(SCHEMA_ID);
+        record.setStudyId(STUDY_ID);
+        return record;
+    }
+}
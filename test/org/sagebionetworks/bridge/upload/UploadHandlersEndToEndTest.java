@@ -3,11 +3,11 @@ package org.sagebionetworks.bridge.upload;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -22,6 +22,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.LocalDate;
@@ -32,6 +33,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.ParticipantOption;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataAttachment;
@@ -45,6 +47,7 @@ import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolderImpl;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
 import org.sagebionetworks.bridge.models.upload.UploadFieldType;
@@ -106,6 +109,7 @@ public class UploadHandlersEndToEndTest {
     private static final ParseJsonHandler PARSE_JSON_HANDLER = new ParseJsonHandler();
 
     private int numAttachments;
+    private UploadDuplicateDetector mockDuplicateDetector;
     private HealthDataService mockHealthDataService;
     private UploadDao mockUploadDao;
     private S3Helper mockS3UploadHelper;
@@ -120,6 +124,7 @@ public class UploadHandlersEndToEndTest {
     public void before() {
         // Reset all member vars, because JUnit doesn't.
         numAttachments = 0;
+        mockDuplicateDetector = mock(UploadDuplicateDetector.class);
         mockHealthDataService = mock(HealthDataService.class);
         mockUploadDao = mock(UploadDao.class);
         mockS3UploadHelper = mock(S3Helper.class);
@@ -162,6 +167,8 @@ public class UploadHandlersEndToEndTest {
         UploadSchemaService mockUploadSchemaService = mock(UploadSchemaService.class);
         when(mockUploadSchemaService.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, schema.getSchemaId(),
                 schema.getRevision())).thenReturn(schema);
+        when(mockUploadSchemaService.getCompiledValidator(TestConstants.TEST_STUDY, schema.getSchemaId(),
+                schema.getRevision())).thenReturn(CompiledSchemaValidator.compile(schema.getFieldDefinitions()));
 
         // set up IosSchemaValidationHandler
         IosSchemaValidationHandler2 iosSchemaValidationHandler = new IosSchemaValidationHandler2();
@@ -193,8 +200,15 @@ public class UploadHandlersEndToEndTest {
         transcribeConsentHandler.setOptionsService(mockOptionsService);
 
         // mock HealthDataService for UploadArtifactsHandler
-        when(mockHealthDataService.createOrUpdateAttachment(any(HealthDataAttachment.class))).thenAnswer(
-                invocation -> ATTACHMENT_ID_PREFIX + (++numAttachments));
+        when(mockHealthDataService.createOrUpdateAttachments(anyListOf(HealthDataAttachment.class))).thenAnswer(
+                invocation -> {
+                    List<HealthDataAttachment> attachmentList = invocation.getArgumentAt(0, List.class);
+                    ImmutableList.Builder<String> attachmentIdListBuilder = ImmutableList.builder();
+                    for (int i = 0; i < attachmentList.size(); i++) {
+                        attachmentIdListBuilder.add(ATTACHMENT_ID_PREFIX + (++numAttachments));
+                    }
+                    return attachmentIdListBuilder.build();
+                });
 
         when(mockHealthDataService.createOrUpdateRecord(any(HealthDataRecord.class))).thenAnswer(invocation -> {
             // add record ID to record
@@ -208,15 +222,13 @@ public class UploadHandlersEndToEndTest {
 
         when(mockHealthDataService.getRecordBuilder()).thenAnswer(invocation -> new DynamoHealthDataRecord.Builder());
 
-        when(mockHealthDataService.getRecordById(RECORD_ID)).thenAnswer(invocation -> savedRecord);
-
-        // mock HealthDataService should return empty list for getRecordsByHealthcodeCreatedOnSchemaId(), so dedupe
-        // logic doesn't crash
-        when(mockHealthDataService.getRecordsByHealthcodeCreatedOnSchemaId(HEALTH_CODE, CREATED_ON_MILLIS,
-                schema.getSchemaId())).thenReturn(ImmutableList.of());
-
         // set up UploadArtifactsHandler
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadArtifactsHandler.CONFIG_KEY_ATTACHMENT_PARALLELISM)).thenReturn(2);
+
         UploadArtifactsHandler uploadArtifactsHandler = new UploadArtifactsHandler();
+        uploadArtifactsHandler.setAttachmentExecutorService(MoreExecutors.newDirectExecutorService());
+        uploadArtifactsHandler.setConfig(mockConfig);
         uploadArtifactsHandler.setHealthDataService(mockHealthDataService);
         uploadArtifactsHandler.setS3Helper(mockS3UploadHelper);
 
@@ -228,7 +240,7 @@ public class UploadHandlersEndToEndTest {
         UploadValidationTaskFactory taskFactory = new UploadValidationTaskFactory();
         taskFactory.setHandlerList(handlerList);
         taskFactory.setUploadDao(mockUploadDao);
-        taskFactory.setHealthDataService(mockHealthDataService);
+        taskFactory.setDuplicateDetector(mockDuplicateDetector);
 
         // create task, execute
         UploadValidationTask task = taskFactory.newTask(TestConstants.TEST_STUDY, UPLOAD);
@@ -362,10 +374,13 @@ public class UploadHandlersEndToEndTest {
         verifyZeroInteractions(mockS3UploadHelper);
 
         // verify no attachments
-        verify(mockHealthDataService, never()).createOrUpdateAttachment(any(HealthDataAttachment.class));
+        verify(mockHealthDataService, never()).createOrUpdateAttachments(anyListOf(HealthDataAttachment.class));
 
         // verify upload dao write validation status
         verify(mockUploadDao).writeValidationStatus(UPLOAD, UploadStatus.SUCCEEDED, ImmutableList.of(), RECORD_ID);
+
+        // verify record is handed off for duplicate detection
+        verify(mockDuplicateDetector).submit(eq(RECORD_ID), any(HealthDataRecordBuilder.class));
     }
 
     @Test
@@ -534,14 +549,19 @@ public class UploadHandlersEndToEndTest {
 
         // verify attachments in HealthDataAttachments - Of all the attributes, the only one that actually matters is
         // the record ID
-        ArgumentCaptor<HealthDataAttachment> attachmentCaptor = ArgumentCaptor.forClass(HealthDataAttachment.class);
-        verify(mockHealthDataService, times(6)).createOrUpdateAttachment(attachmentCaptor.capture());
-        for (HealthDataAttachment oneAttachment : attachmentCaptor.getAllValues()) {
+        ArgumentCaptor<List> attachmentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockHealthDataService).createOrUpdateAttachments(attachmentCaptor.capture());
+        List<HealthDataAttachment> attachmentList = attachmentCaptor.getValue();
+        assertEquals(6, attachmentList.size());
+        for (HealthDataAttachment oneAttachment : attachmentList) {
             assertEquals(RECORD_ID, oneAttachment.getRecordId());
         }
 
         // verify upload dao write validation status
         verify(mockUploadDao).writeValidationStatus(UPLOAD, UploadStatus.SUCCEEDED, ImmutableList.of(), RECORD_ID);
+
+        // verify record is handed off for duplicate detection
+        verify(mockDuplicateDetector).submit(eq(RECORD_ID), any(HealthDataRecordBuilder.class));
     }
 
     private void validateTextAttachment(String expected, String attachmentId) throws Exception {
@@ -19,6 +19,7 @@ import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -588,4 +589,34 @@ public class UploadUtilTest {
         DateTime parsedTimestamp = UploadUtil.parseIosTimestamp("2015-08-26 16:54:04 -0700");
         assertEquals(expectedMillis, parsedTimestamp.getMillis());
     }
+
+    @Test
+    public void looksLikeJson() {
+        // { input, expected }
+        Object[][] testCaseArray = {
+                { null, false },
+                { "", false },
+                { " \n\t ", false },
+                { "{\"key\":\"value\"}", true },
+                { "  [1, 2, 3]", true },
+                { "\"string\"", true },
+                { "-3.5", true },
+                { "42", true },
+                { "true", true },
+                { "false", true },
+                { "null", true },
+                { "\uFEFF{}", true },
+                { "This is not JSON", false },
+                { "<xml/>", false },
+        };
+
+        for (Object[] oneTestCase : testCaseArray) {
+            String input = (String) oneTestCase[0];
+            byte[] data = input != null ? input.getBytes(Charsets.UTF_8) : null;
+            assertEquals("Test case: " + input, oneTestCase[1], UploadUtil.looksLikeJson(data));
+        }
+
+        // binary data (the start of a PNG file)
+        assertFalse(UploadUtil.looksLikeJson(new byte[] { (byte) 0x89, 'P', 'N', 'G' }));
+    }
 }
@@ -0,0 +1,506 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.springframework.core.io.ClassPathResource;
+
+import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
+import org.sagebionetworks.bridge.crypto.CmsEncryptor;
+import org.sagebionetworks.bridge.crypto.PemUtils;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dao.UploadSchemaDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
+import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolder;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.surveys.Survey;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadRequest;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaType;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.services.StudyService;
+import org.sagebionetworks.bridge.services.SurveyService;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
+import org.sagebionetworks.bridge.services.UploadSchemaService;
+
+/**
+ * <p>
+ * Offline benchmark for the upload validation handler chain: S3 download, decrypt, unzip, parse JSON,
+ * IosSchemaValidationHandler2, and StrictValidationHandler. Archives are zipped and CMS-encrypted with
+ * UploadArchiveService, using the test certificate in test/resources/cms. S3, the upload and schema tables, and the
+ * survey and study services are replaced with in-memory stand-ins, so this runs without AWS.
+ * </p>
+ * <p>
+ * For each archive shape, this prints uploads/sec, encrypted MB/sec, and bytes allocated per upload. Everything runs
+ * on one thread, so the numbers are for comparing handler changes against each other, not for capacity planning.
+ * Allocation is only reported on JVMs with per-thread allocation counters (HotSpot).
+ * </p>
+ * <p>
+ * Usage: play "test:run-main org.sagebionetworks.bridge.upload.UploadValidationBenchmark [[iterations] [warmup
+ * iterations]]"
+ * </p>
+ */
+public class UploadValidationBenchmark {
+    private static final int DEFAULT_ITERATIONS = 500;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 200;
+
+    private static final String CREATED_ON_STRING = "2015-04-02T03:26:59.456-07:00";
+    private static final String HEALTH_CODE = "benchmark-health-code";
+    private static final int SCHEMA_REV = 1;
+    private static final StudyIdentifier STUDY_ID = new StudyIdentifierImpl("benchmark-study");
+    private static final String SURVEY_CREATED_ON_STRING = "2016-06-03T16:01:02.003-0700";
+    private static final String SURVEY_GUID = "benchmark-survey-guid";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        int warmupIterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WARMUP_ITERATIONS;
+
+        // Archive shapes, from small and typical to large.
+        List<ArchiveShape> shapeList = ImmutableList.of(makeSurveyShape(), makeRecordFieldsShape(10),
+                makeRecordFieldsShape(200), makeJsonAttachmentShape(1, 1000), makeJsonAttachmentShape(4, 5000));
+
+        // Real archive service, with the test encryption materials.
+        UploadArchiveService archiveService = new UploadArchiveService();
+        archiveService.setCmsEncryptorCache(makeEncryptorCache());
+
+        // In-memory stand-ins.
+        InMemoryS3Helper s3Helper = new InMemoryS3Helper();
+        InMemoryUploadSchemaDao schemaDao = new InMemoryUploadSchemaDao();
+        InMemoryUploadDao uploadDao = new InMemoryUploadDao();
+
+        DynamoSurvey survey = new DynamoSurvey();
+        survey.setCreatedOn(DateTime.parse(SURVEY_CREATED_ON_STRING).getMillis());
+        survey.setGuid(SURVEY_GUID);
+        survey.setIdentifier("survey-schema");
+        survey.setSchemaRevision(SCHEMA_REV);
+        SurveyService surveyService = new SurveyService() {
+            @Override
+            public Survey getSurvey(GuidCreatedOnVersionHolder keys) {
+                return SURVEY_GUID.equals(keys.getGuid()) ? survey : null;
+            }
+        };
+
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier(STUDY_ID.getIdentifier());
+        study.setStrictUploadValidationEnabled(true);
+        StudyService studyService = new StudyService() {
+            @Override
+            public Study getStudy(StudyIdentifier studyId) {
+                return study;
+            }
+        };
+
+        // Real schema service in front of the in-memory DAO, so we exercise the same schema and validator caching
+        // as production.
+        UploadSchemaService schemaService = new UploadSchemaService();
+        schemaService.setUploadSchemaDao(schemaDao);
+
+        // Handler chain.
+        S3DownloadHandler s3DownloadHandler = new S3DownloadHandler();
+        s3DownloadHandler.setS3Helper(s3Helper);
+
+        DecryptHandler decryptHandler = new DecryptHandler();
+        decryptHandler.setUploadArchiveService(archiveService);
+
+        UnzipHandler unzipHandler = new UnzipHandler();
+        unzipHandler.setUploadArchiveService(archiveService);
+
+        IosSchemaValidationHandler2 iosSchemaValidationHandler = new IosSchemaValidationHandler2();
+        iosSchemaValidationHandler.setDefaultSchemaRevisionMap(ImmutableMap.of());
+        // health data dao is only used for getRecordBuilder(), so we can just create one without any dependencies
+        iosSchemaValidationHandler.setHealthDataDao(new DynamoHealthDataDao());
+        iosSchemaValidationHandler.setSurveyService(surveyService);
+        iosSchemaValidationHandler.setUploadSchemaService(schemaService);
+
+        StrictValidationHandler strictValidationHandler = new StrictValidationHandler();
+        strictValidationHandler.setStudyService(studyService);
+        strictValidationHandler.setUploadSchemaService(schemaService);
+
+        // The chain stops before UploadArtifactsHandler, so no record ID is ever set and the duplicate detector is
+        // never called.
+        UploadValidationTaskFactory taskFactory = new UploadValidationTaskFactory();
+        taskFactory.setHandlerList(ImmutableList.of(s3DownloadHandler, decryptHandler, unzipHandler,
+                new ParseJsonHandler(), iosSchemaValidationHandler, strictValidationHandler));
+        taskFactory.setUploadDao(uploadDao);
+
+        System.out.println(String.format("%d iterations, %d warmup iterations", iterations, warmupIterations));
+        System.out.println(String.format("%-24s %10s %10s %10s %10s %14s %8s", "shape", "raw bytes", "enc bytes",
+                "uploads/s", "enc MB/s", "alloc/upload", "failed"));
+        for (ArchiveShape oneShape : shapeList) {
+            // Set up the archive, as the app would have uploaded it.
+            byte[] zipped = archiveService.zip(oneShape.fileMap);
+            byte[] encrypted = archiveService.encrypt(STUDY_ID.getIdentifier(), zipped);
+            s3Helper.put(oneShape.name, encrypted);
+            schemaDao.createSchemaRevision(oneShape.schema);
+
+            DynamoUpload2 upload = new DynamoUpload2();
+            upload.setHealthCode(HEALTH_CODE);
+            upload.setUploadId(oneShape.name);
+
+            // Warm up, then measure.
+            for (int i = 0; i < warmupIterations; i++) {
+                taskFactory.newTask(STUDY_ID, upload).run();
+            }
+            uploadDao.reset();
+
+            long startAllocatedBytes = getAllocatedBytes();
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                taskFactory.newTask(STUDY_ID, upload).run();
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long endAllocatedBytes = getAllocatedBytes();
+
+            double elapsedSeconds = elapsedNanos / 1e9;
+            String allocPerUpload = startAllocatedBytes >= 0 && endAllocatedBytes >= 0 ?
+                    String.valueOf((endAllocatedBytes - startAllocatedBytes) / iterations) : "n/a";
+            System.out.println(String.format("%-24s %10d %10d %10.1f %10.2f %14s %8d", oneShape.name,
+                    oneShape.getRawSize(), encrypted.length, iterations / elapsedSeconds,
+                    encrypted.length * (double) iterations / elapsedSeconds / (1024 * 1024), allocPerUpload,
+                    uploadDao.getCount(UploadStatus.VALIDATION_FAILED)));
+            if (uploadDao.getLastFailureMessageList() != null) {
+                // A failing shape means the benchmark is measuring the error path. Print why, so it can be fixed.
+                System.out.println("    last failure: " + uploadDao.getLastFailureMessageList());
+            }
+        }
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM doesn't support it.
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static LoadingCache<String, CmsEncryptor> makeEncryptorCache() throws Exception {
+        File certFile = new ClassPathResource("/cms/rsacert.pem").getFile();
+        X509Certificate cert = PemUtils.loadCertificateFromPem(new String(Files.readAllBytes(certFile.toPath())));
+        File privateKeyFile = new ClassPathResource("/cms/rsaprivkey.pem").getFile();
+        PrivateKey privateKey = PemUtils.loadPrivateKeyFromPem(new String(Files.readAllBytes(
+                privateKeyFile.toPath())));
+        CmsEncryptor encryptor = new BcCmsEncryptor(cert, privateKey);
+
+        return CacheBuilder.newBuilder().build(new CacheLoader<String, CmsEncryptor>() {
+            @Override
+            public CmsEncryptor load(String studyId) {
+                return encryptor;
+            }
+        });
+    }
+
+    // Small survey with two answers. This is the most common kind of upload.
+    private static ArchiveShape makeSurveyShape() {
+        UploadSchema schema = makeSchema("survey-schema", UploadSchemaType.IOS_SURVEY, ImmutableList.of(
+                new UploadFieldDefinition.Builder().withName("AAA").withType(UploadFieldType.SINGLE_CHOICE).build(),
+                new UploadFieldDefinition.Builder().withName("BBB").withType(UploadFieldType.MULTI_CHOICE)
+                        .withMultiChoiceAnswerList("fencing", "football", "running", "swimming").build()));
+        schema.setSurveyGuid(SURVEY_GUID);
+        schema.setSurveyCreatedOn(DateTime.parse(SURVEY_CREATED_ON_STRING).getMillis());
+
+        ObjectNode infoJson = makeInfoJson(ImmutableList.of("AAA.json", "BBB.json"));
+        infoJson.put("surveyGuid", SURVEY_GUID);
+        infoJson.put("surveyCreatedOn", SURVEY_CREATED_ON_STRING);
+
+        Map<String, byte[]> fileMap = new LinkedHashMap<>();
+        fileMap.put("info.json", toBytes(infoJson));
+        fileMap.put("AAA.json", toBytes(makeSurveyAnswer("AAA", "Yes")));
+        fileMap.put("BBB.json", toBytes(makeSurveyAnswer("BBB", "fencing", "running")));
+        return new ArchiveShape("survey", schema, fileMap);
+    }
+
+    // Single record.json with the given number of scalar fields, cycling through common field types.
+    private static ArchiveShape makeRecordFieldsShape(int numFields) {
+        String schemaId = "record-fields-" + numFields;
+        List<UploadFieldDefinition> fieldDefList = new ArrayList<>();
+        ObjectNode recordJson = BridgeObjectMapper.get().createObjectNode();
+        for (int i = 0; i < numFields; i++) {
+            String key = "field" + i;
+            UploadFieldType type;
+            switch (i % 4) {
+                case 0:
+                    type = UploadFieldType.INT;
+                    recordJson.put(key, i);
+                    break;
+                case 1:
+                    type = UploadFieldType.FLOAT;
+                    recordJson.put(key, i + 0.5);
+                    break;
+                case 2:
+                    type = UploadFieldType.STRING;
+                    recordJson.put(key, "value " + i);
+                    break;
+                default:
+                    type = UploadFieldType.BOOLEAN;
+                    recordJson.put(key, i % 2 == 0);
+                    break;
+            }
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("record.json." + key).withType(type)
+                    .build());
+        }
+
+        ObjectNode infoJson = makeInfoJson(ImmutableList.of("record.json"));
+        infoJson.put("item", schemaId);
+        infoJson.put("schemaRevision", SCHEMA_REV);
+
+        Map<String, byte[]> fileMap = new LinkedHashMap<>();
+        fileMap.put("info.json", toBytes(infoJson));
+        fileMap.put("record.json", toBytes(recordJson));
+        return new ArchiveShape(schemaId, makeSchema(schemaId, UploadSchemaType.IOS_DATA, fieldDefList), fileMap);
+    }
+
+    // JSON attachment files with the given number of motion samples each, like an activity with sensor recordings.
+    private static ArchiveShape makeJsonAttachmentShape(int numFiles, int numSamples) {
+        String schemaId = "json-attachments-" + numFiles + "x" + numSamples;
+        List<UploadFieldDefinition> fieldDefList = new ArrayList<>();
+        List<String> filenameList = new ArrayList<>();
+        Map<String, byte[]> fileMap = new LinkedHashMap<>();
+        for (int i = 0; i < numFiles; i++) {
+            String filename = "motion" + i + ".json";
+            filenameList.add(filename);
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName(filename)
+                    .withType(UploadFieldType.ATTACHMENT_V2).build());
+
+            ArrayNode sampleArray = BridgeObjectMapper.get().createArrayNode();
+            for (int j = 0; j < numSamples; j++) {
+                ObjectNode sample = sampleArray.addObject();
+                sample.put("timestamp", j * 0.01);
+                sample.put("x", Math.sin(j));
+                sample.put("y", Math.cos(j));
+                sample.put("z", -0.98 + j % 7 * 0.001);
+            }
+            fileMap.put(filename, toBytes(sampleArray));
+        }
+
+        ObjectNode infoJson = makeInfoJson(filenameList);
+        infoJson.put("item", schemaId);
+        infoJson.put("schemaRevision", SCHEMA_REV);
+        fileMap.put("info.json", toBytes(infoJson));
+        return new ArchiveShape(schemaId, makeSchema(schemaId, UploadSchemaType.IOS_DATA, fieldDefList), fileMap);
+    }
+
+    private static UploadSchema makeSchema(String schemaId, UploadSchemaType schemaType,
+            List<UploadFieldDefinition> fieldDefList) {
+        UploadSchema schema = UploadSchema.create();
+        schema.setFieldDefinitions(fieldDefList);
+        schema.setName(schemaId);
+        schema.setPublished(true);
+        schema.setRevision(SCHEMA_REV);
+        schema.setSchemaId(schemaId);
+        schema.setSchemaType(schemaType);
+        schema.setStudyId(STUDY_ID.getIdentifier());
+        return schema;
+    }
+
+    private static ObjectNode makeInfoJson(List<String> filenameList) {
+        ObjectNode infoJson = BridgeObjectMapper.get().createObjectNode();
+        ArrayNode filesArray = infoJson.putArray("files");
+        for (String oneFilename : filenameList) {
+            ObjectNode fileNode = filesArray.addObject();
+            fileNode.put("filename", oneFilename);
+            fileNode.put("timestamp", CREATED_ON_STRING);
+        }
+        infoJson.put("appVersion", "version 1.0.0, build 1");
+        infoJson.put("phoneInfo", "Benchmark Hardware");
+        return infoJson;
+    }
+
+    private static ObjectNode makeSurveyAnswer(String item, String... choiceAnswers) {
+        ObjectNode answer = BridgeObjectMapper.get().createObjectNode();
+        answer.put("questionType", 0);
+        ArrayNode choiceAnswersArray = answer.putArray("choiceAnswers");
+        for (String oneChoiceAnswer : choiceAnswers) {
+            choiceAnswersArray.add(oneChoiceAnswer);
+        }
+        answer.put("startDate", "2015-04-02T03:26:57-07:00");
+        answer.put("questionTypeName", "MultipleChoice");
+        answer.put("item", item);
+        answer.put("endDate", "2015-04-02T03:26:59-07:00");
+        return answer;
+    }
+
+    private static byte[] toBytes(JsonNode jsonNode) {
+        return jsonNode.toString().getBytes(Charsets.UTF_8);
+    }
+
+    // One kind of upload archive, with the schema that validates it.
+    private static class ArchiveShape {
+        final String name;
+        final UploadSchema schema;
+        final Map<String, byte[]> fileMap;
+
+        ArchiveShape(String name, UploadSchema schema, Map<String, byte[]> fileMap) {
+            this.name = name;
+            this.schema = schema;
+            this.fileMap = fileMap;
+        }
+
+        int getRawSize() {
+            int size = 0;
+            for (byte[] oneFile : fileMap.values()) {
+                size += oneFile.length;
+            }
+            return size;
+        }
+    }
+
+    // S3 stand-in. Serves encrypted archives from memory.
+    private static class InMemoryS3Helper extends S3Helper {
+        private final Map<String, byte[]> objectMap = new HashMap<>();
+
+        void put(String key, byte[] bytes) {
+            objectMap.put(key, bytes);
+        }
+
+        @Override
+        public byte[] readS3FileAsBytes(String bucket, String key) throws IOException {
+            byte[] bytes = objectMap.get(key);
+            if (bytes == null) {
+                throw new IOException("No object for key " + key);
+            }
+            return bytes;
+        }
+    }
+
+    // Schema table stand-in. Only what the schema service needs for upload validation is supported.
+    private static class InMemoryUploadSchemaDao implements UploadSchemaDao {
+        private final Map<String, UploadSchema> schemaMap = new HashMap<>();
+
+        @Override
+        public UploadSchema createSchemaRevision(UploadSchema schema) {
+            schemaMap.put(schema.getSchemaId() + ":" + schema.getRevision(), schema);
+            return schema;
+        }
+
+        @Override
+        public void deleteUploadSchemas(List<UploadSchema> schemaList) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<UploadSchema> getAllUploadSchemasAllRevisions(StudyIdentifier studyId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<UploadSchema> getUploadSchemaAllRevisionsById(StudyIdentifier studyId, String schemaId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UploadSchema getUploadSchemaByIdAndRevision(StudyIdentifier studyId, String schemaId, int revision) {
+            return schemaMap.get(schemaId + ":" + revision);
+        }
+
+        @Override
+        public UploadSchema getUploadSchemaLatestRevisionById(StudyIdentifier studyId, String schemaId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UploadSchema updateSchemaRevision(UploadSchema schema) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // Upload table stand-in. Counts validation statuses, so we can tell if a shape is failing validation.
+    private static class InMemoryUploadDao implements UploadDao {
+        private final Map<UploadStatus, Integer> statusCountMap = new EnumMap<>(UploadStatus.class);
+        private List<String> lastFailureMessageList;
+
+        int getCount(UploadStatus status) {
+            return statusCountMap.getOrDefault(status, 0);
+        }
+
+        List<String> getLastFailureMessageList() {
+            return lastFailureMessageList;
+        }
+
+        void reset() {
+            statusCountMap.clear();
+            lastFailureMessageList = null;
+        }
+
+        @Override
+        public void writeValidationStatus(Upload upload, UploadStatus status, List<String> validationMessageList,
+                String recordId) {
+            statusCountMap.merge(status, 1, Integer::sum);
+            if (status == UploadStatus.VALIDATION_FAILED) {
+                lastFailureMessageList = validationMessageList;
+            }
+        }
+
+        @Override
+        public Upload createUpload(UploadRequest uploadRequest, StudyIdentifier studyId, String healthCode,
+                String originalUploadId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Upload getUpload(String uploadId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ForwardCursorPagedResourceList<Upload> getUploads(String healthCode, DateTime startTime,
+                DateTime endTime, int pageSize, String offsetKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ForwardCursorPagedResourceList<Upload> getStudyUploads(StudyIdentifier studyId, DateTime startTime,
+                DateTime endTime, int pageSize, String offsetKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void uploadComplete(UploadCompletionClient completedBy, Upload upload) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteUploadsForHealthCode(String healthCode) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteUploadsForHealthCode(String healthCode, Runnable onPageDeleted) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
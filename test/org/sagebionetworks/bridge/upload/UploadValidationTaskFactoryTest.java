@@ -10,7 +10,6 @@ import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadDao;
-import org.sagebionetworks.bridge.services.HealthDataService;
 
 public class UploadValidationTaskFactoryTest {
     @Test
@@ -18,13 +17,13 @@ public class UploadValidationTaskFactoryTest {
         // test dao and handlers
         List<UploadValidationHandler> handlerList = Collections.emptyList();
         DynamoUploadDao dao = new DynamoUploadDao();
-        HealthDataService healthDataService = new HealthDataService();
+        UploadDuplicateDetector duplicateDetector = new UploadDuplicateDetector();
 
         // set up task factory
         UploadValidationTaskFactory taskFactory = new UploadValidationTaskFactory();
         taskFactory.setHandlerList(handlerList);
         taskFactory.setUploadDao(dao);
-        taskFactory.setHealthDataService(healthDataService);
+        taskFactory.setDuplicateDetector(duplicateDetector);
 
         // inputs
         DynamoStudy study = TestUtils.getValidStudy(UploadValidationTaskFactoryTest.class);
@@ -36,6 +35,6 @@ public class UploadValidationTaskFactoryTest {
         assertSame(upload2, task.getContext().getUpload());
         assertSame(handlerList, task.getHandlerList());
         assertSame(dao, task.getUploadDao());
-        assertSame(healthDataService, task.getHealthDataService());
+        assertSame(duplicateDetector, task.getDuplicateDetector());
     }
 }
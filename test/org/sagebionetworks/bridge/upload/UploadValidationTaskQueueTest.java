@@ -0,0 +1,206 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+public class UploadValidationTaskQueueTest {
+    private static final String STUDY_A = "study-a";
+    private static final String STUDY_B = "study-b";
+
+    // Tasks handed to the mock thread pool, in order. Tests run these manually to simulate tasks finishing.
+    private List<Runnable> executedList;
+    // Names of tasks that have actually run, in order.
+    private List<String> ranList;
+    private ExecutorService mockExecutor;
+    private int maxStudyQueueSize;
+
+    @Before
+    public void setup() {
+        maxStudyQueueSize = 100;
+        executedList = new ArrayList<>();
+        ranList = new ArrayList<>();
+
+        mockExecutor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            executedList.add(invocation.getArgumentAt(0, Runnable.class));
+            return null;
+        }).when(mockExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void studiesTakeTurns() {
+        UploadValidationTaskQueue queue = makeQueue(1, 10, ImmutableList.of(), ImmutableList.of());
+
+        // Study A floods the queue, then study B submits one task.
+        for (int i = 1; i <= 5; i++) {
+            queue.submit(STUDY_A, namedTask("A" + i));
+        }
+        queue.submit(STUDY_B, namedTask("B1"));
+
+        runAll();
+
+        // B1 doesn't have to wait behind all of study A's tasks.
+        assertEquals(ImmutableList.of("A1", "A2", "B1", "A3", "A4", "A5"), ranList);
+    }
+
+    @Test
+    public void weightedTurns() {
+        UploadValidationTaskQueue queue = makeQueue(1, 10, ImmutableList.of(), ImmutableList.of(STUDY_B + ":2"));
+
+        queue.submit(STUDY_A, namedTask("A1"));
+        queue.submit(STUDY_A, namedTask("A2"));
+        queue.submit(STUDY_A, namedTask("A3"));
+        queue.submit(STUDY_B, namedTask("B1"));
+        queue.submit(STUDY_B, namedTask("B2"));
+        queue.submit(STUDY_B, namedTask("B3"));
+
+        runAll();
+
+        // Study B gets two tasks per turn.
+        assertEquals(ImmutableList.of("A1", "A2", "B1", "B2", "A3", "B3"), ranList);
+    }
+
+    @Test
+    public void perStudyConcurrencyCap() {
+        UploadValidationTaskQueue queue = makeQueue(3, 10, ImmutableList.of(STUDY_A + ":1"), ImmutableList.of());
+
+        queue.submit(STUDY_A, namedTask("A1"));
+        queue.submit(STUDY_A, namedTask("A2"));
+        queue.submit(STUDY_B, namedTask("B1"));
+
+        // A is capped at 1, so only A1 and B1 are dispatched, even though there's a free thread.
+        assertEquals(2, executedList.size());
+        assertEquals(1, queue.getPendingCount());
+        Map<String, Map<String, Long>> metrics = queue.getMetrics();
+        assertEquals(1L, metrics.get(STUDY_A).get("pending").longValue());
+        assertEquals(1L, metrics.get(STUDY_A).get("running").longValue());
+        assertEquals(1L, metrics.get(STUDY_B).get("running").longValue());
+
+        runAll();
+        assertEquals(ImmutableList.of("A1", "B1", "A2"), ranList);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void neverExceedsThreadCount() {
+        UploadValidationTaskQueue queue = makeQueue(2, 10, ImmutableList.of(), ImmutableList.of());
+
+        queue.submit(STUDY_A, namedTask("A1"));
+        queue.submit(STUDY_A, namedTask("A2"));
+        queue.submit(STUDY_B, namedTask("B1"));
+        assertEquals(2, executedList.size());
+    }
+
+    @Test
+    public void fullStudyQueueRejects() {
+        maxStudyQueueSize = 2;
+        UploadValidationTaskQueue queue = makeQueue(1, 10, ImmutableList.of(), ImmutableList.of());
+
+        // A1 runs right away. A2 and A3 fill study A's queue, so A4 is rejected. Study B has its own queue.
+        assertTrue(queue.submit(STUDY_A, namedTask("A1")));
+        assertTrue(queue.submit(STUDY_A, namedTask("A2")));
+        assertTrue(queue.submit(STUDY_A, namedTask("A3")));
+        assertFalse(queue.submit(STUDY_A, namedTask("A4")));
+        assertTrue(queue.submit(STUDY_B, namedTask("B1")));
+
+        Map<String, Long> studyAMetrics = queue.getMetrics().get(STUDY_A);
+        assertEquals(3L, studyAMetrics.get("submitted").longValue());
+        assertEquals(1L, studyAMetrics.get("rejected").longValue());
+
+        runAll();
+        assertEquals(ImmutableList.of("A1", "A2", "B1", "A3"), ranList);
+
+        // Room again once the queue drains.
+        assertTrue(queue.submit(STUDY_A, namedTask("A5")));
+    }
+
+    @Test
+    public void slotReleasedWhenTaskThrows() {
+        UploadValidationTaskQueue queue = makeQueue(1, 10, ImmutableList.of(), ImmutableList.of());
+
+        queue.submit(STUDY_A, () -> {
+            throw new RuntimeException("test exception");
+        });
+        queue.submit(STUDY_A, namedTask("A2"));
+
+        try {
+            executedList.remove(0).run();
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        runAll();
+        assertEquals(ImmutableList.of("A2"), ranList);
+
+        Map<String, Long> studyAMetrics = queue.getMetrics().get(STUDY_A);
+        assertEquals(2L, studyAMetrics.get("submitted").longValue());
+        assertEquals(2L, studyAMetrics.get("completed").longValue());
+        assertEquals(0L, studyAMetrics.get("running").longValue());
+        assertEquals(0L, studyAMetrics.get("pending").longValue());
+    }
+
+    @Test
+    public void scheduleMetrics() {
+        ScheduledExecutorService mockScheduledExecutor = mock(ScheduledExecutorService.class);
+        UploadValidationTaskQueue queue = makeQueue(1, 10, ImmutableList.of(), ImmutableList.of());
+        queue.setScheduledExecutorService(mockScheduledExecutor);
+
+        queue.scheduleMetrics();
+        verify(mockScheduledExecutor).scheduleAtFixedRate(any(Runnable.class), eq(60L), eq(60L),
+                eq(TimeUnit.SECONDS));
+
+        // Smoke test logging.
+        queue.submit(STUDY_A, namedTask("A1"));
+        queue.logMetrics();
+    }
+
+    private UploadValidationTaskQueue makeQueue(int threadCount, int defaultStudyConcurrency,
+            List<String> concurrencyOverrides, List<String> weights) {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(UploadValidationTaskQueue.CONFIG_KEY_THREAD_COUNT)).thenReturn(threadCount);
+        when(mockConfig.getPropertyAsInt(UploadValidationTaskQueue.CONFIG_KEY_DEFAULT_STUDY_CONCURRENCY))
+                .thenReturn(defaultStudyConcurrency);
+        when(mockConfig.getPropertyAsInt(UploadValidationTaskQueue.CONFIG_KEY_METRICS_INTERVAL_SECONDS))
+                .thenReturn(60);
+        when(mockConfig.getPropertyAsInt(UploadValidationTaskQueue.CONFIG_KEY_STUDY_MAX_QUEUE_SIZE)).thenReturn(
+                maxStudyQueueSize);
+        when(mockConfig.getPropertyAsList(UploadValidationTaskQueue.CONFIG_KEY_STUDY_CONCURRENCY_OVERRIDES))
+                .thenReturn(concurrencyOverrides);
+        when(mockConfig.getPropertyAsList(UploadValidationTaskQueue.CONFIG_KEY_STUDY_WEIGHTS)).thenReturn(weights);
+
+        UploadValidationTaskQueue queue = new UploadValidationTaskQueue();
+        queue.setAsyncExecutorService(mockExecutor);
+        queue.setConfig(mockConfig);
+        return queue;
+    }
+
+    private Runnable namedTask(String name) {
+        return () -> ranList.add(name);
+    }
+
+    // Runs dispatched tasks one at a time, in dispatch order, until nothing is left.
+    private void runAll() {
+        while (!executedList.isEmpty()) {
+            executedList.remove(0).run();
+        }
+    }
+}
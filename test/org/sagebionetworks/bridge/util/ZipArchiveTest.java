@@ -0,0 +1,146 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class ZipArchiveTest {
+    private static final Zipper ZIPPER = new Zipper(100000, 20);
+
+    @Test
+    public void readEntries() throws Exception {
+        Map<String, byte[]> dataMap = makeDataMap();
+        ZipArchive archive = new ZipArchive(ZIPPER.zip(dataMap), 100000, 20);
+
+        assertEquals(dataMap.keySet(), archive.getEntryNames());
+        assertEquals(50000, archive.getEntrySize("big"));
+        assertEquals(-1, archive.getEntrySize("not-found"));
+        assertNull(archive.getEntryBytes("not-found"));
+        for (Map.Entry<String, byte[]> oneData : dataMap.entrySet()) {
+            assertArrayEquals(oneData.getValue(), archive.getEntryBytes(oneData.getKey()));
+        }
+    }
+
+    @Test
+    public void lazyMap() throws Exception {
+        Map<String, byte[]> dataMap = makeDataMap();
+        Map<String, byte[]> lazyMap = new ZipArchive(ZIPPER.zip(dataMap), 100000, 20).asLazyMap();
+        assertEquals(4, lazyMap.size());
+
+        // Remove entries through the iterator, like ParseJsonHandler does.
+        Iterator<Map.Entry<String, byte[]>> lazyIter = lazyMap.entrySet().iterator();
+        while (lazyIter.hasNext()) {
+            Map.Entry<String, byte[]> oneEntry = lazyIter.next();
+            if (oneEntry.getKey().startsWith("foo")) {
+                lazyIter.remove();
+            }
+        }
+        assertEquals(2, lazyMap.size());
+        assertFalse(lazyMap.containsKey("foo1"));
+
+        // Remove and put, like filename normalization in IosSchemaValidationHandler2 does.
+        byte[] bigData = lazyMap.remove("big");
+        assertArrayEquals(dataMap.get("big"), bigData);
+        lazyMap.put("renamed-big", bigData);
+
+        assertEquals(2, lazyMap.size());
+        assertArrayEquals(dataMap.get("empty"), lazyMap.get("empty"));
+        assertArrayEquals(dataMap.get("big"), lazyMap.get("renamed-big"));
+    }
+
+    @Test
+    public void lazyMapOnlyInflatesEntriesThatAreRead() throws Exception {
+        // Corrupt the compressed data of the first entry. Its local header is 30 bytes, plus the 4-byte filename.
+        byte[] zipped = ZIPPER.zip(makeDataMap());
+        zipped[35] ^= 0xFF;
+
+        // Removing through the iterator doesn't inflate the entry.
+        Map<String, byte[]> lazyMap = new ZipArchive(zipped, 100000, 20).asLazyMap();
+        Iterator<Map.Entry<String, byte[]>> lazyIter = lazyMap.entrySet().iterator();
+        while (lazyIter.hasNext()) {
+            if (lazyIter.next().getKey().equals("foo1")) {
+                lazyIter.remove();
+            }
+        }
+        assertFalse(lazyMap.containsKey("foo1"));
+
+        // Neither does replacing the entry.
+        lazyMap = new ZipArchive(zipped, 100000, 20).asLazyMap();
+        assertNull(lazyMap.put("foo1", "replaced data".getBytes()));
+        assertArrayEquals("replaced data".getBytes(), lazyMap.get("foo1"));
+
+        // Map.remove() returns the value, so it inflates the entry.
+        lazyMap = new ZipArchive(zipped, 100000, 20).asLazyMap();
+        try {
+            lazyMap.remove("foo1");
+            fail("expected exception");
+        } catch (UncheckedIOException ex) {
+            assertTrue(ex.getCause() instanceof ZipException);
+        }
+    }
+
+    @Test(expected = ZipOverflowException.class)
+    public void tooManyEntries() throws Exception {
+        new ZipArchive(ZIPPER.zip(makeDataMap()), 100000, 3);
+    }
+
+    @Test(expected = ZipOverflowException.class)
+    public void declaredEntryTooBig() throws Exception {
+        new ZipArchive(ZIPPER.zip(makeDataMap()), 1000, 20);
+    }
+
+    @Test(expected = ZipException.class)
+    public void notAZipFile() throws Exception {
+        new ZipArchive("This is not a zip file".getBytes(), 100, 20);
+    }
+
+    @Test
+    public void entryLargerThanDeclared() throws Exception {
+        Map<String, byte[]> dataMap = new LinkedHashMap<>();
+        dataMap.put("foo", new byte[1000]);
+        byte[] zipped = ZIPPER.zip(dataMap);
+
+        // Patch the central directory so it declares a smaller uncompressed size than the real data.
+        ByteBuffer buffer = ByteBuffer.wrap(zipped).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = zipped.length - 4; i >= 0; i--) {
+            if (buffer.getInt(i) == 0x02014b50) {
+                buffer.putInt(i + 24, 10);
+                break;
+            }
+        }
+
+        ZipArchive archive = new ZipArchive(zipped, 100, 20);
+        try {
+            archive.getEntryBytes("foo");
+            fail("expected exception");
+        } catch (ZipException ex) {
+            assertTrue(ex.getMessage().contains("longer than its declared size"));
+        }
+    }
+
+    private static Map<String, byte[]> makeDataMap() {
+        byte[] bigData = new byte[50000];
+        new Random(1).nextBytes(bigData);
+
+        Map<String, byte[]> dataMap = new LinkedHashMap<>();
+        dataMap.put("foo1", "foo1 data".getBytes());
+        dataMap.put("foo2", "foo2 data".getBytes());
+        dataMap.put("big", bigData);
+        dataMap.put("empty", new byte[0]);
+        return dataMap;
+    }
+}
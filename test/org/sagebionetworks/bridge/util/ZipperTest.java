@@ -1,11 +1,20 @@
 package org.sagebionetworks.bridge.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
 public class ZipperTest {
@@ -31,6 +40,93 @@ public class ZipperTest {
         zipper.unzip(zipped);
     }
 
+    @Test
+    public void zipWritesCentralDirectory() throws Exception {
+        // ZipArchive reads the central directory, so this fails if zip() doesn't finish the zip file.
+        Zipper zipper = new Zipper(10, 20);
+        byte[] zipped = zipper.zip(ImmutableMap.of("foo", "foo-data".getBytes(), "bar", "bar-data".getBytes()));
+
+        ZipArchive archive = zipper.openArchive(zipped);
+        assertEquals(ImmutableSet.of("foo", "bar"), archive.getEntryNames());
+        assertArrayEquals("foo-data".getBytes(), archive.getEntryBytes("foo"));
+        assertArrayEquals("bar-data".getBytes(), archive.getEntryBytes("bar"));
+    }
+
+    @Test
+    public void pooledBufferIsReused() throws Exception {
+        Zipper zipper = new Zipper(10, 20);
+        Map<String, byte[]> firstDataMap = zipper.unzip(zipper.zip(ImmutableMap.of("foo", "first".getBytes())));
+        byte[] pooledBuffer = Zipper.getPooledBuffer();
+
+        Map<String, byte[]> secondDataMap = zipper.unzip(zipper.zip(ImmutableMap.of("foo", "second".getBytes())));
+        assertSame(pooledBuffer, Zipper.getPooledBuffer());
+
+        // Entries are copied out of the pooled buffer, so reusing it doesn't change earlier results.
+        assertEquals("first", new String(firstDataMap.get("foo")));
+        assertEquals("second", new String(secondDataMap.get("foo")));
+    }
+
+    @Test
+    public void oversizedPooledBufferIsDropped() throws Exception {
+        Zipper zipper = new Zipper(Zipper.MAX_POOLED_BUFFER_SIZE * 2, 20);
+        byte[] pooledBuffer = Zipper.getPooledBuffer();
+
+        byte[] bigData = new byte[Zipper.MAX_POOLED_BUFFER_SIZE + 1];
+        Map<String, byte[]> dataMap = zipper.unzip(zipper.zip(ImmutableMap.of("big", bigData)));
+        assertEquals(bigData.length, dataMap.get("big").length);
+
+        // The next call gets a new, small buffer.
+        byte[] newPooledBuffer = Zipper.getPooledBuffer();
+        assertNotSame(pooledBuffer, newPooledBuffer);
+        assertTrue(newPooledBuffer.length <= Zipper.MAX_POOLED_BUFFER_SIZE);
+    }
+
+    @Test
+    public void unzipToByteBuffers() throws Exception {
+        Zipper zipper = new Zipper(10, 20);
+        byte[] zipped = zipper.zip(ImmutableMap.of("foo", "foo-data".getBytes(), "bar", "bar-data".getBytes(),
+                "empty", new byte[0]));
+
+        Map<String, ByteBuffer> bufferMap = zipper.unzipToByteBuffers(zipped);
+        assertEquals(ImmutableSet.of("foo", "bar", "empty"), bufferMap.keySet());
+        assertEquals("foo-data", toString(bufferMap.get("foo")));
+        assertEquals("bar-data", toString(bufferMap.get("bar")));
+        assertEquals(0, bufferMap.get("empty").remaining());
+
+        // Views are read-only, and each starts at position 0 of its own entry.
+        ByteBuffer fooBuffer = bufferMap.get("foo");
+        assertTrue(fooBuffer.isReadOnly());
+        assertEquals(0, fooBuffer.position());
+        try {
+            fooBuffer.put(0, (byte) 0);
+            fail("expected exception");
+        } catch (ReadOnlyBufferException ex) {
+            // expected exception
+        }
+
+        // The backing array is copied out of the pooled buffer, so reusing it doesn't change earlier results.
+        zipper.unzip(zipper.zip(ImmutableMap.of("foo", "changed".getBytes())));
+        assertEquals("foo-data", toString(bufferMap.get("foo")));
+    }
+
+    @Test(expected=ZipOverflowException.class)
+    public void unzipToByteBuffersTooManyEntries() throws Exception {
+        Zipper zipper = new Zipper(10, 1);
+        zipper.unzipToByteBuffers(zipper.zip(ImmutableMap.of("foo", "foo".getBytes(), "bar", "bar".getBytes())));
+    }
+
+    @Test(expected=ZipOverflowException.class)
+    public void unzipToByteBuffersEntryTooBig() throws Exception {
+        Zipper zipper = new Zipper(2, 20);
+        zipper.unzipToByteBuffers(zipper.zip(ImmutableMap.of("foo", "aaa".getBytes())));
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes);
+    }
+
     private void zipUnzip(final Zipper zipper, final int numEntries) throws Exception {
         Map<String, byte[]> dataMap = new HashMap<>();
         for (int i = 0; i < numEntries; i++) {